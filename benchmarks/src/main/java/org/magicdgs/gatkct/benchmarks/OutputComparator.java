@@ -0,0 +1,289 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare two sorted text outputs of a tool (VCF or BED, plain or block compressed) record by record, reporting every
+ * difference with its locus
+ *
+ * <p>
+ * The header lines (starting with '#') are not compared, because they contain the command line of the run, except the
+ * columns of the #CHROM line (e.g., the order of the samples). The
+ * records are merged by locus (contig in the dataset order and position in the second column), and the records at the
+ * same locus are compared in the order of the file. For VCF files, the differing columns are reported with the names
+ * in the #CHROM line (e.g., the sample names). The position reported for BED files is 1-based, as in the VCF files.
+ * </p>
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class OutputComparator {
+
+	private final Map<String, Integer> contigIndexes;
+
+	private final int maxReported;
+
+	/**
+	 * Result of a comparison
+	 */
+	static final class Comparison {
+
+		/**
+		 * Number of records in the expected output
+		 */
+		long expectedRecords = 0;
+
+		/**
+		 * Number of records in the actual output
+		 */
+		long actualRecords = 0;
+
+		/**
+		 * Number of differences (missing, extra, unsorted or different records)
+		 */
+		long differences = 0;
+
+		/**
+		 * The first differences, with their locus
+		 */
+		final List<String> reported = new ArrayList<>();
+
+		/**
+		 * Check if the outputs are identical
+		 *
+		 * @return {@code true} if there are no differences; {@code false} otherwise
+		 */
+		boolean isIdentical() {
+			return differences == 0;
+		}
+	}
+
+	/**
+	 * Create a comparator for outputs in a dataset
+	 *
+	 * @param contigs     the contigs, in the order of the sequence dictionary
+	 * @param maxReported the maximum number of differences to report (all of them are counted)
+	 */
+	OutputComparator(final List<String> contigs, final int maxReported) {
+		this.contigIndexes = new HashMap<>(contigs.size());
+		for (final String contig : contigs) {
+			contigIndexes.put(contig, contigIndexes.size());
+		}
+		this.maxReported = maxReported;
+	}
+
+	/**
+	 * Compare two outputs
+	 *
+	 * @param expected the expected output (e.g., from a single-threaded run)
+	 * @param actual   the output to check
+	 *
+	 * @return the result of the comparison
+	 */
+	Comparison compare(final File expected, final File actual) {
+		final Comparison comparison = new Comparison();
+		try (RecordReader expectedReader = new RecordReader(expected);
+			 RecordReader actualReader = new RecordReader(actual)) {
+			Record expectedRecord = next(expectedReader, comparison);
+			Record actualRecord = next(actualReader, comparison);
+			// the header is read before the first record
+			if (!expectedReader.columnNames.equals(actualReader.columnNames)) {
+				report(comparison, "#CHROM line: expected columns " + expectedReader.columnNames + " but found " + actualReader.columnNames);
+			}
+			while (expectedRecord != null || actualRecord != null) {
+				final int cmp = (expectedRecord == null) ? 1 : (actualRecord == null) ? -1 : expectedRecord.compareLocus(actualRecord);
+				if (cmp < 0) {
+					report(comparison, expectedRecord.getLocus() + " missing record: " + expectedRecord.line);
+					comparison.expectedRecords++;
+					expectedRecord = next(expectedReader, comparison);
+				} else if (cmp > 0) {
+					report(comparison, actualRecord.getLocus() + " extra record: " + actualRecord.line);
+					comparison.actualRecords++;
+					actualRecord = next(actualReader, comparison);
+				} else {
+					if (!expectedRecord.line.equals(actualRecord.line)) {
+						report(comparison, expectedRecord.getLocus() + " " + describeDifference(expectedRecord, actualRecord));
+					}
+					comparison.expectedRecords++;
+					comparison.actualRecords++;
+					expectedRecord = next(expectedReader, comparison);
+					actualRecord = next(actualReader, comparison);
+				}
+			}
+		} catch (IOException e) {
+			throw new UserException.CouldNotReadInputFile(actual, "could not compare with " + expected, e);
+		}
+		return comparison;
+	}
+
+	/**
+	 * Get the next record, reporting it if it is not sorted after the previous one
+	 */
+	private Record next(final RecordReader reader, final Comparison comparison) throws IOException {
+		final Record record = reader.next();
+		if (record != null && reader.previous != null && record.compareLocus(reader.previous) < 0) {
+			report(comparison, record.getLocus() + " unsorted record after " + reader.previous.getLocus() + " in " + reader.file);
+		}
+		reader.previous = record;
+		return record;
+	}
+
+	private void report(final Comparison comparison, final String difference) {
+		comparison.differences++;
+		if (comparison.reported.size() < maxReported) {
+			comparison.reported.add(difference);
+		}
+	}
+
+	/**
+	 * Describe the differing columns of two records at the same locus
+	 */
+	private static String describeDifference(final Record expected, final Record actual) {
+		final int columns = Math.max(expected.fields.length, actual.fields.length);
+		final List<String> differing = new ArrayList<>();
+		String firstExpected = null;
+		String firstActual = null;
+		for (int i = 0; i < columns; i++) {
+			final String expectedValue = (i < expected.fields.length) ? expected.fields[i] : "";
+			final String actualValue = (i < actual.fields.length) ? actual.fields[i] : "";
+			if (!expectedValue.equals(actualValue)) {
+				differing.add(expected.getColumnName(i));
+				if (firstExpected == null) {
+					firstExpected = expectedValue;
+					firstActual = actualValue;
+				}
+			}
+		}
+		return String.format("different %s: expected '%s' but found '%s'%s", differing.get(0), firstExpected, firstActual,
+			(differing.size() == 1) ? "" : " (also different: " + String.join(",", differing.subList(1, differing.size())) + ")");
+	}
+
+	/**
+	 * Record in a text output
+	 */
+	private final class Record {
+
+		private final String line;
+
+		private final String[] fields;
+
+		private final int contigIndex;
+
+		private final long position;
+
+		// names of the columns from the #CHROM line; empty for files without it
+		private final List<String> columnNames;
+
+		private Record(final File file, final String line, final List<String> columnNames) {
+			this.line = line;
+			this.fields = line.split("\t", -1);
+			this.columnNames = columnNames;
+			if (fields.length < 2) {
+				throw new UserException.MalformedFile(file, "expected at least contig and position: " + line);
+			}
+			final Integer index = contigIndexes.get(fields[0]);
+			if (index == null) {
+				throw new UserException.MalformedFile(file, "contig not in the dataset: " + line);
+			}
+			this.contigIndex = index;
+			try {
+				// BED positions are 0-based
+				this.position = Long.parseLong(fields[1]) + ((columnNames.isEmpty()) ? 1 : 0);
+			} catch (NumberFormatException e) {
+				throw new UserException.MalformedFile(file, "position is not a number: " + line);
+			}
+		}
+
+		private int compareLocus(final Record other) {
+			final int cmp = Integer.compare(contigIndex, other.contigIndex);
+			return (cmp != 0) ? cmp : Long.compare(position, other.position);
+		}
+
+		private String getLocus() {
+			return fields[0] + ":" + position;
+		}
+
+		private String getColumnName(final int column) {
+			return (column < columnNames.size()) ? columnNames.get(column) : "column " + (column + 1);
+		}
+	}
+
+	/**
+	 * Reader for the records of a plain or block compressed file, keeping the column names of the header
+	 */
+	private final class RecordReader implements Closeable {
+
+		private final File file;
+
+		private final BufferedReader reader;
+
+		private List<String> columnNames = Collections.emptyList();
+
+		private Record previous = null;
+
+		private RecordReader(final File file) throws IOException {
+			this.file = file;
+			final InputStream stream = new BufferedInputStream(new FileInputStream(file));
+			this.reader = new BufferedReader(new InputStreamReader(
+				(BlockCompressedInputStream.isValidFile(stream)) ? new BlockCompressedInputStream(stream) : stream,
+				StandardCharsets.UTF_8));
+		}
+
+		private Record next() throws IOException {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#CHROM")) {
+					final List<String> names = new ArrayList<>();
+					Collections.addAll(names, line.substring(1).split("\t"));
+					columnNames = Collections.unmodifiableList(names);
+				} else if (!line.isEmpty() && !line.startsWith("#")) {
+					return new Record(file, line, columnNames);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import htsjdk.samtools.util.IntervalList;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.CommandLineProgram;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.magicdgs.gatkct.tools.gather.GatherShards;
+import org.magicdgs.gatkct.tools.scatter.PlanScatter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Run every GATKCT tool on a {@link SyntheticDataset} single-threaded, multi-threaded, scattered-then-gathered and in
+ * its alternative modes, and check that all the runs produce the same outputs record by record
+ *
+ * <p>
+ * The single-threaded run is the reference. The multi-threaded runs use the threading argument of the tool (-nct or
+ * -nt), and are skipped for tools without support for several threads. The scattered runs are only for the walkers:
+ * the genome is split with PlanScatter, each shard runs single-threaded with -L and block compressed outputs, and the
+ * outputs are gathered with GatherShards. The alternative modes (e.g., --stream_output for GetRandomChromosomes) run
+ * single-threaded. Tools without any of these variants (e.g., GatherShards itself) are not compared.
+ * </p>
+ *
+ * <p>
+ * The outputs are compared with {@link OutputComparator}: every missing, extra, unsorted or different record is
+ * logged with its locus (up to --max_differences for each output) and the report has one row per variant and output.
+ * The harness fails if any run fails or any output differs.
+ * </p>
+ *
+ * <h2>Examples</h2>
+ * <pre>
+ *    java -Xmx4g -cp benchmarks.jar org.magicdgs.gatkct.benchmarks.OutputEquivalenceHarness \
+ *      -D dataset \
+ *      -O equivalence \
+ *      -threads 4 \
+ *      -shards 4
+ * </pre>
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class OutputEquivalenceHarness extends CommandLineProgram {
+
+	private static final Logger logger = Logger.getLogger(OutputEquivalenceHarness.class);
+
+	private static final String REPORT_HEADER = "tool\tvariant\toutput\tstatus\texpected_records\tactual_records\tdifferences\tfirst_difference";
+
+	private static final String REFERENCE = "reference";
+
+	private static final String SCATTERED = "scattered";
+
+	@Argument(fullName = "dataset", shortName = "D", doc = "Directory with the synthetic dataset", required = true)
+	public File datasetDirectory;
+
+	@Argument(fullName = "work_directory", shortName = "O", doc = "Directory for the outputs, logs and report of the runs", required = true)
+	public File workDirectory;
+
+	@Argument(fullName = "threads", shortName = "threads", doc = "Number of threads for the multi-threaded runs", required = false)
+	public List<Integer> threads = new ArrayList<>(Arrays.asList(4));
+
+	@Argument(fullName = "scatter_count", shortName = "shards", doc = "Number of shards for the scattered runs", required = false)
+	public int scatterCount = 4;
+
+	@Argument(fullName = "tool", shortName = "tool", doc = "Run only this tool (all of them by default)", required = false)
+	public List<String> tools = new ArrayList<>();
+
+	@Argument(fullName = "max_differences", shortName = "maxDifferences", doc = "Maximum number of differences to log for each output", required = false)
+	public int maxDifferences = 10;
+
+	private SyntheticDataset dataset;
+
+	private ToolProcess process;
+
+	// interval lists of the scattered runs, planned only once
+	private List<File> shards = null;
+
+	@Override
+	protected int execute() throws Exception {
+		for (final int n : threads) {
+			if (n < 2) {
+				throw new UserException.BadArgumentValue("threads", "should be larger than 1");
+			}
+		}
+		if (scatterCount < 2) {
+			throw new UserException.BadArgumentValue("scatter_count", "should be larger than 1");
+		}
+		if (maxDifferences < 0) {
+			throw new UserException.BadArgumentValue("max_differences", "should be a non-negative integer");
+		}
+		dataset = new SyntheticDataset(datasetDirectory);
+		process = new ToolProcess(ThroughputSuite.getJvmArguments());
+		final OutputComparator comparator = new OutputComparator(dataset.getContigs(), maxDifferences);
+		final List<String> rows = new ArrayList<>();
+		boolean failed = false;
+		for (final ToolCase toolCase : ThroughputSuite.selectCases(tools)) {
+			final List<String> variants = getVariants(toolCase);
+			if (variants.isEmpty() || toolCase.getOutputs().isEmpty()) {
+				logger.info(toolCase.getTool() + " runs only single-threaded and unscattered: nothing to compare");
+				continue;
+			}
+			final File caseDirectory = ThroughputSuite.createDirectory(new File(workDirectory, toolCase.getTool()));
+			logger.info("Preparing " + toolCase.getTool());
+			toolCase.prepare(dataset, caseDirectory, process);
+			final Map<String, File> expected = runVariant(toolCase, caseDirectory, REFERENCE);
+			if (expected == null) {
+				for (final String output : toolCase.getOutputs()) {
+					rows.add(getRow(toolCase, REFERENCE, output, "FAILED", null));
+				}
+				failed = true;
+				continue;
+			}
+			for (final String variant : variants) {
+				final Map<String, File> actual = runVariant(toolCase, caseDirectory, variant);
+				for (final String output : toolCase.getOutputs()) {
+					final String status;
+					OutputComparator.Comparison comparison = null;
+					if (actual == null) {
+						status = "FAILED";
+					} else if (!expected.get(output).exists() || !actual.get(output).exists()) {
+						logger.error(String.format("%s (%s): missing %s or %s", toolCase.getTool(), variant,
+							expected.get(output), actual.get(output)));
+						status = "MISSING";
+					} else {
+						comparison = comparator.compare(expected.get(output), actual.get(output));
+						status = (comparison.isIdentical()) ? "IDENTICAL" : "DIFFERENT";
+						for (final String difference : comparison.reported) {
+							logger.error(String.format("%s (%s) %s: %s", toolCase.getTool(), variant, output, difference));
+						}
+						if (comparison.differences > comparison.reported.size()) {
+							logger.error(String.format("%s (%s) %s: %s more differences", toolCase.getTool(), variant, output,
+								comparison.differences - comparison.reported.size()));
+						}
+					}
+					failed |= !"IDENTICAL".equals(status);
+					rows.add(getRow(toolCase, variant, output, status, comparison));
+					logger.info(rows.get(rows.size() - 1));
+				}
+			}
+		}
+		final File report = new File(workDirectory, "equivalence.tsv");
+		logger.info("Writing report to " + report);
+		ThroughputSuite.writeTable(report, REPORT_HEADER, rows);
+		return (failed) ? 1 : 0;
+	}
+
+	/**
+	 * Get the variants to compare with the single-threaded run
+	 */
+	private List<String> getVariants(final ToolCase toolCase) {
+		final List<String> variants = new ArrayList<>();
+		if (toolCase.getThreadArgument() != null) {
+			for (final int n : threads) {
+				variants.add("threads" + n);
+			}
+		} else {
+			logger.info(toolCase.getTool() + " does not support several threads: skipping multi-threaded runs");
+		}
+		if (toolCase.supportsIntervals()) {
+			variants.add(SCATTERED);
+		}
+		variants.addAll(toolCase.getModes());
+		return variants;
+	}
+
+	/**
+	 * Run a variant of the tool
+	 *
+	 * @return the outputs by name; {@code null} if any run failed
+	 */
+	private Map<String, File> runVariant(final ToolCase toolCase, final File caseDirectory, final String variant) {
+		final File outputDirectory = ThroughputSuite.createDirectory(new File(caseDirectory, variant));
+		final Map<String, File> outputs = new LinkedHashMap<>();
+		if (SCATTERED.equals(variant)) {
+			final List<File> intervals = getShards();
+			final List<File> shardDirectories = new ArrayList<>(intervals.size());
+			for (int i = 0; i < intervals.size(); i++) {
+				final File shardDirectory = ThroughputSuite.createDirectory(new File(outputDirectory, "shard" + (i + 1)));
+				if (!run(toolCase, variant, toolCase.getMainClass(),
+					toolCase.getCommandLine(dataset, shardDirectory, 1, intervals.get(i), true),
+					new File(shardDirectory, "run.log"))) {
+					return null;
+				}
+				shardDirectories.add(shardDirectory);
+			}
+			for (final String output : toolCase.getOutputs()) {
+				final File gathered = ToolCase.getOutput(outputDirectory, output, true);
+				final List<String> arguments = new ArrayList<>();
+				for (final File shardDirectory : shardDirectories) {
+					arguments.add("-I");
+					arguments.add(ToolCase.getOutput(shardDirectory, output, true).getPath());
+				}
+				arguments.add("-o");
+				arguments.add(gathered.getPath());
+				if (!run(toolCase, variant, GatherShards.class.getName(), arguments, new File(outputDirectory, output + ".gather.log"))) {
+					return null;
+				}
+				outputs.put(output, gathered);
+			}
+		} else if (toolCase.getModes().contains(variant)) {
+			if (!run(toolCase, variant, toolCase.getMainClass(), toolCase.getModeCommandLine(variant, dataset, outputDirectory),
+				new File(outputDirectory, "run.log"))) {
+				return null;
+			}
+			for (final String output : toolCase.getOutputs()) {
+				outputs.put(output, ToolCase.getOutput(outputDirectory, output, false));
+			}
+		} else {
+			final int n = (REFERENCE.equals(variant)) ? 1 : Integer.parseInt(variant.substring("threads".length()));
+			if (!run(toolCase, variant, toolCase.getMainClass(), toolCase.getCommandLine(dataset, outputDirectory, n),
+				new File(outputDirectory, "run.log"))) {
+				return null;
+			}
+			for (final String output : toolCase.getOutputs()) {
+				outputs.put(output, ToolCase.getOutput(outputDirectory, output, false));
+			}
+		}
+		return outputs;
+	}
+
+	/**
+	 * Plan the shards for the scattered runs with all the BAM files of the dataset, only the first time
+	 */
+	private List<File> getShards() {
+		if (shards == null) {
+			final File scatterDirectory = ThroughputSuite.createDirectory(new File(workDirectory, "scatter"));
+			final File prefix = new File(scatterDirectory, "shard");
+			final List<String> arguments = new ArrayList<>();
+			for (final File bam : dataset.getBams()) {
+				arguments.add("-I");
+				arguments.add(bam.getPath());
+			}
+			arguments.addAll(Arrays.asList("-N", String.valueOf(scatterCount), "-prefix", prefix.getPath()));
+			logger.info("Planning " + scatterCount + " shards");
+			final ToolProcess.Result result = process.run(PlanScatter.class.getName(), arguments, new File(scatterDirectory, "plan.log"));
+			if (result.exitStatus != 0) {
+				throw new UserException("Could not plan the shards (exit status " + result.exitStatus + ")");
+			}
+			// the shard number is zero-padded, so the names sort in genome order
+			final File[] files = scatterDirectory.listFiles((dir, name) -> name.startsWith(prefix.getName() + ".")
+				&& name.endsWith(IntervalList.INTERVAL_LIST_FILE_EXTENSION));
+			if (files == null || files.length == 0) {
+				throw new UserException("No shards planned in " + scatterDirectory);
+			}
+			Arrays.sort(files);
+			shards = Arrays.asList(files);
+		}
+		return shards;
+	}
+
+	private boolean run(final ToolCase toolCase, final String variant, final String mainClass, final List<String> arguments,
+		final File log) {
+		logger.info(String.format("Running %s (%s)", toolCase.getTool(), variant));
+		final ToolProcess.Result result = process.run(mainClass, arguments, log);
+		if (result.exitStatus != 0) {
+			logger.error(String.format("%s (%s) failed with exit status %s (see %s)", toolCase.getTool(), variant,
+				result.exitStatus, log));
+			return false;
+		}
+		return true;
+	}
+
+	private static String getRow(final ToolCase toolCase, final String variant, final String output, final String status,
+		final OutputComparator.Comparison comparison) {
+		return String.join("\t", toolCase.getTool(), variant, output, status,
+			(comparison == null) ? "NA" : String.valueOf(comparison.expectedRecords),
+			(comparison == null) ? "NA" : String.valueOf(comparison.actualRecords),
+			(comparison == null) ? "NA" : String.valueOf(comparison.differences),
+			(comparison == null || comparison.reported.isEmpty()) ? "NA" : comparison.reported.get(0));
+	}
+
+	/**
+	 * Run the tool
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		try {
+			start(new OutputEquivalenceHarness(), args);
+			System.exit(CommandLineProgram.result);
+		} catch (UserException e) {
+			exitSystemWithUserError(e);
+		} catch (Exception e) {
+			exitSystemWithError(e);
+		}
+	}
+}
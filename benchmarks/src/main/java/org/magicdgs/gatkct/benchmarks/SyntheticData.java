@@ -0,0 +1,301 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTag;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.pileup.PileupElement;
+import org.broadinstitute.gatk.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.gatk.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic pileups and variants for the benchmarks, in a single contig with one read group per sample.
+ * The reads are short and centered in the locus, and the indels always start at the locus, so the pileups look like
+ * the ones produced by the engine for a LocusWalker including deletions.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public final class SyntheticData {
+
+	/**
+	 * Name of the synthetic contig
+	 */
+	public static final String CONTIG = "chr1";
+
+	/**
+	 * Length of the synthetic contig
+	 */
+	public static final int CONTIG_LENGTH = 10_000_000;
+
+	private static final byte[] BASES = new byte[] {'A', 'C', 'G', 'T'};
+
+	// the reads cover the locus with this number of bases at each side
+	private static final int FLANK = 25;
+
+	private static final int READ_LENGTH = 2 * FLANK;
+
+	private static final int MAX_INDEL_LENGTH = 10;
+
+	private static final int MIN_BASE_QUALITY = 10;
+
+	private static final int MAX_BASE_QUALITY = 40;
+
+	private static final int MAPPING_QUALITY = 60;
+
+	private final Random random;
+
+	private final SAMFileHeader header;
+
+	private final GenomeLocParser parser;
+
+	private final List<String> samples;
+
+	private long reads = 0;
+
+	/**
+	 * Create a new generator
+	 *
+	 * @param seed            the seed for the random draws
+	 * @param numberOfSamples the number of samples (and read groups)
+	 */
+	public SyntheticData(final long seed, final int numberOfSamples) {
+		if (numberOfSamples < 1) {
+			throw new IllegalArgumentException("At least one sample is required");
+		}
+		this.random = new Random(seed);
+		final SAMSequenceDictionary dictionary = new SAMSequenceDictionary(
+			Collections.singletonList(new SAMSequenceRecord(CONTIG, CONTIG_LENGTH)));
+		this.header = new SAMFileHeader();
+		this.header.setSequenceDictionary(dictionary);
+		this.parser = new GenomeLocParser(dictionary);
+		final List<String> names = new ArrayList<>(numberOfSamples);
+		for (int i = 0; i < numberOfSamples; i++) {
+			final String name = String.format("sample%05d", i);
+			final SAMReadGroupRecord readGroup = new SAMReadGroupRecord(name);
+			readGroup.setSample(name);
+			header.addReadGroup(readGroup);
+			names.add(name);
+		}
+		this.samples = Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * Get the sample names, in header order
+	 *
+	 * @return the sample names
+	 */
+	public List<String> getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Get the locus for a position in the synthetic contig
+	 *
+	 * @param position the 1-based position
+	 *
+	 * @return the locus
+	 */
+	public GenomeLoc getLocus(final int position) {
+		return parser.createGenomeLoc(CONTIG, position);
+	}
+
+	/**
+	 * Get a random position far enough from the contig ends to be covered by complete reads
+	 *
+	 * @return the 1-based position
+	 */
+	public int randomPosition() {
+		return READ_LENGTH + random.nextInt(CONTIG_LENGTH - 2 * READ_LENGTH);
+	}
+
+	/**
+	 * Get a random base
+	 *
+	 * @return one of A, C, G or T
+	 */
+	public byte randomBase() {
+		return BASES[random.nextInt(BASES.length)];
+	}
+
+	/**
+	 * Create a pileup with the same depth for every sample
+	 *
+	 * @param locus     the locus of the pileup
+	 * @param refBase   the reference base at the locus
+	 * @param depth     the number of reads for each sample
+	 * @param errorRate the probability of a base different from the reference
+	 * @param indelRate the probability of a read with an indel at the locus (half of them deletions)
+	 *
+	 * @return the pileup, stratified by sample
+	 */
+	public ReadBackedPileup createPileup(final GenomeLoc locus, final byte refBase, final int depth,
+		final double errorRate, final double indelRate) {
+		final Map<String, ReadBackedPileupImpl> bySample = new LinkedHashMap<>(samples.size());
+		for (final String sample : samples) {
+			bySample.put(sample, createSamplePileup(locus, sample, refBase, depth, errorRate, indelRate));
+		}
+		return new ReadBackedPileupImpl(locus, bySample);
+	}
+
+	/**
+	 * Create a pileup for a single sample
+	 *
+	 * @param locus     the locus of the pileup
+	 * @param sample    the sample name
+	 * @param refBase   the reference base at the locus
+	 * @param depth     the number of reads
+	 * @param errorRate the probability of a base different from the reference
+	 * @param indelRate the probability of a read with an indel at the locus (half of them deletions)
+	 *
+	 * @return the pileup
+	 */
+	public ReadBackedPileupImpl createSamplePileup(final GenomeLoc locus, final String sample, final byte refBase,
+		final int depth, final double errorRate, final double indelRate) {
+		final List<PileupElement> elements = new ArrayList<>(depth);
+		for (int i = 0; i < depth; i++) {
+			elements.add(createElement(locus, sample, refBase, errorRate, indelRate));
+		}
+		return new ReadBackedPileupImpl(locus, elements);
+	}
+
+	/**
+	 * Create a pileup element for a new read starting {@link #FLANK} bases before the locus
+	 */
+	private PileupElement createElement(final GenomeLoc locus, final String sample, final byte refBase,
+		final double errorRate, final double indelRate) {
+		final GATKSAMRecord read = new GATKSAMRecord(header);
+		read.setReadName("read" + reads++);
+		read.setReferenceIndex(0);
+		read.setAlignmentStart(locus.getStart() - FLANK);
+		read.setMappingQuality(MAPPING_QUALITY);
+		read.setAttribute(SAMTag.RG.name(), sample);
+		final double draw = random.nextDouble();
+		if (draw < indelRate / 2) {
+			// the deletion starts at the locus, after the last base of the first block
+			final Cigar cigar = new Cigar(Arrays.asList(new CigarElement(FLANK, CigarOperator.M),
+				new CigarElement(1 + random.nextInt(MAX_INDEL_LENGTH), CigarOperator.D),
+				new CigarElement(READ_LENGTH - FLANK, CigarOperator.M)));
+			setBasesAndQualities(read, cigar, READ_LENGTH, -1, refBase, errorRate);
+			return new PileupElement(read, FLANK - 1, cigar.getCigarElement(1), 1, 0);
+		} else if (draw < indelRate) {
+			// the insertion is just after the locus, which is the last base of the first block
+			final int length = 1 + random.nextInt(MAX_INDEL_LENGTH);
+			final Cigar cigar = new Cigar(Arrays.asList(new CigarElement(FLANK + 1, CigarOperator.M),
+				new CigarElement(length, CigarOperator.I),
+				new CigarElement(READ_LENGTH - FLANK - 1, CigarOperator.M)));
+			setBasesAndQualities(read, cigar, READ_LENGTH + length, FLANK, refBase, errorRate);
+			return new PileupElement(read, FLANK, cigar.getCigarElement(0), 0, FLANK);
+		}
+		final Cigar cigar = new Cigar(Collections.singletonList(new CigarElement(READ_LENGTH, CigarOperator.M)));
+		setBasesAndQualities(read, cigar, READ_LENGTH, FLANK, refBase, errorRate);
+		return new PileupElement(read, FLANK, cigar.getCigarElement(0), 0, FLANK);
+	}
+
+	/**
+	 * Set random bases and qualities, with the reference base (or an error) at the offset of the locus
+	 */
+	private void setBasesAndQualities(final GATKSAMRecord read, final Cigar cigar, final int length, final int locusOffset,
+		final byte refBase, final double errorRate) {
+		final byte[] bases = new byte[length];
+		final byte[] qualities = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bases[i] = randomBase();
+			qualities[i] = (byte) (MIN_BASE_QUALITY + random.nextInt(MAX_BASE_QUALITY - MIN_BASE_QUALITY + 1));
+		}
+		if (locusOffset != -1) {
+			bases[locusOffset] = (random.nextDouble() < errorRate) ? otherBase(refBase) : refBase;
+		}
+		read.setCigar(cigar);
+		read.setReadBases(bases);
+		read.setBaseQualities(qualities);
+	}
+
+	/**
+	 * Get a random base different from the provided one
+	 */
+	private byte otherBase(final byte base) {
+		byte other;
+		do {
+			other = randomBase();
+		} while (other == base);
+		return other;
+	}
+
+	/**
+	 * Create a bi-allelic SNP with genotypes for all the samples, in header order
+	 *
+	 * @param position    the 1-based position of the variant
+	 * @param ploidy      the ploidy of the genotypes
+	 * @param missingRate the probability of a missing genotype
+	 * @param meanDepth   the mean of the DP field of the genotypes (uniformly distributed between 0 and twice the
+	 *                    mean)
+	 *
+	 * @return the variant
+	 */
+	public VariantContext createVariant(final int position, final int ploidy, final double missingRate,
+		final int meanDepth) {
+		final byte refBase = randomBase();
+		final Allele ref = Allele.create(refBase, true);
+		final Allele alt = Allele.create(otherBase(refBase), false);
+		final List<Genotype> genotypes = new ArrayList<>(samples.size());
+		final List<Allele> noCall = Collections.nCopies(ploidy, Allele.NO_CALL);
+		for (final String sample : samples) {
+			final GenotypeBuilder builder = new GenotypeBuilder(sample);
+			if (random.nextDouble() < missingRate) {
+				builder.alleles(noCall);
+			} else {
+				final List<Allele> alleles = new ArrayList<>(ploidy);
+				for (int chr = 0; chr < ploidy; chr++) {
+					alleles.add(random.nextBoolean() ? ref : alt);
+				}
+				builder.alleles(alleles).DP(random.nextInt(2 * meanDepth + 1));
+			}
+			genotypes.add(builder.make());
+		}
+		return new VariantContextBuilder("synthetic", CONTIG, position, position, Arrays.asList(ref, alt))
+			.genotypes(genotypes).make();
+	}
+}
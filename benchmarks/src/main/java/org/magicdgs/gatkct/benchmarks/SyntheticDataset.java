@@ -0,0 +1,289 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Layout of a dataset created by {@link SyntheticDatasetGenerator} in a directory: the reference, one BAM file for each
+ * sample with reads, the multi-sample VCF and one BED mask for each masked sample. The description file records the
+ * parameters used to create it and the amount of data, to compute the throughput of the tools.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public final class SyntheticDataset {
+
+	/**
+	 * Name of the description file in the dataset directory
+	 */
+	public static final String DESCRIPTION_FILE = "dataset.properties";
+
+	private static final String REFERENCE = "reference.fasta";
+
+	private static final String VARIANTS = "variants.vcf";
+
+	private static final String READS_DIRECTORY = "reads";
+
+	private static final String MASKS_DIRECTORY = "masks";
+
+	// keys in the description file
+	static final String CONTIGS_KEY = "contigs";
+	static final String REFERENCE_BASES_KEY = "reference_bases";
+	static final String VARIANT_RECORDS_KEY = "variant_records";
+	static final String READS_KEY = "reads";
+	static final String VARIANT_SAMPLES_KEY = "variant_samples";
+	static final String READ_SAMPLES_KEY = "read_samples";
+	static final String MASK_SAMPLES_KEY = "mask_samples";
+
+	private final File directory;
+
+	private final Properties description;
+
+	/**
+	 * Open the dataset in a directory
+	 *
+	 * @param directory the directory created by the generator
+	 *
+	 * @throws UserException.CouldNotReadInputFile if the description file could not be read
+	 */
+	public SyntheticDataset(final File directory) {
+		this.directory = directory;
+		this.description = new Properties();
+		final File file = new File(directory, DESCRIPTION_FILE);
+		try (Reader reader = new FileReader(file)) {
+			description.load(reader);
+		} catch (IOException e) {
+			throw new UserException.CouldNotReadInputFile(file, e);
+		}
+	}
+
+	/**
+	 * Create the layout for a new dataset, without description
+	 */
+	private SyntheticDataset(final File directory, final Properties description) {
+		this.directory = directory;
+		this.description = description;
+	}
+
+	/**
+	 * Create the directories for a new dataset
+	 *
+	 * @param directory the directory of the dataset
+	 *
+	 * @return the layout of the dataset, with an empty description
+	 *
+	 * @throws UserException.CouldNotCreateOutputFile if the directories could not be created
+	 */
+	static SyntheticDataset create(final File directory) {
+		final SyntheticDataset dataset = new SyntheticDataset(directory, new Properties());
+		for (final File dir : Arrays.asList(directory, dataset.getReadsDirectory(), dataset.getMasksDirectory())) {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new UserException.CouldNotCreateOutputFile(dir, "could not create the directory");
+			}
+		}
+		return dataset;
+	}
+
+	/**
+	 * Set a value in the description
+	 */
+	void describe(final String key, final Object value) {
+		description.setProperty(key, String.valueOf(value));
+	}
+
+	/**
+	 * Write the description file, which marks the dataset as complete
+	 */
+	void writeDescription() {
+		final File file = new File(directory, DESCRIPTION_FILE);
+		try (Writer writer = new FileWriter(file)) {
+			description.store(writer, "GATKCT synthetic dataset");
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		}
+	}
+
+	/**
+	 * Get the directory of the dataset
+	 *
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the reference FASTA file, with its index and dictionary next to it
+	 *
+	 * @return the reference file
+	 */
+	public File getReference() {
+		return new File(directory, REFERENCE);
+	}
+
+	/**
+	 * Get the multi-sample VCF file, with its index next to it
+	 *
+	 * @return the variants file
+	 */
+	public File getVariants() {
+		return new File(directory, VARIANTS);
+	}
+
+	private File getReadsDirectory() {
+		return new File(directory, READS_DIRECTORY);
+	}
+
+	private File getMasksDirectory() {
+		return new File(directory, MASKS_DIRECTORY);
+	}
+
+	/**
+	 * Get the BAM file for a sample
+	 *
+	 * @param sample the sample name
+	 *
+	 * @return the indexed BAM file
+	 */
+	public File getBam(final String sample) {
+		return new File(getReadsDirectory(), sample + ".bam");
+	}
+
+	/**
+	 * Get the BED mask for a sample
+	 *
+	 * @param sample the sample name
+	 *
+	 * @return the BED file
+	 */
+	public File getMask(final String sample) {
+		return new File(getMasksDirectory(), sample + ".bed");
+	}
+
+	/**
+	 * Get the BAM files of all the samples with reads
+	 *
+	 * @return the BAM files, in sample order
+	 */
+	public List<File> getBams() {
+		final List<String> samples = getReadSamples();
+		final List<File> bams = new ArrayList<>(samples.size());
+		for (final String sample : samples) {
+			bams.add(getBam(sample));
+		}
+		return bams;
+	}
+
+	/**
+	 * Get the contig names, in reference order
+	 *
+	 * @return the contig names
+	 */
+	public List<String> getContigs() {
+		return getList(CONTIGS_KEY);
+	}
+
+	/**
+	 * Get the samples in the VCF file, in header order
+	 *
+	 * @return the sample names
+	 */
+	public List<String> getVariantSamples() {
+		return getList(VARIANT_SAMPLES_KEY);
+	}
+
+	/**
+	 * Get the samples with a BAM file (the first samples in the VCF file)
+	 *
+	 * @return the sample names
+	 */
+	public List<String> getReadSamples() {
+		return getList(READ_SAMPLES_KEY);
+	}
+
+	/**
+	 * Get the samples with a BED mask (the first samples in the VCF file)
+	 *
+	 * @return the sample names
+	 */
+	public List<String> getMaskSamples() {
+		return getList(MASK_SAMPLES_KEY);
+	}
+
+	/**
+	 * Get the total length of the reference
+	 *
+	 * @return the number of bases
+	 */
+	public long getReferenceBases() {
+		return getLong(REFERENCE_BASES_KEY);
+	}
+
+	/**
+	 * Get the number of records in the VCF file
+	 *
+	 * @return the number of records
+	 */
+	public long getVariantRecords() {
+		return getLong(VARIANT_RECORDS_KEY);
+	}
+
+	/**
+	 * Get the number of reads in all the BAM files
+	 *
+	 * @return the number of reads
+	 */
+	public long getReads() {
+		return getLong(READS_KEY);
+	}
+
+	private List<String> getList(final String key) {
+		final String value = description.getProperty(key, "");
+		return (value.isEmpty()) ? Collections.emptyList() : Arrays.asList(value.split(","));
+	}
+
+	private long getLong(final String key) {
+		final String value = description.getProperty(key);
+		if (value == null) {
+			throw new UserException.MalformedFile(new File(directory, DESCRIPTION_FILE), "missing " + key);
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new UserException.MalformedFile(new File(directory, DESCRIPTION_FILE), key + " is not a number: " + value);
+		}
+	}
+}
@@ -0,0 +1,620 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFFormatHeaderLine;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.CommandLineProgram;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generate a deterministic synthetic dataset to run the GATKCT tools without sharing real data
+ *
+ * <p>
+ * The dataset ({@link SyntheticDataset}) contains a random reference with a run of N in the middle of each contig,
+ * ancient DNA-like reads for some samples (short fragments with C-to-T and G-to-A substitutions decaying from the
+ * read ends, sequencing errors and a few short indels) carrying the alleles of their genotypes in a wide multi-sample
+ * VCF, and random BED masks for some samples. The same seed and parameters always produce the same files, and each
+ * kind of data has its own random source, so changing the depth does not change the variants.
+ * </p>
+ *
+ * <h2>Examples</h2>
+ * <pre>
+ *    java -cp benchmarks.jar org.magicdgs.gatkct.benchmarks.SyntheticDatasetGenerator \
+ *      -O dataset \
+ *      -contigs 4 \
+ *      -contigLength 5000000 \
+ *      -variantSamples 1000 \
+ *      -depth 3
+ * </pre>
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class SyntheticDatasetGenerator extends CommandLineProgram {
+
+	private static final Logger logger = Logger.getLogger(SyntheticDatasetGenerator.class);
+
+	private static final byte[] BASES = new byte[] {'A', 'C', 'G', 'T'};
+
+	private static final int FASTA_LINE_LENGTH = 60;
+
+	// fragment lengths: minimum plus an exponential tail, as in ancient DNA libraries
+	private static final int MIN_FRAGMENT_LENGTH = 30;
+	private static final int MEAN_FRAGMENT_TAIL = 20;
+	private static final int MAX_FRAGMENT_LENGTH = 150;
+
+	// indels are placed at least this far from the read ends
+	private static final int INDEL_FLANK = 10;
+	private static final int MAX_INDEL_LENGTH = 3;
+
+	private static final int MIN_BASE_QUALITY = 20;
+	private static final int MAX_BASE_QUALITY = 40;
+	private static final int MAPPING_QUALITY = 37;
+
+	private static final int MEAN_MASK_LENGTH = 1000;
+
+	// the different random sources, derived from the seed
+	private static final long REFERENCE_STREAM = 0x52454600L;
+	private static final long VARIANTS_STREAM = 0x56434600L;
+	private static final long READS_STREAM = 0x42414d00L;
+	private static final long MASKS_STREAM = 0x42454400L;
+
+	@Argument(fullName = "output_directory", shortName = "O", doc = "Directory for the dataset", required = true)
+	public File outputDirectory;
+
+	@Argument(fullName = "seed", doc = "Seed for the random data", required = false)
+	public long seed = 1;
+
+	@Argument(fullName = "contigs", shortName = "contigs", doc = "Number of contigs in the reference", required = false)
+	public int contigs = 2;
+
+	@Argument(fullName = "contig_length", shortName = "contigLength", doc = "Length of each contig", required = false)
+	public int contigLength = 1_000_000;
+
+	/**
+	 * Length of the run of N in the middle of each contig, to exercise the reference gaps (0 for none)
+	 */
+	@Argument(fullName = "gap_length", shortName = "gapLength", doc = "Length of the run of N in the middle of each contig", required = false)
+	public int gapLength = 1000;
+
+	@Argument(fullName = "variant_samples", shortName = "variantSamples", doc = "Number of samples in the VCF", required = false)
+	public int variantSamples = 100;
+
+	/**
+	 * The first samples of the VCF have a BAM file with reads carrying their genotypes
+	 */
+	@Argument(fullName = "read_samples", shortName = "readSamples", doc = "Number of samples with a BAM file", required = false)
+	public int readSamples = 2;
+
+	/**
+	 * The first samples of the VCF have a BED mask
+	 */
+	@Argument(fullName = "mask_samples", shortName = "maskSamples", doc = "Number of samples with a BED mask", required = false)
+	public int maskSamples = 10;
+
+	@Argument(fullName = "depth", shortName = "depth", doc = "Mean depth of the reads for each sample", required = false)
+	public double depth = 5;
+
+	@Argument(fullName = "variant_rate", shortName = "variantRate", doc = "Probability of a variant at each position", required = false)
+	public double variantRate = 0.001;
+
+	@Argument(fullName = "missing_rate", shortName = "missingRate", doc = "Probability of a missing genotype in the VCF", required = false)
+	public double missingRate = 0.05;
+
+	@Argument(fullName = "indel_rate", shortName = "indelRate", doc = "Probability of a read with a short indel", required = false)
+	public double indelRate = 0.01;
+
+	@Argument(fullName = "error_rate", shortName = "errorRate", doc = "Probability of a sequencing error at each base", required = false)
+	public double errorRate = 0.001;
+
+	/**
+	 * Probability of a deaminated base at the read ends, halved for each position towards the center of the read
+	 */
+	@Argument(fullName = "damage_rate", shortName = "damageRate", doc = "Probability of C-to-T (5') and G-to-A (3') at the read ends", required = false)
+	public double damageRate = 0.3;
+
+	@Argument(fullName = "mask_fraction", shortName = "maskFraction", doc = "Expected fraction of the genome in each BED mask", required = false)
+	public double maskFraction = 0.1;
+
+	@Override
+	protected int execute() throws Exception {
+		validateArguments();
+		final SyntheticDataset dataset = SyntheticDataset.create(outputDirectory);
+		final SAMSequenceDictionary dictionary = createDictionary();
+		final List<String> samples = new ArrayList<>(variantSamples);
+		for (int i = 0; i < variantSamples; i++) {
+			samples.add(String.format("sample%05d", i));
+		}
+		final Random referenceRandom = new Random(seed ^ REFERENCE_STREAM);
+		final Random variantsRandom = new Random(seed ^ VARIANTS_STREAM);
+		final Random readsRandom = new Random(seed ^ READS_STREAM);
+		final Random masksRandom = new Random(seed ^ MASKS_STREAM);
+		final List<SAMFileWriter> bams = new ArrayList<>(readSamples);
+		final List<Writer> masks = new ArrayList<>(maskSamples);
+		long variantRecords = 0;
+		long reads = 0;
+		try (OutputStream fasta = new BufferedOutputStream(new FileOutputStream(dataset.getReference()));
+			Writer fai = new BufferedWriter(new FileWriter(dataset.getReference().getPath() + ".fai"));
+			VariantContextWriter vcf = createVcfWriter(dataset.getVariants(), dictionary, samples)) {
+			for (int s = 0; s < readSamples; s++) {
+				bams.add(createBamWriter(dataset.getBam(samples.get(s)), dictionary, samples.get(s)));
+			}
+			for (int s = 0; s < maskSamples; s++) {
+				masks.add(new BufferedWriter(new FileWriter(dataset.getMask(samples.get(s)))));
+			}
+			long offset = 0;
+			for (final SAMSequenceRecord contig : dictionary.getSequences()) {
+				logger.info("Generating " + contig.getSequenceName());
+				final byte[] reference = createReference(referenceRandom);
+				offset = writeFasta(fasta, fai, contig.getSequenceName(), reference, offset);
+				final ContigVariants variants = writeVariants(vcf, variantsRandom, contig.getSequenceName(), reference, samples);
+				variantRecords += variants.positions.length;
+				for (int s = 0; s < readSamples; s++) {
+					reads += writeReads(bams.get(s), readsRandom, contig.getSequenceName(), reference, samples.get(s), variants, s);
+				}
+				for (final Writer mask : masks) {
+					writeMask(mask, masksRandom, contig.getSequenceName());
+				}
+			}
+		} finally {
+			for (final SAMFileWriter bam : bams) {
+				bam.close();
+			}
+			for (final Writer mask : masks) {
+				mask.close();
+			}
+		}
+		writeDictionary(new File(dataset.getReference().getPath().replaceAll("\\.fasta$", ".dict")), dictionary);
+		final List<String> contigNames = new ArrayList<>(contigs);
+		for (final SAMSequenceRecord contig : dictionary.getSequences()) {
+			contigNames.add(contig.getSequenceName());
+		}
+		dataset.describe(SyntheticDataset.CONTIGS_KEY, String.join(",", contigNames));
+		dataset.describe(SyntheticDataset.REFERENCE_BASES_KEY, (long) contigs * contigLength);
+		dataset.describe(SyntheticDataset.VARIANT_RECORDS_KEY, variantRecords);
+		dataset.describe(SyntheticDataset.READS_KEY, reads);
+		dataset.describe(SyntheticDataset.VARIANT_SAMPLES_KEY, String.join(",", samples));
+		dataset.describe(SyntheticDataset.READ_SAMPLES_KEY, String.join(",", samples.subList(0, readSamples)));
+		dataset.describe(SyntheticDataset.MASK_SAMPLES_KEY, String.join(",", samples.subList(0, maskSamples)));
+		dataset.describe("seed", seed);
+		dataset.describe("depth", depth);
+		dataset.describe("variant_rate", variantRate);
+		dataset.describe("indel_rate", indelRate);
+		dataset.describe("damage_rate", damageRate);
+		dataset.writeDescription();
+		logger.info(String.format("Dataset written to %s: %s bp, %s variants for %s samples, %s reads",
+			outputDirectory, (long) contigs * contigLength, variantRecords, variantSamples, reads));
+		return 0;
+	}
+
+	private void validateArguments() {
+		if (contigs < 1) {
+			throw new UserException.BadArgumentValue("contigs", "should be a positive integer");
+		}
+		if (contigLength < 2 * MAX_FRAGMENT_LENGTH) {
+			throw new UserException.BadArgumentValue("contig_length", "should be at least " + 2 * MAX_FRAGMENT_LENGTH);
+		}
+		if (gapLength < 0 || gapLength > contigLength / 2) {
+			throw new UserException.BadArgumentValue("gap_length", "should be between 0 and half of the contig length");
+		}
+		if (variantSamples < 1) {
+			throw new UserException.BadArgumentValue("variant_samples", "should be a positive integer");
+		}
+		if (readSamples < 0 || readSamples > variantSamples) {
+			throw new UserException.BadArgumentValue("read_samples", "should be between 0 and the number of samples in the VCF");
+		}
+		if (maskSamples < 0 || maskSamples > variantSamples) {
+			throw new UserException.BadArgumentValue("mask_samples", "should be between 0 and the number of samples in the VCF");
+		}
+		if (depth < 0) {
+			throw new UserException.BadArgumentValue("depth", "should be non-negative");
+		}
+		checkProbability("variant_rate", variantRate);
+		checkProbability("missing_rate", missingRate);
+		checkProbability("indel_rate", indelRate);
+		checkProbability("error_rate", errorRate);
+		checkProbability("damage_rate", damageRate);
+		if (maskFraction <= 0 || maskFraction >= 1) {
+			throw new UserException.BadArgumentValue("mask_fraction", "should be between 0 and 1 (not included)");
+		}
+	}
+
+	private static void checkProbability(final String argument, final double value) {
+		if (value < 0 || value > 1) {
+			throw new UserException.BadArgumentValue(argument, "should be between 0 and 1");
+		}
+	}
+
+	private SAMSequenceDictionary createDictionary() {
+		final List<SAMSequenceRecord> sequences = new ArrayList<>(contigs);
+		for (int i = 1; i <= contigs; i++) {
+			sequences.add(new SAMSequenceRecord("chr" + i, contigLength));
+		}
+		return new SAMSequenceDictionary(sequences);
+	}
+
+	/**
+	 * Create the bases of a contig, with the N-run in the middle
+	 */
+	private byte[] createReference(final Random random) {
+		final byte[] reference = new byte[contigLength];
+		for (int i = 0; i < reference.length; i++) {
+			reference[i] = BASES[random.nextInt(BASES.length)];
+		}
+		final int gapStart = (contigLength - gapLength) / 2;
+		Arrays.fill(reference, gapStart, gapStart + gapLength, (byte) 'N');
+		return reference;
+	}
+
+	/**
+	 * Write the contig in the FASTA file and its entry in the index
+	 *
+	 * @return the offset in the FASTA file after the contig
+	 */
+	private static long writeFasta(final OutputStream fasta, final Writer fai, final String name, final byte[] reference,
+		final long offset) throws IOException {
+		final byte[] header = ('>' + name + '\n').getBytes();
+		fasta.write(header);
+		for (int i = 0; i < reference.length; i += FASTA_LINE_LENGTH) {
+			fasta.write(reference, i, Math.min(FASTA_LINE_LENGTH, reference.length - i));
+			fasta.write('\n');
+		}
+		final long sequenceOffset = offset + header.length;
+		fai.write(String.format("%s\t%s\t%s\t%s\t%s%n", name, reference.length, sequenceOffset, FASTA_LINE_LENGTH, FASTA_LINE_LENGTH + 1));
+		final int lines = (reference.length + FASTA_LINE_LENGTH - 1) / FASTA_LINE_LENGTH;
+		return sequenceOffset + reference.length + lines;
+	}
+
+	private static void writeDictionary(final File file, final SAMSequenceDictionary dictionary) {
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(dictionary);
+		try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+			new SAMTextHeaderCodec().encode(writer, header);
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		}
+	}
+
+	private static VariantContextWriter createVcfWriter(final File file, final SAMSequenceDictionary dictionary,
+		final List<String> samples) {
+		final VCFHeader header = new VCFHeader(new HashSet<VCFHeaderLine>(Arrays.asList(
+			new VCFFormatHeaderLine(VCFConstants.GENOTYPE_KEY, 1, VCFHeaderLineType.String, "Genotype"),
+			new VCFFormatHeaderLine(VCFConstants.DEPTH_KEY, 1, VCFHeaderLineType.Integer, "Read depth"),
+			new VCFHeaderLine("source", SyntheticDatasetGenerator.class.getSimpleName()))), samples);
+		header.setSequenceDictionary(dictionary);
+		final VariantContextWriter writer = new VariantContextWriterBuilder()
+			.setOutputFile(file)
+			.setReferenceDictionary(dictionary)
+			.setOption(Options.INDEX_ON_THE_FLY)
+			.build();
+		writer.writeHeader(header);
+		return writer;
+	}
+
+	/**
+	 * Variants in a contig, with the number of alternative alleles of the samples with reads
+	 */
+	private static final class ContigVariants {
+
+		// 0-based positions, sorted
+		private final int[] positions;
+
+		private final byte[] alternatives;
+
+		// number of alternative alleles for each sample with reads and variant
+		private final byte[][] dosages;
+
+		private ContigVariants(final int[] positions, final byte[] alternatives, final byte[][] dosages) {
+			this.positions = positions;
+			this.alternatives = alternatives;
+			this.dosages = dosages;
+		}
+	}
+
+	/**
+	 * Write bi-allelic SNPs for all the samples, with the alternative allele frequency drawn for each site
+	 */
+	private ContigVariants writeVariants(final VariantContextWriter vcf, final Random random, final String contig,
+		final byte[] reference, final List<String> samples) {
+		final List<Integer> positions = new ArrayList<>();
+		final List<Byte> alternatives = new ArrayList<>();
+		final List<byte[]> dosages = new ArrayList<>();
+		final List<Genotype> genotypes = new ArrayList<>(samples.size());
+		final int meanDepth = (int) Math.max(1, Math.round(depth));
+		for (int position = nextEvent(random, -1, variantRate); position < reference.length; position = nextEvent(random, position, variantRate)) {
+			final byte refBase = reference[position];
+			if (refBase == 'N') {
+				continue;
+			}
+			final byte altBase = otherBase(random, refBase);
+			final Allele ref = Allele.create(refBase, true);
+			final Allele alt = Allele.create(altBase, false);
+			final double frequency = 0.05 + 0.9 * random.nextDouble();
+			final byte[] siteDosages = new byte[readSamples];
+			genotypes.clear();
+			for (int s = 0; s < samples.size(); s++) {
+				final boolean first = random.nextDouble() < frequency;
+				final boolean second = random.nextDouble() < frequency;
+				if (s < readSamples) {
+					siteDosages[s] = (byte) ((first ? 1 : 0) + (second ? 1 : 0));
+				}
+				final GenotypeBuilder builder = new GenotypeBuilder(samples.get(s));
+				if (random.nextDouble() < missingRate) {
+					builder.alleles(Arrays.asList(Allele.NO_CALL, Allele.NO_CALL));
+				} else {
+					builder.alleles(Arrays.asList(first ? alt : ref, second ? alt : ref)).DP(random.nextInt(2 * meanDepth + 1));
+				}
+				genotypes.add(builder.make());
+			}
+			vcf.add(new VariantContextBuilder(SyntheticDatasetGenerator.class.getSimpleName(), contig, position + 1, position + 1,
+				Arrays.asList(ref, alt)).genotypes(genotypes).make());
+			positions.add(position);
+			alternatives.add(altBase);
+			dosages.add(siteDosages);
+		}
+		final int[] positionsArray = new int[positions.size()];
+		final byte[] alternativesArray = new byte[positions.size()];
+		for (int i = 0; i < positionsArray.length; i++) {
+			positionsArray[i] = positions.get(i);
+			alternativesArray[i] = alternatives.get(i);
+		}
+		return new ContigVariants(positionsArray, alternativesArray, dosages.toArray(new byte[dosages.size()][]));
+	}
+
+	private static SAMFileWriter createBamWriter(final File file, final SAMSequenceDictionary dictionary, final String sample) {
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(dictionary);
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		final SAMReadGroupRecord readGroup = new SAMReadGroupRecord(sample);
+		readGroup.setSample(sample);
+		readGroup.setLibrary(sample + "_lib");
+		readGroup.setPlatform("ILLUMINA");
+		header.addReadGroup(readGroup);
+		return new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, file);
+	}
+
+	/**
+	 * Write the reads of a sample for a contig, sorted by start
+	 *
+	 * @return the number of reads written
+	 */
+	private long writeReads(final SAMFileWriter bam, final Random random, final String contig, final byte[] reference,
+		final String sample, final ContigVariants variants, final int sampleIndex) {
+		// the number of reads starting at each position is Poisson, so the depth is the expected one
+		final double readsPerPosition = depth / (MIN_FRAGMENT_LENGTH + MEAN_FRAGMENT_TAIL);
+		if (readsPerPosition == 0) {
+			return 0;
+		}
+		final double startRate = 1 - Math.exp(-readsPerPosition);
+		final SAMFileHeader header = bam.getFileHeader();
+		final byte[] bases = new byte[MAX_FRAGMENT_LENGTH + MAX_INDEL_LENGTH];
+		long written = 0;
+		for (int start = nextEvent(random, -1, startRate); start < reference.length; start = nextEvent(random, start, startRate)) {
+			final int count = nextTruncatedPoisson(random, readsPerPosition);
+			for (int r = 0; r < count; r++) {
+				final SAMRecord read = createRead(header, random, reference, start, variants, sampleIndex, bases);
+				if (read != null) {
+					read.setReadName(String.format("%s:%s:%s", sample, contig, written));
+					read.setReferenceName(contig);
+					read.setAttribute("RG", sample);
+					bam.addAlignment(read);
+					written++;
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Create a read starting at the 0-based position, or {@code null} if it does not fit in the contig or overlaps the
+	 * N-run
+	 */
+	private SAMRecord createRead(final SAMFileHeader header, final Random random, final byte[] reference, final int start,
+		final ContigVariants variants, final int sampleIndex, final byte[] bases) {
+		final int fragment = Math.min(MAX_FRAGMENT_LENGTH,
+			MIN_FRAGMENT_LENGTH + (int) (-Math.log(1 - random.nextDouble()) * MEAN_FRAGMENT_TAIL));
+		// the indel is after the first block of matches
+		CigarOperator indel = null;
+		int firstBlock = fragment;
+		int indelLength = 0;
+		if (random.nextDouble() < indelRate) {
+			indel = random.nextBoolean() ? CigarOperator.I : CigarOperator.D;
+			firstBlock = INDEL_FLANK + random.nextInt(fragment - 2 * INDEL_FLANK);
+			indelLength = 1 + random.nextInt(MAX_INDEL_LENGTH);
+		}
+		final int referenceSpan = (indel == CigarOperator.D) ? fragment + indelLength : fragment;
+		final int readLength = (indel == CigarOperator.I) ? fragment + indelLength : fragment;
+		if (start + referenceSpan > reference.length) {
+			return null;
+		}
+		for (int i = start; i < start + referenceSpan; i++) {
+			if (reference[i] == 'N') {
+				return null;
+			}
+		}
+		// fill the bases in read order, following the reference
+		int variant = Arrays.binarySearch(variants.positions, start);
+		if (variant < 0) {
+			variant = -variant - 1;
+		}
+		int refPosition = start;
+		for (int i = 0; i < readLength; i++) {
+			if (indel == CigarOperator.I && i >= firstBlock && i < firstBlock + indelLength) {
+				bases[i] = BASES[random.nextInt(BASES.length)];
+				continue;
+			}
+			if (indel == CigarOperator.D && i == firstBlock) {
+				refPosition += indelLength;
+			}
+			while (variant < variants.positions.length && variants.positions[variant] < refPosition) {
+				variant++;
+			}
+			byte base = reference[refPosition];
+			if (variant < variants.positions.length && variants.positions[variant] == refPosition
+				&& random.nextInt(2) < variants.dosages[variant][sampleIndex]) {
+				base = variants.alternatives[variant];
+			}
+			bases[i] = damage(random, base, i, readLength - 1 - i);
+			if (random.nextDouble() < errorRate) {
+				bases[i] = otherBase(random, bases[i]);
+			}
+			refPosition++;
+		}
+		final byte[] qualities = new byte[readLength];
+		for (int i = 0; i < readLength; i++) {
+			qualities[i] = (byte) (MIN_BASE_QUALITY + random.nextInt(MAX_BASE_QUALITY - MIN_BASE_QUALITY + 1));
+		}
+		final List<CigarElement> elements = new ArrayList<>(3);
+		if (indel == null) {
+			elements.add(new CigarElement(fragment, CigarOperator.M));
+		} else {
+			elements.add(new CigarElement(firstBlock, CigarOperator.M));
+			elements.add(new CigarElement(indelLength, indel));
+			elements.add(new CigarElement(fragment - firstBlock, CigarOperator.M));
+		}
+		final SAMRecord read = new SAMRecord(header);
+		read.setAlignmentStart(start + 1);
+		read.setCigar(new Cigar(elements));
+		read.setReadBases(Arrays.copyOf(bases, readLength));
+		read.setBaseQualities(qualities);
+		read.setMappingQuality(MAPPING_QUALITY);
+		read.setReadNegativeStrandFlag(random.nextBoolean());
+		return read;
+	}
+
+	/**
+	 * Apply the deamination pattern of double-stranded libraries, which is the same for both strands in reference
+	 * orientation: C-to-T towards the start of the alignment and G-to-A towards its end
+	 */
+	private byte damage(final Random random, final byte base, final int fromStart, final int fromEnd) {
+		if (base == 'C' && fromStart < Long.SIZE && random.nextDouble() < damageRate / (1L << fromStart)) {
+			return 'T';
+		}
+		if (base == 'G' && fromEnd < Long.SIZE && random.nextDouble() < damageRate / (1L << fromEnd)) {
+			return 'A';
+		}
+		return base;
+	}
+
+	/**
+	 * Write random intervals covering the expected fraction of the contig
+	 */
+	private void writeMask(final Writer mask, final Random random, final String contig) throws IOException {
+		final double meanGap = MEAN_MASK_LENGTH * (1 - maskFraction) / maskFraction;
+		int position = (int) (-Math.log(1 - random.nextDouble()) * meanGap);
+		while (position < contigLength) {
+			final int end = (int) Math.min(contigLength, position + 1 + (long) (-Math.log(1 - random.nextDouble()) * MEAN_MASK_LENGTH));
+			mask.write(String.format("%s\t%s\t%s%n", contig, position, end));
+			position = (int) Math.min(Integer.MAX_VALUE, end + 1 + (long) (-Math.log(1 - random.nextDouble()) * meanGap));
+		}
+	}
+
+	/**
+	 * Get the next 0-based position with an event, from a geometric distribution of the gaps
+	 */
+	private static int nextEvent(final Random random, final int previous, final double rate) {
+		if (rate <= 0) {
+			return Integer.MAX_VALUE;
+		}
+		final double gap = (rate >= 1) ? 0 : Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - rate));
+		return (int) Math.min(Integer.MAX_VALUE, previous + 1 + gap);
+	}
+
+	/**
+	 * Draw from a Poisson distribution conditioned to be positive, by inversion
+	 */
+	private static int nextTruncatedPoisson(final Random random, final double mean) {
+		double probability = mean * Math.exp(-mean) / (1 - Math.exp(-mean));
+		double cumulative = probability;
+		final double draw = random.nextDouble();
+		int count = 1;
+		while (draw > cumulative && probability > 0) {
+			count++;
+			probability *= mean / count;
+			cumulative += probability;
+		}
+		return count;
+	}
+
+	private static byte otherBase(final Random random, final byte base) {
+		byte other;
+		do {
+			other = BASES[random.nextInt(BASES.length)];
+		} while (other == base);
+		return other;
+	}
+
+	/**
+	 * Run the tool
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		try {
+			start(new SyntheticDatasetGenerator(), args);
+			System.exit(CommandLineProgram.result);
+		} catch (UserException e) {
+			exitSystemWithUserError(e);
+		} catch (Exception e) {
+			exitSystemWithError(e);
+		}
+	}
+}
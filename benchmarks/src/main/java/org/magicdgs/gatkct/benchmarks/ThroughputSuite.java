@@ -0,0 +1,337 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.CommandLineProgram;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.magicdgs.gatkct.ToolRegistry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Run every GATKCT tool end-to-end on a {@link SyntheticDataset} with several numbers of threads and check the
+ * throughput against a baseline
+ *
+ * <p>
+ * Each tool runs in a child JVM with the same JVM arguments as this one (e.g., -Xmx), measuring the wall time
+ * (including the JVM startup), the throughput in units of work per second (reference bases, VCF records or reads,
+ * depending on the tool) and the peak resident set size (only in Linux). Tools without support for several threads
+ * run only with one thread. Inputs which are not in the dataset, such as the shards for GatherShards, are created
+ * before the timed runs.
+ * </p>
+ *
+ * <p>
+ * The report is a tab-separated file with one row per run. With a baseline (tab-separated tool, threads and
+ * throughput, as written by --update_baseline), the suite fails if the throughput of any run drops by more than
+ * --max_drop percent, or if any tool fails. Baselines are only comparable on the same machine and dataset.
+ * </p>
+ *
+ * <h2>Examples</h2>
+ * <pre>
+ *    java -Xmx4g -cp benchmarks.jar org.magicdgs.gatkct.benchmarks.ThroughputSuite \
+ *      -D dataset \
+ *      -O suite \
+ *      -baseline baseline.tsv \
+ *      -maxDrop 10
+ * </pre>
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class ThroughputSuite extends CommandLineProgram {
+
+	private static final Logger logger = Logger.getLogger(ThroughputSuite.class);
+
+	private static final String REPORT_HEADER = "tool\tthreads\tstatus\twall_seconds\twork\tunit\tthroughput\tpeak_rss_mb\tbaseline_throughput\tchange_percent";
+
+	private static final String BASELINE_HEADER = "#tool\tthreads\tthroughput";
+
+	@Argument(fullName = "dataset", shortName = "D", doc = "Directory with the synthetic dataset", required = true)
+	public File datasetDirectory;
+
+	@Argument(fullName = "work_directory", shortName = "O", doc = "Directory for the outputs, logs and report of the runs", required = true)
+	public File workDirectory;
+
+	@Argument(fullName = "threads", shortName = "threads", doc = "Number of threads for each run", required = false)
+	public List<Integer> threads = new ArrayList<>(Arrays.asList(1, 4, 16));
+
+	@Argument(fullName = "tool", shortName = "tool", doc = "Run only this tool (all of them by default)", required = false)
+	public List<String> tools = new ArrayList<>();
+
+	/**
+	 * The best throughput of the repeats is reported
+	 */
+	@Argument(fullName = "repeats", shortName = "repeats", doc = "Number of runs for each tool and number of threads", required = false)
+	public int repeats = 1;
+
+	@Argument(fullName = "baseline", shortName = "baseline", doc = "Baseline throughput to compare with", required = false)
+	public File baseline = null;
+
+	@Argument(fullName = "max_drop", shortName = "maxDrop", doc = "Maximum drop of the throughput from the baseline, in percent", required = false)
+	public double maxDrop = 10;
+
+	/**
+	 * Write the measured throughput to the --baseline file instead of comparing with it
+	 */
+	@Argument(fullName = "update_baseline", shortName = "updateBaseline", doc = "Write the throughput to the baseline file", required = false)
+	public boolean updateBaseline = false;
+
+	@Override
+	protected int execute() throws Exception {
+		if (repeats < 1) {
+			throw new UserException.BadArgumentValue("repeats", "should be a positive integer");
+		}
+		if (maxDrop < 0 || maxDrop >= 100) {
+			throw new UserException.BadArgumentValue("max_drop", "should be between 0 and 100");
+		}
+		if (updateBaseline && baseline == null) {
+			throw new UserException.CommandLineException("--update_baseline requires --baseline");
+		}
+		for (final int n : threads) {
+			if (n < 1) {
+				throw new UserException.BadArgumentValue("threads", "should be positive integers");
+			}
+		}
+		final SyntheticDataset dataset = new SyntheticDataset(datasetDirectory);
+		final List<ToolCase> cases = selectCases(tools);
+		final Map<String, Double> baselineThroughput = (baseline == null || updateBaseline) ? new TreeMap<>() : readBaseline(baseline);
+		final ToolProcess process = new ToolProcess(getJvmArguments());
+		final List<String> rows = new ArrayList<>();
+		final Map<String, Double> measured = new TreeMap<>();
+		boolean failed = false;
+		for (final ToolCase toolCase : cases) {
+			final File caseDirectory = createDirectory(new File(workDirectory, toolCase.getTool()));
+			logger.info("Preparing " + toolCase.getTool());
+			toolCase.prepare(dataset, caseDirectory, process);
+			for (final int n : threads) {
+				if (n > 1 && toolCase.getThreadArgument() == null) {
+					logger.info(toolCase.getTool() + " does not support several threads: skipping " + n + " threads");
+					continue;
+				}
+				final File outputDirectory = createDirectory(new File(caseDirectory, "threads" + n));
+				final List<String> commandLine = toolCase.getCommandLine(dataset, outputDirectory, n);
+				ToolProcess.Result best = null;
+				for (int r = 1; r <= repeats; r++) {
+					logger.info(String.format("Running %s with %s thread(s) (%s/%s)", toolCase.getTool(), n, r, repeats));
+					final ToolProcess.Result result = process.run(toolCase.getMainClass(), commandLine,
+						new File(outputDirectory, String.format("run%s.log", r)));
+					if (result.exitStatus != 0) {
+						best = result;
+						break;
+					}
+					if (best == null || result.wallSeconds < best.wallSeconds) {
+						best = result;
+					}
+				}
+				final String key = getKey(toolCase.getTool(), n);
+				final long work = toolCase.getWork(dataset);
+				final double throughput = work / best.wallSeconds;
+				final Double expected = baselineThroughput.get(key);
+				final String status;
+				if (best.exitStatus != 0) {
+					status = "FAILED";
+					failed = true;
+					logger.error(String.format("%s with %s thread(s) failed with exit status %s (see %s)",
+						toolCase.getTool(), n, best.exitStatus, outputDirectory));
+				} else if (expected == null) {
+					status = "NO_BASELINE";
+				} else if (throughput < expected * (1 - maxDrop / 100)) {
+					status = "REGRESSION";
+					failed = true;
+					logger.error(String.format("%s with %s thread(s): throughput %.1f %s/s is %.1f%% below the baseline %.1f",
+						toolCase.getTool(), n, throughput, toolCase.getWork(), 100 * (1 - throughput / expected), expected));
+				} else {
+					status = "OK";
+				}
+				if (best.exitStatus == 0) {
+					measured.put(key, throughput);
+				}
+				rows.add(String.join("\t", toolCase.getTool(), String.valueOf(n), status,
+					String.format("%.3f", best.wallSeconds), String.valueOf(work), toolCase.getWork().name(),
+					String.format("%.1f", throughput),
+					(best.peakRss < 0) ? "NA" : String.format("%.1f", best.peakRss / 1048576.0),
+					(expected == null) ? "NA" : String.format("%.1f", expected),
+					(expected == null) ? "NA" : String.format("%.2f", 100 * (throughput / expected - 1))));
+				logger.info(rows.get(rows.size() - 1));
+			}
+		}
+		writeReport(new File(workDirectory, "throughput.tsv"), rows);
+		if (updateBaseline) {
+			writeBaseline(baseline, measured);
+		}
+		return (failed) ? 1 : 0;
+	}
+
+	/**
+	 * Get the cases for the requested tools, checking that all the registered tools have a case
+	 *
+	 * @param tools the requested tools; empty for all of them
+	 *
+	 * @return the cases, sorted by tool name
+	 */
+	static List<ToolCase> selectCases(final List<String> tools) {
+		final List<ToolCase> all = ToolCase.getCases();
+		final Set<String> withCase = new HashSet<>();
+		for (final ToolCase toolCase : all) {
+			withCase.add(toolCase.getTool());
+		}
+		for (final String tool : ToolRegistry.getTools().keySet()) {
+			if (!withCase.contains(tool)) {
+				throw new UserException.BadInput("No end-to-end case for the GATKCT tool " + tool);
+			}
+		}
+		if (tools.isEmpty()) {
+			return all;
+		}
+		final List<ToolCase> selected = new ArrayList<>(tools.size());
+		for (final ToolCase toolCase : all) {
+			if (tools.contains(toolCase.getTool())) {
+				selected.add(toolCase);
+			}
+		}
+		if (selected.size() != new HashSet<>(tools).size()) {
+			throw new UserException.BadArgumentValue("tool", "unknown tool in " + tools + " (available: " + withCase + ")");
+		}
+		return selected;
+	}
+
+	/**
+	 * Get the JVM arguments of this JVM for the child JVMs, without the debugger
+	 *
+	 * @return the JVM arguments
+	 */
+	static List<String> getJvmArguments() {
+		final List<String> arguments = new ArrayList<>();
+		for (final String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (!argument.startsWith("-agentlib:jdwp") && !argument.startsWith("-Xrunjdwp")) {
+				arguments.add(argument);
+			}
+		}
+		return arguments;
+	}
+
+	private static String getKey(final String tool, final int threads) {
+		return tool + "\t" + threads;
+	}
+
+	/**
+	 * Create a directory if it does not exist
+	 *
+	 * @param directory the directory
+	 *
+	 * @return the directory
+	 */
+	static File createDirectory(final File directory) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new UserException.CouldNotCreateOutputFile(directory, "could not create the directory");
+		}
+		return directory;
+	}
+
+	private static Map<String, Double> readBaseline(final File file) {
+		final Map<String, Double> throughput = new TreeMap<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				final String[] fields = line.split("\t");
+				if (fields.length != 3) {
+					throw new UserException.MalformedFile(file, "expected tool, threads and throughput: " + line);
+				}
+				throughput.put(getKey(fields[0], Integer.parseInt(fields[1])), Double.parseDouble(fields[2]));
+			}
+		} catch (NumberFormatException e) {
+			throw new UserException.MalformedFile(file, "not a number: " + e.getMessage());
+		} catch (IOException e) {
+			throw new UserException.CouldNotReadInputFile(file, e);
+		}
+		return throughput;
+	}
+
+	private static void writeBaseline(final File file, final Map<String, Double> throughput) {
+		logger.info("Writing baseline to " + file);
+		final List<String> rows = new ArrayList<>(throughput.size());
+		for (final Map.Entry<String, Double> entry : throughput.entrySet()) {
+			rows.add(entry.getKey() + "\t" + String.format("%.1f", entry.getValue()));
+		}
+		writeTable(file, BASELINE_HEADER, rows);
+	}
+
+	private static void writeReport(final File file, final List<String> rows) {
+		logger.info("Writing report to " + file);
+		writeTable(file, REPORT_HEADER, rows);
+	}
+
+	/**
+	 * Write a tab-separated table
+	 *
+	 * @param file   the output file
+	 * @param header the header line
+	 * @param rows   the rows
+	 */
+	static void writeTable(final File file, final String header, final List<String> rows) {
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.println(header);
+			for (final String row : rows) {
+				writer.println(row);
+			}
+			if (writer.checkError()) {
+				throw new IOException("error writing " + file);
+			}
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		}
+	}
+
+	/**
+	 * Run the tool
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		try {
+			start(new ThroughputSuite(), args);
+			System.exit(CommandLineProgram.result);
+		} catch (UserException e) {
+			exitSystemWithUserError(e);
+		} catch (Exception e) {
+			exitSystemWithError(e);
+		}
+	}
+}
@@ -0,0 +1,422 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import org.broadinstitute.gatk.engine.walkers.NanoSchedulable;
+import org.broadinstitute.gatk.engine.walkers.TreeReducible;
+import org.broadinstitute.gatk.engine.walkers.Walker;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.magicdgs.gatkct.Main;
+import org.magicdgs.gatkct.ToolRegistry;
+import org.magicdgs.gatkct.tools.gather.GatherShards;
+import org.magicdgs.gatkct.tools.scatter.PlanScatter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * End-to-end run of a GATKCT tool on a {@link SyntheticDataset}: the command line, the threading argument supported by
+ * the tool, its outputs and the amount of work to compute the throughput
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+abstract class ToolCase {
+
+	/**
+	 * Unit of work of a tool
+	 */
+	enum Work {
+		REFERENCE_BASES, VARIANT_RECORDS, READS
+	}
+
+	private final String tool;
+
+	private final Work work;
+
+	private final List<String> outputs;
+
+	private ToolCase(final String tool, final Work work, final String... outputs) {
+		this.tool = tool;
+		this.work = work;
+		this.outputs = Collections.unmodifiableList(Arrays.asList(outputs));
+	}
+
+	/**
+	 * Get the tool name, as in the {@link ToolRegistry}
+	 *
+	 * @return the tool name
+	 */
+	String getTool() {
+		return tool;
+	}
+
+	/**
+	 * Get the unit of work of the tool
+	 *
+	 * @return the unit of work
+	 */
+	Work getWork() {
+		return work;
+	}
+
+	/**
+	 * Get the amount of work in a dataset
+	 *
+	 * @param dataset the dataset
+	 *
+	 * @return the number of units of work
+	 */
+	long getWork(final SyntheticDataset dataset) {
+		switch (work) {
+			case REFERENCE_BASES:
+				return dataset.getReferenceBases();
+			case VARIANT_RECORDS:
+				return dataset.getVariantRecords();
+			case READS:
+				return dataset.getReads();
+			default:
+				throw new IllegalStateException("Unknown work: " + work);
+		}
+	}
+
+	/**
+	 * Get the names of the outputs of the tool, without the .gz extension of the block compressed outputs
+	 *
+	 * @return the output names
+	 */
+	List<String> getOutputs() {
+		return outputs;
+	}
+
+	/**
+	 * Get an output file of a run
+	 *
+	 * @param outputDirectory the directory for the outputs of the run
+	 * @param name            the name of the output (see {@link #getOutputs()})
+	 * @param compressed      {@code true} for the block compressed output; {@code false} otherwise
+	 *
+	 * @return the output file
+	 */
+	static File getOutput(final File outputDirectory, final String name, final boolean compressed) {
+		return new File(outputDirectory, (compressed) ? name + ".gz" : name);
+	}
+
+	/**
+	 * Check if the tool could run in a subset of the genome (-L), to scatter it
+	 *
+	 * @return {@code true} for the walkers; {@code false} otherwise
+	 */
+	boolean supportsIntervals() {
+		return isWalker();
+	}
+
+	/**
+	 * Get the class with the main method for the tool
+	 *
+	 * @return the class name
+	 */
+	String getMainClass() {
+		return isWalker() ? Main.class.getName() : getToolClass().getName();
+	}
+
+	/**
+	 * Get the engine argument to run the tool with several threads: -nct for {@link NanoSchedulable} walkers and -nt
+	 * for other {@link TreeReducible} walkers
+	 *
+	 * @return the argument; {@code null} if the tool runs only with one thread
+	 */
+	String getThreadArgument() {
+		final Class<?> clazz = getToolClass();
+		if (NanoSchedulable.class.isAssignableFrom(clazz)) {
+			return "-nct";
+		}
+		if (TreeReducible.class.isAssignableFrom(clazz)) {
+			return "-nt";
+		}
+		return null;
+	}
+
+	/**
+	 * Get the command line for a run with a number of threads
+	 *
+	 * @param dataset         the dataset
+	 * @param outputDirectory the directory for the outputs of this run
+	 * @param threads         the number of threads
+	 *
+	 * @return the arguments for the main class
+	 */
+	List<String> getCommandLine(final SyntheticDataset dataset, final File outputDirectory, final int threads) {
+		return getCommandLine(dataset, outputDirectory, threads, null, false);
+	}
+
+	/**
+	 * Get the command line for a run with a number of threads, optionally in a subset of the genome
+	 *
+	 * @param dataset         the dataset
+	 * @param outputDirectory the directory for the outputs of this run
+	 * @param threads         the number of threads
+	 * @param intervals       the intervals to traverse; {@code null} for the whole genome
+	 * @param compressed      {@code true} to write block compressed outputs; {@code false} otherwise
+	 *
+	 * @return the arguments for the main class
+	 */
+	List<String> getCommandLine(final SyntheticDataset dataset, final File outputDirectory, final int threads,
+		final File intervals, final boolean compressed) {
+		final List<String> commandLine = new ArrayList<>();
+		if (isWalker()) {
+			commandLine.addAll(Arrays.asList("-T", tool, "-R", dataset.getReference().getPath()));
+		}
+		commandLine.addAll(getArguments(dataset, outputDirectory, compressed));
+		if (intervals != null) {
+			if (!supportsIntervals()) {
+				throw new IllegalArgumentException(tool + " does not support intervals");
+			}
+			commandLine.add("-L");
+			commandLine.add(intervals.getPath());
+		}
+		if (threads > 1) {
+			final String threadArgument = getThreadArgument();
+			if (threadArgument == null) {
+				throw new IllegalArgumentException(tool + " does not support several threads");
+			}
+			commandLine.add(threadArgument);
+			commandLine.add(String.valueOf(threads));
+		}
+		return commandLine;
+	}
+
+	/**
+	 * Get the alternative modes of the tool which should write the same outputs as the default one (e.g., streaming
+	 * the input instead of decoding the records)
+	 *
+	 * @return the names of the modes
+	 */
+	List<String> getModes() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Get the command line for a single-threaded run in an alternative mode
+	 *
+	 * @param mode            the mode, one of {@link #getModes()}
+	 * @param dataset         the dataset
+	 * @param outputDirectory the directory for the outputs of this run
+	 *
+	 * @return the arguments for the main class
+	 */
+	List<String> getModeCommandLine(final String mode, final SyntheticDataset dataset, final File outputDirectory) {
+		final List<String> commandLine = new ArrayList<>();
+		if (isWalker()) {
+			commandLine.addAll(Arrays.asList("-T", tool, "-R", dataset.getReference().getPath()));
+		}
+		commandLine.addAll(getModeArguments(mode, dataset, outputDirectory));
+		return commandLine;
+	}
+
+	/**
+	 * Get the arguments specific for the tool in an alternative mode
+	 *
+	 * @param mode            the mode, one of {@link #getModes()}
+	 * @param dataset         the dataset
+	 * @param outputDirectory the directory for the outputs of this run
+	 *
+	 * @return the arguments
+	 */
+	List<String> getModeArguments(final String mode, final SyntheticDataset dataset, final File outputDirectory) {
+		throw new IllegalArgumentException(tool + " does not have the mode " + mode);
+	}
+
+	/**
+	 * Get the arguments specific for the tool
+	 *
+	 * @param dataset         the dataset
+	 * @param outputDirectory the directory for the outputs of this run, inside the directory of the case
+	 * @param compressed      {@code true} to write block compressed outputs; {@code false} otherwise
+	 *
+	 * @return the arguments
+	 */
+	abstract List<String> getArguments(final SyntheticDataset dataset, final File outputDirectory, final boolean compressed);
+
+	/**
+	 * Create the inputs which are not in the dataset (e.g., the outputs of other tools), before any run
+	 *
+	 * @param dataset       the dataset
+	 * @param workDirectory the directory of the case, which contains the output directories of the runs
+	 * @param process       the runner for other tools
+	 */
+	void prepare(final SyntheticDataset dataset, final File workDirectory, final ToolProcess process) {
+		// most of the tools only use the dataset
+	}
+
+	private boolean isWalker() {
+		return Walker.class.isAssignableFrom(getToolClass());
+	}
+
+	private Class<?> getToolClass() {
+		final String className = ToolRegistry.getTools().get(tool);
+		if (className == null) {
+			throw new UserException.BadArgumentValue("tool", tool + " is not in the GATKCT tool registry");
+		}
+		try {
+			return Class.forName(className);
+		} catch (ClassNotFoundException e) {
+			throw new UserException.BadArgumentValue("tool", "class not found for " + tool + ": " + className);
+		}
+	}
+
+	/**
+	 * Get the cases for all the GATKCT tools
+	 *
+	 * @return the cases, sorted by tool name
+	 */
+	static List<ToolCase> getCases() {
+		return Collections.unmodifiableList(Arrays.asList(
+			new ToolCase("AncientCaller", Work.REFERENCE_BASES, "calls.vcf") {
+				@Override
+				List<String> getArguments(final SyntheticDataset dataset, final File outputDirectory, final boolean compressed) {
+					return Arrays.asList("-I", dataset.getBams().get(0).getPath(),
+						"-o", getOutput(outputDirectory, "calls.vcf", compressed).getPath());
+				}
+			},
+			new ToolCase(GatherShards.class.getSimpleName(), Work.VARIANT_RECORDS, "gathered.vcf") {
+				@Override
+				List<String> getArguments(final SyntheticDataset dataset, final File outputDirectory, final boolean compressed) {
+					final List<String> arguments = new ArrayList<>();
+					for (final String contig : dataset.getContigs()) {
+						arguments.add("-I");
+						arguments.add(getShard(outputDirectory.getParentFile(), contig).getPath());
+					}
+					arguments.add("-o");
+					// the output is always block compressed
+					arguments.add(getOutput(outputDirectory, "gathered.vcf", true).getPath());
+					return arguments;
+				}
+
+				@Override
+				void prepare(final SyntheticDataset dataset, final File workDirectory, final ToolProcess process) {
+					// one block compressed shard per contig, as the output of a scattered run
+					for (final String contig : dataset.getContigs()) {
+						final File shard = getShard(workDirectory, contig);
+						final List<String> arguments = new ArrayList<>(Arrays.asList("-T", "MaskVariantsSampleSpecific",
+							"-R", dataset.getReference().getPath(),
+							"-V", dataset.getVariants().getPath(),
+							"-L", contig,
+							"-bgzfOut", shard.getPath()));
+						addMasks(dataset, arguments);
+						final ToolProcess.Result result = process.run(Main.class.getName(), arguments, new File(workDirectory, "shard." + contig + ".log"));
+						if (result.exitStatus != 0) {
+							throw new UserException("Could not create the shard " + shard + " (exit status " + result.exitStatus + ")");
+						}
+					}
+				}
+
+				private File getShard(final File workDirectory, final String contig) {
+					return new File(workDirectory, "shard." + contig + ".vcf.gz");
+				}
+			},
+			new ToolCase("GetRandomChromosomes", Work.VARIANT_RECORDS, "chromosomes.vcf") {
+				@Override
+				List<String> getArguments(final SyntheticDataset dataset, final File outputDirectory, final boolean compressed) {
+					return Arrays.asList("-V", dataset.getVariants().getPath(),
+						"-o", getOutput(outputDirectory, "chromosomes.vcf", compressed).getPath());
+				}
+
+				@Override
+				List<String> getModes() {
+					return Collections.singletonList("stream");
+				}
+
+				@Override
+				List<String> getModeArguments(final String mode, final SyntheticDataset dataset, final File outputDirectory) {
+					if (!"stream".equals(mode)) {
+						return super.getModeArguments(mode, dataset, outputDirectory);
+					}
+					// the engine output is not used when streaming
+					return Arrays.asList("-V", dataset.getVariants().getPath(),
+						"-o", new File(outputDirectory, "engine.vcf").getPath(),
+						"-streamOut", getOutput(outputDirectory, "chromosomes.vcf", false).getPath());
+				}
+			},
+			new ToolCase("IdentifyIndelRegions", Work.REFERENCE_BASES, "indels.bed") {
+				@Override
+				List<String> getArguments(final SyntheticDataset dataset, final File outputDirectory, final boolean compressed) {
+					final List<String> arguments = new ArrayList<>();
+					addBams(dataset, arguments);
+					arguments.add("-o");
+					arguments.add(getOutput(outputDirectory, "indels.bed", compressed).getPath());
+					return arguments;
+				}
+			},
+			new ToolCase("MaskVariantsSampleSpecific", Work.VARIANT_RECORDS, "masked.vcf") {
+				@Override
+				List<String> getArguments(final SyntheticDataset dataset, final File outputDirectory, final boolean compressed) {
+					final List<String> arguments = new ArrayList<>(Arrays.asList("-V", dataset.getVariants().getPath(),
+						"-o", getOutput(outputDirectory, "masked.vcf", compressed).getPath()));
+					addMasks(dataset, arguments);
+					return arguments;
+				}
+			},
+			new ToolCase("MultiLocusAnalysis", Work.REFERENCE_BASES, "calls.vcf", "indels.bed") {
+				@Override
+				List<String> getArguments(final SyntheticDataset dataset, final File outputDirectory, final boolean compressed) {
+					// the caller needs a single sample
+					final List<String> arguments = new ArrayList<>(Arrays.asList("-I", dataset.getBams().get(0).getPath()));
+					arguments.add("-A");
+					arguments.add("AncientCaller -o " + getOutput(outputDirectory, "calls.vcf", compressed).getPath());
+					arguments.add("-A");
+					arguments.add("IdentifyIndelRegions -o " + getOutput(outputDirectory, "indels.bed", compressed).getPath());
+					return arguments;
+				}
+			},
+			new ToolCase(PlanScatter.class.getSimpleName(), Work.READS) {
+				@Override
+				List<String> getArguments(final SyntheticDataset dataset, final File outputDirectory, final boolean compressed) {
+					final List<String> arguments = new ArrayList<>();
+					addBams(dataset, arguments);
+					arguments.addAll(Arrays.asList("-N", "16", "-prefix", new File(outputDirectory, "shard").getPath()));
+					return arguments;
+				}
+			}
+		));
+	}
+
+	private static void addBams(final SyntheticDataset dataset, final List<String> arguments) {
+		for (final File bam : dataset.getBams()) {
+			arguments.add("-I");
+			arguments.add(bam.getPath());
+		}
+	}
+
+	private static void addMasks(final SyntheticDataset dataset, final List<String> arguments) {
+		for (final String sample : dataset.getMaskSamples()) {
+			arguments.add("-mask:" + sample + ",BED");
+			arguments.add(dataset.getMask(sample).getPath());
+			arguments.add("-sn");
+			arguments.add(sample);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Main class for the child JVM of a {@link ToolProcess}: it runs the main method of another class and writes the peak
+ * resident set size of the process to a file when the JVM exits
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public final class ToolLauncher {
+
+	/**
+	 * System property with the file to write the peak resident set size, in bytes (-1 if it is not available)
+	 */
+	public static final String PEAK_RSS_PROPERTY = "gatkct.peak_rss_file";
+
+	// the peak RSS is only available in Linux
+	private static final File PROC_STATUS = new File("/proc/self/status");
+
+	private static final String PEAK_RSS_FIELD = "VmHWM:";
+
+	private ToolLauncher() {}
+
+	/**
+	 * Run the main method of a class
+	 *
+	 * @param args the class name followed by its arguments
+	 *
+	 * @throws Throwable the exception thrown by the main method
+	 */
+	public static void main(String[] args) throws Throwable {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Usage: ToolLauncher <main_class> [arguments]");
+		}
+		final String peakRssFile = System.getProperty(PEAK_RSS_PROPERTY);
+		if (peakRssFile != null) {
+			// the tools exit the JVM on their own
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> writePeakRss(new File(peakRssFile))));
+		}
+		final Method main = Class.forName(args[0]).getMethod("main", String[].class);
+		try {
+			main.invoke(null, (Object) Arrays.copyOfRange(args, 1, args.length));
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void writePeakRss(final File file) {
+		try (Writer writer = new FileWriter(file)) {
+			writer.write(Long.toString(getPeakRss()));
+		} catch (IOException e) {
+			// the process reports a missing peak
+		}
+	}
+
+	/**
+	 * Get the peak resident set size of this process
+	 *
+	 * @return the peak in bytes; -1 if it is not available
+	 */
+	static long getPeakRss() {
+		if (!PROC_STATUS.canRead()) {
+			return -1;
+		}
+		try (BufferedReader reader = new BufferedReader(new FileReader(PROC_STATUS))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(PEAK_RSS_FIELD)) {
+					// the value is in kB
+					final String[] fields = line.substring(PEAK_RSS_FIELD.length()).trim().split("\\s+");
+					return Long.parseLong(fields[0]) * 1024;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// not available
+		}
+		return -1;
+	}
+}
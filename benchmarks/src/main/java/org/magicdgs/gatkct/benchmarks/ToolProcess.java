@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.benchmarks;
+
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run a tool in a child JVM with the classpath of this one, measuring its wall time and its peak resident set size.
+ * The wall time includes the JVM startup, as for the users running the tool.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class ToolProcess {
+
+	private final List<String> jvmArguments;
+
+	/**
+	 * Result of a tool run
+	 */
+	static final class Result {
+
+		/**
+		 * Exit status of the tool
+		 */
+		final int exitStatus;
+
+		/**
+		 * Wall time, in seconds
+		 */
+		final double wallSeconds;
+
+		/**
+		 * Peak resident set size, in bytes (-1 if it is not available)
+		 */
+		final long peakRss;
+
+		private Result(final int exitStatus, final double wallSeconds, final long peakRss) {
+			this.exitStatus = exitStatus;
+			this.wallSeconds = wallSeconds;
+			this.peakRss = peakRss;
+		}
+	}
+
+	/**
+	 * Create a runner for child JVMs
+	 *
+	 * @param jvmArguments the arguments for the child JVMs (e.g., -Xmx4g)
+	 */
+	ToolProcess(final List<String> jvmArguments) {
+		this.jvmArguments = jvmArguments;
+	}
+
+	/**
+	 * Run a tool and wait until it finishes
+	 *
+	 * @param mainClass the class with the main method of the tool
+	 * @param arguments the arguments for the tool
+	 * @param log       the file for the standard output and error of the tool
+	 *
+	 * @return the result of the run
+	 */
+	Result run(final String mainClass, final List<String> arguments, final File log) {
+		final File peakRssFile = new File(log.getPath() + ".peak_rss");
+		peakRssFile.delete();
+		final List<String> command = new ArrayList<>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(jvmArguments);
+		command.add("-D" + ToolLauncher.PEAK_RSS_PROPERTY + "=" + peakRssFile.getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ToolLauncher.class.getName());
+		command.add(mainClass);
+		command.addAll(arguments);
+		try {
+			Files.write(log.toPath(), (String.join(" ", command) + "\n").getBytes(StandardCharsets.UTF_8));
+			final long start = System.nanoTime();
+			final Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+				.start();
+			final int exitStatus = process.waitFor();
+			final double wallSeconds = (System.nanoTime() - start) / 1e9;
+			return new Result(exitStatus, wallSeconds, readPeakRss(peakRssFile));
+		} catch (IOException e) {
+			throw new UserException("Could not run " + mainClass + ": " + e.getMessage(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UserException("Interrupted while running " + mainClass, e);
+		}
+	}
+
+	private static long readPeakRss(final File file) throws IOException {
+		if (!file.exists()) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.caller;
+
+import htsjdk.variant.variantcontext.Allele;
+import org.broadinstitute.gatk.utils.pileup.ReadBackedPileup;
+import org.magicdgs.gatkct.benchmarks.SyntheticData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the single-sample genotyping of {@link AncientCaller} on synthetic pileups. The throughput is reported
+ * per site; run with {@code -prof gc} to get the allocation rate.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AncientCallerBenchmark {
+
+    // seed for the synthetic data, to compare runs
+    private static final long SEED = 1;
+
+    // number of different sites genotyped by each invocation
+    private static final int SITES = 1024;
+
+    @Param({"1", "5", "20", "100"})
+    public int depth;
+
+    @Param({"0.01", "0.1"})
+    public double errorRate;
+
+    private final AncientCaller defaults = new AncientCaller();
+
+    private ReadBackedPileup[] pileups;
+
+    private Allele[] refAlleles;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final SyntheticData data = new SyntheticData(SEED, 1);
+        final String sample = data.getSamples().get(0);
+        pileups = new ReadBackedPileup[SITES];
+        refAlleles = new Allele[SITES];
+        for (int i = 0; i < SITES; i++) {
+            final byte refBase = data.randomBase();
+            // the caller does not include deletions
+            pileups[i] = data.createSamplePileup(data.getLocus(data.randomPosition()), sample, refBase, depth, errorRate, 0);
+            refAlleles[i] = Allele.create(refBase, true);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SITES)
+    public void getGenotypeFromPileup(final Blackhole blackhole) {
+        for (int i = 0; i < SITES; i++) {
+            blackhole.consume(AncientCaller.getGenotypeFromPileup(pileups[i], refAlleles[i], defaults.maxCov, defaults.sBQ));
+        }
+    }
+}
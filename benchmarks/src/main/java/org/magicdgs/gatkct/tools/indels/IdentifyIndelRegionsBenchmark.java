@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.indels;
+
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
+import org.magicdgs.gatkct.benchmarks.SyntheticData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the map of {@link IdentifyIndelRegions} on synthetic multi-sample pileups with indels. The throughput
+ * is reported per locus; run with {@code -prof gc} to get the allocation rate.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentifyIndelRegionsBenchmark {
+
+	// seed for the synthetic data, to compare runs
+	private static final long SEED = 1;
+
+	// number of different loci mapped by each invocation
+	private static final int LOCI = 256;
+
+	// probability of a base different from the reference
+	private static final double ERROR_RATE = 0.01;
+
+	/**
+	 * Depth for each sample
+	 */
+	@Param({"10", "50"})
+	public int depth;
+
+	@Param({"1", "10"})
+	public int samples;
+
+	/**
+	 * Probability of a read with an indel at the locus
+	 */
+	@Param({"0", "0.01", "0.1"})
+	public double indelRate;
+
+	private IdentifyIndelRegions walker;
+
+	private AlignmentContext[] contexts;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		walker = new IdentifyIndelRegions();
+		final SyntheticData data = new SyntheticData(SEED, samples);
+		contexts = new AlignmentContext[LOCI];
+		for (int i = 0; i < LOCI; i++) {
+			final GenomeLoc locus = data.getLocus(data.randomPosition());
+			contexts[i] = new AlignmentContext(locus, data.createPileup(locus, data.randomBase(), depth, ERROR_RATE, indelRate));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOCI)
+	public void map(final Blackhole blackhole) {
+		for (int i = 0; i < LOCI; i++) {
+			// the walker does not use the tracker or the reference
+			blackhole.consume(walker.map(null, null, contexts[i]));
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.masking;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.commandline.RodBinding;
+import org.magicdgs.gatkct.benchmarks.SyntheticData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the masking of the genotypes in {@link MaskVariantsSampleSpecific} on synthetic multi-sample variants.
+ * Every other sample has a mask, and the mask lookups are already cached as they are after the first target at a locus,
+ * so no tracker is needed. The throughput is reported per variant; run with {@code -prof gc} to get the allocation
+ * rate.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskVariantsSampleSpecificBenchmark {
+
+	// seed for the synthetic data, to compare runs
+	private static final long SEED = 1;
+
+	// number of different variants masked by each invocation
+	private static final int VARIANTS = 64;
+
+	// probability of a missing genotype
+	private static final double MISSING_RATE = 0.1;
+
+	// cached lookups for the masks: overlapping (1) and not overlapping (-1)
+	private static final byte[] MASK_LOOKUPS = new byte[] {1, -1, -1, -1};
+
+	@Param({"10", "100", "1000"})
+	public int samples;
+
+	@Param({"1", "2"})
+	public int ploidy;
+
+	/**
+	 * Mean DP of the genotypes; the coverage bounds are half and twice this value
+	 */
+	@Param({"5", "20"})
+	public int depth;
+
+	private MaskVariantsSampleSpecific walker;
+
+	private MaskingTarget target;
+
+	private VariantContext[] variants;
+
+	private GenomeLoc[] loci;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		final SyntheticData data = new SyntheticData(SEED, samples);
+		walker = new MaskVariantsSampleSpecific();
+		target = new MaskingTarget(new RodBinding<>(VariantContext.class, "variant"), null, data.getSamples(), 0);
+		for (int i = 0; i < samples; i++) {
+			target.minDepthByOrdinal[i] = depth / 2;
+			target.maxDepthByOrdinal[i] = depth * 2;
+			if (i % 2 == 0) {
+				target.maskIndexByOrdinal[i] = (i / 2) % MASK_LOOKUPS.length;
+			}
+		}
+		variants = new VariantContext[VARIANTS];
+		loci = new GenomeLoc[VARIANTS];
+		for (int i = 0; i < VARIANTS; i++) {
+			final int position = data.randomPosition();
+			variants[i] = data.createVariant(position, ploidy, MISSING_RATE, depth);
+			loci[i] = data.getLocus(position);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VARIANTS)
+	public void callOverlapAsMissing(final Blackhole blackhole) {
+		for (int i = 0; i < VARIANTS; i++) {
+			final MaskedSite site = new MaskedSite();
+			blackhole.consume(walker.callOverlapAsMissing(null, target, variants[i].getGenotypes(), loci[i], site, MASK_LOOKUPS));
+			blackhole.consume(site);
+		}
+	}
+}
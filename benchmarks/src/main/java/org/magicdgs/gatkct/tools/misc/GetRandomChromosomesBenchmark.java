@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.misc;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import org.magicdgs.gatkct.benchmarks.SyntheticData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the creation of the random chromosomes in {@link GetRandomChromosomes} on synthetic multi-sample
+ * variants. The throughput is reported per variant; run with {@code -prof gc} to get the allocation rate.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetRandomChromosomesBenchmark {
+
+    // seed for the synthetic data, to compare runs
+    private static final long SEED = 1;
+
+    // number of different variants processed by each invocation
+    private static final int VARIANTS = 64;
+
+    // probability of a missing genotype
+    private static final double MISSING_RATE = 0.1;
+
+    // mean DP of the genotypes
+    private static final int MEAN_DEPTH = 10;
+
+    @Param({"10", "100", "1000"})
+    public int samples;
+
+    @Param({"1", "2", "4"})
+    public int ploidy;
+
+    @Param({"1", "5"})
+    public int replicates;
+
+    private GetRandomChromosomes walker;
+
+    private VariantContext[] variants;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final SyntheticData data = new SyntheticData(SEED, samples);
+        walker = new GetRandomChromosomes();
+        walker.samplePloidy = ploidy;
+        walker.replicates = replicates;
+        walker.initializeSamples(new TreeSet<>(data.getSamples()), data.getSamples(), false);
+        variants = new VariantContext[VARIANTS];
+        for (int i = 0; i < VARIANTS; i++) {
+            variants[i] = data.createVariant(data.randomPosition(), ploidy, MISSING_RATE, MEAN_DEPTH);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VARIANTS)
+    public void createRandomChromosomes(final Blackhole blackhole) {
+        for (int i = 0; i < VARIANTS; i++) {
+            blackhole.consume(walker.createRandomChromosomes(variants[i]));
+        }
+    }
+}
@@ -28,6 +28,16 @@ import htsjdk.tribble.TribbleException;
 import org.broadinstitute.gatk.engine.CommandLineGATK;
 import org.broadinstitute.gatk.utils.commandline.CommandLineProgram;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.magicdgs.gatkct.server.CommandServer;
+import org.magicdgs.gatkct.util.CheckpointArgumentCollection;
+import org.magicdgs.gatkct.util.ReferenceGapIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Main class for GATKCT
@@ -36,6 +46,24 @@ import org.broadinstitute.gatk.utils.exceptions.UserException;
  */
 public class Main extends CommandLineGATK {
 
+	/**
+	 * GATKCT argument to exclude from the traversal the runs of N in the reference with at least the provided length.
+	 * It is removed from the arguments passed to the engine, and replaced by -XL with the {@link ReferenceGapIndex}
+	 */
+	public static final String SKIP_REFERENCE_GAPS_ARGUMENT = "--skip_reference_gaps";
+
+	/**
+	 * GATKCT argument to start the server mode ({@link CommandServer}), optionally followed by the port
+	 */
+	public static final String SERVER_ARGUMENT = "--server";
+
+	/**
+	 * GATKCT argument to list the tools from the {@link ToolRegistry} without starting the engine
+	 */
+	public static final String LIST_TOOLS_ARGUMENT = "--list_tools";
+
+	private static final List<String> REFERENCE_ARGUMENTS = Arrays.asList("-R", "--reference_sequence");
+
 	/**
 	 * Main class copied from {@link org.broadinstitute.gatk.engine.CommandLineGATK} with addition of the custom tools
 	 * at the begining and the end
@@ -43,68 +71,241 @@ public class Main extends CommandLineGATK {
 	 * @param argv
 	 */
 	public static void main(String[] argv) {
+		if (argv.length != 0 && argv[0].equals(SERVER_ARGUMENT)) {
+			startServer(argv);
+			return;
+		}
+		System.exit(run(argv)); // todo -- this is a painful hack
+	}
+
+	/**
+	 * Run a command line without exiting if it succeeds
+	 *
+	 * @param argv the command line arguments
+	 *
+	 * @return the exit status
+	 */
+	public static int run(String[] argv) {
+		return run(argv, true);
+	}
+
+	/**
+	 * Run a command line
+	 *
+	 * @param argv        the command line arguments
+	 * @param exitOnError {@code true} to exit with the engine error messages if the command fails; {@code false} to
+	 *                    print the error and return the exit status (for the {@link CommandServer})
+	 *
+	 * @return the exit status
+	 */
+	public static int run(String[] argv, boolean exitOnError) {
+		if (argv.length == 1 && argv[0].equals(LIST_TOOLS_ARGUMENT)) {
+			printTools();
+			return 0;
+		}
 		try {
 			printGATKCTheader();
 			CommandLineGATK instance = new CommandLineGATK();
-			start(instance, argv);
+			start(instance, excludeCheckpointedIntervals(excludeReferenceGaps(argv)));
 			printGATKCend();
-			System.exit(CommandLineProgram.result); // todo -- this is a painful hack
+			return CommandLineProgram.result;
 		} catch (UserException e) {
-			exitSystemWithUserError(e);
+			return userError(e, exitOnError);
 		} catch (TribbleException e) {
 			// We can generate Tribble Exceptions in weird places when e.g. VCF genotype fields are
 			//   lazy loaded, so they aren't caught elsewhere and made into User Exceptions
-			exitSystemWithUserError(e);
+			return userError(e, exitOnError);
 		} catch (SAMException e) {
-			checkForMaskedUserErrors(e);
-			exitSystemWithSamError(e);
+			final int status = checkForMaskedUserErrors(e, exitOnError);
+			return (status != -1) ? status : samError(e, exitOnError);
 		} catch (OutOfMemoryError e) {
-			exitSystemWithUserError(new UserException.NotEnoughMemory());
+			return userError(new UserException.NotEnoughMemory(), exitOnError);
 		} catch (Throwable t) {
-			checkForMaskedUserErrors(t);
+			final int status = checkForMaskedUserErrors(t, exitOnError);
+			return (status != -1) ? status : error(t, exitOnError);
+		}
+	}
+
+	private static int userError(final Exception e, final boolean exit) {
+		if (exit) {
+			exitSystemWithUserError(e);
+		}
+		printError("A USER ERROR has occurred", e.getMessage());
+		return 1;
+	}
+
+	private static int samError(final Throwable t, final boolean exit) {
+		if (exit) {
+			exitSystemWithSamError(t);
+		}
+		printError("A SAM/BAM/CRAM ERROR has occurred", t.getMessage());
+		return 1;
+	}
+
+	private static int error(final Throwable t, final boolean exit) {
+		if (exit) {
 			exitSystemWithError(t);
 		}
+		t.printStackTrace();
+		printError("An ERROR has occurred", t.getMessage());
+		return 1;
+	}
+
+	/**
+	 * Print an error in the format of the engine, without exiting
+	 */
+	private static void printError(final String type, final String message) {
+		System.err.println("##### ERROR ------------------------------------------------------------------------------------------");
+		System.err.println("##### ERROR " + type);
+		System.err.println("##### ERROR MESSAGE: " + message);
+		System.err.println("##### ERROR ------------------------------------------------------------------------------------------");
+	}
+
+	/**
+	 * Print the GATKCT tools and their arguments
+	 */
+	private static void printTools() {
+		for (Map.Entry<String, String> tool : ToolRegistry.getTools().entrySet()) {
+			System.out.println(tool.getKey() + "\t" + tool.getValue());
+			for (String argument : ToolRegistry.getArguments(tool.getKey())) {
+				System.out.println("\t--" + argument);
+			}
+		}
+	}
+
+	/**
+	 * Start the server mode
+	 *
+	 * @param argv the command line arguments, starting with {@link #SERVER_ARGUMENT}
+	 */
+	private static void startServer(String[] argv) {
+		try {
+			final int port = (argv.length > 1) ? Integer.parseInt(argv[1]) : CommandServer.DEFAULT_PORT;
+			printGATKCTheader();
+			new CommandServer(port).run();
+		} catch (NumberFormatException e) {
+			exitSystemWithUserError(new UserException.BadArgumentValue(SERVER_ARGUMENT, "should be followed by a port number"));
+		} catch (IOException e) {
+			exitSystemWithUserError(new UserException("Could not start the GATKCT server: " + e.getMessage(), e));
+		}
+	}
+
+	/**
+	 * Replace the {@link #SKIP_REFERENCE_GAPS_ARGUMENT} by the exclusion of the N-runs of the reference
+	 *
+	 * @param argv the command line arguments
+	 *
+	 * @return the arguments for the engine
+	 */
+	private static String[] excludeReferenceGaps(String[] argv) {
+		final List<String> arguments = new ArrayList<>(Arrays.asList(argv));
+		final int index = arguments.indexOf(SKIP_REFERENCE_GAPS_ARGUMENT);
+		if (index == -1) {
+			return argv;
+		}
+		if (index + 1 == arguments.size()) {
+			throw new UserException.CommandLineException(SKIP_REFERENCE_GAPS_ARGUMENT + " requires the minimum length of the N-runs");
+		}
+		final int minLength;
+		try {
+			minLength = Integer.parseInt(arguments.get(index + 1));
+		} catch (NumberFormatException e) {
+			throw new UserException.BadArgumentValue(SKIP_REFERENCE_GAPS_ARGUMENT, "should be an integer");
+		}
+		arguments.subList(index, index + 2).clear();
+		File reference = null;
+		for (int i = 0; i < arguments.size() - 1; i++) {
+			if (REFERENCE_ARGUMENTS.contains(arguments.get(i))) {
+				reference = new File(arguments.get(i + 1));
+			}
+		}
+		if (reference == null) {
+			throw new UserException.CommandLineException(SKIP_REFERENCE_GAPS_ARGUMENT + " requires a reference (-R)");
+		}
+		final File gaps = ReferenceGapIndex.getOrCreate(reference, minLength);
+		System.err.println("Excluding reference N-runs of at least " + minLength + " bp listed in " + gaps);
+		arguments.add("-XL");
+		arguments.add(gaps.getPath());
+		return arguments.toArray(new String[arguments.size()]);
+	}
+
+	/**
+	 * Exclude the intervals traversed before the last checkpoint if the command line resumes a traversal (see
+	 * {@link CheckpointArgumentCollection})
+	 *
+	 * @param argv the command line arguments
+	 *
+	 * @return the arguments for the engine
+	 */
+	private static String[] excludeCheckpointedIntervals(String[] argv) {
+		final List<String> arguments = new ArrayList<>(Arrays.asList(argv));
+		if (!arguments.contains(CheckpointArgumentCollection.RESUME_ARGUMENT)) {
+			return argv;
+		}
+		File journal = null;
+		for (int i = 0; i < arguments.size() - 1; i++) {
+			if (CheckpointArgumentCollection.JOURNAL_ARGUMENTS.contains(arguments.get(i))) {
+				journal = new File(arguments.get(i + 1));
+			}
+		}
+		// the walker reports the missing journal
+		if (journal == null) {
+			return argv;
+		}
+		final List<String> traversed = CheckpointArgumentCollection.getTraversedIntervals(journal);
+		if (!traversed.isEmpty()) {
+			System.err.println("Resuming after " + traversed.get(traversed.size() - 1) + " from the checkpoint in " + journal);
+		}
+		for (String interval : traversed) {
+			arguments.add("-XL");
+			arguments.add(interval);
+		}
+		return arguments.toArray(new String[arguments.size()]);
 	}
 
 	/**
 	 * Copied from {@link org.broadinstitute.gatk.engine.CommandLineGATK#checkForMaskedUserErrors(Throwable)}
 	 *
-	 * @param t the exception
+	 * @param t    the exception
+	 * @param exit {@code true} to exit with the error
+	 *
+	 * @return the exit status for a masked error; -1 if it is not masked
 	 */
-	private static void checkForMaskedUserErrors(final Throwable t) {
+	private static int checkForMaskedUserErrors(final Throwable t, final boolean exit) {
 		// masked out of memory error
 		if (t instanceof OutOfMemoryError) {
-			exitSystemWithUserError(new UserException.NotEnoughMemory());
+			return userError(new UserException.NotEnoughMemory(), exit);
 		}
 		// masked user error
 		if (t instanceof UserException || t instanceof TribbleException) {
-			exitSystemWithUserError(new UserException(t.getMessage()));
+			return userError(new UserException(t.getMessage()), exit);
 		}
 		// no message means no masked error
 		final String message = t.getMessage();
 		if (message == null) {
-			return;
+			return -1;
 		}
 		// too many open files error
 		if (message.contains("Too many open files")) {
-			exitSystemWithUserError(new UserException.TooManyOpenFiles());
+			return userError(new UserException.TooManyOpenFiles(), exit);
 		}
 		// malformed BAM looks like a SAM file
 		if (message.contains(PICARD_TEXT_SAM_FILE_ERROR_1) || message.contains(PICARD_TEXT_SAM_FILE_ERROR_2)) {
-			exitSystemWithSamError(t);
+			return samError(t, exit);
 		}
 		// can't close tribble index when writing
 		if (message.contains("Unable to close index for")) {
-			exitSystemWithUserError(new UserException(t.getCause() == null ? message : t.getCause().getMessage()));
+			return userError(new UserException(t.getCause() == null ? message : t.getCause().getMessage()), exit);
 		}
 		// disk is full
 		if (message.contains(NO_SPACE_LEFT_ON_DEVICE_ERROR) || message.contains(DISK_QUOTA_EXCEEDED_ERROR)) {
-			exitSystemWithUserError(new UserException.NoSpaceOnDevice());
+			return userError(new UserException.NoSpaceOnDevice(), exit);
 		}
 		// masked error wrapped in another one
 		if (t.getCause() != null) {
-			checkForMaskedUserErrors(t.getCause());
+			return checkForMaskedUserErrors(t.getCause(), exit);
 		}
+		return -1;
 	}
 
 	private static void printGATKCheaderSeparator() {
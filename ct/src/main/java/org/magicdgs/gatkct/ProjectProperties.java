@@ -64,22 +64,21 @@ public class ProjectProperties {
 
 	private static String contactEmail = null;
 
+	// the properties file is read only once
+	static {
+		loadProperties();
+	}
+
 	/**
 	 * Get the name of the program
 	 *
 	 * @return the name of the program
 	 */
 	public static String getName() {
-		if (name == null) {
-			setValue("name");
-		}
 		return name;
 	}
 
 	public static String getDescription() {
-		if (description == null) {
-			setValue("description");
-		}
 		return description;
 	}
 
@@ -89,9 +88,6 @@ public class ProjectProperties {
 	 * @return the version
 	 */
 	public static String getVersion() {
-		if (version == null) {
-			setValue("version");
-		}
 		return version;
 	}
 
@@ -101,9 +97,6 @@ public class ProjectProperties {
 	 * @return the build String
 	 */
 	public static String getBuild() {
-		if (build == null) {
-			setValue("build");
-		}
 		return build;
 	}
 
@@ -113,9 +106,6 @@ public class ProjectProperties {
 	 * @return the timestamp
 	 */
 	public static String getTimestamp() {
-		if (timestamp == null) {
-			setValue("timestamp");
-		}
 		return timestamp;
 	}
 
@@ -125,9 +115,6 @@ public class ProjectProperties {
 	 * @return the contact person
 	 */
 	public static String getContactPerson() {
-		if (contactPerson == null) {
-			setValue("contact_person");
-		}
 		return contactPerson;
 	}
 
@@ -137,9 +124,6 @@ public class ProjectProperties {
 	 * @return the contact email
 	 */
 	public static String getContactEmail() {
-		if (contactEmail == null) {
-			setValue("contact_email");
-		}
 		return contactEmail;
 	}
 
@@ -149,9 +133,6 @@ public class ProjectProperties {
 	 * @return the formatted version
 	 */
 	public static String getFormattedVersion() {
-		if (version == null || build == null) {
-			getAllPropertiesForProgramHeader();
-		}
 		return String.format("v.%s.r_%s", version, build);
 	}
 
@@ -161,9 +142,6 @@ public class ProjectProperties {
 	 * @return the formatted name with version
 	 */
 	public static String getFormattedNameWithVersion() {
-		if (version == null || build == null || name == null) {
-			getAllPropertiesForProgramHeader();
-		}
 		return String.format("%s %s", name, getFormattedVersion());
 	}
 
@@ -173,39 +151,13 @@ public class ProjectProperties {
 	 * @return the full contact
 	 */
 	public static String getContact() {
-		if (contactPerson == null || contactEmail == null) {
-			getAllPropertiesForProgramHeader();
-		}
 		return String.format("%s <%s>", contactPerson, contactEmail);
 	}
 
-	/**
-	 * Get a value from the property file
-	 *
-	 * @param tag the tag in the property file
-	 *
-	 * @return the value
-	 */
-	private static String getFromProperties(String tag) {
-		InputStream stream = ProjectProperties.class.getResourceAsStream(PROPERTIES_FILE);
-		if (stream == null) {
-			return DEFAULT_VERSION_VALUES.get(tag);
-		}
-		Properties props = new Properties();
-		try {
-			props.load(stream);
-			stream.close();
-			String prop = (String) props.get(tag);
-			return (prop == null) ? DEFAULT_VERSION_VALUES.get(tag) : prop;
-		} catch (IOException e) {
-			return DEFAULT_VERSION_VALUES.get(tag);
-		}
-	}
-
 	/**
 	 * Get all the properties at the same time from file
 	 */
-	private static void getAllPropertiesForProgramHeader() {
+	private static void loadProperties() {
 		InputStream stream = ProjectProperties.class.getResourceAsStream(PROPERTIES_FILE);
 		if (stream == null) {
 			setDefaults();
@@ -236,20 +188,6 @@ public class ProjectProperties {
 		return value == null || value.contains("$");
 	}
 
-	/**
-	 * Set a tag value
-	 *
-	 * @param tag the tag to set
-	 */
-	private static void setValue(String tag) {
-		String val = getFromProperties(tag);
-		if (isAbsent(val)) {
-			setDefault(tag);
-		} else {
-			setValue(tag, val);
-		}
-	}
-
 	/**
 	 * Set a tag with a value
 	 *
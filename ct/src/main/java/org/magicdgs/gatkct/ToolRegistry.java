@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct;
+
+import org.broadinstitute.gatk.engine.walkers.Walker;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.ArgumentCollection;
+import org.broadinstitute.gatk.utils.commandline.CommandLineProgram;
+import org.broadinstitute.gatk.utils.commandline.Input;
+import org.broadinstitute.gatk.utils.commandline.Output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registry of the GATKCT tools and their arguments, generated at build time (see {@link #main(String[])}) and loaded
+ * once from the jar, so the tools could be listed or loaded without scanning the classpath
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class ToolRegistry {
+
+	private static final String REGISTRY_FILE = "gatkct-tools.properties";
+
+	private static final String TOOLS_PACKAGE = "org.magicdgs.gatkct.tools";
+
+	private static final String TOOL_PREFIX = "tool.";
+
+	private static final String ARGUMENTS_PREFIX = "arguments.";
+
+	/**
+	 * Class initializing the engine plugin discovery (classpath scanning) in GATK
+	 */
+	private static final String PLUGIN_MANAGER_CLASS = "org.broadinstitute.gatk.utils.classloader.PluginManager";
+
+	/**
+	 * Tool names and classes, sorted by name
+	 */
+	private static final Map<String, String> tools = new TreeMap<>();
+
+	/**
+	 * Argument full names for each tool
+	 */
+	private static final Map<String, List<String>> arguments = new TreeMap<>();
+
+	// the registry is read only once
+	static {
+		loadRegistry();
+	}
+
+	/**
+	 * Get the tools in the registry
+	 *
+	 * @return map of tool name to class name, sorted by name
+	 */
+	public static Map<String, String> getTools() {
+		return Collections.unmodifiableMap(tools);
+	}
+
+	/**
+	 * Get the arguments for a tool
+	 *
+	 * @param tool the tool name
+	 *
+	 * @return the full names of the arguments; empty if the tool is not in the registry
+	 */
+	public static List<String> getArguments(String tool) {
+		return arguments.getOrDefault(tool, Collections.emptyList());
+	}
+
+	/**
+	 * Load the classes of the registered tools and initialize the engine plugin discovery, to pay for them before
+	 * the first command in long-running processes
+	 */
+	public static void preload() {
+		final ClassLoader loader = ToolRegistry.class.getClassLoader();
+		for (String className : tools.values()) {
+			try {
+				Class.forName(className, true, loader);
+			} catch (ClassNotFoundException | LinkageError e) {
+				// the tool will fail when it is used
+			}
+		}
+		try {
+			Class.forName(PLUGIN_MANAGER_CLASS, true, loader);
+		} catch (ClassNotFoundException | LinkageError e) {
+			// the engine will fail when it is used
+		}
+	}
+
+	/**
+	 * Load the registry from the resource file
+	 */
+	private static void loadRegistry() {
+		InputStream stream = ToolRegistry.class.getResourceAsStream("/" + REGISTRY_FILE);
+		if (stream == null) {
+			return;
+		}
+		Properties props = new Properties();
+		try {
+			props.load(stream);
+			stream.close();
+		} catch (IOException e) {
+			return;
+		}
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith(TOOL_PREFIX)) {
+				final String tool = key.substring(TOOL_PREFIX.length());
+				tools.put(tool, props.getProperty(key));
+				final String args = props.getProperty(ARGUMENTS_PREFIX + tool, "");
+				arguments.put(tool, (args.isEmpty()) ? Collections.emptyList() : Arrays.asList(args.split(",")));
+			}
+		}
+	}
+
+	/**
+	 * Generate the registry in the build output directory, from the compiled classes in the tools package
+	 *
+	 * @param args the build output directory
+	 *
+	 * @throws Exception if the registry could not be generated
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			throw new IllegalArgumentException("Usage: ToolRegistry <classes_directory>");
+		}
+		final Path classes = new File(args[0]).toPath();
+		final Path toolsDirectory = classes.resolve(TOOLS_PACKAGE.replace('.', File.separatorChar));
+		final List<String> classNames;
+		try (Stream<Path> paths = Files.walk(toolsDirectory)) {
+			classNames = paths.map(p -> classes.relativize(p).toString())
+				.filter(p -> p.endsWith(".class") && !p.contains("$"))
+				.map(p -> p.substring(0, p.length() - ".class".length()).replace(File.separatorChar, '.'))
+				.sorted()
+				.collect(Collectors.toList());
+		}
+		final ClassLoader loader = ToolRegistry.class.getClassLoader();
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(classes.resolve(REGISTRY_FILE), StandardCharsets.UTF_8))) {
+			writer.println("# GATKCT tools registry generated at build time");
+			for (String className : classNames) {
+				final Class<?> clazz = Class.forName(className, false, loader);
+				if (Modifier.isAbstract(clazz.getModifiers()) || !Modifier.isPublic(clazz.getModifiers())) {
+					continue;
+				}
+				final String name;
+				if (Walker.class.isAssignableFrom(clazz)) {
+					// same name as the engine uses for -T
+					name = clazz.getSimpleName().replaceAll("Walker$", "");
+				} else if (CommandLineProgram.class.isAssignableFrom(clazz)) {
+					name = clazz.getSimpleName();
+				} else {
+					continue;
+				}
+				final TreeSet<String> toolArguments = new TreeSet<>();
+				addArguments(clazz, toolArguments);
+				writer.println(TOOL_PREFIX + name + "=" + className);
+				writer.println(ARGUMENTS_PREFIX + name + "=" + String.join(",", toolArguments));
+			}
+		}
+	}
+
+	/**
+	 * Add the full names of the arguments of a class, including its argument collections and super-classes
+	 */
+	private static void addArguments(Class<?> clazz, TreeSet<String> toolArguments) {
+		for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				if (field.isAnnotationPresent(Argument.class)) {
+					toolArguments.add(field.getAnnotation(Argument.class).fullName());
+				} else if (field.isAnnotationPresent(Input.class)) {
+					toolArguments.add(field.getAnnotation(Input.class).fullName());
+				} else if (field.isAnnotationPresent(Output.class)) {
+					toolArguments.add(field.getAnnotation(Output.class).fullName());
+				} else if (field.isAnnotationPresent(ArgumentCollection.class)) {
+					addArguments(field.getType(), toolArguments);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.server;
+
+import org.broadinstitute.gatk.engine.arguments.GATKArgumentCollection;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.ArgumentCollection;
+import org.broadinstitute.gatk.utils.commandline.Input;
+import org.broadinstitute.gatk.utils.commandline.IntervalBinding;
+import org.broadinstitute.gatk.utils.commandline.Output;
+import org.magicdgs.gatkct.ToolRegistry;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the relative paths of a command line against the working directory of the {@link CommandClient}, because
+ * the server runs in its own directory. The values of the file arguments (inputs, outputs and {@link File} arguments of
+ * the engine and of the GATKCT tool) are always resolved; the interval arguments and the unknown ones are only
+ * resolved if they name an existing file in the client directory, because they could be also intervals or values.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class ClientPaths {
+
+	private static final List<String> TOOL_ARGUMENTS = Arrays.asList("T", "analysis_type");
+
+	private ClientPaths() {}
+
+	/**
+	 * Resolve the relative paths in a command line
+	 *
+	 * @param directory the working directory of the client
+	 * @param args      the command line
+	 *
+	 * @return the command line with the relative paths resolved
+	 */
+	static String[] resolve(final File directory, final String[] args) {
+		final Map<String, Boolean> fileArguments = new HashMap<>();
+		addFileArguments(GATKArgumentCollection.class, fileArguments);
+		final Class<?> tool = getTool(args);
+		if (tool != null) {
+			addFileArguments(tool, fileArguments);
+		}
+		final String[] resolved = args.clone();
+		for (int i = 1; i < args.length; i++) {
+			if (!args[i - 1].startsWith("-") || args[i].startsWith("-") || new File(args[i]).isAbsolute()) {
+				continue;
+			}
+			final String name = getArgumentName(args[i - 1]);
+			if (TOOL_ARGUMENTS.contains(name)) {
+				continue;
+			}
+			final File file = new File(directory, args[i]);
+			if (fileArguments.getOrDefault(name, false) || file.exists()) {
+				resolved[i] = file.getPath();
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * Get the name of an argument, without the dashes and the ROD binding tags (e.g., -V:ProjectedVCF)
+	 */
+	private static String getArgumentName(final String argument) {
+		final String name = argument.replaceFirst("^--?", "");
+		final int tags = name.indexOf(':');
+		return (tags == -1) ? name : name.substring(0, tags);
+	}
+
+	/**
+	 * Get the class of the GATKCT tool in the command line
+	 *
+	 * @return the class; {@code null} if it is not a GATKCT tool
+	 */
+	private static Class<?> getTool(final String[] args) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].startsWith("-") && TOOL_ARGUMENTS.contains(getArgumentName(args[i]))) {
+				final String className = ToolRegistry.getTools().get(args[i + 1]);
+				try {
+					return (className == null) ? null : Class.forName(className);
+				} catch (ClassNotFoundException | LinkageError e) {
+					// the engine reports it
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Add the arguments of a class (including its argument collections and super-classes) which could be files
+	 *
+	 * @param clazz     the class
+	 * @param arguments the map to add the argument names: {@code true} if they are always files; {@code false} if they
+	 *                  could be also intervals
+	 */
+	private static void addFileArguments(final Class<?> clazz, final Map<String, Boolean> arguments) {
+		for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+			for (final Field field : current.getDeclaredFields()) {
+				final boolean file = !refersTo(field.getGenericType(), IntervalBinding.class);
+				if (field.isAnnotationPresent(Input.class)) {
+					final Input input = field.getAnnotation(Input.class);
+					addArgument(arguments, file, input.fullName(), input.shortName());
+				} else if (field.isAnnotationPresent(Output.class)) {
+					final Output output = field.getAnnotation(Output.class);
+					addArgument(arguments, true, output.fullName(), output.shortName());
+				} else if (field.isAnnotationPresent(Argument.class) && refersTo(field.getGenericType(), File.class)) {
+					final Argument argument = field.getAnnotation(Argument.class);
+					addArgument(arguments, true, argument.fullName(), argument.shortName());
+				} else if (field.isAnnotationPresent(ArgumentCollection.class)) {
+					addFileArguments(field.getType(), arguments);
+				}
+			}
+		}
+	}
+
+	private static void addArgument(final Map<String, Boolean> arguments, final boolean file, final String fullName, final String shortName) {
+		arguments.put(fullName, file);
+		if (!shortName.isEmpty()) {
+			arguments.put(shortName, file);
+		}
+	}
+
+	/**
+	 * Check if a field type is a class or a parameterized type of it (e.g., {@code List<File>})
+	 */
+	private static boolean refersTo(final Type type, final Class<?> clazz) {
+		if (type == clazz) {
+			return true;
+		}
+		if (type instanceof ParameterizedType) {
+			for (final Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+				if (refersTo(argument, clazz)) {
+					return true;
+				}
+			}
+			return refersTo(((ParameterizedType) type).getRawType(), clazz);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Client for the {@link CommandServer}: sends the command line to the server, copies the standard output and error of
+ * the command and exits with its exit status. It should be run by the same user as the server, to read its token.
+ *
+ * <h2>Examples</h2>
+ * <pre>
+ *    java -cp GATKCT.jar org.magicdgs.gatkct.server.CommandClient [--port 41414] -T AncientCaller -R ref.fa ...
+ *    java -cp GATKCT.jar org.magicdgs.gatkct.server.CommandClient --shutdown_server
+ * </pre>
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class CommandClient {
+
+	/**
+	 * Exit status if the server could not be reached or the connection is lost
+	 */
+	public static final int CONNECTION_ERROR = 2;
+
+	/**
+	 * Run a command in the server
+	 *
+	 * @param args optional --port followed by the command line for GATKCT
+	 */
+	public static void main(String[] args) {
+		int port = CommandServer.DEFAULT_PORT;
+		if (args.length >= 2 && args[0].equals("--port")) {
+			port = Integer.parseInt(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		System.exit(run(port, args));
+	}
+
+	/**
+	 * Run a command in the server
+	 *
+	 * @param port the port of the server
+	 * @param args the command line
+	 *
+	 * @return the exit status of the command
+	 */
+	public static int run(final int port, final String[] args) {
+		final String token;
+		try {
+			token = CommandProtocol.readToken(port);
+		} catch (IOException e) {
+			System.err.println("Could not read the token of the GATKCT server on port " + port + " from "
+				+ CommandProtocol.getTokenFile(port) + ": " + e.getMessage());
+			return CONNECTION_ERROR;
+		}
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			CommandProtocol.writeRequest(out, token, System.getProperty("user.dir"), args);
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			byte[] buffer = new byte[8192];
+			while (true) {
+				final byte type = in.readByte();
+				if (type == CommandProtocol.EXIT) {
+					System.out.flush();
+					System.err.flush();
+					return in.readInt();
+				}
+				final int length = in.readInt();
+				if (length > buffer.length) {
+					buffer = new byte[length];
+				}
+				in.readFully(buffer, 0, length);
+				final PrintStream stream = (type == CommandProtocol.STDOUT) ? System.out : System.err;
+				stream.write(buffer, 0, length);
+			}
+		} catch (EOFException e) {
+			System.err.println("Connection with the GATKCT server lost before the command finished");
+			return CONNECTION_ERROR;
+		} catch (IOException e) {
+			System.err.println("Could not connect to the GATKCT server on port " + port + ": " + e.getMessage());
+			return CONNECTION_ERROR;
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+
+/**
+ * Protocol between the {@link CommandClient} and the {@link CommandServer}. The client sends the token of the server,
+ * the working directory and the command line; the server answers with frames of standard output/error and a final
+ * frame with the exit status. The token is created by the server in a file only readable by the user (see {@link
+ * #getTokenFile(int)}), so other users of the machine cannot run commands with the server permissions.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class CommandProtocol {
+
+	/**
+	 * Command line to stop the server
+	 */
+	static final String SHUTDOWN_COMMAND = "--shutdown_server";
+
+	private static final String MAGIC = "GATKCT-COMMAND-2";
+
+	private static final int TOKEN_BYTES = 32;
+
+	static final byte STDOUT = 1;
+	static final byte STDERR = 2;
+	static final byte EXIT = 3;
+
+	private CommandProtocol() {}
+
+	/**
+	 * Get the file with the token of the server listening in a port
+	 */
+	static File getTokenFile(final int port) {
+		return new File(System.getProperty("user.home"), ".gatkct-server-" + port + ".token");
+	}
+
+	/**
+	 * Create a new random token for the server listening in a port, and write it to its file (see {@link
+	 * #getTokenFile(int)}) with permissions only for the user
+	 *
+	 * @return the token
+	 */
+	static String createToken(final int port) throws IOException {
+		final byte[] bytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(bytes);
+		final StringBuilder token = new StringBuilder(2 * TOKEN_BYTES);
+		for (final byte b : bytes) {
+			token.append(String.format("%02x", b));
+		}
+		final Path path = getTokenFile(port).toPath();
+		// the file is created again to do not keep the permissions of an existing one
+		Files.deleteIfExists(path);
+		try {
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(
+				EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+		} catch (UnsupportedOperationException e) {
+			// not a POSIX file system
+			final File file = path.toFile();
+			if (!file.createNewFile() || !file.setReadable(false, false) || !file.setReadable(true, true)) {
+				throw new IOException("Could not restrict the permissions of " + file);
+			}
+		}
+		Files.write(path, token.toString().getBytes(StandardCharsets.US_ASCII));
+		return token.toString();
+	}
+
+	/**
+	 * Read the token of the server listening in a port
+	 */
+	static String readToken(final int port) throws IOException {
+		return new String(Files.readAllBytes(getTokenFile(port).toPath()), StandardCharsets.US_ASCII).trim();
+	}
+
+	/**
+	 * Write a command request
+	 */
+	static void writeRequest(final DataOutputStream out, final String token, final String workingDirectory,
+		final String[] args) throws IOException {
+		out.writeUTF(MAGIC);
+		out.writeUTF(token);
+		out.writeUTF(workingDirectory);
+		out.writeInt(args.length);
+		for (final String arg : args) {
+			out.writeUTF(arg);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Read a command request
+	 *
+	 * @param token the token of the server
+	 *
+	 * @return the working directory followed by the arguments
+	 *
+	 * @throws InvalidTokenException if the client does not send the token
+	 */
+	static String[] readRequest(final DataInputStream in, final String token) throws IOException {
+		if (!MAGIC.equals(in.readUTF())) {
+			throw new IOException("Not a GATKCT client");
+		}
+		if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.US_ASCII), in.readUTF().getBytes(StandardCharsets.US_ASCII))) {
+			throw new InvalidTokenException();
+		}
+		final String workingDirectory = in.readUTF();
+		final String[] request = new String[in.readInt() + 1];
+		request[0] = workingDirectory;
+		for (int i = 1; i < request.length; i++) {
+			request[i] = in.readUTF();
+		}
+		return request;
+	}
+
+	/**
+	 * Write a frame with output of the command
+	 */
+	static void writeOutput(final DataOutputStream out, final byte stream, final byte[] bytes, final int offset,
+		final int length) throws IOException {
+		synchronized (out) {
+			out.writeByte(stream);
+			out.writeInt(length);
+			out.write(bytes, offset, length);
+		}
+	}
+
+	/**
+	 * Write the final frame with the exit status
+	 */
+	static void writeExit(final DataOutputStream out, final int status) throws IOException {
+		synchronized (out) {
+			out.writeByte(EXIT);
+			out.writeInt(status);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Exception for requests without the token of the server
+	 */
+	static final class InvalidTokenException extends IOException {
+
+		private InvalidTokenException() {
+			super("Invalid token for the GATKCT server");
+		}
+	}
+
+	/**
+	 * Output stream sending the bytes in frames to the client
+	 */
+	static final class FrameOutputStream extends OutputStream {
+
+		private final DataOutputStream out;
+
+		private final byte stream;
+
+		FrameOutputStream(final DataOutputStream out, final byte stream) {
+			this.out = out;
+			this.stream = stream;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+			if (length != 0) {
+				writeOutput(out, stream, bytes, offset, length);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
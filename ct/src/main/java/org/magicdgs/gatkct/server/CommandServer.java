@@ -0,0 +1,221 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.server;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Logger;
+import org.magicdgs.gatkct.Main;
+import org.magicdgs.gatkct.ToolRegistry;
+import org.magicdgs.gatkct.util.CommandResources;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Server running GATKCT command lines in a JVM which is kept alive, so the class loading, plugin discovery and JIT
+ * compilation are only paid once (the first two when the server starts). It only listens in the loopback interface,
+ * only accepts clients with the token written at startup in a file readable by the user, and runs the commands one at
+ * a time because the engine keeps static state. The standard output/error (including the engine logging) and the exit
+ * status are sent to the {@link CommandClient}. The threads left by a failed command and the log files it opened are
+ * released before the next one.
+ * <p>
+ * The clients could run in any directory: the relative paths of their commands are resolved against the client working
+ * directory (see {@link ClientPaths}). Errors are reported with the exit status instead of exiting the JVM, so the
+ * server does not need a security manager; the help and version arguments, which exit the JVM in the engine, are
+ * rejected.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class CommandServer {
+
+	/**
+	 * Default port for the server
+	 */
+	public static final int DEFAULT_PORT = 41414;
+
+	// arguments which exit the JVM in the engine
+	private static final List<String> EXITING_ARGUMENTS = Arrays.asList("-h", "--help", "-version", "--version");
+
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+	private final int port;
+
+	// the original streams, for the server messages
+	private final PrintStream serverOut = System.out;
+	private final PrintStream serverErr = System.err;
+
+	/**
+	 * Create a new server
+	 *
+	 * @param port the port to listen
+	 */
+	public CommandServer(final int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Listen for commands until a client sends the shutdown command
+	 *
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public void run() throws IOException {
+		// pay for the class loading and the engine plugin discovery before the first command
+		ToolRegistry.preload();
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			final String token = CommandProtocol.createToken(port);
+			serverErr.println("GATKCT server listening on " + server.getLocalSocketAddress()
+				+ " (token in " + CommandProtocol.getTokenFile(port) + ")");
+			boolean running = true;
+			while (running) {
+				try (Socket socket = server.accept()) {
+					running = handle(socket, token);
+				} catch (IOException e) {
+					serverErr.println("Error with the client connection: " + e.getMessage());
+				}
+			}
+		} finally {
+			Files.deleteIfExists(CommandProtocol.getTokenFile(port).toPath());
+		}
+		serverErr.println("GATKCT server stopped");
+	}
+
+	/**
+	 * Run the command sent by a client
+	 *
+	 * @return {@code false} if the server should stop; {@code true} otherwise
+	 */
+	private boolean handle(final Socket socket, final String token) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		final String[] request;
+		try {
+			request = CommandProtocol.readRequest(in, token);
+		} catch (CommandProtocol.InvalidTokenException e) {
+			serverErr.println("Rejected client without the token");
+			sendError(out, e.getMessage());
+			return true;
+		}
+		final String[] clientArgs = Arrays.copyOfRange(request, 1, request.length);
+		if (clientArgs.length == 1 && clientArgs[0].equals(CommandProtocol.SHUTDOWN_COMMAND)) {
+			CommandProtocol.writeExit(out, 0);
+			return false;
+		}
+		for (final String arg : clientArgs) {
+			if (EXITING_ARGUMENTS.contains(arg)) {
+				sendError(out, arg + " is not supported by the GATKCT server: run GATKCT directly");
+				return true;
+			}
+		}
+		final String[] args = ClientPaths.resolve(new File(request[0]), clientArgs);
+		serverErr.println("Running command in " + request[0] + ": " + String.join(" ", args));
+		final PrintStream commandOut = new PrintStream(new BufferedOutputStream(
+			new CommandProtocol.FrameOutputStream(out, CommandProtocol.STDOUT), OUTPUT_BUFFER_SIZE), true);
+		final PrintStream commandErr = new PrintStream(new BufferedOutputStream(
+			new CommandProtocol.FrameOutputStream(out, CommandProtocol.STDERR), OUTPUT_BUFFER_SIZE), true);
+		int status;
+		final List<Appender> serverAppenders = getAppenders();
+		System.setOut(commandOut);
+		System.setErr(commandErr);
+		redirectLogging(commandOut, commandErr);
+		try {
+			status = Main.run(args, false);
+		} finally {
+			final int released = CommandResources.releaseAll();
+			if (released != 0) {
+				serverErr.println("Stopped the threads of " + released + " unclosed outputs/progress reports");
+			}
+			removeCommandAppenders(serverAppenders);
+			redirectLogging(serverOut, serverErr);
+			System.setOut(serverOut);
+			System.setErr(serverErr);
+			commandOut.flush();
+			commandErr.flush();
+		}
+		CommandProtocol.writeExit(out, status);
+		serverErr.println("Command finished with exit status " + status);
+		return true;
+	}
+
+	private static void sendError(final DataOutputStream out, final String message) throws IOException {
+		final byte[] bytes = String.format("%s%n", message).getBytes();
+		CommandProtocol.writeOutput(out, CommandProtocol.STDERR, bytes, 0, bytes.length);
+		CommandProtocol.writeExit(out, 1);
+	}
+
+	/**
+	 * Get the appenders of the root logger, where the engine configures the logging
+	 */
+	private static List<Appender> getAppenders() {
+		final List<Appender> appenders = new ArrayList<>();
+		final Enumeration<?> enumeration = Logger.getRootLogger().getAllAppenders();
+		while (enumeration.hasMoreElements()) {
+			appenders.add((Appender) enumeration.nextElement());
+		}
+		return appenders;
+	}
+
+	/**
+	 * Point the console appenders to the streams of a command (or to the server ones). They keep the stream that was
+	 * current when they were created (the one of the server or of the first command), instead of following the
+	 * replaced standard output/error
+	 */
+	private static void redirectLogging(final PrintStream out, final PrintStream err) {
+		for (final Appender appender : getAppenders()) {
+			if (appender instanceof ConsoleAppender) {
+				final ConsoleAppender console = (ConsoleAppender) appender;
+				// the previous writer is not closed, because it does not follow the standard streams
+				console.setWriter(new OutputStreamWriter(ConsoleAppender.SYSTEM_OUT.equals(console.getTarget()) ? out : err));
+			}
+		}
+	}
+
+	/**
+	 * Remove the appenders added by a command (e.g., the log file), which would log the next commands. The console
+	 * appender is kept even if the command created it, because it is only created once
+	 */
+	private static void removeCommandAppenders(final List<Appender> serverAppenders) {
+		final Logger root = Logger.getRootLogger();
+		for (final Appender appender : getAppenders()) {
+			if (!(appender instanceof ConsoleAppender) && !serverAppenders.contains(appender)) {
+				root.removeAppender(appender);
+				appender.close();
+			}
+		}
+	}
+}
@@ -36,15 +36,23 @@ import org.broadinstitute.gatk.engine.CommandLineGATK;
 import org.broadinstitute.gatk.engine.GATKVCFUtils;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.engine.walkers.LocusWalker;
+import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.ArgumentCollection;
 import org.broadinstitute.gatk.utils.commandline.Output;
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.gatk.utils.help.HelpConstants;
 import org.broadinstitute.gatk.utils.pileup.ReadBackedPileup;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
+import org.magicdgs.gatkct.util.CheckpointArgumentCollection;
+import org.magicdgs.gatkct.util.MetricsArgumentCollection;
+import org.magicdgs.gatkct.util.MetricsArgumentCollection.Stage;
+import org.magicdgs.gatkct.util.OutputArgumentCollection;
+import org.magicdgs.gatkct.util.ProgressArgumentCollection;
 import org.magicdgs.gatkct.util.QualityUtils;
 
 import java.util.*;
@@ -83,6 +91,18 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
     @Output(doc = "File to which variants should be written")
     protected VariantContextWriter writer = null;
 
+    @ArgumentCollection
+    protected OutputArgumentCollection outputArguments = new OutputArgumentCollection();
+
+    @ArgumentCollection
+    protected MetricsArgumentCollection metricsArguments = new MetricsArgumentCollection();
+
+    @ArgumentCollection
+    protected ProgressArgumentCollection progressArguments = new ProgressArgumentCollection();
+
+    @ArgumentCollection
+    protected CheckpointArgumentCollection checkpointArguments = new CheckpointArgumentCollection();
+
     @Argument(fullName = "maximum_coverage", shortName = "maxCov", doc = "Maximum coverage to call a variant",
             required = false)
     int maxCov = 5;
@@ -102,6 +122,23 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
             doc = "Specified which types of calls we should output", required = false)
     OutputOption outMode = OutputOption.CONFIDENT_VARIANTS;
 
+    /**
+     * Short fragments are sequenced by both mates of a pair, which should not be counted twice for the coverage
+     * filter and the allele depths. When the mates disagree, the base with the highest quality is kept.
+     */
+    @Argument(fullName = "fragment_aware", shortName = "fragments",
+            doc = "Count overlapping mates once per locus, keeping the base with the highest quality", required = false)
+    boolean fragmentAware = false;
+
+    /**
+     * Bases at the ends of the reads which could come from deamination (C to T at the alignment start or G to A at the
+     * alignment end) are not used for calling, without trimming the reads before. Only the 5' end of paired reads is
+     * considered.
+     */
+    @Argument(fullName = "damage_length", shortName = "damage",
+            doc = "Number of positions at each read end susceptible to deamination (0 to use all the bases)", required = false)
+    int damageLength = 0;
+
     // TODO: add option to do not remove filtered bases
 
     // order of the bases in the base counts of
@@ -109,6 +146,21 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
 
     private String sampleName;
 
+    // the writer for the variants, with the output options applied
+    private VariantContextWriter vcfWriter;
+
+    // the last mapped locus, which is the one reduced next because the map and the reduce are not concurrent
+    private GenomeLoc lastLocus;
+
+    // table of read name hashes, reused for every locus
+    private final FragmentDeduplicator deduplicator = new FragmentDeduplicator();
+
+    // number of mates collapsed with --fragment_aware
+    private long overlappingMates = 0;
+
+    // suspect positions of the reads with --damage_length; null if disabled
+    private DamageMask damageMask = null;
+
     private final static String HIGH_COVERAGE_FILTER = "HighCov";
     private final static String POLYMORPHIC_FILTER = "Poly";
     private final static String SINGLE_READ_FILTER = "Single";
@@ -118,6 +170,12 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
     public void initialize() {
         super.initialize();
         final GenomeAnalysisEngine toolkit = getToolkit();
+        if (damageLength < 0 || damageLength > DamageMask.MAX_DAMAGE_LENGTH) {
+            throw new UserException.BadArgumentValue("damage_length", "should be between 0 and " + DamageMask.MAX_DAMAGE_LENGTH);
+        }
+        if (damageLength != 0) {
+            damageMask = new DamageMask(damageLength);
+        }
         final Set<String> sampleNameSet = ReadUtils.getSAMFileSamples(toolkit.getSAMFileHeader());
         // TODO: make multi-sample?
         if (sampleNameSet.size() != 1) {
@@ -143,7 +201,10 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
             headerSet.add(new VCFFilterHeaderLine(POLYMORPHIC_FILTER, "Polymorphic site"));
             headerSet.add(new VCFFilterHeaderLine(SINGLE_READ_FILTER, "Single read covering a position with base quality <= "+sBQ+" but >= "+minBQ+ "(user thresholds)"));
         }
-        writer.writeHeader(new VCFHeader(headerSet, new ArrayList<String>() {{
+        checkpointArguments.initialize(toolkit, outputArguments);
+        vcfWriter = metricsArguments.wrap(outputArguments.wrap(writer, toolkit));
+        progressArguments.start(getClass().getSimpleName(), toolkit);
+        vcfWriter.writeHeader(new VCFHeader(headerSet, new ArrayList<String>() {{
             add(sampleName);
         }}));
     }
@@ -151,7 +212,21 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
     @Override
     public Integer map(RefMetaDataTracker refMetaDataTracker, ReferenceContext referenceContext,
                        AlignmentContext alignmentContext) {
-        // Ns in the reference are not handle
+        final long start = metricsArguments.start(Stage.MAP);
+        lastLocus = referenceContext.getLocus();
+        progressArguments.locus(lastLocus);
+        final Integer called = callSite(referenceContext, alignmentContext);
+        metricsArguments.stop(Stage.MAP, start);
+        return called;
+    }
+
+    /**
+     * Call the variant at this locus and write it if it passes the output mode
+     *
+     * @return 1 if a variant was written; 0 otherwise
+     */
+    private Integer callSite(ReferenceContext referenceContext, AlignmentContext alignmentContext) {
+        // Ns in the reference are not handle (long runs could be excluded from the traversal with --skip_reference_gaps)
         if (referenceContext.getBase() == 'N' || referenceContext.getBase() == 'n') {
             logger.debug("Found N at reference position" + referenceContext.getLocus());
             return 0; // we don't deal with the N ref base case
@@ -167,6 +242,13 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
         final Allele refAllele = Allele.create(referenceContext.getBase(), true);
         // get the pileup
         ReadBackedPileup pileup = alignmentContext.getBasePileup().getBaseAndMappingFilteredPileup(minBQ, minMQ);
+        if (damageMask != null) {
+            pileup = damageMask.removeDamage(pileup, referenceContext.getBase());
+        }
+        if (fragmentAware) {
+            pileup = deduplicator.deduplicate(pileup);
+            overlappingMates += deduplicator.getOverlappingMates();
+        }
         final int coverage = pileup.depthOfCoverage();
         variantBuilder.attribute(VCFConstants.DEPTH_KEY, coverage);
         if (coverage == 0) {
@@ -180,6 +262,9 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
         if (callingResult == null) {
             return 0;
         }
+        for (String filter : callingResult.b) {
+            progressArguments.filtered(filter, 1);
+        }
         if(OutputOption.CONFIDENT_VARIANTS.equals(outMode) && !callingResult.b.isEmpty()) {
             return 0;
         }
@@ -191,7 +276,7 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
         variantBuilder.genotypes(callingResult.a);
         // TODO: check if it output PASS
         variantBuilder.filters(callingResult.b);
-        writer.add(variantBuilder.make(true));
+        vcfWriter.add(variantBuilder.make(true));
         return 1;
     }
 
@@ -205,7 +290,7 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
      * @return the genotype and the filters
      * @throws IllegalArgumentException if the pileup contains more than one sample
      */
-    private static Tuple<Genotype, Set<String>> getGenotypeFromPileup(final ReadBackedPileup pileup, final Allele refAllele, int maxCov, int singleReadBQ) {
+    static Tuple<Genotype, Set<String>> getGenotypeFromPileup(final ReadBackedPileup pileup, final Allele refAllele, int maxCov, int singleReadBQ) {
         final Collection<String> samples = pileup.getSamples();
         final HashSet<String> filter = new LinkedHashSet<>();
         if (samples.size() != 1) {
@@ -271,11 +356,31 @@ public class AncientCaller extends LocusWalker<Integer, Long> {
 
     @Override
     public Long reduceInit() {
-        return 0L;
+        final String state = checkpointArguments.getResumedState();
+        return (state == null) ? 0L : Long.valueOf(state);
     }
 
     @Override
     public Long reduce(Integer value, Long sum) {
-        return value + sum;
+        final long start = metricsArguments.start(Stage.REDUCE);
+        progressArguments.records(value);
+        final Long reduced = value + sum;
+        checkpointArguments.checkpoint(lastLocus.getContig(), lastLocus.getStart(), vcfWriter, reduced::toString);
+        metricsArguments.stop(Stage.REDUCE, start);
+        return reduced;
+    }
+
+    @Override
+    public void onTraversalDone(Long result) {
+        // the engine closes its own output
+        outputArguments.close(vcfWriter);
+        if (fragmentAware) {
+            logger.info("Overlapping mates counted once: " + overlappingMates);
+        }
+        if (damageMask != null) {
+            logger.info("Bases removed as possible deamination: " + damageMask.getRemoved());
+        }
+        metricsArguments.report(getClass().getSimpleName());
+        progressArguments.finish();
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.caller;
+
+import org.broadinstitute.gatk.utils.pileup.PileupElement;
+import org.broadinstitute.gatk.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.gatk.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remove the bases that could come from deamination of ancient DNA (C to T at the 5' end of the molecules, which looks
+ * like G to A at the 3' end for double-stranded libraries) instead of trimming the reads before calling
+ * <p>
+ * The suspect positions of a read are computed once, the first time the read is in a pileup, and cached in the read as
+ * a mask of 64 bits: bit i is set if the base at offset i from the start of the read is a T, and bit 32 + i if the
+ * base at offset i from the end of the read is an A. At each locus, the pileup is filtered in a single pass and a base
+ * is removed with a single bit test if the reference is C (start bits) or G (end bits); the mask is only fetched for the
+ * bases inside the damage window. In reference orientation, the 5' end of a forward read is the alignment start and
+ * the 5' end of a reverse read is the alignment end, so only that end is checked for paired reads (the other end is
+ * usually inside the molecule). Both ends are checked for unpaired reads (merged or single-end).
+ * <p>
+ * The mask is cached as a temporary attribute of the read, which is not thread-safe: the walker should not be
+ * {@link org.broadinstitute.gatk.engine.walkers.NanoSchedulable} while using it.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class DamageMask {
+
+    /**
+     * Maximum number of positions at each end of the reads that could be checked
+     */
+    static final int MAX_DAMAGE_LENGTH = 32;
+
+    // offset of the bits for the alignment end
+    private static final int END_BITS = 32;
+
+    private final int damageLength;
+
+    private long removed = 0;
+
+    /**
+     * Create a new mask for the positions susceptible to damage
+     *
+     * @param damageLength number of positions at each end of the reads susceptible to damage
+     */
+    DamageMask(final int damageLength) {
+        if (damageLength < 1 || damageLength > MAX_DAMAGE_LENGTH) {
+            throw new IllegalArgumentException("damage length should be between 1 and " + MAX_DAMAGE_LENGTH);
+        }
+        this.damageLength = damageLength;
+    }
+
+    /**
+     * Remove the bases that could be damaged from a pileup
+     *
+     * @param pileup  the pileup
+     * @param refBase the reference base at the locus
+     * @return the pileup without the suspect bases; the same pileup if there are none
+     */
+    ReadBackedPileup removeDamage(final ReadBackedPileup pileup, final byte refBase) {
+        final boolean start;
+        if (refBase == 'C' || refBase == 'c') {
+            start = true;
+        } else if (refBase == 'G' || refBase == 'g') {
+            start = false;
+        } else {
+            // damage does not produce a mismatch
+            return pileup;
+        }
+        final List<PileupElement> kept = new ArrayList<>(pileup.getNumberOfElements());
+        int suspect = 0;
+        for (final PileupElement element : pileup) {
+            if (isSuspect(element, start)) {
+                suspect++;
+            } else {
+                kept.add(element);
+            }
+        }
+        if (suspect == 0) {
+            return pileup;
+        }
+        removed += suspect;
+        return new ReadBackedPileupImpl(pileup.getLocation(), kept);
+    }
+
+    /**
+     * Get the number of bases removed
+     *
+     * @return the number of bases removed since the creation of the mask
+     */
+    long getRemoved() {
+        return removed;
+    }
+
+    private boolean isSuspect(final PileupElement element, final boolean start) {
+        if (element.isDeletion()) {
+            return false;
+        }
+        final GATKSAMRecord read = element.getRead();
+        final int bit = (start) ? element.getOffset() : read.getReadLength() - 1 - element.getOffset();
+        // the mask is only fetched for the bases close to the read end
+        if (bit >= damageLength) {
+            return false;
+        }
+        return (getMask(read) & (1L << ((start) ? bit : END_BITS + bit))) != 0;
+    }
+
+    /**
+     * Get the mask for the read, computing it the first time
+     */
+    private long getMask(final GATKSAMRecord read) {
+        // keyed by this instance, because several callers with different lengths could share the reads
+        final Long cached = (Long) read.getTemporaryAttribute(this);
+        if (cached != null) {
+            return cached;
+        }
+        final long mask = computeMask(read, damageLength);
+        read.setTemporaryAttribute(this, mask);
+        return mask;
+    }
+
+    /**
+     * Compute the mask of the positions that could be damaged in a read
+     *
+     * @param read         the read
+     * @param damageLength number of positions at each end of the read susceptible to damage
+     * @return the mask
+     */
+    static long computeMask(final GATKSAMRecord read, final int damageLength) {
+        final byte[] bases = read.getReadBases();
+        final boolean paired = read.getReadPairedFlag();
+        final boolean checkStart = !paired || !read.getReadNegativeStrandFlag();
+        final boolean checkEnd = !paired || read.getReadNegativeStrandFlag();
+        long mask = 0;
+        for (int i = 0; i < Math.min(damageLength, bases.length); i++) {
+            if (checkStart && bases[i] == 'T') {
+                mask |= 1L << i;
+            }
+            if (checkEnd && bases[bases.length - 1 - i] == 'A') {
+                mask |= 1L << (END_BITS + i);
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.caller;
+
+import org.broadinstitute.gatk.utils.pileup.PileupElement;
+import org.broadinstitute.gatk.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.gatk.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Count each sequenced molecule once per locus: the mates of a pair overlapping the locus (common for short ancient
+ * DNA fragments) are collapsed into the one with the highest base quality
+ * <p>
+ * The mates are matched by a 64-bit hash of the read name (FNV-1a) in an open-addressing table with linear probing,
+ * reused between loci, so the cost is linear in the depth without comparing the names. Unpaired reads are never
+ * collapsed. Instances are not thread-safe.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class FragmentDeduplicator {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // hashes of the read names in the table
+    private long[] hashes = new long[MIN_CAPACITY];
+
+    // index + 1 of the kept element for each slot, 0 for empty slots
+    private int[] slots = new int[MIN_CAPACITY];
+
+    private int overlappingMates = 0;
+
+    /**
+     * Collapse the overlapping mates in a single-sample pileup
+     *
+     * @param pileup the pileup, already filtered by quality
+     * @return the pileup with one element per molecule; the same pileup if there are no overlapping mates
+     */
+    ReadBackedPileup deduplicate(final ReadBackedPileup pileup) {
+        overlappingMates = 0;
+        final int depth = pileup.getNumberOfElements();
+        if (depth < 2) {
+            return pileup;
+        }
+        final int mask = clear(depth);
+        final List<PileupElement> kept = new ArrayList<>(depth);
+        for (final PileupElement element : pileup) {
+            final GATKSAMRecord read = element.getRead();
+            if (!read.getReadPairedFlag()) {
+                kept.add(element);
+                continue;
+            }
+            final long hash = readNameHash(read.getReadName());
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (slots[slot] != 0 && hashes[slot] != hash) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots[slot] == 0) {
+                hashes[slot] = hash;
+                kept.add(element);
+                slots[slot] = kept.size();
+            } else {
+                // the mate was already seen: keep the base with the highest quality
+                overlappingMates++;
+                final int index = slots[slot] - 1;
+                if (element.getQual() > kept.get(index).getQual()) {
+                    kept.set(index, element);
+                }
+            }
+        }
+        return (overlappingMates == 0) ? pileup : new ReadBackedPileupImpl(pileup.getLocation(), kept);
+    }
+
+    /**
+     * Get the number of mates collapsed in the last pileup
+     *
+     * @return the number of elements removed by the last call to {@link #deduplicate(ReadBackedPileup)}
+     */
+    int getOverlappingMates() {
+        return overlappingMates;
+    }
+
+    /**
+     * Clear the table for a number of reads, growing it if needed
+     *
+     * @return the mask for the slots in use
+     */
+    private int clear(final int reads) {
+        // at most half full
+        final int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(reads * 2 - 1) << 1);
+        if (capacity > slots.length) {
+            hashes = new long[capacity];
+            slots = new int[capacity];
+        } else {
+            Arrays.fill(slots, 0, capacity, 0);
+        }
+        return capacity - 1;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a read name
+     *
+     * @param readName the read name
+     * @return the hash
+     */
+    static long readNameHash(final String readName) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < readName.length(); i++) {
+            hash = (hash ^ readName.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.composite;
+
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.engine.walkers.LocusWalker;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.ArgumentCollection;
+import org.broadinstitute.gatk.utils.commandline.Input;
+import org.broadinstitute.gatk.utils.commandline.Output;
+import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
+import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
+import org.magicdgs.gatkct.ToolRegistry;
+import org.magicdgs.gatkct.util.OutputArgumentCollection;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One of the locus tools driven by {@link MultiLocusAnalysis}, with its own arguments, outputs and reduce state. The
+ * arguments are set from a specification with the same syntax as the tool command line (e.g. "AncientCaller -o
+ * calls.vcf -maxCov 5"), and the VCF outputs are created and closed here because the engine does not know about them
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+class LocusAnalysis {
+
+	private final String name;
+
+	private final LocusWalker walker;
+
+	// arguments by full and short name
+	private final Map<String, ArgumentField> arguments = new HashMap<>();
+
+	// the outputs created for the tool
+	private final List<VariantContextWriter> writers = new ArrayList<>();
+
+	/**
+	 * Create the analysis from its specification
+	 *
+	 * @param specification the tool name followed by its arguments
+	 *
+	 * @throws UserException.BadArgumentValue if the tool is not a locus tool or its arguments are wrong
+	 */
+	LocusAnalysis(final String specification) {
+		final String[] tokens = specification.trim().split("\\s+");
+		this.name = tokens[0];
+		this.walker = createWalker(name);
+		addArguments(walker);
+		parseArguments(Arrays.copyOfRange(tokens, 1, tokens.length));
+	}
+
+	/**
+	 * Get the tool name
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the walker for this analysis
+	 */
+	LocusWalker getWalker() {
+		return walker;
+	}
+
+	/**
+	 * Create the outputs and initialize the tool with the engine
+	 *
+	 * @param toolkit the engine running the traversal
+	 */
+	void initialize(final GenomeAnalysisEngine toolkit) {
+		for (ArgumentField argument : new ArrayList<>(arguments.values())) {
+			if (argument.pendingOutput != null) {
+				final VariantContextWriter writer = new OutputArgumentCollection().createWriter(argument.pendingOutput, toolkit);
+				writers.add(writer);
+				argument.set(writer);
+				argument.pendingOutput = null;
+			}
+		}
+		walker.setToolkit(toolkit);
+		walker.initialize();
+	}
+
+	/**
+	 * Map a locus if the tool accepts it
+	 *
+	 * @return the result of the map; {@code skipped} if the tool does not process this locus
+	 */
+	Object map(final RefMetaDataTracker tracker, final ReferenceContext reference, final AlignmentContext alignment,
+		final Object skipped) {
+		if (walker.isDone() || !walker.filter(tracker, reference, alignment)) {
+			return skipped;
+		}
+		return walker.map(tracker, reference, alignment);
+	}
+
+	/**
+	 * Reduce a mapped value into the reduce state of the tool
+	 */
+	@SuppressWarnings("unchecked")
+	Object reduce(final Object value, final Object sum) {
+		return walker.reduce(value, sum);
+	}
+
+	/**
+	 * Finish the tool with its reduce state and close the outputs created for it
+	 */
+	@SuppressWarnings("unchecked")
+	void onTraversalDone(final Object result) {
+		walker.onTraversalDone(result);
+		for (VariantContextWriter writer : writers) {
+			writer.close();
+		}
+	}
+
+	private static LocusWalker createWalker(final String name) {
+		final String className = ToolRegistry.getTools().get(name);
+		if (className == null) {
+			throw new UserException.BadArgumentValue("analysis", "unknown tool " + name + ". Available tools: "
+				+ ToolRegistry.getTools().keySet());
+		}
+		try {
+			final Class<?> clazz = Class.forName(className);
+			if (!LocusWalker.class.isAssignableFrom(clazz) || MultiLocusAnalysis.class.equals(clazz)) {
+				throw new UserException.BadArgumentValue("analysis", name + " is not a locus tool");
+			}
+			return (LocusWalker) clazz.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new UserException.BadArgumentValue("analysis", "cannot create " + name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Add the arguments of an object, including its argument collections and super-classes. The inputs are added to
+	 * reject them, because they are not bound to the engine in a multi-tool traversal
+	 */
+	private void addArguments(final Object object) {
+		for (Class<?> current = object.getClass(); current != null && current != Object.class; current = current.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				field.setAccessible(true);
+				if (field.isAnnotationPresent(Argument.class)) {
+					final Argument argument = field.getAnnotation(Argument.class);
+					addArgument(new ArgumentField(object, field, argument.fullName(), argument.required(), true), argument.shortName());
+				} else if (field.isAnnotationPresent(Output.class)) {
+					final Output output = field.getAnnotation(Output.class);
+					addArgument(new ArgumentField(object, field, output.fullName(), output.required(), true), output.shortName());
+				} else if (field.isAnnotationPresent(Input.class)) {
+					final Input input = field.getAnnotation(Input.class);
+					addArgument(new ArgumentField(object, field, input.fullName(), input.required(), false), input.shortName());
+				} else if (field.isAnnotationPresent(ArgumentCollection.class)) {
+					try {
+						addArguments(field.get(object));
+					} catch (IllegalAccessException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+		}
+	}
+
+	private void addArgument(final ArgumentField argument, final String shortName) {
+		arguments.put(argument.fullName, argument);
+		if (!shortName.isEmpty()) {
+			arguments.put(shortName, argument);
+		}
+	}
+
+	/**
+	 * Set the arguments from the command line tokens
+	 */
+	private void parseArguments(final String[] tokens) {
+		int i = 0;
+		while (i < tokens.length) {
+			final ArgumentField argument = arguments.get(tokens[i].replaceFirst("^--?", ""));
+			if (argument == null || !tokens[i].startsWith("-")) {
+				throw new UserException.BadArgumentValue("analysis", "unknown argument " + tokens[i] + " for " + name);
+			}
+			if (argument.isFlag()) {
+				argument.parse("true");
+				i++;
+			} else if (i + 1 < tokens.length) {
+				argument.parse(tokens[i + 1]);
+				i += 2;
+			} else {
+				throw new UserException.BadArgumentValue("analysis", "missing value for " + tokens[i] + " in " + name);
+			}
+		}
+		for (ArgumentField argument : arguments.values()) {
+			if (argument.required && !argument.supported) {
+				throw argument.unsupported();
+			}
+			if (argument.required && !argument.isSet()) {
+				throw new UserException.BadArgumentValue("analysis", "argument --" + argument.fullName + " is required for " + name);
+			}
+		}
+	}
+
+	/**
+	 * Argument field in a tool or one of its argument collections
+	 */
+	private final class ArgumentField {
+
+		private final Object object;
+
+		private final Field field;
+
+		private final String fullName;
+
+		private final boolean required;
+
+		// false for the arguments which could not be set in a multi-tool traversal
+		private final boolean supported;
+
+		// VCF output to create when the engine is available
+		private File pendingOutput = null;
+
+		private ArgumentField(final Object object, final Field field, final String fullName, final boolean required,
+			final boolean supported) {
+			this.object = object;
+			this.field = field;
+			this.fullName = fullName;
+			this.required = required;
+			this.supported = supported;
+		}
+
+		private UserException unsupported() {
+			return new UserException.BadArgumentValue("analysis", "argument --" + fullName + " is not supported for "
+				+ name + " in a multi-tool traversal");
+		}
+
+		private boolean isFlag() {
+			return field.getType() == boolean.class || field.getType() == Boolean.class;
+		}
+
+		private boolean isSet() {
+			try {
+				return field.getType().isPrimitive() || pendingOutput != null || field.get(object) != null;
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private void parse(final String value) {
+			final Class<?> type = field.getType();
+			if (!supported) {
+				throw unsupported();
+			}
+			try {
+				if (type == String.class) {
+					set(value);
+				} else if (type == File.class) {
+					set(new File(value));
+				} else if (type == int.class || type == Integer.class) {
+					set(Integer.valueOf(value));
+				} else if (type == long.class || type == Long.class) {
+					set(Long.valueOf(value));
+				} else if (type == double.class || type == Double.class) {
+					set(Double.valueOf(value));
+				} else if (isFlag()) {
+					set(Boolean.valueOf(value));
+				} else if (type.isEnum()) {
+					set(enumValue(type, value));
+				} else if (type == VariantContextWriter.class) {
+					pendingOutput = new File(value);
+				} else {
+					throw unsupported();
+				}
+			} catch (IllegalArgumentException e) {
+				throw new UserException.BadArgumentValue("analysis", "wrong value for --" + fullName + " in " + name + ": " + value);
+			}
+		}
+
+		/**
+		 * Get the constant of an enum type
+		 *
+		 * @throws IllegalArgumentException if the type has no constant with that name
+		 */
+		@SuppressWarnings("unchecked")
+		private <E extends Enum<E>> E enumValue(final Class<?> type, final String value) {
+			return Enum.valueOf((Class<E>) type, value);
+		}
+
+		private void set(final Object value) {
+			try {
+				field.set(object, value);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
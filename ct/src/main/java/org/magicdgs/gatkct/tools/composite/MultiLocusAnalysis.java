@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.composite;
+
+import org.broadinstitute.gatk.engine.CommandLineGATK;
+import org.broadinstitute.gatk.engine.walkers.LocusWalker;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
+import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
+import org.broadinstitute.gatk.utils.help.HelpConstants;
+import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run several locus tools over a single traversal
+ *
+ * <p>
+ * The reads are decoded and the pileups are built once for all the tools, instead of once for each of them. Each tool
+ * keeps its own arguments, outputs and reduce state, and gets the same pileup as if it was run alone: tools which do
+ * not include reads with deletions get the pileup without them.
+ * </p>
+ *
+ * <h2>Input</h2>
+ * <p>
+ * The inputs required by all the tools.
+ * </p>
+ *
+ * <h2>Output</h2>
+ * <p>
+ * The outputs of each tool, provided in its specification.
+ * </p>
+ *
+ * <h2>Examples</h2>
+ * <pre>
+ * java -jar GATKCT.jar \
+ *   -T MultiLocusAnalysis \
+ *   -R reference.fasta \
+ *   -I sample.bam \
+ *   -A "AncientCaller -o calls.vcf -maxCov 5" \
+ *   -A "IdentifyIndelRegions -o indels.interval_list -w 10"
+ * </pre>
+ *
+ * <p>
+ * Only arguments with simple values (numbers, strings, files, enums and VCF outputs) could be provided for the tools.
+ * The read filters and downsampling are the ones of this tool, and -nt/-nct are not supported.
+ * </p>
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+@DocumentedGATKFeature(groupName = HelpConstants.DOCS_CAT_DATA, extraDocs = {CommandLineGATK.class})
+public class MultiLocusAnalysis extends LocusWalker<Object[], Object[]> {
+
+	/**
+	 * Tool to run in the traversal, with its arguments as in its own command line (e.g. "AncientCaller -o calls.vcf").
+	 * Paths with whitespaces are not supported
+	 */
+	@Argument(fullName = "analysis", shortName = "A", doc = "Tool to run, followed by its arguments")
+	List<String> analysisSpecifications;
+
+	// map result for the tools which do not process a locus
+	private static final Object SKIPPED = new Object();
+
+	private final List<LocusAnalysis> analyses = new ArrayList<>();
+
+	// true if some tool needs the deletions
+	private boolean includeDeletions = false;
+
+	// true if some tool should get the pileup without deletions
+	private boolean removeDeletions = false;
+
+	@Override
+	public void initialize() {
+		super.initialize();
+		for (LocusAnalysis analysis : getAnalyses()) {
+			analysis.initialize(getToolkit());
+		}
+	}
+
+	@Override
+	public boolean includeReadsWithDeletionAtLoci() {
+		getAnalyses();
+		return includeDeletions;
+	}
+
+	/**
+	 * Get the tools to run, parsing their specifications the first time. The engine asks for the deletions before
+	 * initializing the walker, so this could not be done in {@link #initialize()}
+	 */
+	private List<LocusAnalysis> getAnalyses() {
+		if (analyses.isEmpty()) {
+			if (analysisSpecifications.isEmpty()) {
+				throw new UserException.BadArgumentValue("analysis", "at least one tool should be provided");
+			}
+			for (String specification : analysisSpecifications) {
+				final LocusAnalysis analysis = new LocusAnalysis(specification);
+				analyses.add(analysis);
+				if (analysis.getWalker().includeReadsWithDeletionAtLoci()) {
+					includeDeletions = true;
+				} else {
+					removeDeletions = true;
+				}
+			}
+		}
+		return analyses;
+	}
+
+	@Override
+	public boolean isDone() {
+		for (LocusAnalysis analysis : analyses) {
+			if (!analysis.getWalker().isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Object[] map(RefMetaDataTracker tracker, ReferenceContext reference, AlignmentContext alignment) {
+		// the pileup without deletions is only built once for all the tools
+		final AlignmentContext withoutDeletions = (includeDeletions && removeDeletions)
+			? new AlignmentContext(alignment.getLocation(), alignment.getBasePileup().getPileupWithoutDeletions())
+			: alignment;
+		final Object[] values = new Object[analyses.size()];
+		for (int i = 0; i < values.length; i++) {
+			final LocusAnalysis analysis = analyses.get(i);
+			values[i] = analysis.map(tracker, reference,
+				(analysis.getWalker().includeReadsWithDeletionAtLoci()) ? alignment : withoutDeletions, SKIPPED);
+		}
+		return values;
+	}
+
+	@Override
+	public Object[] reduceInit() {
+		final Object[] sums = new Object[analyses.size()];
+		for (int i = 0; i < sums.length; i++) {
+			sums[i] = analyses.get(i).getWalker().reduceInit();
+		}
+		return sums;
+	}
+
+	@Override
+	public Object[] reduce(Object[] values, Object[] sums) {
+		for (int i = 0; i < sums.length; i++) {
+			if (values[i] != SKIPPED) {
+				sums[i] = analyses.get(i).reduce(values[i], sums[i]);
+			}
+		}
+		return sums;
+	}
+
+	@Override
+	public void onTraversalDone(Object[] sums) {
+		for (int i = 0; i < sums.length; i++) {
+			logger.info(analyses.get(i).getName() + " result: " + sums[i]);
+			analyses.get(i).onTraversalDone(sums[i]);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.gather;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.Tribble;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.CommandLineProgram;
+import org.broadinstitute.gatk.utils.commandline.Input;
+import org.broadinstitute.gatk.utils.commandline.Output;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
+import org.broadinstitute.gatk.utils.help.HelpConstants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gather block compressed shards (VCF or BED) produced by scattering a GATKCT tool
+ *
+ * <p>
+ * The shards are concatenated in the order provided without decoding the records: only the header and the first
+ * block with records of each shard are re-compressed, and the rest of the compressed blocks are copied as they are.
+ * If all the shards have a tabix index (.tbi), the index of the gathered file is created merging them.
+ * </p>
+ *
+ * <h2>Input</h2>
+ * <p>
+ * Block compressed shards (.gz) with the same columns, sorted and non-overlapping in the order provided.
+ * </p>
+ *
+ * <h2>Output</h2>
+ * <p>
+ * Block compressed file with the header of the first shard and the records of all of them.
+ * </p>
+ *
+ * <h2>Examples</h2>
+ * <pre>
+ *    java -cp GATKCT.jar org.magicdgs.gatkct.tools.gather.GatherShards \
+ *      -I shard1.vcf.gz \
+ *      -I shard2.vcf.gz \
+ *      -o gathered.vcf.gz
+ * </pre>
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+@DocumentedGATKFeature(groupName = HelpConstants.DOCS_CAT_VARMANIP)
+public class GatherShards extends CommandLineProgram {
+
+	private static final Logger logger = Logger.getLogger(GatherShards.class);
+
+	@Input(fullName = "input", shortName = "I", doc = "Block compressed shards to gather, in order", required = true)
+	public List<File> inputs = new ArrayList<>();
+
+	@Output(doc = "Block compressed gathered file", required = true)
+	public File output = null;
+
+	/**
+	 * By default, the index is merged only if all the shards are indexed
+	 */
+	@Argument(fullName = "disable_index", shortName = "noIndex", doc = "Do not create the index for the gathered file", required = false)
+	public boolean disableIndex = false;
+
+	@Override
+	protected int execute() throws Exception {
+		if (!output.getName().endsWith(".gz")) {
+			throw new UserException.BadArgumentValue("out", "should have .gz extension");
+		}
+		final List<ShardLayout> shards = new ArrayList<>(inputs.size());
+		for (final File input : inputs) {
+			final ShardLayout shard = ShardLayout.read(input);
+			if (!shards.isEmpty() && !String.valueOf(shards.get(0).getColumnsLine()).equals(String.valueOf(shard.getColumnsLine()))) {
+				throw new UserException.BadInput(String.format("Shard %s has different columns from %s", input, inputs.get(0)));
+			}
+			shards.add(shard);
+		}
+		gather(shards);
+		if (!disableIndex) {
+			mergeIndexes(shards);
+		}
+		return 0;
+	}
+
+	/**
+	 * Write the header of the first shard and the records of all of them
+	 */
+	private void gather(final List<ShardLayout> shards) {
+		long copied = 0;
+		try (FileOutputStream stream = new FileOutputStream(output)) {
+			final FileChannel channel = stream.getChannel();
+			// the encoder flushes its blocks before copying, and its close writes the end-of-file marker
+			final BlockCompressedOutputStream encoder = new BlockCompressedOutputStream(new NonClosingOutputStream(stream), output);
+			if (!shards.isEmpty()) {
+				for (final String line : shards.get(0).getHeaderLines()) {
+					encoder.write(line.getBytes(StandardCharsets.UTF_8));
+					encoder.write('\n');
+				}
+				encoder.flush();
+			}
+			for (final ShardLayout shard : shards) {
+				logger.info("Gathering " + shard.getFile());
+				final long[] boundaryAddresses = reencodeBoundary(shard, encoder, channel);
+				final long rawAddress = channel.position();
+				try (FileInputStream input = new FileInputStream(shard.getFile())) {
+					copied += transfer(input.getChannel(), shard.getRawStart(), shard.getRawEnd(), channel);
+				}
+				shard.setGatheredAddresses(boundaryAddresses, rawAddress);
+			}
+			encoder.close();
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(output, e);
+		}
+		logger.info(String.format("Gathered %s shards into %s (%s compressed bytes copied)", shards.size(), output, copied));
+	}
+
+	/**
+	 * Re-compress the records in the first block of the shard, flushing a block each
+	 * {@link BlockCompressedStreamConstants#DEFAULT_UNCOMPRESSED_BLOCK_SIZE} bytes
+	 *
+	 * @return the address of each re-compressed block
+	 */
+	private static long[] reencodeBoundary(final ShardLayout shard, final BlockCompressedOutputStream encoder,
+		final FileChannel channel) throws IOException {
+		if (shard.getBoundaryLength() == 0) {
+			return new long[0];
+		}
+		final byte[] boundary = new byte[shard.getBoundaryLength()];
+		try (BlockCompressedInputStream input = new BlockCompressedInputStream(shard.getFile())) {
+			input.seek(shard.getDataStart());
+			int read = 0;
+			while (read < boundary.length) {
+				final int n = input.read(boundary, read, boundary.length - read);
+				if (n == -1) {
+					throw new UserException.MalformedFile(shard.getFile(), "truncated block at the start of the records");
+				}
+				read += n;
+			}
+		}
+		final int blockSize = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+		final long[] addresses = new long[(boundary.length + blockSize - 1) / blockSize];
+		for (int i = 0; i < addresses.length; i++) {
+			addresses[i] = channel.position();
+			final int start = i * blockSize;
+			encoder.write(boundary, start, Math.min(blockSize, boundary.length - start));
+			encoder.flush();
+		}
+		return addresses;
+	}
+
+	/**
+	 * Copy the compressed region [start, end) of a file
+	 *
+	 * @return the number of bytes copied
+	 */
+	private static long transfer(final FileChannel input, final long start, final long end, final FileChannel output)
+		throws IOException {
+		long position = start;
+		while (position < end) {
+			position += input.transferTo(position, end - position, output);
+		}
+		return end - start;
+	}
+
+	/**
+	 * Merge the tabix indexes of the shards, if all of them are indexed
+	 */
+	private void mergeIndexes(final List<ShardLayout> shards) {
+		final TabixIndexMerger merger = new TabixIndexMerger();
+		for (final ShardLayout shard : shards) {
+			final File index = Tribble.tabixIndexFile(shard.getFile());
+			if (!index.exists()) {
+				logger.warn("Index for the gathered file not created: missing " + index);
+				return;
+			}
+			merger.add(index, shard);
+		}
+		if (!shards.isEmpty()) {
+			merger.write(Tribble.tabixIndexFile(output));
+		}
+	}
+
+	/**
+	 * Output stream which does not close the underlying stream, so the encoder could be closed while the file is
+	 * still open
+	 */
+	private static final class NonClosingOutputStream extends FilterOutputStream {
+
+		private NonClosingOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+			out.write(bytes, offset, length);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	/**
+	 * Run the tool
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		try {
+			start(new GatherShards(), args);
+			System.exit(CommandLineProgram.result);
+		} catch (UserException e) {
+			exitSystemWithUserError(e);
+		} catch (Exception e) {
+			exitSystemWithError(e);
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.gather;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Layout of a block compressed shard: the header lines, the block where the records start and the blocks that could
+ * be copied without decompression. After gathering, {@link #mapPointer(long)} translates the virtual file pointers of
+ * the shard into the gathered file.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class ShardLayout {
+
+	private final File file;
+
+	private final List<String> headerLines;
+
+	// virtual file pointer of the first record
+	private final long dataStart;
+
+	// number of bytes of the first record block from the first record
+	private final int boundaryLength;
+
+	// compressed region copied as it is: [rawStart, rawEnd)
+	private final long rawStart;
+	private final long rawEnd;
+
+	// addresses in the gathered file of the re-encoded boundary blocks and of the copied region
+	private long[] gatheredBoundaryAddresses = new long[0];
+	private long gatheredRawStart = -1;
+
+	private ShardLayout(final File file, final List<String> headerLines, final long dataStart, final int boundaryLength,
+		final long rawStart, final long rawEnd) {
+		this.file = file;
+		this.headerLines = headerLines;
+		this.dataStart = dataStart;
+		this.boundaryLength = boundaryLength;
+		this.rawStart = rawStart;
+		this.rawEnd = rawEnd;
+	}
+
+	/**
+	 * Read the header of a block compressed shard and locate its records
+	 *
+	 * @param file the shard
+	 *
+	 * @return the layout of the shard
+	 */
+	static ShardLayout read(final File file) {
+		try {
+			final long rawEnd;
+			switch (BlockCompressedInputStream.checkTermination(file)) {
+				case HAS_TERMINATOR_BLOCK:
+					rawEnd = file.length() - BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+					break;
+				case HAS_HEALTHY_LAST_BLOCK:
+					rawEnd = file.length();
+					break;
+				default:
+					throw new UserException.MalformedFile(file, "not a block compressed file or truncated");
+			}
+			final List<String> headerLines = new ArrayList<>();
+			final long dataStart;
+			try (BlockCompressedInputStream stream = new BlockCompressedInputStream(file)) {
+				long pointer = 0;
+				String line;
+				while ((line = stream.readLine()) != null && line.startsWith("#")) {
+					headerLines.add(line);
+					pointer = stream.getFilePointer();
+				}
+				dataStart = pointer;
+			}
+			final long dataAddress = BlockCompressedFilePointerUtil.getBlockAddress(dataStart);
+			final int dataOffset = BlockCompressedFilePointerUtil.getBlockOffset(dataStart);
+			if (dataAddress >= rawEnd || dataOffset == 0) {
+				// no records or records starting in a block boundary
+				return new ShardLayout(file, headerLines, dataStart, 0, Math.min(dataAddress, rawEnd), rawEnd);
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				final byte[] header = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+				raf.seek(dataAddress);
+				raf.readFully(header);
+				if (header[0] != BlockCompressedStreamConstants.GZIP_ID1
+					|| (header[1] & 0xff) != BlockCompressedStreamConstants.GZIP_ID2
+					|| header[12] != BlockCompressedStreamConstants.BGZF_ID1
+					|| header[13] != BlockCompressedStreamConstants.BGZF_ID2) {
+					throw new UserException.MalformedFile(file, "unexpected BGZF block header at " + dataAddress);
+				}
+				final int blockSize = readUnsignedShort(header, BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
+				// the uncompressed size is the last field of the block
+				raf.seek(dataAddress + blockSize - 4);
+				final int uncompressedSize = Integer.reverseBytes(raf.readInt());
+				return new ShardLayout(file, headerLines, dataStart, uncompressedSize - dataOffset,
+					dataAddress + blockSize, rawEnd);
+			}
+		} catch (IOException e) {
+			throw new UserException.CouldNotReadInputFile(file, e);
+		}
+	}
+
+	private static int readUnsignedShort(final byte[] bytes, final int offset) {
+		return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8);
+	}
+
+	/**
+	 * Get the shard file
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the header lines (without the new line)
+	 */
+	List<String> getHeaderLines() {
+		return Collections.unmodifiableList(headerLines);
+	}
+
+	/**
+	 * Get the last header line (#CHROM for VCF files); {@code null} if there is no header
+	 */
+	String getColumnsLine() {
+		return (headerLines.isEmpty()) ? null : headerLines.get(headerLines.size() - 1);
+	}
+
+	/**
+	 * Get the virtual file pointer of the first record
+	 */
+	long getDataStart() {
+		return dataStart;
+	}
+
+	/**
+	 * Get the number of uncompressed bytes from the first record to the end of its block, which should be re-encoded
+	 */
+	int getBoundaryLength() {
+		return boundaryLength;
+	}
+
+	/**
+	 * Get the address of the first block copied without decompression
+	 */
+	long getRawStart() {
+		return rawStart;
+	}
+
+	/**
+	 * Get the address after the last block copied without decompression
+	 */
+	long getRawEnd() {
+		return rawEnd;
+	}
+
+	/**
+	 * Set where the shard was written in the gathered file
+	 *
+	 * @param boundaryAddresses address of each block with the re-encoded boundary
+	 * @param rawAddress        address of the copied region
+	 */
+	void setGatheredAddresses(final long[] boundaryAddresses, final long rawAddress) {
+		this.gatheredBoundaryAddresses = boundaryAddresses;
+		this.gatheredRawStart = rawAddress;
+	}
+
+	/**
+	 * Translate a virtual file pointer in the shard to the gathered file. Pointers before the first record are
+	 * translated to the start of the shard records, and pointers after the copied region (e.g., in the end-of-file
+	 * marker) to its end
+	 *
+	 * @param pointer the pointer in the shard
+	 *
+	 * @return the pointer in the gathered file
+	 */
+	long mapPointer(final long pointer) {
+		if (gatheredRawStart == -1) {
+			throw new IllegalStateException("Shard not gathered yet: " + file);
+		}
+		final long address = BlockCompressedFilePointerUtil.getBlockAddress(pointer);
+		if (address >= rawEnd) {
+			return (rawEnd - rawStart + gatheredRawStart) << 16;
+		}
+		if (address >= rawStart) {
+			return ((address - rawStart + gatheredRawStart) << 16) | BlockCompressedFilePointerUtil.getBlockOffset(pointer);
+		}
+		final long relative = (BlockCompressedFilePointerUtil.compare(pointer, dataStart) <= 0) ? 0
+			: BlockCompressedFilePointerUtil.getBlockOffset(pointer) - BlockCompressedFilePointerUtil.getBlockOffset(dataStart);
+		if (relative >= boundaryLength) {
+			return gatheredRawStart << 16;
+		}
+		final int block = (int) (relative / BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE);
+		return (gatheredBoundaryAddresses[block] << 16) | (relative % BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE);
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.gather;
+
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges the tabix indexes (.tbi) of gathered shards without reading the records: the virtual file pointers of each
+ * shard index are translated with {@link ShardLayout#mapPointer(long)} and the bins, linear indexes and metadata of
+ * references present in several shards are combined.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class TabixIndexMerger {
+
+	private static final byte[] MAGIC = {'T', 'B', 'I', 1};
+
+	// pseudo-bin with the reference metadata: first chunk contains pointers and the second one counts
+	private static final int METADATA_BIN = 37450;
+
+	// format, col_seq, col_beg, col_end, meta, skip
+	private int[] configuration = null;
+
+	private final Map<String, Reference> references = new LinkedHashMap<>();
+
+	private Long unplacedRecords = null;
+
+	/**
+	 * Add the index of a gathered shard
+	 *
+	 * @param index the tabix index of the shard
+	 * @param shard the layout of the shard, already gathered
+	 */
+	void add(final File index, final ShardLayout shard) {
+		final ByteBuffer buffer = ByteBuffer.wrap(decompress(index)).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			final byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new UserException.MalformedFile(index, "not a tabix index");
+			}
+			final int numberOfReferences = buffer.getInt();
+			final int[] shardConfiguration = new int[6];
+			for (int i = 0; i < shardConfiguration.length; i++) {
+				shardConfiguration[i] = buffer.getInt();
+			}
+			if (configuration == null) {
+				configuration = shardConfiguration;
+			} else if (!Arrays.equals(configuration, shardConfiguration)) {
+				throw new UserException.BadInput("Tabix index " + index + " has a different format from the previous shards");
+			}
+			final byte[] names = new byte[buffer.getInt()];
+			buffer.get(names);
+			final String[] referenceNames = (names.length == 0) ? new String[0]
+				: new String(names, StandardCharsets.UTF_8).split("\0");
+			if (referenceNames.length != numberOfReferences) {
+				throw new UserException.MalformedFile(index, "wrong number of reference names");
+			}
+			for (final String name : referenceNames) {
+				Reference reference = references.get(name);
+				if (reference == null) {
+					reference = new Reference();
+					references.put(name, reference);
+				}
+				reference.read(buffer, shard);
+			}
+			if (buffer.remaining() >= Long.BYTES) {
+				unplacedRecords = ((unplacedRecords == null) ? 0 : unplacedRecords) + buffer.getLong();
+			}
+		} catch (BufferUnderflowException e) {
+			throw new UserException.MalformedFile(index, "truncated tabix index", e);
+		}
+	}
+
+	/**
+	 * Write the merged index
+	 *
+	 * @param index the output file
+	 */
+	void write(final File index) {
+		if (configuration == null) {
+			throw new IllegalStateException("No index was added");
+		}
+		try (BinaryCodec codec = new BinaryCodec(new BlockCompressedOutputStream(index))) {
+			codec.writeBytes(MAGIC);
+			codec.writeInt(references.size());
+			for (final int value : configuration) {
+				codec.writeInt(value);
+			}
+			final ByteArrayOutputStream names = new ByteArrayOutputStream();
+			for (final String name : references.keySet()) {
+				names.write(name.getBytes(StandardCharsets.UTF_8));
+				names.write(0);
+			}
+			codec.writeInt(names.size());
+			codec.writeBytes(names.toByteArray());
+			for (final Reference reference : references.values()) {
+				reference.write(codec);
+			}
+			if (unplacedRecords != null) {
+				codec.writeLong(unplacedRecords);
+			}
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(index, e);
+		}
+	}
+
+	private static byte[] decompress(final File index) {
+		try (InputStream stream = new BlockCompressedInputStream(index)) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new UserException.CouldNotReadInputFile(index, e);
+		}
+	}
+
+	/**
+	 * Bins and linear index of a reference, merged from all the shards
+	 */
+	private static final class Reference {
+
+		// chunks (pairs of begin/end pointers) for each bin, in bin order
+		private final Map<Integer, List<long[]>> bins = new TreeMap<>();
+
+		private long[] linearIndex = new long[0];
+
+		private void read(final ByteBuffer buffer, final ShardLayout shard) {
+			final int numberOfBins = buffer.getInt();
+			for (int b = 0; b < numberOfBins; b++) {
+				final int bin = buffer.getInt();
+				final int numberOfChunks = buffer.getInt();
+				List<long[]> chunks = bins.get(bin);
+				if (chunks == null) {
+					chunks = new ArrayList<>(numberOfChunks);
+					bins.put(bin, chunks);
+				}
+				for (int c = 0; c < numberOfChunks; c++) {
+					final long begin = buffer.getLong();
+					final long end = buffer.getLong();
+					if (bin == METADATA_BIN && c == 1) {
+						addCounts(chunks, begin, end);
+					} else if (bin == METADATA_BIN && !chunks.isEmpty()) {
+						// extend the span of the reference
+						chunks.get(0)[1] = shard.mapPointer(end);
+					} else {
+						chunks.add(new long[] {shard.mapPointer(begin), shard.mapPointer(end)});
+					}
+				}
+			}
+			final int numberOfIntervals = buffer.getInt();
+			if (numberOfIntervals > linearIndex.length) {
+				linearIndex = Arrays.copyOf(linearIndex, numberOfIntervals);
+			}
+			for (int i = 0; i < numberOfIntervals; i++) {
+				final long offset = buffer.getLong();
+				// the first shard with records in the window has the lowest offset
+				if (linearIndex[i] == 0 && offset != 0) {
+					linearIndex[i] = shard.mapPointer(offset);
+				}
+			}
+		}
+
+		private static void addCounts(final List<long[]> chunks, final long mapped, final long unmapped) {
+			if (chunks.size() < 2) {
+				chunks.add(new long[] {mapped, unmapped});
+			} else {
+				chunks.get(1)[0] += mapped;
+				chunks.get(1)[1] += unmapped;
+			}
+		}
+
+		private void write(final BinaryCodec codec) {
+			codec.writeInt(bins.size());
+			for (final Map.Entry<Integer, List<long[]>> bin : bins.entrySet()) {
+				codec.writeInt(bin.getKey());
+				codec.writeInt(bin.getValue().size());
+				for (final long[] chunk : bin.getValue()) {
+					codec.writeLong(chunk[0]);
+					codec.writeLong(chunk[1]);
+				}
+			}
+			codec.writeInt(linearIndex.length);
+			for (final long offset : linearIndex) {
+				codec.writeLong(offset);
+			}
+		}
+	}
+}
@@ -26,11 +26,14 @@ package org.magicdgs.gatkct.tools.indels;
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.SAMTextHeaderCodec;
 import htsjdk.samtools.util.*;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.tabix.TabixFormat;
 import org.apache.commons.io.FilenameUtils;
 import org.broadinstitute.gatk.engine.CommandLineGATK;
 import org.broadinstitute.gatk.engine.walkers.LocusWalker;
 import org.broadinstitute.gatk.engine.walkers.TreeReducible;
 import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.ArgumentCollection;
 import org.broadinstitute.gatk.utils.commandline.Output;
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
@@ -39,10 +42,15 @@ import org.broadinstitute.gatk.utils.help.HelpConstants;
 import org.broadinstitute.gatk.utils.pileup.PileupElement;
 import org.broadinstitute.gatk.utils.pileup.ReadBackedPileup;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
+import org.magicdgs.gatkct.util.IndexedBlockCompressedOutput;
+import org.magicdgs.gatkct.util.MetricsArgumentCollection;
+import org.magicdgs.gatkct.util.MetricsArgumentCollection.Stage;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 
@@ -77,11 +85,18 @@ import java.text.NumberFormat;
 public class IdentifyIndelRegions extends LocusWalker<Interval, Integer> implements TreeReducible<Integer> {
 
 	/**
-	 * The output intervals
+	 * The output intervals. The format depends on the extension: interval_list, BED (.bed) or GATK intervals. BED
+	 * files with .bed.gz extension are block compressed in parallel and indexed with tabix.
 	 */
 	@Output(required = true)
 	protected File out;
 
+	/**
+	 * Number of threads to compress the output if it is a .bed.gz file
+	 */
+	@Argument(fullName = "bgzf_threads", shortName = "bgzfThreads", doc = "Number of threads to compress a .bed.gz output", required = false)
+	int bgzfThreads = 4;
+
 	/**
 	 * The minimum count for indel identification. If the number of insertions or deletions of certain length at any
 	 * position for all the inputs is lower than this number, the indels is not included in the output
@@ -97,6 +112,9 @@ public class IdentifyIndelRegions extends LocusWalker<Interval, Integer> impleme
 		required = false)
 	int indelWin = 5;
 
+	@ArgumentCollection
+	protected MetricsArgumentCollection metricsArguments = new MetricsArgumentCollection();
+
 	// this is the interval list that we will emit
 	private IntervalList toEmit;
 
@@ -114,13 +132,20 @@ public class IdentifyIndelRegions extends LocusWalker<Interval, Integer> impleme
 		return true;
 	}
 
+	@Override
+	public Interval map(RefMetaDataTracker tracker, ReferenceContext reference, AlignmentContext alignment) {
+		final long start = metricsArguments.start(Stage.MAP);
+		final Interval interval = findIndel(alignment);
+		metricsArguments.stop(Stage.MAP, start);
+		return interval;
+	}
+
 	/**
 	 * Map the position to an interval if there is an indel
 	 *
 	 * @return the indel interval (without padding) if an indel is found; <code>null</code>
 	 */
-	@Override
-	public Interval map(RefMetaDataTracker tracker, ReferenceContext reference, AlignmentContext alignment) {
+	private Interval findIndel(AlignmentContext alignment) {
 		// get the pileup for this position
 		ReadBackedPileup pileup = alignment.getBasePileup();
 		// If there is no coverage, there is no indel region
@@ -183,17 +208,22 @@ public class IdentifyIndelRegions extends LocusWalker<Interval, Integer> impleme
 		if (interval == null) {
 			return value;
 		}
+		final long start = metricsArguments.start(Stage.REDUCE);
 		final Interval toAdd = interval.pad(indelWin, indelWin);
 		synchronized (toEmit) {
 			toEmit.add(toAdd);
 		}
+		metricsArguments.stop(Stage.REDUCE, start);
 		// for each interval we will add one
 		return value + 1;
 	}
 
 	@Override
 	public Integer treeReduce(Integer lhs, Integer rhs) {
-		return lhs + rhs;
+		final long start = metricsArguments.start(Stage.TREE_REDUCE);
+		final Integer sum = lhs + rhs;
+		metricsArguments.stop(Stage.TREE_REDUCE, start);
+		return sum;
 	}
 
 	public void onTraversalDone(Integer sum) {
@@ -202,7 +232,15 @@ public class IdentifyIndelRegions extends LocusWalker<Interval, Integer> impleme
 		toEmit = toEmit.uniqued();
 		logger.info(String.format("Writting down the results in %s", out));
 		long totalBpMasked = 0;
+		if (out.getName().endsWith(".bed.gz")) {
+			totalBpMasked = writeIndexedBed();
+			logger.info(String.format("A total of %s intervals (%s bp) were identified", fmt.format(toEmit.size()),
+				fmt.format(totalBpMasked)));
+			metricsArguments.report(getClass().getSimpleName());
+			return;
+		}
 		final boolean intervalListFormat = FilenameUtils.getExtension(out.getName()).equals("interval_list");
+		final boolean bedFormat = FilenameUtils.getExtension(out.getName()).equals("bed");
 		// write the header if it is an interval list format
 		try (BufferedWriter bufferedWriter = IOUtil.openFileForBufferedWriting(out)) {
 			if (intervalListFormat) {
@@ -210,12 +248,16 @@ public class IdentifyIndelRegions extends LocusWalker<Interval, Integer> impleme
 				codec.encode(bufferedWriter, toEmit.getHeader());
 			}
 			for (Interval interval : toEmit) {
+				final long start = metricsArguments.start(Stage.WRITE);
 				totalBpMasked += interval.length();
 				if (intervalListFormat) {
 					writeIntervalListFormat(interval, bufferedWriter);
+				} else if (bedFormat) {
+					bufferedWriter.write(getBedLine(interval));
 				} else {
 					writeNotDefaultInterval(interval, bufferedWriter);
 				}
+				metricsArguments.stop(Stage.WRITE, start);
 			}
 			bufferedWriter.flush();
 			bufferedWriter.close();
@@ -224,6 +266,41 @@ public class IdentifyIndelRegions extends LocusWalker<Interval, Integer> impleme
 		}
 		logger.info(String.format("A total of %s intervals (%s bp) were identified", fmt.format(toEmit.size()),
 			fmt.format(totalBpMasked)));
+		metricsArguments.report(getClass().getSimpleName());
+	}
+
+	/**
+	 * Write the intervals in a block compressed BED file with its tabix index
+	 *
+	 * @return the number of base-pairs in the intervals
+	 */
+	private long writeIndexedBed() {
+		long totalBpMasked = 0;
+		try (IndexedBlockCompressedOutput indexedOutput = new IndexedBlockCompressedOutput(out, bgzfThreads,
+			TabixFormat.BED, toEmit.getHeader().getSequenceDictionary())) {
+			final OutputStream stream = indexedOutput.getOutputStream();
+			for (Interval interval : toEmit) {
+				final long start = metricsArguments.start(Stage.WRITE);
+				totalBpMasked += interval.length();
+				indexedOutput.startRecord(new SimpleFeature(interval.getContig(), interval.getStart(), interval.getEnd()));
+				stream.write(getBedLine(interval).getBytes(StandardCharsets.UTF_8));
+				metricsArguments.stop(Stage.WRITE, start);
+			}
+		} catch (final IOException e) {
+			throw new SAMException("Error writing out intervals to file: " + out.getAbsolutePath(), e);
+		}
+		return totalBpMasked;
+	}
+
+	/**
+	 * Get the BED line (0-based start) for an interval, including the new line
+	 *
+	 * @param interval the interval
+	 *
+	 * @return the formatted line
+	 */
+	private static String getBedLine(Interval interval) {
+		return interval.getContig() + '\t' + (interval.getStart() - 1) + '\t' + interval.getEnd() + '\n';
 	}
 
 	/**
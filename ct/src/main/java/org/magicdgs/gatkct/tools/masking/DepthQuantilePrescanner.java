@@ -0,0 +1,631 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.magicdgs.gatkct.tools.masking;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.TribbleException;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.readers.LineReader;
+import htsjdk.tribble.readers.TabixReader;
+import htsjdk.variant.vcf.VCFConstants;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Estimates per-sample depth quantiles from the DP field of VCF files without decoding the records: only the FORMAT
+ * column and the GT/DP sub-fields of each sample column are parsed, and only for the records starting in the traversal
+ * intervals. If the input is indexed (tabix or tribble), only the traversal intervals are queried; otherwise, the whole
+ * file is read. All the inputs are read in the same pass, and blocks of lines are parsed in parallel, each worker with
+ * its own {@link DepthQuantileSketch} per sample; the sketches are merged at the end
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class DepthQuantilePrescanner {
+
+	private static final Logger logger = Logger.getLogger(DepthQuantilePrescanner.class);
+
+	// number of lines parsed by each task
+	private static final int LINES_PER_TASK = 1000;
+
+	// index of the FORMAT column in a VCF line
+	private static final int FORMAT_COLUMN = 8;
+
+	// the traversal intervals in order; null for the whole genome
+	private final List<GenomeLoc> traversal;
+
+	// the traversal intervals by contig; null for the whole genome
+	private final Map<String, ContigIntervals> intervals;
+
+	private final int numberOfThreads;
+
+	// the distinct inputs to scan
+	private final List<Input> inputs = new ArrayList<>();
+
+	/**
+	 * Create a new pre-scanner
+	 *
+	 * @param intervals       the traversal intervals; <code>null</code> for the whole genome
+	 * @param numberOfThreads the number of threads to parse the DP field
+	 */
+	DepthQuantilePrescanner(final GenomeLocSortedSet intervals, final int numberOfThreads) {
+		this.traversal = (intervals == null) ? null : new ArrayList<>(intervals);
+		this.intervals = (intervals == null) ? null : ContigIntervals.byContig(intervals);
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+	}
+
+	/**
+	 * Add a VCF file to sketch. A file added several times is only read once
+	 *
+	 * @param vcf             the VCF file (plain text or block-compressed)
+	 * @param numberOfSamples the number of samples in the header of the VCF
+	 *
+	 * @return the index of its sketches in {@link #sketch(long)}
+	 */
+	int addInput(final File vcf, final int numberOfSamples) {
+		if (vcf.getName().endsWith(".bcf")) {
+			throw new UserException.BadInput("Depth quantiles could only be estimated from VCF files: " + vcf);
+		}
+		for (int i = 0; i < inputs.size(); i++) {
+			if (inputs.get(i).vcf.getAbsoluteFile().toPath().normalize().equals(vcf.getAbsoluteFile().toPath().normalize())) {
+				return i;
+			}
+		}
+		inputs.add(new Input(vcf, numberOfSamples));
+		return inputs.size() - 1;
+	}
+
+	/**
+	 * Sketch the depth for each sample of every input
+	 *
+	 * @param maxRecords the maximum number of records to sketch per input (sampled prefix of the traversal); if 0 or
+	 *                   negative, all the records
+	 *
+	 * @return the sketches for each input, indexed by the sample ordinal in its header
+	 */
+	DepthQuantileSketch[][] sketch(final long maxRecords) {
+		final ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		// tasks in flight for all the inputs, bounded to keep the memory constant
+		final Deque<Block> blocks = new ArrayDeque<>(2 * numberOfThreads);
+		try {
+			for (final Input input : inputs) {
+				input.open();
+			}
+			// the inputs are read in turns, so the pass finishes with the longest one
+			int remaining = inputs.size();
+			while (remaining != 0) {
+				for (final Input input : inputs) {
+					if (input.reader == null) {
+						continue;
+					}
+					final List<String> lines = input.readBlock(maxRecords);
+					if (lines.size() < LINES_PER_TASK) {
+						input.close();
+						remaining--;
+					}
+					if (!lines.isEmpty()) {
+						if (blocks.size() == 2 * numberOfThreads) {
+							blocks.poll().merge();
+						}
+						blocks.add(new Block(input, submit(executor, lines, input.sketches.length)));
+					}
+				}
+			}
+			while (!blocks.isEmpty()) {
+				blocks.poll().merge();
+			}
+			final DepthQuantileSketch[][] sketches = new DepthQuantileSketch[inputs.size()][];
+			for (int i = 0; i < sketches.length; i++) {
+				final Input input = inputs.get(i);
+				logger.info(String.format("Depth quantiles estimated from %s records in %s", input.records, input.vcf));
+				sketches[i] = input.sketches;
+			}
+			return sketches;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UserException("Interrupted while estimating depth quantiles", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new UserException("Error estimating depth quantiles", e.getCause());
+		} finally {
+			executor.shutdownNow();
+			for (final Input input : inputs) {
+				input.close();
+			}
+		}
+	}
+
+	private Future<DepthQuantileSketch[]> submit(final ExecutorService executor, final List<String> lines, final int numberOfSamples) {
+		return executor.submit(() -> {
+			final DepthQuantileSketch[] sketches = newSketches(numberOfSamples);
+			for (final String line : lines) {
+				addDepths(line, sketches);
+			}
+			return sketches;
+		});
+	}
+
+	private static DepthQuantileSketch[] newSketches(final int numberOfSamples) {
+		final DepthQuantileSketch[] sketches = new DepthQuantileSketch[numberOfSamples];
+		for (int i = 0; i < numberOfSamples; i++) {
+			sketches[i] = new DepthQuantileSketch();
+		}
+		return sketches;
+	}
+
+	/**
+	 * Check if a record starts in the traversal intervals, as the records visited by the walker
+	 *
+	 * @param line the VCF line
+	 * @param vcf  the VCF file, for errors
+	 */
+	private boolean isTraversed(final String line, final File vcf) {
+		if (intervals == null) {
+			return true;
+		}
+		final ContigIntervals contig = intervals.get(line.substring(0, contigEnd(line, vcf)));
+		return contig != null && contig.contains(recordStart(line, vcf));
+	}
+
+	/**
+	 * Get the end of the contig column in a VCF line
+	 */
+	private static int contigEnd(final String line, final File vcf) {
+		final int contigEnd = line.indexOf('\t');
+		if (contigEnd == -1) {
+			throw new UserException.MalformedFile(vcf, "there are not enough columns in line " + line);
+		}
+		return contigEnd;
+	}
+
+	/**
+	 * Get the start position of the record in a VCF line
+	 */
+	private static int recordStart(final String line, final File vcf) {
+		final int contigEnd = contigEnd(line, vcf);
+		final int positionEnd = line.indexOf('\t', contigEnd + 1);
+		if (positionEnd == -1) {
+			throw new UserException.MalformedFile(vcf, "there are not enough columns in line " + line);
+		}
+		try {
+			return Integer.parseInt(line.substring(contigEnd + 1, positionEnd));
+		} catch (NumberFormatException e) {
+			throw new UserException.MalformedFile(vcf, "the position is not an integer in line " + line);
+		}
+	}
+
+	/**
+	 * Add the depths for the called genotypes in a VCF line
+	 *
+	 * @param line     the VCF line
+	 * @param sketches the sketches for each sample
+	 */
+	private static void addDepths(final String line, final DepthQuantileSketch[] sketches) {
+		// skip the fixed columns
+		int start = 0;
+		for (int column = 0; column < FORMAT_COLUMN; column++) {
+			start = line.indexOf('\t', start) + 1;
+			if (start == 0) {
+				// sites-only line
+				return;
+			}
+		}
+		int end = line.indexOf('\t', start);
+		if (end == -1) {
+			return;
+		}
+		// find the DP and GT sub-fields in the FORMAT; without GT, the genotypes are not called
+		final int dpIndex = subFieldIndex(line, start, end, VCFConstants.DEPTH_KEY);
+		final int gtIndex = subFieldIndex(line, start, end, VCFConstants.GENOTYPE_KEY);
+		if (dpIndex == -1 || gtIndex == -1) {
+			return;
+		}
+		for (int sample = 0; sample < sketches.length && end != line.length(); sample++) {
+			start = end + 1;
+			end = line.indexOf('\t', start);
+			if (end == -1) {
+				end = line.length();
+			}
+			if (isCalled(line, start, end, gtIndex)) {
+				sketches[sample].add(parseSubField(line, start, end, dpIndex));
+			}
+		}
+	}
+
+	/**
+	 * Get the index of a key in the FORMAT column
+	 *
+	 * @return the index of the sub-field; -1 if not found
+	 */
+	private static int subFieldIndex(final String line, final int start, final int end, final String key) {
+		int index = 0;
+		int fieldStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || line.charAt(i) == ':') {
+				if (i - fieldStart == key.length() && line.startsWith(key, fieldStart)) {
+					return index;
+				}
+				index++;
+				fieldStart = i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the start of a sub-field in a sample column
+	 *
+	 * @return the position where the sub-field starts; -1 if the sub-field is absent
+	 */
+	private static int subFieldStart(final String line, final int start, final int end, final int index) {
+		int position = start;
+		for (int i = 0; i < index; i++) {
+			position = line.indexOf(':', position);
+			if (position == -1 || position >= end) {
+				return -1;
+			}
+			position++;
+		}
+		return position;
+	}
+
+	/**
+	 * Check if the genotype in a sample column is called as {@link htsjdk.variant.variantcontext.Genotype#isCalled()}:
+	 * at least one of its alleles is not missing, so half-calls like ./1 are called
+	 */
+	private static boolean isCalled(final String line, final int start, final int end, final int gtIndex) {
+		final int position = subFieldStart(line, start, end, gtIndex);
+		if (position == -1) {
+			return false;
+		}
+		int alleleStart = position;
+		for (int i = position; i <= end; i++) {
+			final char c = (i == end) ? ':' : line.charAt(i);
+			if (c == ':' || c == '/' || c == '|') {
+				final int length = i - alleleStart;
+				if (length > 1 || (length == 1 && line.charAt(alleleStart) != '.')) {
+					return true;
+				}
+				if (c == ':') {
+					return false;
+				}
+				alleleStart = i + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parse an integer sub-field in a sample column
+	 *
+	 * @return the value; -1 if absent or missing
+	 */
+	private static int parseSubField(final String line, final int start, final int end, final int index) {
+		final int position = subFieldStart(line, start, end, index);
+		if (position == -1) {
+			return -1;
+		}
+		int value = 0;
+		boolean digits = false;
+		for (int i = position; i < end; i++) {
+			final char c = line.charAt(i);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			value = value * 10 + (c - '0');
+			digits = true;
+		}
+		return (digits) ? value : -1;
+	}
+
+	/**
+	 * Input VCF with its reader and the merged sketches
+	 */
+	private final class Input {
+
+		private final File vcf;
+
+		private final DepthQuantileSketch[] sketches;
+
+		private LineReader reader = null;
+
+		// records in the traversal intervals read so far
+		private long records = 0;
+
+		private Input(final File vcf, final int numberOfSamples) {
+			this.vcf = vcf;
+			this.sketches = newSketches(numberOfSamples);
+		}
+
+		private void open() {
+			if (traversal != null) {
+				reader = IndexedLineReader.open(vcf, traversal);
+			}
+			if (reader == null) {
+				reader = lineReader(IOUtil.openFileForBufferedReading(vcf));
+			} else {
+				logger.info("Querying the traversal intervals in the index of " + vcf);
+			}
+		}
+
+		/**
+		 * Read the next block of records in the traversal intervals
+		 *
+		 * @return the lines; less than {@link #LINES_PER_TASK} if the input is finished
+		 */
+		private List<String> readBlock(final long maxRecords) {
+			final List<String> lines = new ArrayList<>(LINES_PER_TASK);
+			try {
+				String line;
+				while (lines.size() < LINES_PER_TASK && (maxRecords <= 0 || records < maxRecords)
+					&& (line = reader.readLine()) != null) {
+					if (!line.isEmpty() && line.charAt(0) != '#' && isTraversed(line, vcf)) {
+						lines.add(line);
+						records++;
+					}
+				}
+			} catch (IOException e) {
+				throw new UserException.CouldNotReadInputFile(vcf, e);
+			}
+			return lines;
+		}
+
+		private void close() {
+			CloserUtil.close(reader);
+			reader = null;
+		}
+	}
+
+	private static LineReader lineReader(final BufferedReader reader) {
+		return new LineReader() {
+			@Override
+			public String readLine() throws IOException {
+				return reader.readLine();
+			}
+
+			@Override
+			public void close() {
+				CloserUtil.close(reader);
+			}
+		};
+	}
+
+	/**
+	 * Reader of the records starting in the traversal intervals, querying each interval in the tabix index of a
+	 * block-compressed VCF or in the tribble index of a plain text VCF. A record starting in an interval is only
+	 * returned in the query of that interval, so records overlapping several intervals are read once
+	 */
+	private static final class IndexedLineReader implements LineReader {
+
+		private final File vcf;
+
+		// one of the indexes is null
+		private final TabixReader tabix;
+
+		private final Index index;
+
+		private final Iterator<GenomeLoc> intervals;
+
+		private GenomeLoc current = null;
+
+		// the lines of the current query; null if it is finished
+		private LineReader query = null;
+
+		private IndexedLineReader(final File vcf, final TabixReader tabix, final Index index, final List<GenomeLoc> intervals) {
+			this.vcf = vcf;
+			this.tabix = tabix;
+			this.index = index;
+			this.intervals = intervals.iterator();
+		}
+
+		/**
+		 * Open the reader if the VCF is indexed
+		 *
+		 * @return the reader; <code>null</code> if the VCF is not indexed
+		 */
+		private static IndexedLineReader open(final File vcf, final List<GenomeLoc> intervals) {
+			try {
+				if (AbstractFeatureReader.hasBlockCompressedExtension(vcf) && Tribble.tabixIndexFile(vcf).exists()) {
+					return new IndexedLineReader(vcf, new TabixReader(vcf.getPath()), null, intervals);
+				}
+				if (!AbstractFeatureReader.hasBlockCompressedExtension(vcf) && Tribble.indexFile(vcf).exists()) {
+					return new IndexedLineReader(vcf, null, IndexFactory.loadIndex(Tribble.indexFile(vcf).getPath()), intervals);
+				}
+			} catch (IOException | TribbleException e) {
+				throw new UserException.CouldNotReadInputFile(vcf, e);
+			}
+			return null;
+		}
+
+		@Override
+		public String readLine() throws IOException {
+			while (true) {
+				if (query == null) {
+					if (!intervals.hasNext()) {
+						return null;
+					}
+					current = intervals.next();
+					query = query(current);
+					continue;
+				}
+				final String line = query.readLine();
+				if (line == null || line.isEmpty() || line.charAt(0) == '#') {
+					if (line == null) {
+						query.close();
+						query = null;
+					}
+					continue;
+				}
+				final int start = recordStart(line, vcf);
+				if (!line.substring(0, contigEnd(line, vcf)).equals(current.getContig()) || start > current.getStop()) {
+					// the records are sorted, so the rest are after the interval
+					query.close();
+					query = null;
+				} else if (start >= current.getStart()) {
+					return line;
+				}
+			}
+		}
+
+		/**
+		 * Query the lines overlapping an interval or after it
+		 *
+		 * @return the lines; <code>null</code> if there are no records for the interval
+		 */
+		private LineReader query(final GenomeLoc interval) throws IOException {
+			if (tabix != null) {
+				// the tabix query uses 0-based half-open coordinates
+				final TabixReader.Iterator iterator = tabix.query(interval.getContig(), interval.getStart() - 1, interval.getStop());
+				return (iterator == null) ? null : new LineReader() {
+					@Override
+					public String readLine() throws IOException {
+						return iterator.next();
+					}
+
+					@Override
+					public void close() {}
+				};
+			}
+			if (!index.containsChromosome(interval.getContig())) {
+				return null;
+			}
+			final List<htsjdk.tribble.index.Block> blocks = index.getBlocks(interval.getContig(), interval.getStart(), interval.getStop());
+			if (blocks.isEmpty()) {
+				return null;
+			}
+			// the file is sorted, so the reading starts in the first block
+			long start = Long.MAX_VALUE;
+			for (final htsjdk.tribble.index.Block block : blocks) {
+				start = Math.min(start, block.getStartPosition());
+			}
+			final FileInputStream stream = new FileInputStream(vcf);
+			try {
+				stream.getChannel().position(start);
+			} catch (IOException e) {
+				stream.close();
+				throw e;
+			}
+			return lineReader(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)));
+		}
+
+		@Override
+		public void close() {
+			CloserUtil.close(query);
+			query = null;
+			if (tabix != null) {
+				tabix.close();
+			}
+		}
+	}
+
+	/**
+	 * Block of lines of an input sketched in a worker
+	 */
+	private static final class Block {
+
+		private final Input input;
+
+		private final Future<DepthQuantileSketch[]> sketches;
+
+		private Block(final Input input, final Future<DepthQuantileSketch[]> sketches) {
+			this.input = input;
+			this.sketches = sketches;
+		}
+
+		private void merge() throws InterruptedException, ExecutionException {
+			final DepthQuantileSketch[] block = sketches.get();
+			for (int i = 0; i < block.length; i++) {
+				input.sketches[i].merge(block[i]);
+			}
+		}
+	}
+
+	/**
+	 * Sorted and non-overlapping intervals of a contig
+	 */
+	private static final class ContigIntervals {
+
+		private final int[] starts;
+
+		private final int[] stops;
+
+		private ContigIntervals(final List<GenomeLoc> locs) {
+			starts = new int[locs.size()];
+			stops = new int[locs.size()];
+			for (int i = 0; i < starts.length; i++) {
+				starts[i] = locs.get(i).getStart();
+				stops[i] = locs.get(i).getStop();
+			}
+		}
+
+		private boolean contains(final int position) {
+			int index = Arrays.binarySearch(starts, position);
+			if (index < 0) {
+				// the interval starting before the position
+				index = -index - 2;
+			}
+			return index >= 0 && position <= stops[index];
+		}
+
+		private static Map<String, ContigIntervals> byContig(final GenomeLocSortedSet intervals) {
+			// the set is sorted and merged, so the intervals of each contig are consecutive
+			final Map<String, List<GenomeLoc>> locs = new HashMap<>();
+			for (final GenomeLoc loc : intervals) {
+				locs.computeIfAbsent(loc.getContig(), contig -> new ArrayList<>()).add(loc);
+			}
+			final Map<String, ContigIntervals> byContig = new HashMap<>(locs.size());
+			for (final Map.Entry<String, List<GenomeLoc>> entry : locs.entrySet()) {
+				byContig.put(entry.getKey(), new ContigIntervals(entry.getValue()));
+			}
+			return byContig;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.magicdgs.gatkct.tools.masking;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable streaming sketch for the quantiles of a depth distribution. Depths lower than {@link #EXACT_DEPTHS} are
+ * counted exactly, and higher depths go to logarithmic buckets with a relative error of {@link #RELATIVE_ACCURACY}.
+ * Counts are kept in an array that only grows up to the highest bucket observed, so typical depths need a few
+ * hundred bytes per sample
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class DepthQuantileSketch {
+
+	/**
+	 * Depths counted exactly
+	 */
+	static final int EXACT_DEPTHS = 256;
+
+	/**
+	 * Relative accuracy for the depths in the logarithmic buckets
+	 */
+	static final double RELATIVE_ACCURACY = 0.01;
+
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+
+	// first logarithmic bucket, to have contiguous indexes after the exact depths
+	private static final int LOG_OFFSET = EXACT_DEPTHS - logIndex(EXACT_DEPTHS);
+
+	private int[] counts = new int[0];
+
+	private long total = 0;
+
+	/**
+	 * Add a depth to the sketch. Negative depths are ignored
+	 *
+	 * @param depth the depth
+	 */
+	void add(final int depth) {
+		if (depth < 0) {
+			return;
+		}
+		final int index = bucket(depth);
+		if (index >= counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(index + 1, Math.min(2 * counts.length, EXACT_DEPTHS)));
+		}
+		counts[index]++;
+		total++;
+	}
+
+	/**
+	 * Merge other sketch into this one
+	 *
+	 * @param other the sketch to merge
+	 *
+	 * @return this sketch, with the counts of other added
+	 */
+	DepthQuantileSketch merge(final DepthQuantileSketch other) {
+		if (other.counts.length > counts.length) {
+			counts = Arrays.copyOf(counts, other.counts.length);
+		}
+		for (int i = 0; i < other.counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+		return this;
+	}
+
+	/**
+	 * Get the number of depths added to the sketch
+	 *
+	 * @return the number of depths
+	 */
+	long size() {
+		return total;
+	}
+
+	/**
+	 * Get the depth at a quantile. Depths lower than {@link #EXACT_DEPTHS} are exact, the rest are within the
+	 * {@link #RELATIVE_ACCURACY}
+	 *
+	 * @param quantile the quantile, between 0 and 1
+	 *
+	 * @return the depth at the quantile; -1 if the sketch is empty
+	 */
+	int quantile(final double quantile) {
+		if (quantile < 0 || quantile > 1) {
+			throw new IllegalArgumentException("Quantile should be between 0 and 1: " + quantile);
+		}
+		if (total == 0) {
+			return -1;
+		}
+		final long rank = (long) Math.floor(quantile * (total - 1));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen > rank) {
+				return depth(i);
+			}
+		}
+		// unreachable if the counts are consistent with the total
+		return depth(counts.length - 1);
+	}
+
+	private static int bucket(final int depth) {
+		return (depth < EXACT_DEPTHS) ? depth : logIndex(depth) + LOG_OFFSET;
+	}
+
+	private static int logIndex(final int depth) {
+		return (int) Math.ceil(Math.log(depth) / LOG_GAMMA);
+	}
+
+	private static int depth(final int bucket) {
+		if (bucket < EXACT_DEPTHS) {
+			return bucket;
+		}
+		// middle point of the bucket, to keep the relative error
+		return (int) Math.round(2 * Math.pow(GAMMA, bucket - LOG_OFFSET) / (GAMMA + 1));
+	}
+}
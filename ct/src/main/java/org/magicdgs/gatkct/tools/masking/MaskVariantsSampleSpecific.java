@@ -44,10 +44,14 @@ import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.gatk.utils.help.HelpConstants;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.utils.variant.GATKVCFHeaderLines;
+import org.magicdgs.gatkct.util.CheckpointArgumentCollection;
+import org.magicdgs.gatkct.util.MetricsArgumentCollection;
+import org.magicdgs.gatkct.util.MetricsArgumentCollection.Stage;
+import org.magicdgs.gatkct.util.OutputArgumentCollection;
+import org.magicdgs.gatkct.util.ProgressArgumentCollection;
 
+import java.io.File;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.broadinstitute.gatk.engine.SampleUtils.getUniqueSamplesFromRods;
 
@@ -79,7 +83,7 @@ import static org.broadinstitute.gatk.engine.SampleUtils.getUniqueSamplesFromRod
  * @since 07-07-2015
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VARMANIP, extraDocs = {CommandLineGATK.class} )
-public class MaskVariantsSampleSpecific extends RodWalker<Integer, Integer> implements NanoSchedulable, TreeReducible<Integer> {
+public class MaskVariantsSampleSpecific extends RodWalker<MaskedSite, MaskingMetrics> implements NanoSchedulable, TreeReducible<MaskingMetrics> {
 
 	@ArgumentCollection
 	protected StandardVariantContextInputArgumentCollection variantCollection = new StandardVariantContextInputArgumentCollection();
@@ -87,6 +91,32 @@ public class MaskVariantsSampleSpecific extends RodWalker<Integer, Integer> impl
 	@Output(doc="File to which variants should be written")
 	protected VariantContextWriter writer = null;
 
+	@ArgumentCollection
+	protected OutputArgumentCollection outputArguments = new OutputArgumentCollection();
+
+	@ArgumentCollection
+	protected MetricsArgumentCollection metricsArguments = new MetricsArgumentCollection();
+
+	@ArgumentCollection
+	protected ProgressArgumentCollection progressArguments = new ProgressArgumentCollection();
+
+	@ArgumentCollection
+	protected CheckpointArgumentCollection checkpointArguments = new CheckpointArgumentCollection();
+
+	/**
+	 * Additional variants to mask in the same traversal, sharing the mask lookups with the main input. It can be
+	 * specified multiple times, and each of them is written to the --fan_out_output in the same position.
+	 */
+	@Input(fullName="fan_out_variant", shortName="fV", doc="Additional input variants to mask in the same traversal", required=false)
+	public List<RodBinding<VariantContext>> fanOutVariants = new ArrayList<>(0);
+
+	/**
+	 * Output for each of the --fan_out_variant inputs, in the same order. Outputs with .gz extension are block compressed
+	 * in parallel (--bgzf_threads) and indexed with tabix.
+	 */
+	@Argument(fullName="fan_out_output", shortName="fO", doc="File to which the masked --fan_out_variant should be written", required=false)
+	public List<File> fanOutOutputs = new ArrayList<>(0);
+
 	/**
 	 * Any variant for the sample specified by -sn which overlaps entries from the provided mask rod will be call as missing.
 	 * Note that there must be a 1-to-1 mapping between rod masks and sample names.
@@ -134,18 +164,41 @@ public class MaskVariantsSampleSpecific extends RodWalker<Integer, Integer> impl
 	@Argument(fullName="keepMaskedGT", shortName="keepGT", doc="Keep the masked GT in a FORMAT tag called "+MASKED_FORMAT_TAG, required=false)
 	protected boolean keepMaskedGT=false;
 
+	/**
+	 * If provided, a tab-delimited report with the number of genotypes masked by coverage, masked by the sample mask and
+	 * already missing in the input is written for every sample.
+	 */
+	@Argument(fullName="masking_report", shortName="report", doc="File to write the per-sample masking report", required=false)
+	protected File maskingReport = null;
+
 	@Hidden
 	@Argument(fullName="ALLOW_NONOVERLAPPING_COMMAND_LINE_SAMPLES", required=false, doc="Allow samples other than those in the VCF to be specified on the command line. These samples will be ignored.")
 	private boolean allowNonOverlappingCommandLineSamples = false;
 
-	//
-	//	/**
-	//	 * By default, all the samples are called if they are not masked. If this argument is used, call as missing the genotypes for samples
-	//	 * with more than the maximum coverage provided.
-	//	 */
-	//	@Argument(fullName="maximum_coverage", shortName="maxCov", doc="Maximum coverage for a sample to be called", required=false, minValue=0)
-	//	protected int maxCov = -1;
-	//
+	/**
+	 * By default, all the samples are called if they are not masked. If this argument is used, call as missing the genotypes for samples
+	 * with more than the maximum coverage provided.
+	 */
+	@Argument(fullName="maximum_coverage", shortName="maxCov", doc="Maximum coverage for a sample to be called", required=false, minValue=0)
+	protected int maxCov = -1;
+
+	/**
+	 * If provided, call as missing the genotypes with DP outside the lower and upper quantiles of the depth distribution
+	 * of their own sample (e.g. -covQ 0.05 -covQ 0.95). The quantiles are estimated before the traversal with streaming
+	 * sketches that only parse the GT and DP fields of the called genotypes in the traversal intervals, reading all the
+	 * inputs in a single pass, and they are combined with --minimum_coverage and
+	 * --maximum_coverage (the most restrictive bound is used).
+	 */
+	@Argument(fullName="coverage_quantiles", shortName="covQ", doc="Lower and upper per-sample depth quantiles for a sample to be called", required=false, minValue=0, maxValue=1)
+	protected List<Double> coverageQuantiles = null;
+
+	/**
+	 * Number of records at the beginning of each input (in the traversal intervals) used to estimate the per-sample
+	 * depth quantiles. By default, all the records in the traversal intervals are pre-scanned (only those intervals are
+	 * read if the input is indexed).
+	 */
+	@Argument(fullName="coverage_quantiles_records", shortName="covQRecords", doc="Number of records to estimate the depth quantiles (0 for all)", required=false, minValue=0)
+	protected long coverageQuantilesRecords = 0;
 
 
 	// Alleles for non-call genotypes
@@ -154,20 +207,34 @@ public class MaskVariantsSampleSpecific extends RodWalker<Integer, Integer> impl
 	// default value for previous genotype tag
 	private static final String MASKED_FORMAT_TAG = "MGT";
 
-	// HashMap to store the missing genotypes found in each sample. Maps sampleName -> number of missing
-	private static ConcurrentHashMap<String, AtomicInteger> missingBySample;
-	private static ConcurrentHashMap<String, RodBinding<Feature>> mapSampleMask;
+	// the masks shared by all the targets
+	private final List<RodBinding<Feature>> masks = new ArrayList<>();
+	// the inputs to mask and their outputs; the first one is the main input
+	private final List<MaskingTarget> targets = new ArrayList<>();
+	// the sample names and inputs for the metrics
+	private final List<String> metricsSamples = new ArrayList<>();
+	private final List<String> metricsInputs = new ArrayList<>();
 
 	public void initialize() {
 		// check if the masking files and names match
 		if (mask.size() != sampleNames.size())
 			throw new UserException.CommandLineException("--mask and --sample_name  must be a 1-to-1 mapping");
-		// get the input names
-		final List<String> inputNames = Arrays.asList(variantCollection.variants.getName());
-		Set<String> inputSamples = getUniqueSamplesFromRods(getToolkit(), inputNames);
-		// initialize the missingBySample map
-		missingBySample = new ConcurrentHashMap<>(sampleNames.size());
-		mapSampleMask = new ConcurrentHashMap<>(sampleNames.size());
+		if (fanOutVariants.size() != fanOutOutputs.size())
+			throw new UserException.CommandLineException("--fan_out_variant and --fan_out_output must be a 1-to-1 mapping");
+		// the engine only keeps the order of its own outputs across data threads
+		if (!fanOutVariants.isEmpty() && getToolkit().getArguments().numberOfDataThreads > 1)
+			throw new UserException.CommandLineException("--fan_out_variant is not supported with -nt (use -nct instead)");
+		// the checkpoints only record the offset of the main output
+		if (checkpointArguments.checkpointJournal != null && !fanOutVariants.isEmpty())
+			throw new UserException.CommandLineException("--checkpoint_journal is not supported with --fan_out_variant");
+		checkpointArguments.initialize(getToolkit(), outputArguments);
+		// create the targets
+		addTarget(variantCollection.variants, metricsArguments.wrap(outputArguments.wrap(writer, getToolkit())));
+		for(int i = 0; i < fanOutVariants.size(); i++) {
+			logger.info(String.format("Masking %s into %s", fanOutVariants.get(i).getSource(), fanOutOutputs.get(i)));
+			addTarget(fanOutVariants.get(i), metricsArguments.wrap(outputArguments.createWriter(fanOutOutputs.get(i), getToolkit())));
+		}
+		progressArguments.start(getClass().getSimpleName(), getToolkit());
 		// implementation for the ArrayList version
 		//for(int i = 0; i < sampleNames.size(); i++) {
 		//	String sample = sampleNames.get(i);
@@ -175,10 +242,21 @@ public class MaskVariantsSampleSpecific extends RodWalker<Integer, Integer> impl
 		while(!sampleNames.isEmpty()) {
 			String sample = sampleNames.pop();
 			RodBinding<Feature> masker = mask.pop();
-			if(inputSamples.contains(sample)) {
-				logger.info(String.format("Masking %s with positions %s %s file", sample, (filterRecordsNotInMask) ? "not in" : "in",  masker.getSource()));
-				mapSampleMask.put(sample, masker);
-				missingBySample.put(sample, new AtomicInteger(0));
+			// the mask is shared by all the inputs containing the sample
+			boolean found = false;
+			for(MaskingTarget target: targets) {
+				final int ordinal = target.samples.indexOf(sample);
+				if(ordinal != -1) {
+					if(!found) {
+						logger.info(String.format("Masking %s with positions %s %s file", sample, (filterRecordsNotInMask) ? "not in" : "in",  masker.getSource()));
+						masks.add(masker);
+						found = true;
+					}
+					target.maskIndexByOrdinal[ordinal] = masks.size() - 1;
+				}
+			}
+			if(found) {
+				continue;
 			} else if(allowNonOverlappingCommandLineSamples) {
 				logger.warn(String.format("Sample %s not found in the input file(s) and will be ignored", sample));
 			} else {
@@ -188,68 +266,190 @@ public class MaskVariantsSampleSpecific extends RodWalker<Integer, Integer> impl
 					"To ignore this error, run with --allowNonOverlappingCommandLineSamples"));
 			}
 		}
+		initializeCoverageBounds();
 		// genotypeFilterExps = VariantContextUtils.initializeMatchExps(genotypeFilterNames, genotypeFilterExpressions);
 
 		VariantContextUtils.engine.get().setSilent(true);
-		// setup the header fields
-		Set<VCFHeaderLine> hInfo = new HashSet<>();
-		hInfo.addAll(GATKVCFUtils.getHeaderFields(getToolkit(), inputNames));
-		if(keepMaskedGT) {
-			hInfo.add(GATKVCFHeaderLines.getFormatLine(MASKED_FORMAT_TAG));
+		for(MaskingTarget target: targets) {
+			final List<String> inputNames = Collections.singletonList(target.getName());
+			// setup the header fields
+			Set<VCFHeaderLine> hInfo = new HashSet<>();
+			hInfo.addAll(GATKVCFUtils.getHeaderFields(getToolkit(), inputNames));
+			if(keepMaskedGT) {
+				hInfo.add(GATKVCFHeaderLines.getFormatLine(MASKED_FORMAT_TAG));
+			}
+			target.writer.writeHeader(new VCFHeader(hInfo, getUniqueSamplesFromRods(getToolkit(), inputNames)));
+		}
+	}
+
+	/**
+	 * Add a new target to mask, with the samples in header order
+	 *
+	 * @param variants	the input variants
+	 * @param output	the output for the masked variants
+	 */
+	private void addTarget(final RodBinding<VariantContext> variants, final VariantContextWriter output) {
+		final List<String> samples = Collections.unmodifiableList(new ArrayList<>(
+			GATKVCFUtils.getVCFHeadersFromRods(getToolkit(), Collections.singletonList(variants.getName())).get(variants.getName()).getGenotypeSamples()));
+		targets.add(new MaskingTarget(variants, output, samples, metricsSamples.size()));
+		metricsSamples.addAll(samples);
+		metricsInputs.addAll(Collections.nCopies(samples.size(), variants.getName()));
+	}
+
+	/**
+	 * Initialize the per-sample coverage bounds for the targets from the global thresholds and the depth quantiles, if
+	 * requested. The depth of all the targets is pre-scanned in a single pass over the traversal intervals
+	 */
+	private void initializeCoverageBounds() {
+		for(MaskingTarget target: targets) {
+			Arrays.fill(target.minDepthByOrdinal, minCov);
+			Arrays.fill(target.maxDepthByOrdinal, (maxCov < 0) ? Integer.MAX_VALUE : maxCov);
+		}
+		if(coverageQuantiles == null || coverageQuantiles.isEmpty()) {
+			return;
+		}
+		if(coverageQuantiles.size() != 2 || coverageQuantiles.get(0) > coverageQuantiles.get(1)) {
+			throw new UserException.BadArgumentValue("coverage_quantiles", "should be provided twice: lower and upper quantile");
+		}
+		final DepthQuantilePrescanner prescanner = new DepthQuantilePrescanner(getToolkit().getIntervals(),
+			getToolkit().getArguments().numberOfCPUThreadsPerDataThread);
+		final int[] inputs = new int[targets.size()];
+		for(int t = 0; t < targets.size(); t++) {
+			inputs[t] = prescanner.addInput(new File(targets.get(t).variants.getSource()), targets.get(t).samples.size());
+		}
+		final DepthQuantileSketch[][] sketches = prescanner.sketch(coverageQuantilesRecords);
+		for(int t = 0; t < targets.size(); t++) {
+			setCoverageBounds(targets.get(t), sketches[inputs[t]]);
+		}
+	}
+
+	/**
+	 * Combine the coverage bounds of a target with the depth quantiles of its samples
+	 *
+	 * @param target	the target
+	 * @param sketches	the depth sketches of its samples
+	 */
+	private void setCoverageBounds(final MaskingTarget target, final DepthQuantileSketch[] sketches) {
+		for(int i = 0; i < sketches.length; i++) {
+			if(sketches[i].size() == 0) {
+				logger.warn(String.format("No depth found for %s in %s: only global coverage thresholds will be applied", target.samples.get(i), target.getName()));
+				continue;
+			}
+			target.minDepthByOrdinal[i] = Math.max(target.minDepthByOrdinal[i], sketches[i].quantile(coverageQuantiles.get(0)));
+			target.maxDepthByOrdinal[i] = Math.min(target.maxDepthByOrdinal[i], sketches[i].quantile(coverageQuantiles.get(1)));
+			logger.info(String.format("Coverage bounds for %s in %s: [%s, %s]", target.samples.get(i), target.getName(), target.minDepthByOrdinal[i], target.maxDepthByOrdinal[i]));
 		}
-		writer.writeHeader(new VCFHeader(hInfo, inputSamples));
 	}
 
 	@Override
-	public Integer reduceInit() {
-		return 0;
+	public MaskingMetrics reduceInit() {
+		final MaskingMetrics metrics = new MaskingMetrics(metricsSamples, metricsInputs);
+		final String state = checkpointArguments.getResumedState();
+		try {
+			return (state == null) ? metrics : metrics.decode(state);
+		} catch (IllegalArgumentException e) {
+			throw new UserException.MalformedFile(checkpointArguments.checkpointJournal, "checkpoint does not match the samples: " + e.getMessage());
+		}
 	}
 
+	/**
+	 * Write the masked records in order and add the masking events to the metrics
+	 */
 	@Override
-	public Integer reduce(Integer value, Integer sum) {
-		return value+sum;
+	public MaskingMetrics reduce(MaskedSite value, MaskingMetrics sum) {
+		final long start = metricsArguments.start(Stage.REDUCE);
+		for(int i = 0; i < value.numberOfRecords(); i++) {
+			targets.get(value.getRecordTarget(i)).writer.add(value.getRecord(i));
+		}
+		sum.add(value);
+		progressArguments.records(value.numberOfRecords());
+		if (progressArguments.isEnabled()) {
+			for(int i = 0; i < value.numberOfEvents(); i++) {
+				progressArguments.filtered(MaskingMetrics.CATEGORY_NAMES[MaskedSite.getCategory(value.getEvent(i))], 1);
+			}
+		}
+		if (value.numberOfRecords() != 0) {
+			final VariantContext last = value.getRecord(value.numberOfRecords() - 1);
+			checkpointArguments.checkpoint(last.getContig(), last.getStart(), targets.get(0).writer, sum::encode);
+		}
+		metricsArguments.stop(Stage.REDUCE, start);
+		return sum;
 	}
 
 	@Override
-	public Integer treeReduce(Integer lhs, Integer rhs) {
-		return lhs + rhs;
+	public MaskingMetrics treeReduce(MaskingMetrics lhs, MaskingMetrics rhs) {
+		final long start = metricsArguments.start(Stage.TREE_REDUCE);
+		final MaskingMetrics merged = lhs.merge(rhs);
+		metricsArguments.stop(Stage.TREE_REDUCE, start);
+		return merged;
 	}
 
 	@Override
-	public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+	public MaskedSite map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+		final long start = metricsArguments.start(Stage.MAP);
+		progressArguments.locus(context.getLocation());
+		final MaskedSite site = maskSite(tracker, context);
+		metricsArguments.stop(Stage.MAP, start);
+		return site;
+	}
+
+	/**
+	 * Mask the variants of all the targets at this locus
+	 */
+	private MaskedSite maskSite(RefMetaDataTracker tracker, AlignmentContext context) {
 		if ( tracker == null )
-			return 0;
-		// get the variant context in the tracker
-		Collection<VariantContext> vcs = tracker.getValues(variantCollection.variants, context.getLocation());
-		// check if is null or empty
-		if ( vcs == null || vcs.isEmpty()) {
-			// logger.debug("This is returning a null boolean on"+context.getLocation());
-			return 0;
-		}
-		int res = 0;
-		// for each variant
-		for(VariantContext vc: vcs) {
-			// create a new variant
-			VariantContextBuilder outputVariant = new VariantContextBuilder(vc);
-			// obtain the new genotypes
-			GenotypesContext outputGenotypes = callOverlapAsMissing(tracker, vc.getGenotypes(), context.getLocation());
-			// check if it is null
-			if(outputGenotypes != null) {
-				// add the new genotypes
-				outputVariant.genotypes(outputGenotypes);
-				// write to the writer
-				writer.add(outputVariant.make());
-				res++;
+			return MaskedSite.EMPTY;
+		MaskedSite site = null;
+		// mask lookups at this locus, shared by all the targets (0 if not computed yet)
+		byte[] maskLookups = null;
+		for(int t = 0; t < targets.size(); t++) {
+			final MaskingTarget target = targets.get(t);
+			// get the variant context in the tracker
+			Collection<VariantContext> vcs = tracker.getValues(target.variants, context.getLocation());
+			// check if is null or empty
+			if ( vcs == null || vcs.isEmpty()) {
+				continue;
+			}
+			if (site == null) {
+				site = new MaskedSite();
+				maskLookups = new byte[masks.size()];
+			}
+			// for each variant
+			for(VariantContext vc: vcs) {
+				// obtain the new genotypes
+				GenotypesContext outputGenotypes = callOverlapAsMissing(tracker, target, vc.getGenotypes(), context.getLocation(), site, maskLookups);
+				// check if it is null
+				if(outputGenotypes != null) {
+					// add the new genotypes to a new variant
+					site.addRecord(t, new VariantContextBuilder(vc).genotypes(outputGenotypes).make());
+				}
 			}
 		}
-		return res;
+		return (site == null) ? MaskedSite.EMPTY : site;
 	}
 
 	@Override
-	public void onTraversalDone(Integer result) {
-		logger.info(result + " records processed.");
-		for(Map.Entry<String, AtomicInteger> a: missingBySample.entrySet()) {
-			logger.info(String.format("%s genotypes called as missing for %s", a.getValue(), a.getKey()));
+	public void onTraversalDone(MaskingMetrics result) {
+		// the engine closes its own output
+		outputArguments.close(targets.get(0).writer);
+		for(int t = 1; t < targets.size(); t++) {
+			targets.get(t).writer.close();
+		}
+		metricsArguments.report(getClass().getSimpleName());
+		progressArguments.finish();
+		logger.info(result.getRecords() + " records processed.");
+		for(MaskingTarget target: targets) {
+			for(int i = 0; i < target.samples.size(); i++) {
+				final long masked = result.getMasked(target.metricsOffset + i);
+				if(target.maskIndexByOrdinal[i] != MaskingTarget.NO_MASK || masked != 0) {
+					logger.info(String.format("%s genotypes called as missing for %s%s", masked, target.samples.get(i),
+						(targets.size() == 1) ? "" : " in " + target.getName()));
+				}
+			}
+		}
+		if(maskingReport != null) {
+			logger.info("Writing per-sample masking report to " + maskingReport);
+			result.writeReport(maskingReport);
 		}
 	}
 
@@ -258,41 +458,53 @@ public class MaskVariantsSampleSpecific extends RodWalker<Integer, Integer> impl
 	 * with the masking or <code>null</code> if all are missing and preserveAll is not set
 	 *
 	 * @param tracker    the tracker for the variant
+	 * @param target	the target of the variant context
 	 * @param original the variant context for all the samples
 	 * @param loc	the location of the variant
+	 * @param site	the site where the masking events are recorded
+	 * @param maskLookups	the cached mask lookups at this location
 	 * @return	the masked genotypes
 	 */
-	private GenotypesContext callOverlapAsMissing(RefMetaDataTracker tracker, GenotypesContext original, GenomeLoc loc) {
+	GenotypesContext callOverlapAsMissing(RefMetaDataTracker tracker, MaskingTarget target, GenotypesContext original, GenomeLoc loc,
+		MaskedSite site, byte[] maskLookups) {
 		int missingSamples = 0;
 		// create the masked genotypes
-		GenotypesContext maskedGenotypes = GenotypesContext.create();
-		// for each of the original genotypes
-		for(Genotype genotype: original) {
-			// create the masked genotype as a builder
-			GenotypeBuilder masked = new GenotypeBuilder(genotype);
+		GenotypesContext maskedGenotypes = GenotypesContext.create(original.size());
+		// for each of the original genotypes (in header order)
+		for(int i = 0; i < original.size(); i++) {
+			final Genotype genotype = original.get(i);
+			final int ordinal = getOrdinal(target, genotype, i);
+			Genotype newGenotype = genotype;
 			if(genotype.isCalled()) {
-				if((genotype.getDP() < minCov)) {
-					maskGenotypeBuilder(masked, genotype);
+				final int dp = genotype.getDP();
+				if(dp < target.minDepthByOrdinal[ordinal] || dp > target.maxDepthByOrdinal[ordinal]) {
+					newGenotype = maskGenotype(genotype);
+					site.addEvent(target.metricsOffset + ordinal, MaskingMetrics.MASKED_BY_COVERAGE);
 				} else {
 					// get the ROD masker
-					RodBinding<Feature> masker = mapSampleMask.get(genotype.getSampleName());
+					final int maskIndex = target.maskIndexByOrdinal[ordinal];
 					// if there are a masker
-					if (masker != null) {
-						// check if the SNP is present in the corresponding mask
-						boolean hasMask = (filterRecordsNotInMask) ? !tracker.hasValues(masker) : tracker.hasValues(masker);
+					if (maskIndex != MaskingTarget.NO_MASK) {
+						// check if the SNP is present in the corresponding mask (only once per location)
+						if (maskLookups[maskIndex] == 0) {
+							boolean hasMask = (filterRecordsNotInMask) ? !tracker.hasValues(masks.get(maskIndex)) : tracker.hasValues(masks.get(maskIndex));
+							maskLookups[maskIndex] = (byte) ((hasMask) ? 1 : -1);
+						}
 						// change the masked genotype
-						if (hasMask) {
-							maskGenotypeBuilder(masked, genotype);
+						if (maskLookups[maskIndex] == 1) {
+							newGenotype = maskGenotype(genotype);
+							site.addEvent(target.metricsOffset + ordinal, MaskingMetrics.MASKED_BY_MASK);
 						}
 					}
 				}
+			} else {
+				site.addEvent(target.metricsOffset + ordinal, MaskingMetrics.ALREADY_MISSING);
 			}
-			Genotype newGenotype = masked.make();
 			if(newGenotype.isNoCall()) {
 				missingSamples++;
 			}
 			// add the masked genotype to the GenotypeContext to return
-			maskedGenotypes.add(masked.make());
+			maskedGenotypes.add(newGenotype);
 		}
 		// if not all are preserved and all of them are missing, return null
 		if( missingSamples >= original.size()) {
@@ -307,12 +519,33 @@ public class MaskVariantsSampleSpecific extends RodWalker<Integer, Integer> impl
 		return maskedGenotypes;
 	}
 
-	private void maskGenotypeBuilder(GenotypeBuilder toMask, Genotype original) {
-		missingBySample.get(original.getSampleName()).addAndGet(1);
+	/**
+	 * Get the ordinal of the sample for a genotype
+	 *
+	 * @param target	the target of the genotype
+	 * @param genotype	the genotype
+	 * @param index	the index of the genotype in the record
+	 * @return	the ordinal of the sample in the input header
+	 */
+	private static int getOrdinal(final MaskingTarget target, final Genotype genotype, final int index) {
+		// records decoded from the input are in header order, so this is only a sanity check
+		if(index < target.samples.size() && target.samples.get(index).equals(genotype.getSampleName())) {
+			return index;
+		}
+		final int ordinal = target.samples.indexOf(genotype.getSampleName());
+		if(ordinal == -1) {
+			throw new UserException.MalformedFile("Sample " + genotype.getSampleName() + " is not present in the header of " + target.variants.getSource());
+		}
+		return ordinal;
+	}
+
+	private Genotype maskGenotype(Genotype original) {
+		final GenotypeBuilder toMask = new GenotypeBuilder(original);
 		maskGenotypeBuilder(toMask, original.getPloidy());
 		if(keepMaskedGT) {
 			toMask.attribute(MASKED_FORMAT_TAG, original.getGenotypeString());
 		}
+		return toMask.make();
 	}
 
 
@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.magicdgs.gatkct.tools.masking;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+import java.util.Arrays;
+
+/**
+ * Result of masking a site in {@link MaskVariantsSampleSpecific}: the records to write with the index of their target
+ * and the masking events found, packed as <code>ordinal &lt;&lt; 2 | category</code>. It is confined to the map call that creates it, so it does
+ * not need any synchronization
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public final class MaskedSite {
+
+	/**
+	 * Site without records and without events
+	 */
+	static final MaskedSite EMPTY = new MaskedSite();
+
+	private static final int INITIAL_RECORDS = 2;
+
+	private static final int INITIAL_EVENTS = 8;
+
+	private VariantContext[] records = null;
+
+	private int[] recordTargets = null;
+
+	private int numberOfRecords = 0;
+
+	private int[] events = null;
+
+	private int numberOfEvents = 0;
+
+	/**
+	 * Add a record to write
+	 *
+	 * @param target the index of the target to write the record in
+	 * @param record the record
+	 */
+	void addRecord(final int target, final VariantContext record) {
+		if (records == null) {
+			records = new VariantContext[INITIAL_RECORDS];
+			recordTargets = new int[INITIAL_RECORDS];
+		} else if (numberOfRecords == records.length) {
+			records = Arrays.copyOf(records, records.length * 2);
+			recordTargets = Arrays.copyOf(recordTargets, recordTargets.length * 2);
+		}
+		records[numberOfRecords] = record;
+		recordTargets[numberOfRecords++] = target;
+	}
+
+	/**
+	 * Add a masking event
+	 *
+	 * @param ordinal  the ordinal of the sample in the metrics
+	 * @param category the category of the event
+	 */
+	void addEvent(final int ordinal, final int category) {
+		if (events == null) {
+			events = new int[INITIAL_EVENTS];
+		} else if (numberOfEvents == events.length) {
+			events = Arrays.copyOf(events, events.length * 2);
+		}
+		events[numberOfEvents++] = (ordinal << 2) | category;
+	}
+
+	int numberOfRecords() {
+		return numberOfRecords;
+	}
+
+	VariantContext getRecord(final int index) {
+		return records[index];
+	}
+
+	int getRecordTarget(final int index) {
+		return recordTargets[index];
+	}
+
+	int numberOfEvents() {
+		return numberOfEvents;
+	}
+
+	int getEvent(final int index) {
+		return events[index];
+	}
+
+	static int getOrdinal(final int event) {
+		return event >>> 2;
+	}
+
+	static int getCategory(final int event) {
+		return event & 3;
+	}
+}
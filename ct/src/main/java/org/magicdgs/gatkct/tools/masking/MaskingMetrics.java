@@ -0,0 +1,244 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.magicdgs.gatkct.tools.masking;
+
+import htsjdk.samtools.util.IOUtil;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Per-sample masking counts for {@link MaskVariantsSampleSpecific}, indexed by the ordinal of the sample in the input
+ * header. Each reduce chain owns its own instance, so counters are plain primitives and different threads are
+ * combined with {@link #merge(MaskingMetrics)} in the tree-reduce
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public final class MaskingMetrics {
+
+	/**
+	 * Genotype called as missing because of the coverage thresholds
+	 */
+	static final int MASKED_BY_COVERAGE = 0;
+
+	/**
+	 * Genotype called as missing because of the sample specific mask
+	 */
+	static final int MASKED_BY_MASK = 1;
+
+	/**
+	 * Genotype that was already missing in the input
+	 */
+	static final int ALREADY_MISSING = 2;
+
+	/**
+	 * Names of the categories, for the progress report
+	 */
+	static final String[] CATEGORY_NAMES = {"masked_by_coverage", "masked_by_mask", "already_missing"};
+
+	// the sample names and their input in ordinal order (shared, never modified)
+	private final List<String> samples;
+
+	private final List<String> inputs;
+
+	private final long[] maskedByCoverage;
+
+	private final long[] maskedByMask;
+
+	private final long[] alreadyMissing;
+
+	private long records = 0;
+
+	/**
+	 * Create empty metrics
+	 *
+	 * @param samples the sample names in ordinal order
+	 * @param inputs  the name of the input for each sample ordinal
+	 */
+	MaskingMetrics(final List<String> samples, final List<String> inputs) {
+		if (samples.size() != inputs.size()) {
+			throw new IllegalArgumentException("Samples and inputs should have the same size");
+		}
+		this.samples = samples;
+		this.inputs = inputs;
+		this.maskedByCoverage = new long[samples.size()];
+		this.maskedByMask = new long[samples.size()];
+		this.alreadyMissing = new long[samples.size()];
+	}
+
+	/**
+	 * Add the masking events and the written records for a site
+	 *
+	 * @param site the site to add
+	 */
+	void add(final MaskedSite site) {
+		records += site.numberOfRecords();
+		for (int i = 0; i < site.numberOfEvents(); i++) {
+			final int event = site.getEvent(i);
+			final int ordinal = MaskedSite.getOrdinal(event);
+			switch (MaskedSite.getCategory(event)) {
+				case MASKED_BY_COVERAGE:
+					maskedByCoverage[ordinal]++;
+					break;
+				case MASKED_BY_MASK:
+					maskedByMask[ordinal]++;
+					break;
+				case ALREADY_MISSING:
+					alreadyMissing[ordinal]++;
+					break;
+				default:
+					throw new IllegalStateException("Unknown masking category for event " + event);
+			}
+		}
+	}
+
+	/**
+	 * Merge other metrics into this one
+	 *
+	 * @param other the metrics to merge
+	 *
+	 * @return this metrics, with the counts of other added
+	 */
+	MaskingMetrics merge(final MaskingMetrics other) {
+		records += other.records;
+		for (int i = 0; i < maskedByCoverage.length; i++) {
+			maskedByCoverage[i] += other.maskedByCoverage[i];
+			maskedByMask[i] += other.maskedByMask[i];
+			alreadyMissing[i] += other.alreadyMissing[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Get the number of records written
+	 *
+	 * @return the number of records
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Get the sample names in ordinal order
+	 *
+	 * @return the sample names
+	 */
+	public List<String> getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Get the input names for each sample ordinal
+	 *
+	 * @return the input names
+	 */
+	public List<String> getInputs() {
+		return inputs;
+	}
+
+	/**
+	 * Get the genotypes called as missing for a sample (by coverage or by mask)
+	 *
+	 * @param ordinal the ordinal of the sample
+	 *
+	 * @return the number of masked genotypes
+	 */
+	public long getMasked(final int ordinal) {
+		return maskedByCoverage[ordinal] + maskedByMask[ordinal];
+	}
+
+	/**
+	 * Encode the counts for a checkpoint, as the records followed by the counts of each category
+	 *
+	 * @return the encoded counts
+	 */
+	String encode() {
+		final StringBuilder builder = new StringBuilder().append(records);
+		for (long[] counts : new long[][] {maskedByCoverage, maskedByMask, alreadyMissing}) {
+			builder.append(';');
+			for (int i = 0; i < counts.length; i++) {
+				builder.append((i == 0) ? "" : ",").append(counts[i]);
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Restore the counts encoded with {@link #encode()} into these empty metrics
+	 *
+	 * @param encoded the encoded counts
+	 *
+	 * @return this metrics
+	 *
+	 * @throws IllegalArgumentException if the encoded counts do not match the samples
+	 */
+	MaskingMetrics decode(final String encoded) {
+		final String[] groups = encoded.split(";", -1);
+		if (groups.length != 4) {
+			throw new IllegalArgumentException("Wrong encoded metrics: " + encoded);
+		}
+		records = Long.parseLong(groups[0]);
+		final long[][] categories = {maskedByCoverage, maskedByMask, alreadyMissing};
+		for (int c = 0; c < categories.length; c++) {
+			final String[] counts = (samples.isEmpty()) ? new String[0] : groups[c + 1].split(",");
+			if (counts.length != samples.size()) {
+				throw new IllegalArgumentException("Wrong number of samples in the encoded metrics: " + encoded);
+			}
+			for (int i = 0; i < counts.length; i++) {
+				categories[c][i] = Long.parseLong(counts[i]);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Write the per-sample masking report as a tab-delimited file
+	 *
+	 * @param report the file to write in
+	 */
+	void writeReport(final File report) {
+		try (BufferedWriter writer = IOUtil.openFileForBufferedWriting(report)) {
+			writer.write("input\tsample\tmasked_by_coverage\tmasked_by_mask\talready_missing");
+			writer.newLine();
+			for (int i = 0; i < samples.size(); i++) {
+				writer.write(inputs.get(i));
+				writer.write('\t');
+				writer.write(samples.get(i));
+				writer.write('\t');
+				writer.write(Long.toString(maskedByCoverage[i]));
+				writer.write('\t');
+				writer.write(Long.toString(maskedByMask[i]));
+				writer.write('\t');
+				writer.write(Long.toString(alreadyMissing[i]));
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(report, e);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.magicdgs.gatkct.tools.masking;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import org.broadinstitute.gatk.utils.commandline.RodBinding;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Input variants masked by {@link MaskVariantsSampleSpecific} together with its output and the per-sample masking
+ * parameters, indexed by the ordinal of the sample in the input header
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class MaskingTarget {
+
+	/**
+	 * Value in {@link #maskIndexByOrdinal} for samples without mask
+	 */
+	static final int NO_MASK = -1;
+
+	// the input variants
+	final RodBinding<VariantContext> variants;
+
+	// the output for the masked variants
+	final VariantContextWriter writer;
+
+	// the sample names in header order
+	final List<String> samples;
+
+	// ordinal of the first sample of this target in the metrics
+	final int metricsOffset;
+
+	// index of the mask for each sample ordinal, or NO_MASK
+	final int[] maskIndexByOrdinal;
+
+	// the coverage bounds for each sample ordinal
+	final int[] minDepthByOrdinal;
+	final int[] maxDepthByOrdinal;
+
+	/**
+	 * Create a new target without masks and without coverage bounds
+	 *
+	 * @param variants      the input variants
+	 * @param writer        the output for the masked variants
+	 * @param samples       the sample names in header order
+	 * @param metricsOffset the ordinal of the first sample in the metrics
+	 */
+	MaskingTarget(final RodBinding<VariantContext> variants, final VariantContextWriter writer,
+		final List<String> samples, final int metricsOffset) {
+		this.variants = variants;
+		this.writer = writer;
+		this.samples = samples;
+		this.metricsOffset = metricsOffset;
+		this.maskIndexByOrdinal = new int[samples.size()];
+		this.minDepthByOrdinal = new int[samples.size()];
+		this.maxDepthByOrdinal = new int[samples.size()];
+		Arrays.fill(maskIndexByOrdinal, NO_MASK);
+		Arrays.fill(maxDepthByOrdinal, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get the name of the input
+	 *
+	 * @return the name of the ROD binding
+	 */
+	String getName() {
+		return variants.getName();
+	}
+}
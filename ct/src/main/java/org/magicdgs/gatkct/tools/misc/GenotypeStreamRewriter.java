@@ -0,0 +1,546 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.misc;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.magicdgs.gatkct.util.IndexedBlockCompressedOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rewrites the genotypes of a VCF file into one column per chromosome working directly on the bytes of each line:
+ * only the GT sub-field of the selected samples is parsed and rewritten, and the rest of the line is copied as raw
+ * byte slices. The alleles assigned to each chromosome are the same as in {@link GetRandomChromosomes}, because the
+ * draws use the same {@link PositionSeededRandom} keys, and the output columns are sorted by name as in its header.
+ * Records without GT are written as in the normal mode: only the GT key, missing for every chromosome.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class GenotypeStreamRewriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // index of the FORMAT column in a VCF line
+    private static final int FORMAT_COLUMN = 8;
+
+    private static final byte TAB = '\t';
+    private static final byte NEW_LINE = '\n';
+    private static final byte COLON = ':';
+    private static final byte MISSING = '.';
+
+    private static final byte[] CHROM_LINE = "#CHROM".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NO_CALL_COLUMN = "\t./.".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] GT_FORMAT = "GT".getBytes(StandardCharsets.US_ASCII);
+
+    // output column actions which are not an allele index (-1 is a no-call allele)
+    private static final int COPY_COLUMN = -2;
+    private static final int MISSING_CHROMOSOME = -3;
+
+    // one random source for each replicate
+    private final PositionSeededRandom[] randomizers;
+
+    private final int[] sampleOrdinals;
+
+    // the number of chromosome columns for each sample
+    private final int samplePloidy;
+
+    private final byte[] sourceLine;
+
+    private final byte[] outputSamplesColumns;
+
+    // end position of each column up to the last selected sample
+    private final int[] columnEnds;
+
+    // parsed sample columns of the current record: start, end, end of GT, ploidy, separator to output and packed
+    // allele indexes (samplePloidy values for each sample)
+    private final int[] sampleStarts;
+    private final int[] sampleEnds;
+    private final int[] gtEnds;
+    private final int[] ploidies;
+    private final byte[] separators;
+    private final int[] alleleIndexes;
+
+    private final int[] permutation;
+
+    // the output columns in name order (offsets in the output samples) and the included sample of each offset
+    private final int[] columnOrder;
+    private final int[] columnSamples;
+
+    // what to write in each output column for the current record: COPY_COLUMN, MISSING_CHROMOSOME or the allele index
+    private final int[] columnActions;
+
+    // the last contig seen and its seed for each replicate
+    private byte[] lastContig = null;
+    private String lastContigName = null;
+    private final long[] contigSeeds;
+
+    private OutputStream out;
+
+    // tabix index for block compressed outputs; null otherwise
+    private IndexedBlockCompressedOutput indexedOutput;
+
+    private int line;
+
+    /**
+     * Create a new rewriter
+     *
+     * @param randomizers    the random source for each replicate
+     * @param sampleOrdinals the ordinal in the input header of each sample to include, in output order
+     * @param samplePloidy   the maximum ploidy of the samples
+     * @param outputSamples  the names of the output samples (samplePloidy for each included sample and replicate), in
+     *                       genotype order
+     * @param source         the name of the tool for the source header line
+     */
+    GenotypeStreamRewriter(final PositionSeededRandom[] randomizers, final int[] sampleOrdinals, final int samplePloidy,
+            final List<String> outputSamples, final String source) {
+        this.randomizers = randomizers;
+        this.contigSeeds = new long[randomizers.length];
+        this.sampleOrdinals = sampleOrdinals;
+        this.samplePloidy = samplePloidy;
+        this.sampleStarts = new int[sampleOrdinals.length];
+        this.sampleEnds = new int[sampleOrdinals.length];
+        this.gtEnds = new int[sampleOrdinals.length];
+        this.ploidies = new int[sampleOrdinals.length];
+        this.separators = new byte[sampleOrdinals.length];
+        this.alleleIndexes = new int[sampleOrdinals.length * samplePloidy];
+        this.permutation = new int[samplePloidy];
+        this.sourceLine = ("##source=" + source + "\n").getBytes(StandardCharsets.US_ASCII);
+        final Integer[] order = new Integer[outputSamples.size()];
+        this.columnSamples = new int[outputSamples.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            columnSamples[i] = (i / samplePloidy) % sampleOrdinals.length;
+        }
+        Arrays.sort(order, Comparator.comparing(outputSamples::get));
+        this.columnOrder = new int[order.length];
+        this.columnActions = new int[order.length];
+        final StringBuilder columns = new StringBuilder();
+        for (int i = 0; i < order.length; i++) {
+            columnOrder[i] = order[i];
+            columns.append('\t').append(outputSamples.get(order[i]));
+        }
+        this.outputSamplesColumns = columns.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+        int lastColumn = FORMAT_COLUMN;
+        for (int ordinal : sampleOrdinals) {
+            lastColumn = Math.max(lastColumn, FORMAT_COLUMN + 1 + ordinal);
+        }
+        this.columnEnds = new int[lastColumn + 1];
+    }
+
+    /**
+     * Rewrite the input VCF into the output
+     *
+     * @param input  the input VCF (plain text or block-compressed)
+     * @param output the output VCF (block-compressed and indexed if it ends with .gz)
+     * @param compressionThreads the number of threads to compress a block-compressed output
+     * @return the number of records written
+     */
+    long rewrite(final File input, final File output, final int compressionThreads) {
+        if (input.getName().endsWith(".bcf")) {
+            throw new UserException.BadInput("Only VCF files could be streamed: " + input);
+        }
+        long records = 0;
+        try (InputStream in = (input.getName().endsWith(".gz")) ? new BlockCompressedInputStream(input) : new FileInputStream(input)) {
+            if (output.getName().endsWith(".gz")) {
+                indexedOutput = new IndexedBlockCompressedOutput(output, compressionThreads, TabixFormat.VCF, null);
+            }
+            try (OutputStream stream = (indexedOutput != null) ? indexedOutput.getOutputStream()
+                    : new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE)) {
+                out = stream;
+                final LineReader reader = new LineReader(input, in);
+                boolean header = true;
+                while (reader.next()) {
+                    line++;
+                    if (reader.end == reader.start) {
+                        continue;
+                    }
+                    if (header) {
+                        header = writeHeaderLine(reader.buffer, reader.start, reader.end);
+                    } else {
+                        writeRecord(reader.buffer, reader.start, reader.end);
+                        records++;
+                    }
+                }
+                if (header) {
+                    throw new UserException.MalformedFile(input, "no #CHROM header line found");
+                }
+                if (indexedOutput != null) {
+                    // writes the index after the last block
+                    indexedOutput.close();
+                }
+            } catch (IOException e) {
+                throw new UserException.CouldNotCreateOutputFile(output, e);
+            } finally {
+                out = null;
+                indexedOutput = null;
+            }
+        } catch (IOException e) {
+            throw new UserException.CouldNotReadInputFile(input, e);
+        }
+        return records;
+    }
+
+    /**
+     * Write a header line, adding the source line and replacing the samples in the #CHROM line
+     *
+     * @return {@code true} if the header continues; {@code false} after the #CHROM line
+     */
+    private boolean writeHeaderLine(final byte[] buffer, final int start, final int end) throws IOException {
+        if (buffer[start] != '#') {
+            throw new UserException.MalformedFile(String.format("Line %s: record found before the #CHROM header line", line));
+        }
+        if (!startsWith(buffer, start, end, CHROM_LINE)) {
+            out.write(buffer, start, end - start);
+            out.write(NEW_LINE);
+            return true;
+        }
+        out.write(sourceLine);
+        // keep the fixed columns until FORMAT
+        final int formatEnd = findColumnEnds(buffer, start, end, FORMAT_COLUMN);
+        out.write(buffer, start, formatEnd - start);
+        out.write(outputSamplesColumns);
+        return false;
+    }
+
+    /**
+     * Write a record with the genotype for each included sample split into chromosomes
+     */
+    private void writeRecord(final byte[] buffer, final int start, final int end) throws IOException {
+        findColumnEnds(buffer, start, end, columnEnds.length - 1);
+        // GT should be the first key in the FORMAT column; otherwise, all the genotypes are missing
+        final int formatStart = columnEnds[FORMAT_COLUMN - 1] + 1;
+        final int formatEnd = columnEnds[FORMAT_COLUMN];
+        final boolean hasGenotypes = formatEnd - formatStart >= 2 && buffer[formatStart] == 'G' && buffer[formatStart + 1] == 'T'
+                && (formatEnd - formatStart == 2 || buffer[formatStart + 2] == COLON);
+        updateContigSeeds(buffer, start, columnEnds[0]);
+        final int position = parseInt(buffer, columnEnds[0] + 1, columnEnds[1], "position");
+        if (indexedOutput != null) {
+            // the record spans the reference allele
+            final int referenceLength = columnEnds[3] - columnEnds[2] - 1;
+            indexedOutput.startRecord(new SimpleFeature(lastContigName, position, position + referenceLength - 1));
+        }
+        if (!hasGenotypes) {
+            // the normal mode outputs a missing genotype without other keys for every chromosome
+            out.write(buffer, start, formatStart - start);
+            out.write(GT_FORMAT);
+            for (int i = 0; i < columnOrder.length; i++) {
+                out.write(NO_CALL_COLUMN);
+            }
+            out.write(NEW_LINE);
+            return;
+        }
+        final int numberOfAlleles = countAlleles(buffer, columnEnds[3] + 1, columnEnds[4]);
+        for (int i = 0; i < sampleOrdinals.length; i++) {
+            parseGenotype(buffer, i);
+        }
+        int column = 0;
+        for (int rep = 0; rep < randomizers.length; rep++) {
+            final long siteSeed = PositionSeededRandom.siteSeed(contigSeeds[rep], position);
+            for (int i = 0; i < sampleOrdinals.length; i++, column += samplePloidy) {
+                final int ploidy = ploidies[i];
+                final int alleleOffset = i * samplePloidy;
+                if (ploidy == 2 && PositionSeededRandom.isHomozygous(alleleIndexes, alleleOffset, ploidy)) {
+                    // homozygous or no-call diploid: copy the column
+                    columnActions[column] = COPY_COLUMN;
+                    columnActions[column + 1] = COPY_COLUMN;
+                } else {
+                    // same key as the allele indexes in GetRandomChromosomes (-1 for no-call)
+                    PositionSeededRandom.permutation(siteSeed,
+                            PositionSeededRandom.alleleKey(alleleIndexes, alleleOffset, ploidy, numberOfAlleles),
+                            sampleOrdinals[i], permutation, ploidy);
+                    for (int chr = 0; chr < ploidy; chr++) {
+                        columnActions[column + chr] = alleleIndexes[alleleOffset + permutation[chr]];
+                    }
+                }
+                // the chromosomes that the sample does not have are missing
+                for (int chr = ploidy; chr < samplePloidy; chr++) {
+                    columnActions[column + chr] = MISSING_CHROMOSOME;
+                }
+            }
+        }
+        out.write(buffer, start, formatEnd - start);
+        for (final int col : columnOrder) {
+            final int i = columnSamples[col];
+            final int action = columnActions[col];
+            if (action == COPY_COLUMN) {
+                out.write(TAB);
+                out.write(buffer, sampleStarts[i], sampleEnds[i] - sampleStarts[i]);
+            } else if (action == MISSING_CHROMOSOME) {
+                out.write(NO_CALL_COLUMN);
+            } else {
+                writeHomozygous(action, separators[i], buffer, gtEnds[i], sampleEnds[i]);
+            }
+        }
+        out.write(NEW_LINE);
+    }
+
+    /**
+     * Parse the GT sub-field of an included sample, which is shared by all the replicates
+     *
+     * @param buffer the line buffer
+     * @param index  the index of the sample in the included samples
+     */
+    private void parseGenotype(final byte[] buffer, final int index) {
+        final int ordinal = sampleOrdinals[index];
+        final int sampleStart = columnEnds[FORMAT_COLUMN + ordinal] + 1;
+        final int sampleEnd = columnEnds[FORMAT_COLUMN + 1 + ordinal];
+        sampleStarts[index] = sampleStart;
+        sampleEnds[index] = sampleEnd;
+        separators[index] = '/';
+        final int alleleOffset = index * samplePloidy;
+        int ploidy = 0;
+        int alleleStart = sampleStart;
+        int gtEnd = sampleStart;
+        for (; ; gtEnd++) {
+            final boolean endOfGenotype = gtEnd == sampleEnd || buffer[gtEnd] == COLON;
+            if (endOfGenotype || buffer[gtEnd] == '/' || buffer[gtEnd] == '|') {
+                if (ploidy == samplePloidy) {
+                    throw new UserException(String.format("%s found a sample with ploidy greater than %s at line %s. Increase --sample_ploidy to split it.",
+                            GetRandomChromosomes.class.getSimpleName(), samplePloidy, line));
+                }
+                alleleIndexes[alleleOffset + ploidy++] = parseAlleleIndex(buffer, alleleStart, gtEnd);
+                if (endOfGenotype) {
+                    break;
+                }
+                if (buffer[gtEnd] == '|') {
+                    separators[index] = '|';
+                }
+                alleleStart = gtEnd + 1;
+            }
+        }
+        gtEnds[index] = gtEnd;
+        ploidies[index] = ploidy;
+    }
+
+    /**
+     * Write a sample column with an homozygous diploid genotype for the allele and the rest of the sub-fields unchanged
+     */
+    private void writeHomozygous(final int allele, final byte separator, final byte[] buffer,
+            final int gtEnd, final int sampleEnd) throws IOException {
+        out.write(TAB);
+        writeAllele(allele);
+        out.write(separator);
+        writeAllele(allele);
+        out.write(buffer, gtEnd, sampleEnd - gtEnd);
+    }
+
+    /**
+     * Write an allele index, or the missing value for a no-call
+     */
+    private void writeAllele(final int allele) throws IOException {
+        if (allele == -1) {
+            out.write(MISSING);
+        } else if (allele < 10) {
+            out.write('0' + allele);
+        } else {
+            out.write(Integer.toString(allele).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Store the end position of each column until the requested one in {@link #columnEnds}
+     *
+     * @return the end of the last column requested
+     */
+    private int findColumnEnds(final byte[] buffer, final int start, final int end, final int lastColumn) {
+        int column = 0;
+        for (int i = start; i < end && column < lastColumn; i++) {
+            if (buffer[i] == TAB) {
+                columnEnds[column++] = i;
+            }
+        }
+        if (column < lastColumn) {
+            throw new UserException.MalformedFile(String.format("Line %s: expected at least %s columns but found %s", line, lastColumn + 1, column + 1));
+        }
+        int i = (lastColumn == 0) ? start : columnEnds[lastColumn - 1] + 1;
+        while (i < end && buffer[i] != TAB) {
+            i++;
+        }
+        columnEnds[lastColumn] = i;
+        return i;
+    }
+
+    /**
+     * Update the seeds for the contig of the record, which are only computed when it changes
+     */
+    private void updateContigSeeds(final byte[] buffer, final int start, final int end) {
+        if (lastContig == null || end - start != lastContig.length || !startsWith(buffer, start, end, lastContig)) {
+            lastContig = Arrays.copyOfRange(buffer, start, end);
+            lastContigName = new String(lastContig, StandardCharsets.UTF_8);
+            for (int rep = 0; rep < randomizers.length; rep++) {
+                contigSeeds[rep] = randomizers[rep].contigSeed(lastContigName);
+            }
+        }
+    }
+
+    private int parseInt(final byte[] buffer, final int start, final int end, final String field) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final byte c = buffer[i];
+            if (c < '0' || c > '9') {
+                throw new UserException.MalformedFile(String.format("Line %s: %s is not an integer", line, field));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Count the reference and alternate alleles in the ALT column
+     */
+    private static int countAlleles(final byte[] buffer, final int start, final int end) {
+        if (end - start == 1 && buffer[start] == MISSING) {
+            return 1;
+        }
+        int alleles = 2;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == ',') {
+                alleles++;
+            }
+        }
+        return alleles;
+    }
+
+    /**
+     * Parse the index of an allele in the GT sub-field
+     *
+     * @return the index; -1 if it is a no-call
+     */
+    private int parseAlleleIndex(final byte[] buffer, final int start, final int end) {
+        if (end - start == 1 && buffer[start] == MISSING) {
+            return -1;
+        }
+        if (start == end) {
+            throw new UserException.MalformedFile(String.format("Line %s: empty allele in genotype", line));
+        }
+        return parseInt(buffer, start, end, "allele index");
+    }
+
+    private static boolean startsWith(final byte[] buffer, final int start, final int end, final byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads lines into a growable byte buffer without decoding them
+     */
+    private static final class LineReader {
+
+        private final File file;
+
+        private final InputStream in;
+
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        // bytes available in the buffer
+        private int limit = 0;
+
+        // start of the next line and position already scanned for a new line
+        private int position = 0;
+        private int scanned = 0;
+
+        private boolean eof = false;
+
+        // the current line, without the line terminator
+        private int start;
+        private int end;
+
+        private LineReader(final File file, final InputStream in) {
+            this.file = file;
+            this.in = in;
+        }
+
+        private boolean next() {
+            while (true) {
+                for (int i = scanned; i < limit; i++) {
+                    if (buffer[i] == NEW_LINE) {
+                        setLine(i);
+                        position = scanned = i + 1;
+                        return true;
+                    }
+                }
+                scanned = limit;
+                if (eof) {
+                    if (position == limit) {
+                        return false;
+                    }
+                    setLine(limit);
+                    position = limit;
+                    return true;
+                }
+                // move the incomplete line to the beginning and read more bytes
+                if (position != 0) {
+                    System.arraycopy(buffer, position, buffer, 0, limit - position);
+                    limit -= position;
+                    scanned -= position;
+                    position = 0;
+                }
+                if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+                final int read = read();
+                if (read == -1) {
+                    eof = true;
+                } else {
+                    limit += read;
+                }
+            }
+        }
+
+        private int read() {
+            try {
+                return in.read(buffer, limit, buffer.length - limit);
+            } catch (IOException e) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+        }
+
+        private void setLine(final int lineEnd) {
+            start = position;
+            end = (lineEnd > start && buffer[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+        }
+    }
+}
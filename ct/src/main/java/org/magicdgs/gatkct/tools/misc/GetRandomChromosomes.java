@@ -31,7 +31,9 @@ import htsjdk.variant.vcf.VCFUtils;
 import org.broadinstitute.gatk.engine.GATKVCFUtils;
 import org.broadinstitute.gatk.engine.SampleUtils;
 import org.broadinstitute.gatk.engine.arguments.StandardVariantContextInputArgumentCollection;
+import org.broadinstitute.gatk.engine.walkers.NanoSchedulable;
 import org.broadinstitute.gatk.engine.walkers.RodWalker;
+import org.broadinstitute.gatk.engine.walkers.TreeReducible;
 import org.broadinstitute.gatk.utils.Utils;
 import org.broadinstitute.gatk.utils.commandline.Argument;
 import org.broadinstitute.gatk.utils.commandline.ArgumentCollection;
@@ -42,13 +44,29 @@ import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
+import org.magicdgs.gatkct.util.MetricsArgumentCollection;
+import org.magicdgs.gatkct.util.MetricsArgumentCollection.Stage;
+import org.magicdgs.gatkct.util.OutputArgumentCollection;
+import org.magicdgs.gatkct.util.ProjectedVCFCodec;
 
 import java.io.File;
 import java.util.*;
 
 /**
  * For each sample, assign randomly each allele to each chromosome, and obtain one sample per chromosome.
- * This walker only works with diploid individuals
+ * Each chromosome is output as an homozygous diploid genotype for its allele. By default the samples should be diploid,
+ * but any ploidy up to --sample_ploidy could be split (missing chromosomes are output as no-calls).
+ * <p>
+ * The allele assigned to each chromosome is derived from a hash of the seed, the position and the sample, so the
+ * output is the same with any number of threads (-nt/-nct) or when the genome is split in several runs.
+ * <p>
+ * Several replicates could be generated in the same run with --replicates, which are written as additional sample
+ * columns (sample_n_rk for the replicate k, zero-padded to the number of digits of --replicates). The columns are sorted
+ * by name, so they are grouped by sample and chromosome, and then by replicate. Each replicate uses a consecutive seed, so
+ * the replicate k is the same as a single run with --seed (seed + k - 1).
+ * <p>
+ * If the input is bound as ProjectedVCF (e.g. -V:ProjectedVCF input.vcf), only the genotypes of the included samples
+ * are parsed, so a small subset of a VCF with many samples is as fast as reading a VCF with only those samples.
  * <p>
  * <p>
  * [Functionality of this walker]
@@ -74,7 +92,7 @@ import java.util.*;
  * @author Daniel Gómez-Sánchez
  * @since 07-07-2015
  */
-public class GetRandomChromosomes extends RodWalker<Integer, Integer> {
+public class GetRandomChromosomes extends RodWalker<List<VariantContext>, Integer> implements NanoSchedulable, TreeReducible<Integer> {
 
     @ArgumentCollection
     protected StandardVariantContextInputArgumentCollection variantCollection = new StandardVariantContextInputArgumentCollection();
@@ -82,9 +100,32 @@ public class GetRandomChromosomes extends RodWalker<Integer, Integer> {
     @Output(doc = "File to which variants should be written")
     protected VariantContextWriter writer = null;
 
+    @ArgumentCollection
+    protected OutputArgumentCollection outputArguments = new OutputArgumentCollection();
+
+    @ArgumentCollection
+    protected MetricsArgumentCollection metricsArguments = new MetricsArgumentCollection();
+
+    /**
+     * The same seed produces the same chromosomes for a site independently of the intervals and threads used.
+     */
     @Argument(fullName = "seed", doc = "Seed for randomize the chromosomes", required = false)
     public long seed = 1;
 
+    /**
+     * The output columns are sorted by name, so they are grouped by sample and chromosome, and then by replicate (e.g.
+     * S_1_r01, S_1_r02, ..., S_1_r10, S_2_r01, ...).
+     */
+    @Argument(fullName = "replicates", shortName = "rep", doc = "Number of random replicates to generate in the same pass", required = false)
+    public int replicates = 1;
+
+    /**
+     * Each sample is split into this number of chromosome columns (sample_1 to sample_n). Genotypes with a lower ploidy
+     * have missing genotypes for the chromosomes that they do not have.
+     */
+    @Argument(fullName = "sample_ploidy", shortName = "ploidy", doc = "Maximum ploidy of the samples to split", required = false)
+    public int samplePloidy = 2;
+
     /**
      * This argument can be specified multiple times in order to provide multiple sample names.
      */
@@ -128,10 +169,42 @@ public class GetRandomChromosomes extends RodWalker<Integer, Integer> {
     @Input(fullName = "exclude_sample_expressions", shortName = "xl_se", doc = "List of sample expressions to exclude", required = false)
     public Set<String> XLsampleExpressions = new HashSet<>(0);
 
+    /**
+     * Instead of decoding the records, rewrite the GT sub-field directly in the text of the input VCF into this file
+     * (block-compressed in parallel and indexed with tabix if it ends with .gz), copying the rest of the line as it is.
+     * The chromosomes are the same as in the normal mode, but the whole file is processed (intervals are not allowed)
+     * and nothing is written to -o. It could not be combined with --bgzf_output or --async_output, which only apply to
+     * the normal mode.
+     */
+    @Argument(fullName = "stream_output", shortName = "streamOut", doc = "Stream the input VCF text into this file without decoding the records", required = false)
+    public File streamOutput = null;
+
     // the samples to include
     private TreeSet<String> samples = new TreeSet<>();
 
-    private Random randomizer;
+    // the samples to include in name order and their ordinal in the input header
+    private String[] includedSamples;
+    private int[] sampleOrdinals;
+
+    // the index of each sample to include in the decoded genotypes (the header ordinal unless they are projected)
+    private int[] genotypeIndexes;
+
+    // the output sample names in genotype order (consecutive chromosomes for each included sample and replicate)
+    private ArrayList<String> outputSamples;
+
+    // the output sample names in name order, which is the order of the header columns, and their offset in the
+    // genotypes, shared by all the output records
+    private List<String> outputSamplesInNameOrder;
+    private Map<String, Integer> outputSampleOffsets;
+
+    // the writer for the variants, with the output options applied
+    private VariantContextWriter vcfWriter;
+
+    // one random source for each replicate
+    private PositionSeededRandom[] randomizers;
+
+    // the number of records written in streaming mode
+    private long streamedRecords = -1;
 
     public void initialize() {
         // Get list of samples to include in the output
@@ -177,102 +250,288 @@ public class GetRandomChromosomes extends RodWalker<Integer, Integer> {
         if (samples.isEmpty() && !noSamplesSpecified) {
             throw new UserException("All samples requested to be included were also requested to be excluded.");
         }
+        if (replicates < 1) {
+            throw new UserException.BadArgumentValue("replicates", "should be a positive number");
+        }
+        if (samplePloidy < 1) {
+            throw new UserException.BadArgumentValue("sample_ploidy", "should be a positive number");
+        }
+        if (streamOutput != null && (outputArguments.bgzfOutput != null || outputArguments.asyncOutput)) {
+            throw new UserException.CommandLineException("--stream_output is not compatible with --bgzf_output or --async_output");
+        }
         // log the samples included and generate the samples for the writer
-        TreeSet<String> outputSamples = new TreeSet<>();
-        for (String sample : samples) {
-            if (!noSamplesSpecified) {
-                logger.info("Including sample '" + sample + "'");
-            }
-            outputSamples.add(getSampleChromosomeName(sample, 1));
-            outputSamples.add(getSampleChromosomeName(sample, 2));
+        final List<String> inputSamples = vcfRods.get(variantCollection.variants.getName()).getGenotypeSamples();
+        initializeSamples(samples, inputSamples, !noSamplesSpecified);
+        initializeProjection(inputSamples.size());
+        if (streamOutput != null) {
+            streamVariants();
+            return;
         }
         // Initialize VCF header
         Set<VCFHeaderLine> headerLines = VCFUtils.smartMergeHeaders(vcfRods.values(), true);
         headerLines.add(new VCFHeaderLine("source", this.getClass().getSimpleName()));
-        // write the header with the output samples
-        writer.writeHeader(new VCFHeader(headerLines, outputSamples));
-        // set the randomizer
-        randomizer = new Random(seed);
+        // write the header with the output samples sorted by name
+        vcfWriter = metricsArguments.wrap(outputArguments.wrap(writer, getToolkit()));
+        vcfWriter.writeHeader(new VCFHeader(headerLines, outputSamplesInNameOrder));
+    }
+
+    /**
+     * Set the ordinals of the included samples in the input, the output sample names and the random sources. The
+     * genotypes are expected in input header order until {@link #initializeProjection(int)} is called
+     *
+     * @param included     the samples to include
+     * @param inputSamples the samples in the input header, in header order
+     * @param logIncluded  log each included sample
+     */
+    void initializeSamples(final SortedSet<String> included, final List<String> inputSamples, final boolean logIncluded) {
+        includedSamples = included.toArray(new String[included.size()]);
+        sampleOrdinals = new int[included.size()];
+        outputSamples = new ArrayList<>(samplePloidy * included.size() * replicates);
+        outputSampleOffsets = new HashMap<>(samplePloidy * included.size() * replicates);
+        int index = 0;
+        for (String sample : included) {
+            if (logIncluded) {
+                logger.info("Including sample '" + sample + "'");
+            }
+            sampleOrdinals[index] = inputSamples.indexOf(sample);
+            if (sampleOrdinals[index++] == -1) {
+                throw new UserException.BadInput("Sample '" + sample + "' is not present in the input variants");
+            }
+        }
+        randomizers = new PositionSeededRandom[replicates];
+        for (int rep = 0; rep < replicates; rep++) {
+            randomizers[rep] = new PositionSeededRandom(seed + rep);
+            for (String sample : included) {
+                for (int chr = 1; chr <= samplePloidy; chr++) {
+                    final String name = getSampleChromosomeName(sample, chr, rep);
+                    outputSampleOffsets.put(name, outputSamples.size());
+                    outputSamples.add(name);
+                }
+            }
+        }
+        outputSamplesInNameOrder = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(outputSamples)));
+        genotypeIndexes = sampleOrdinals;
+    }
+
+    /**
+     * Register the samples to decode if the input is projected, and set the index of each sample in the genotypes
+     *
+     * @param numberOfInputSamples the number of samples in the input
+     */
+    private void initializeProjection(final int numberOfInputSamples) {
+        genotypeIndexes = sampleOrdinals.clone();
+        if (ProjectedVCFCodec.TRIBBLE_TYPE.equals(variantCollection.variants.getTribbleType())) {
+            ProjectedVCFCodec.setProjection(getToolkit().getGenomeLocParser(), variantCollection.variants.getName(), samples);
+            // the projected genotypes are in header order
+            final int[] sorted = sampleOrdinals.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < genotypeIndexes.length; i++) {
+                genotypeIndexes[i] = Arrays.binarySearch(sorted, sampleOrdinals[i]);
+            }
+        } else if (samples.size() < numberOfInputSamples && streamOutput == null) {
+            logger.info("Bind the input as -V:" + ProjectedVCFCodec.TRIBBLE_TYPE + " to decode only the included samples");
+        }
+    }
+
+    /**
+     * Rewrite the input VCF into the stream output without traversing it
+     */
+    private void streamVariants() {
+        if (getToolkit().getIntervals() != null) {
+            throw new UserException.CommandLineException("--stream_output does not support intervals");
+        }
+        final File input = new File(variantCollection.variants.getSource());
+        logger.info("Streaming " + input + " into " + streamOutput);
+        streamedRecords = new GenotypeStreamRewriter(randomizers, sampleOrdinals, samplePloidy, outputSamples, this.getClass().getSimpleName())
+                .rewrite(input, streamOutput, outputArguments.bgzfThreads);
+    }
+
+    @Override
+    public boolean isDone() {
+        // the streaming mode does not need the traversal
+        return streamOutput != null;
     }
 
     /**
      * Get the chromosome name for this sample
      *
-     * @param sample the sample name
-     * @param chr    the number of the chromosome
-     * @return the name as sample_n
+     * @param sample    the sample name
+     * @param chr       the number of the chromosome
+     * @param replicate the replicate (0-based)
+     * @return the name as sample_n, or sample_n_rk if there are several replicates (k zero-padded to the number of
+     * digits of the replicates, so the names sort in replicate order)
      */
-    private static String getSampleChromosomeName(String sample, int chr) {
-        return String.format("%s_%s", sample, chr);
+    private String getSampleChromosomeName(String sample, int chr, int replicate) {
+        if (replicates == 1) {
+            return String.format("%s_%s", sample, chr);
+        }
+        return String.format("%s_%s_r%0" + Integer.toString(replicates).length() + "d", sample, chr, replicate + 1);
     }
 
     @Override
-    public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    public List<VariantContext> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+        final long start = metricsArguments.start(Stage.MAP);
+        final List<VariantContext> chromosomes = getChromosomes(tracker, context);
+        metricsArguments.stop(Stage.MAP, start);
+        return chromosomes;
+    }
+
+    /**
+     * Get the random chromosomes for the variants at this locus
+     */
+    private List<VariantContext> getChromosomes(RefMetaDataTracker tracker, AlignmentContext context) {
         if (tracker == null)
-            return 0;
+            return Collections.emptyList();
         // get the variant context in the tracker
         Collection<VariantContext> vcs = tracker.getValues(variantCollection.variants, context.getLocation());
         // check if is null or empty
         if (vcs == null || vcs.isEmpty()) {
-            return 0;
+            return Collections.emptyList();
         }
-        int res = 0;
+        final List<VariantContext> res = new ArrayList<>(vcs.size());
         // for each variant
         for (VariantContext vc : vcs) {
-            // create a new variant and add to the writer
-            writer.add(new VariantContextBuilder(vc)
-                    .genotypes(createRandomChromosomes(vc.getGenotypes(samples)))
+            // create a new variant; it is written in reduce to keep the order with several threads
+            res.add(new VariantContextBuilder(vc)
+                    .genotypes(createRandomChromosomes(vc))
                     .make()
             );
-            res++;
         }
         return res;
     }
 
     /**
-     * Create random chromosomes for the genotypes
+     * Create random chromosomes for the genotypes of the included samples
      *
-     * @param genotypes the genotypes
-     * @return the duplicated genotypes
+     * @param vc the variant context
+     * @return the duplicated genotypes, in the output header order
      */
-    private GenotypesContext createRandomChromosomes(final GenotypesContext genotypes) {
-        GenotypesContext toReturn = GenotypesContext.create(genotypes.size() * 2);
-        for (Genotype geno : genotypes.iterateInSampleNameOrder()) {
-            // check if the sample is diploid
-            if (geno.getPloidy() != 2) {
-                throw new UserException(this.getClass().getSimpleName() + " found a non-diploid sample.");
+    GenotypesContext createRandomChromosomes(final VariantContext vc) {
+        final GenotypesContext genotypes = vc.getGenotypes();
+        final ArrayList<Genotype> toReturn = new ArrayList<>(outputSamples.size());
+        // homozygous allele lists shared by all the genotypes of this variant
+        final HomozygousAlleles homozygous = new HomozygousAlleles(vc.getAlleles());
+        // genotypes, ploidies and packed allele indexes for the included samples, shared by all the replicates
+        final Genotype[] genos = new Genotype[sampleOrdinals.length];
+        final int[] ploidies = new int[sampleOrdinals.length];
+        final int[] alleleIndexes = new int[sampleOrdinals.length * samplePloidy];
+        for (int i = 0; i < sampleOrdinals.length; i++) {
+            genos[i] = getGenotype(genotypes, i);
+            ploidies[i] = genos[i].getPloidy();
+            if (ploidies[i] > samplePloidy) {
+                throw new UserException(String.format("%s found a sample with ploidy %s at %s:%s. Increase --sample_ploidy to split it.",
+                        this.getClass().getSimpleName(), ploidies[i], vc.getContig(), vc.getStart()));
             }
-            if(geno.isCalled() && !geno.isHom()){
-                // get a random sample
-                final int random = randomizer.nextInt(2);
-                toReturn.add(createGenotypeWithAllele(geno, 1, random));
-                toReturn.add(createGenotypeWithAllele(geno, 2, Math.abs(random - 1)));
-            } else {
-                // easy to duplicate if it is homozygous
-                final String sampleName = geno.getSampleName();
-                final GenotypeBuilder builder = new GenotypeBuilder(geno);
-                toReturn.add(builder.name(getSampleChromosomeName(sampleName, 1)).make());
-                toReturn.add(builder.name(getSampleChromosomeName(sampleName, 2)).make());
+            for (int chr = 0; chr < ploidies[i]; chr++) {
+                alleleIndexes[i * samplePloidy + chr] = homozygous.indexOf(genos[i].getAllele(chr));
             }
-
         }
-        return toReturn;
+        final int[] permutation = new int[samplePloidy];
+        final GenotypeBuilder builder = new GenotypeBuilder();
+        int offset = 0;
+        for (PositionSeededRandom randomizer : randomizers) {
+            final long siteSeed = randomizer.siteSeed(vc.getContig(), vc.getStart());
+            for (int i = 0; i < sampleOrdinals.length; i++, offset += samplePloidy) {
+                final Genotype geno = genos[i];
+                final int ploidy = ploidies[i];
+                final int alleleOffset = i * samplePloidy;
+                if (ploidy == 2 && PositionSeededRandom.isHomozygous(alleleIndexes, alleleOffset, ploidy)) {
+                    // easy to duplicate if it is homozygous diploid
+                    builder.copy(geno);
+                    toReturn.add(builder.name(outputSamples.get(offset)).make());
+                    toReturn.add(builder.name(outputSamples.get(offset + 1)).make());
+                } else {
+                    // get a random permutation of the chromosomes
+                    PositionSeededRandom.permutation(siteSeed,
+                            PositionSeededRandom.alleleKey(alleleIndexes, alleleOffset, ploidy, homozygous.size()),
+                            sampleOrdinals[i], permutation, ploidy);
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Creating homozygous genotypes for " + geno + " with chromosome order " + Arrays.toString(Arrays.copyOf(permutation, ploidy)));
+                    }
+                    for (int chr = 0; chr < ploidy; chr++) {
+                        toReturn.add(builder.copy(geno).name(outputSamples.get(offset + chr))
+                                .alleles(homozygous.get(alleleIndexes[alleleOffset + permutation[chr]])).make());
+                    }
+                }
+                // the chromosomes that the sample does not have are missing
+                for (int chr = ploidy; chr < samplePloidy; chr++) {
+                    builder.reset(false);
+                    toReturn.add(builder.name(outputSamples.get(offset + chr)).alleles(HomozygousAlleles.NO_CALL).make());
+                }
+            }
+        }
+        return GenotypesContext.create(toReturn, outputSampleOffsets, outputSamplesInNameOrder);
     }
 
     /**
-     * Get the genotype for the chromosome specified
+     * Get the genotype for an included sample
      *
-     * @param genotype    the genotype for the sample
-     * @param chr         the number of the chromosome
-     * @param alleleIndex the index of the allele to use
-     * @return homozygous genotype for the chromosome with the allele in the specified index
+     * @param genotypes the genotypes of the variant
+     * @param index     the index of the sample in the included samples
+     * @return the genotype
      */
-    private Genotype createGenotypeWithAllele(Genotype genotype, int chr, int alleleIndex) {
-        logger.debug("Creating homozygous genotype for "+genotype.toString()+" with allele index "+alleleIndex);
-        return new GenotypeBuilder(genotype)
-                .name(getSampleChromosomeName(genotype.getSampleName(), chr))
-                .alleles(Collections.nCopies(2, genotype.getAllele(alleleIndex)))
-                .make();
+    private Genotype getGenotype(final GenotypesContext genotypes, final int index) {
+        final int genotypeIndex = genotypeIndexes[index];
+        // records decoded from the input are in header order, so this is only a sanity check
+        if (genotypeIndex < genotypes.size()) {
+            final Genotype geno = genotypes.get(genotypeIndex);
+            if (includedSamples[index].equals(geno.getSampleName())) {
+                return geno;
+            }
+        }
+        return genotypes.get(includedSamples[index]);
+    }
+
+    /**
+     * Homozygous diploid allele lists for the alleles of a variant, created only once per allele
+     */
+    private static final class HomozygousAlleles {
+
+        private static final List<Allele> NO_CALL = Collections.unmodifiableList(Arrays.asList(Allele.NO_CALL, Allele.NO_CALL));
+
+        private final List<Allele> alleles;
+
+        private final List<Allele>[] homozygous;
+
+        @SuppressWarnings("unchecked")
+        private HomozygousAlleles(final List<Allele> alleles) {
+            this.alleles = alleles;
+            this.homozygous = (List<Allele>[]) new List[alleles.size()];
+        }
+
+        /**
+         * Get the homozygous alleles for an allele index (-1 for no-call)
+         */
+        private List<Allele> get(final int index) {
+            if (index == -1) {
+                return NO_CALL;
+            }
+            if (homozygous[index] == null) {
+                homozygous[index] = Arrays.asList(alleles.get(index), alleles.get(index));
+            }
+            return homozygous[index];
+        }
+
+        private int size() {
+            return alleles.size();
+        }
+
+        /**
+         * Get the index of a genotype allele in the variant
+         *
+         * @return the index; -1 for a no-call
+         */
+        private int indexOf(final Allele allele) {
+            if (allele.isNoCall()) {
+                return -1;
+            }
+            for (int i = 0; i < alleles.size(); i++) {
+                if (alleles.get(i).equals(allele)) {
+                    return i;
+                }
+            }
+            throw new UserException.BadInput("Genotype allele " + allele + " is not present in the variant alleles " + alleles);
+        }
     }
 
     @Override
@@ -280,14 +539,36 @@ public class GetRandomChromosomes extends RodWalker<Integer, Integer> {
         return 0;
     }
 
+    /**
+     * Write the variants in order
+     */
     @Override
-    public Integer reduce(Integer value, Integer sum) {
-        return value + sum;
+    public Integer reduce(List<VariantContext> value, Integer sum) {
+        final long start = metricsArguments.start(Stage.REDUCE);
+        for (VariantContext vc : value) {
+            vcfWriter.add(vc);
+        }
+        metricsArguments.stop(Stage.REDUCE, start);
+        return value.size() + sum;
+    }
+
+    @Override
+    public Integer treeReduce(Integer lhs, Integer rhs) {
+        final long start = metricsArguments.start(Stage.TREE_REDUCE);
+        final Integer sum = lhs + rhs;
+        metricsArguments.stop(Stage.TREE_REDUCE, start);
+        return sum;
     }
 
 
     @Override
     public void onTraversalDone(Integer result) {
-        logger.info(result + " variants processed.");
+        // the engine closes its own output; there is no writer in streaming mode
+        if (vcfWriter != null) {
+            outputArguments.close(vcfWriter);
+        }
+        ProjectedVCFCodec.removeProjections(getToolkit().getGenomeLocParser());
+        logger.info(((streamOutput == null) ? result : streamedRecords) + " variants processed.");
+        metricsArguments.report(getClass().getSimpleName());
     }
 }
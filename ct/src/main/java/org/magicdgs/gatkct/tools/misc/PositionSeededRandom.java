@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.misc;
+
+/**
+ * Stateless random draws derived from a hash of the seed and the site, so that the result for a genotype does not
+ * depend on the traversal order, the number of threads or the intervals processed
+ * <p>
+ * The hash is the SplitMix64 finalizer applied to the seed, the contig name, the position, the alleles of the
+ * genotype and the sample ordinal in the input header.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class PositionSeededRandom {
+
+    // increment used by SplitMix64 to combine the values
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long seed;
+
+    /**
+     * Create a new random source for the seed
+     *
+     * @param seed the seed provided by the user
+     */
+    PositionSeededRandom(final long seed) {
+        this.seed = mix64(seed);
+    }
+
+    /**
+     * Get the seed for a site, which should be computed once per record
+     *
+     * @param contig   the contig name
+     * @param position the position in the contig
+     * @return the seed for the site
+     */
+    long siteSeed(final String contig, final int position) {
+        return siteSeed(contigSeed(contig), position);
+    }
+
+    /**
+     * Get the seed for a contig, which could be reused for all the sites in the contig
+     *
+     * @param contig the contig name
+     * @return the seed for the contig
+     */
+    long contigSeed(final String contig) {
+        // String.hashCode is defined by the language specification, so it is stable across runs
+        return mix64(seed ^ (contig.hashCode() * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Get the seed for a site from the seed for its contig
+     *
+     * @param contigSeed the seed for the contig
+     * @param position   the position in the contig
+     * @return the seed for the site
+     */
+    static long siteSeed(final long contigSeed, final int position) {
+        return mix64(contigSeed + position * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Get a pseudo-random integer between 0 (inclusive) and bound (exclusive) for a genotype in a site
+     *
+     * @param siteSeed      the seed for the site
+     * @param alleleKey     value identifying the alleles of the genotype in the variant
+     * @param sampleOrdinal the ordinal of the sample in the input header
+     * @param draw          the number of the draw for this genotype
+     * @param bound         the upper bound (exclusive)
+     * @return the random value
+     */
+    static int nextInt(final long siteSeed, final int alleleKey, final int sampleOrdinal, final int draw, final int bound) {
+        long bits = mix64(siteSeed + (alleleKey + 1L) * GOLDEN_GAMMA);
+        bits = mix64(bits + (((long) sampleOrdinal << 16) + draw + 1L) * GOLDEN_GAMMA);
+        // map the high 32 bits into the range without modulo bias worth considering
+        return (int) (((bits >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Get a random permutation of the chromosomes of a genotype (Fisher-Yates shuffle). For a diploid genotype, the
+     * first chromosome gets the allele returned by {@link #nextInt(long, int, int, int, int)} for the first draw.
+     *
+     * @param siteSeed      the seed for the site
+     * @param alleleKey     value identifying the alleles of the genotype in the variant
+     * @param sampleOrdinal the ordinal of the sample in the input header
+     * @param permutation   array to store the permutation
+     * @param ploidy        the ploidy of the genotype
+     */
+    static void permutation(final long siteSeed, final int alleleKey, final int sampleOrdinal, final int[] permutation, final int ploidy) {
+        for (int i = 0; i < ploidy; i++) {
+            permutation[i] = i;
+        }
+        for (int i = 0; i < ploidy - 1; i++) {
+            final int j = i + nextInt(siteSeed, alleleKey, sampleOrdinal, i, ploidy - i);
+            final int tmp = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = tmp;
+        }
+    }
+
+    /**
+     * Get a value identifying the ordered alleles of a genotype, independent of the sample
+     *
+     * @param alleles         packed allele indexes (-1 for no-call)
+     * @param offset          the offset of the genotype in the packed alleles
+     * @param ploidy          the ploidy of the genotype
+     * @param numberOfAlleles the number of alleles in the variant
+     * @return the key for the alleles
+     */
+    static int alleleKey(final int[] alleles, final int offset, final int ploidy, final int numberOfAlleles) {
+        int key = 0;
+        for (int i = offset; i < offset + ploidy; i++) {
+            key = key * (numberOfAlleles + 1) + alleles[i] + 1;
+        }
+        return key;
+    }
+
+    /**
+     * Check if all the alleles of a genotype are the same, so its chromosomes do not need to be permuted
+     *
+     * @param alleles packed allele indexes
+     * @param offset  the offset of the genotype in the packed alleles
+     * @param ploidy  the ploidy of the genotype
+     * @return {@code true} if the genotype is homozygous or a complete no-call; {@code false} otherwise
+     */
+    static boolean isHomozygous(final int[] alleles, final int offset, final int ploidy) {
+        for (int i = offset + 1; i < offset + ploidy; i++) {
+            if (alleles[i] != alleles[offset]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * SplitMix64 finalizer
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
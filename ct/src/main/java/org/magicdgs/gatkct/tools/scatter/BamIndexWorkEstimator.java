@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.scatter;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Estimates the work for each 16 kb window of the genome from the binning index of BAM indexes (.bai): the compressed
+ * bytes of the chunks in the leaf bin of a window approximate the amount of reads to process in the window.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+final class BamIndexWorkEstimator {
+
+	/**
+	 * Size of the linear index windows (16 kb)
+	 */
+	static final int WINDOW_SIZE = 1 << 14;
+
+	private static final byte[] MAGIC = {'B', 'A', 'I', 1};
+
+	// pseudo-bin with the reference metadata: first chunk contains pointers and the second one counts
+	private static final int METADATA_BIN = 37450;
+
+	// first bin of each level of the binning index (the last one contains the 16 kb leaf bins)
+	private static final int[] LEVEL_OFFSETS = {0, 1, 9, 73, 585, 4681};
+
+	// expected compression ratio of the BAM records, for the chunks inside a single BGZF block
+	private static final int COMPRESSION_RATIO = 4;
+
+	private final SAMSequenceDictionary dictionary;
+
+	// compressed bytes for each window and reference, summed over all the indexes
+	private final long[][] windowBytes;
+
+	/**
+	 * Create a new estimator for the references in the dictionary
+	 */
+	BamIndexWorkEstimator(final SAMSequenceDictionary dictionary) {
+		this.dictionary = dictionary;
+		this.windowBytes = new long[dictionary.size()][];
+		for (int i = 0; i < windowBytes.length; i++) {
+			windowBytes[i] = new long[numberOfWindows(dictionary.getSequence(i).getSequenceLength())];
+		}
+	}
+
+	/**
+	 * Get the number of windows for a reference length
+	 */
+	static int numberOfWindows(final int length) {
+		return (length + WINDOW_SIZE - 1) / WINDOW_SIZE;
+	}
+
+	/**
+	 * Add the work of a BAM index
+	 *
+	 * @param index the .bai file
+	 */
+	void add(final File index) {
+		final ByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()).order(ByteOrder.LITTLE_ENDIAN);
+		} catch (IOException e) {
+			throw new UserException.CouldNotReadInputFile(index, e);
+		}
+		try {
+			final byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new UserException.MalformedFile(index, "not a BAM index");
+			}
+			final int numberOfReferences = buffer.getInt();
+			if (numberOfReferences != dictionary.size()) {
+				throw new UserException.MalformedFile(index, String.format("index for %s references, but the sequence dictionary has %s",
+					numberOfReferences, dictionary.size()));
+			}
+			for (int ref = 0; ref < numberOfReferences; ref++) {
+				addReference(buffer, windowBytes[ref]);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new UserException.MalformedFile(index, "truncated BAM index", e);
+		}
+	}
+
+	private static void addReference(final ByteBuffer buffer, final long[] bytes) {
+		final int numberOfBins = buffer.getInt();
+		for (int b = 0; b < numberOfBins; b++) {
+			final int bin = buffer.getInt();
+			final int numberOfChunks = buffer.getInt();
+			for (int c = 0; c < numberOfChunks; c++) {
+				final long start = buffer.getLong();
+				final long end = buffer.getLong();
+				if (bin != METADATA_BIN) {
+					addChunk(bytes, bin, chunkBytes(start, end));
+				}
+			}
+		}
+		// the linear index is not used: the windows without alignments are filled with the previous offset, so the
+		// difference between consecutive windows assigns their work to the next window with alignments
+		final int numberOfWindows = buffer.getInt();
+		buffer.position(buffer.position() + numberOfWindows * Long.BYTES);
+	}
+
+	/**
+	 * Add the bytes of a chunk to the windows covered by its bin. The leaf bins (16 kb) correspond to a single window;
+	 * the bytes of the bins in upper levels (alignments spanning several windows) are split evenly among their windows
+	 */
+	private static void addChunk(final long[] bytes, final int bin, final long chunkBytes) {
+		int level = LEVEL_OFFSETS.length - 1;
+		while (bin < LEVEL_OFFSETS[level]) {
+			level--;
+		}
+		final int windowsPerBin = 1 << (3 * (LEVEL_OFFSETS.length - 1 - level));
+		final int first = (bin - LEVEL_OFFSETS[level]) * windowsPerBin;
+		final int last = Math.min(first + windowsPerBin, bytes.length);
+		if (first >= last) {
+			return;
+		}
+		final long perWindow = chunkBytes / (last - first);
+		for (int w = first; w < last; w++) {
+			bytes[w] += perWindow;
+		}
+		bytes[first] += chunkBytes - perWindow * (last - first);
+	}
+
+	/**
+	 * Get the approximate compressed bytes of a chunk: the distance between the BGZF blocks, or the uncompressed bytes
+	 * scaled by the expected compression ratio if it is inside a single block
+	 */
+	private static long chunkBytes(final long start, final long end) {
+		final long blocks = BlockCompressedFilePointerUtil.getBlockAddress(end) - BlockCompressedFilePointerUtil.getBlockAddress(start);
+		if (blocks > 0) {
+			return blocks;
+		}
+		final int offsets = BlockCompressedFilePointerUtil.getBlockOffset(end) - BlockCompressedFilePointerUtil.getBlockOffset(start);
+		return Math.max(0, offsets / COMPRESSION_RATIO);
+	}
+
+	/**
+	 * Get the compressed bytes for each window of a reference
+	 *
+	 * @param reference the index of the reference in the dictionary
+	 */
+	long[] getWindowBytes(final int reference) {
+		return windowBytes[reference];
+	}
+}
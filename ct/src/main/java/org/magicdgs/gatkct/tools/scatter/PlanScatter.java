@@ -0,0 +1,274 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.scatter;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamFiles;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.CommandLineProgram;
+import org.broadinstitute.gatk.utils.commandline.Input;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
+import org.broadinstitute.gatk.utils.help.HelpConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plan a scatter of the GATKCT tools into interval lists with similar amount of work
+ *
+ * <p>
+ * The work for each 16 kb window of the genome is estimated from the linear index of the BAM indexes (compressed
+ * bytes of the reads starting in the window) plus a cost proportional to the window length. The windows are split in
+ * consecutive shards with similar estimated cost, so the wall time of a scattered run is limited by the average shard
+ * instead of the largest contig or the deepest region.
+ * </p>
+ *
+ * <h2>Input</h2>
+ * <p>
+ * Indexed BAM files that will be used in the scattered runs.
+ * </p>
+ *
+ * <h2>Output</h2>
+ * <p>
+ * One interval list for each shard, named with the output prefix and the shard number, to use with -L in each job.
+ * </p>
+ *
+ * <h2>Examples</h2>
+ * <pre>
+ *    java -cp GATKCT.jar org.magicdgs.gatkct.tools.scatter.PlanScatter \
+ *      -I sample1.bam \
+ *      -I sample2.bam \
+ *      -N 50 \
+ *      -prefix scatter/shard
+ * </pre>
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+@DocumentedGATKFeature(groupName = HelpConstants.DOCS_CAT_DATA)
+public class PlanScatter extends CommandLineProgram {
+
+	private static final Logger logger = Logger.getLogger(PlanScatter.class);
+
+	@Input(fullName = "input", shortName = "I", doc = "Indexed BAM files to estimate the work", required = true)
+	public List<File> inputs = new ArrayList<>();
+
+	@Argument(fullName = "scatter_count", shortName = "N", doc = "Number of shards", required = true)
+	public int scatterCount;
+
+	@Argument(fullName = "output_prefix", shortName = "prefix", doc = "Prefix for the interval list of each shard", required = true)
+	public String outputPrefix;
+
+	/**
+	 * Cost of each base-pair of the reference, in compressed bytes of reads. It accounts for the traversal of regions
+	 * without reads.
+	 */
+	@Argument(fullName = "length_cost", shortName = "lengthCost", doc = "Estimated cost of each base-pair, in compressed bytes of reads", required = false)
+	public double lengthCost = 0.05;
+
+	/**
+	 * Keep each contig in a single shard, for tools that should not split contigs
+	 */
+	@Argument(fullName = "no_contig_split", shortName = "noSplit", doc = "Do not split contigs between shards", required = false)
+	public boolean noContigSplit = false;
+
+	@Override
+	protected int execute() throws Exception {
+		if (scatterCount < 1) {
+			throw new UserException.BadArgumentValue("scatter_count", "should be a positive integer");
+		}
+		if (lengthCost < 0) {
+			throw new UserException.BadArgumentValue("length_cost", "should be non-negative");
+		}
+		final SAMSequenceDictionary dictionary = readDictionary();
+		final BamIndexWorkEstimator estimator = new BamIndexWorkEstimator(dictionary);
+		for (final File input : inputs) {
+			final File index = SamFiles.findIndex(input);
+			if (index == null || !index.getName().endsWith(".bai")) {
+				throw new UserException.BadInput("BAM index (.bai) not found for " + input);
+			}
+			estimator.add(index);
+		}
+		final double[][] costs = computeCosts(dictionary, estimator);
+		final List<IntervalList> shards = partition(dictionary, costs);
+		writeShards(shards);
+		return 0;
+	}
+
+	/**
+	 * Read the sequence dictionary of the inputs, which should be the same for all of them
+	 */
+	private SAMSequenceDictionary readDictionary() {
+		SAMSequenceDictionary dictionary = null;
+		for (final File input : inputs) {
+			try (SamReader reader = SamReaderFactory.makeDefault().open(input)) {
+				final SAMSequenceDictionary current = reader.getFileHeader().getSequenceDictionary();
+				if (dictionary == null) {
+					dictionary = current;
+				} else if (!sameSequences(dictionary, current)) {
+					throw new UserException.BadInput(String.format("%s has a different sequence dictionary from %s", input, inputs.get(0)));
+				}
+			} catch (IOException e) {
+				throw new UserException.CouldNotReadInputFile(input, e);
+			}
+		}
+		return dictionary;
+	}
+
+	private static boolean sameSequences(final SAMSequenceDictionary first, final SAMSequenceDictionary second) {
+		if (first.size() != second.size()) {
+			return false;
+		}
+		for (int i = 0; i < first.size(); i++) {
+			if (!first.getSequence(i).getSequenceName().equals(second.getSequence(i).getSequenceName())
+				|| first.getSequence(i).getSequenceLength() != second.getSequence(i).getSequenceLength()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the cost of each window (or contig, if they are not split)
+	 */
+	private double[][] computeCosts(final SAMSequenceDictionary dictionary, final BamIndexWorkEstimator estimator) {
+		final double[][] costs = new double[dictionary.size()][];
+		for (int ref = 0; ref < costs.length; ref++) {
+			final int length = dictionary.getSequence(ref).getSequenceLength();
+			final long[] bytes = estimator.getWindowBytes(ref);
+			final double[] windowCosts = new double[bytes.length];
+			for (int w = 0; w < bytes.length; w++) {
+				final int windowLength = Math.min(BamIndexWorkEstimator.WINDOW_SIZE, length - w * BamIndexWorkEstimator.WINDOW_SIZE);
+				windowCosts[w] = bytes[w] + lengthCost * windowLength;
+			}
+			if (noContigSplit) {
+				double total = 0;
+				for (final double cost : windowCosts) {
+					total += cost;
+				}
+				costs[ref] = new double[] {total};
+			} else {
+				costs[ref] = windowCosts;
+			}
+		}
+		return costs;
+	}
+
+	/**
+	 * Split the units (windows or contigs) in consecutive shards with similar cost. A new shard starts when the middle
+	 * of a unit is over the expected cumulative cost for the current shard
+	 */
+	private List<IntervalList> partition(final SAMSequenceDictionary dictionary, final double[][] costs) {
+		double total = 0;
+		for (final double[] referenceCosts : costs) {
+			for (final double cost : referenceCosts) {
+				total += cost;
+			}
+		}
+		final double target = total / scatterCount;
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(dictionary);
+		final List<IntervalList> shards = new ArrayList<>(scatterCount);
+		final double[] shardCosts = new double[scatterCount];
+		IntervalList current = new IntervalList(header);
+		shards.add(current);
+		double accumulated = 0;
+		for (int ref = 0; ref < costs.length; ref++) {
+			final String contig = dictionary.getSequence(ref).getSequenceName();
+			final int length = dictionary.getSequence(ref).getSequenceLength();
+			final int unitSize = (noContigSplit) ? length : BamIndexWorkEstimator.WINDOW_SIZE;
+			int runStart = -1;
+			for (int u = 0; u < costs[ref].length; u++) {
+				final double cost = costs[ref][u];
+				if (shards.size() < scatterCount && accumulated + cost / 2 > target * shards.size()) {
+					if (runStart != -1) {
+						current.add(new Interval(contig, runStart * unitSize + 1, u * unitSize));
+						runStart = -1;
+					}
+					// only start a new shard if the current one is not empty
+					if (current.size() != 0 || shardCosts[shards.size() - 1] != 0) {
+						current = new IntervalList(header);
+						shards.add(current);
+					}
+				}
+				if (runStart == -1) {
+					runStart = u;
+				}
+				shardCosts[shards.size() - 1] += cost;
+				accumulated += cost;
+			}
+			if (runStart != -1) {
+				current.add(new Interval(contig, runStart * unitSize + 1, length));
+			}
+		}
+		logShards(shards, shardCosts, target);
+		return shards;
+	}
+
+	private void logShards(final List<IntervalList> shards, final double[] shardCosts, final double target) {
+		double maxCost = 0;
+		for (int i = 0; i < shards.size(); i++) {
+			logger.info(String.format("Shard %s: %s intervals, %s bp, estimated cost %.2f%% of the average",
+				i + 1, shards.get(i).size(), shards.get(i).getBaseCount(), 100 * shardCosts[i] / target));
+			maxCost = Math.max(maxCost, shardCosts[i]);
+		}
+		if (shards.size() < scatterCount) {
+			logger.warn(String.format("Only %s shards could be planned (requested %s)", shards.size(), scatterCount));
+		}
+		logger.info(String.format("Largest shard estimated cost is %.2fx the average", maxCost / target));
+	}
+
+	private void writeShards(final List<IntervalList> shards) {
+		final String format = "%s.%0" + String.valueOf(shards.size()).length() + "d" + IntervalList.INTERVAL_LIST_FILE_EXTENSION;
+		for (int i = 0; i < shards.size(); i++) {
+			final File output = new File(String.format(format, outputPrefix, i + 1));
+			logger.info("Writing " + output);
+			shards.get(i).write(output);
+		}
+	}
+
+	/**
+	 * Run the tool
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		try {
+			start(new PlanScatter(), args);
+			System.exit(CommandLineProgram.result);
+		} catch (UserException e) {
+			exitSystemWithUserError(e);
+		} catch (Exception e) {
+			exitSystemWithError(e);
+		}
+	}
+}
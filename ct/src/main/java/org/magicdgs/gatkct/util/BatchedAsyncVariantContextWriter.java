@@ -0,0 +1,191 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFHeader;
+import org.broadinstitute.gatk.utils.exceptions.GATKException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writer that encodes the variants in a dedicated thread. The variants are added in batches to a bounded queue, so the
+ * traversal blocks if the encoding thread cannot keep up (back-pressure), and they are written in the same order as
+ * they are added.
+ * <p>
+ * The header is written directly in the calling thread. Errors in the encoding thread are thrown in the next call
+ * from the calling thread.
+ * <p>
+ * Unlike the htsjdk asynchronous writer, which queues every variant, the variants are handed over in batches to reduce
+ * the synchronization between threads.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class BatchedAsyncVariantContextWriter implements VariantContextWriter {
+
+	// marks the end of the queue
+	private static final List<VariantContext> END_OF_QUEUE = Collections.emptyList();
+
+	private final VariantContextWriter delegate;
+
+	private final int batchSize;
+
+	private final BlockingQueue<List<VariantContext>> queue;
+
+	private final Thread encoder;
+
+	// the batch that is being filled in the calling thread
+	private List<VariantContext> batch;
+
+	private volatile Throwable error = null;
+
+	private boolean finished = false;
+
+	/**
+	 * Create a new asynchronous writer
+	 *
+	 * @param delegate  the writer to encode the variants
+	 * @param batchSize the number of variants to send to the encoding thread at once
+	 * @param queueSize the maximum number of batches waiting to be encoded
+	 */
+	public BatchedAsyncVariantContextWriter(final VariantContextWriter delegate, final int batchSize, final int queueSize) {
+		if (batchSize < 1 || queueSize < 1) {
+			throw new IllegalArgumentException("Batch and queue sizes should be positive");
+		}
+		this.delegate = delegate;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+		this.batch = new ArrayList<>(batchSize);
+		this.encoder = new Thread(this::encode, "GATKCT-VariantContextWriter");
+		this.encoder.setDaemon(true);
+		this.encoder.start();
+		CommandResources.register(this, encoder::interrupt);
+	}
+
+	@Override
+	public synchronized void writeHeader(final VCFHeader header) {
+		// the header is written before any variant, so the encoding thread is still waiting
+		delegate.writeHeader(header);
+	}
+
+	@Override
+	public synchronized void add(final VariantContext vc) {
+		checkEncodingError();
+		if (finished) {
+			throw new IllegalStateException("Variant added after closing the writer");
+		}
+		batch.add(vc);
+		if (batch.size() == batchSize) {
+			put(batch);
+			batch = new ArrayList<>(batchSize);
+		}
+	}
+
+	/**
+	 * Write all the variants added and stop the encoding thread, without closing the delegate writer. This is useful
+	 * for writers owned by the GATK engine, which are closed by the engine after the traversal
+	 */
+	public synchronized void finish() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		if (!batch.isEmpty()) {
+			put(batch);
+		}
+		batch = null;
+		put(END_OF_QUEUE);
+		try {
+			encoder.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GATKException("Interrupted while waiting for the variants to be written", e);
+		}
+		CommandResources.unregister(this);
+		checkEncodingError();
+	}
+
+	/**
+	 * Write all the variants added and close the delegate writer
+	 */
+	@Override
+	public void close() {
+		finish();
+		delegate.close();
+	}
+
+	@Override
+	public boolean checkError() {
+		return error != null || delegate.checkError();
+	}
+
+	private void put(final List<VariantContext> variants) {
+		try {
+			queue.put(variants);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GATKException("Interrupted while writing variants", e);
+		}
+		checkEncodingError();
+	}
+
+	private void checkEncodingError() {
+		final Throwable t = error;
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else if (t != null) {
+			throw new GATKException("Error writing variants", t);
+		}
+	}
+
+	/**
+	 * Encodes the batches in the queue until the end of the queue is found. After an error, the rest of the batches
+	 * are discarded to do not block the calling thread
+	 */
+	private void encode() {
+		try {
+			List<VariantContext> variants;
+			while ((variants = queue.take()) != END_OF_QUEUE) {
+				if (error == null) {
+					try {
+						for (final VariantContext vc : variants) {
+							delegate.add(vc);
+						}
+					} catch (Throwable t) {
+						error = t;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			error = e;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import org.broadinstitute.gatk.engine.GATKVCFUtils;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writer for block compressed VCF files (.vcf.gz), compressed in parallel and indexed with tabix on the fly. The
+ * header and the variants are encoded by the htsjdk VCF writer, which writes every record to the compressed stream
+ * when it is added
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class BlockCompressedVariantContextWriter implements VariantContextWriter {
+
+	private final File file;
+
+	private final IndexedBlockCompressedOutput output;
+
+	private final ParallelBlockCompressedOutputStream stream;
+
+	// the stream for the htsjdk writer, which should not close the compressed stream before the index is created
+	private final HeaderOutputStream headerStream;
+
+	private final VariantContextWriter writer;
+
+	// the engine to add its header lines; null if they are not added
+	private final GenomeAnalysisEngine engine;
+
+	// true if the file is continued after its header
+	private final boolean continued;
+
+	private boolean error = false;
+
+	/**
+	 * Create a new writer
+	 *
+	 * @param file       the output file
+	 * @param threads    the number of threads to compress the output
+	 * @param dictionary the sequence dictionary; <code>null</code> if not available
+	 * @param engine     the engine to add the command line and the contigs to the header, as the engine output does;
+	 *                   <code>null</code> to write the header as it is
+	 */
+	public BlockCompressedVariantContextWriter(final File file, final int threads, final SAMSequenceDictionary dictionary, final GenomeAnalysisEngine engine) {
+		this.file = file;
+		try {
+			this.output = new IndexedBlockCompressedOutput(file, threads, TabixFormat.VCF, dictionary);
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		}
+		this.stream = output.getOutputStream();
+		this.headerStream = new HeaderOutputStream(stream);
+		this.writer = createWriter(headerStream, dictionary);
+		this.engine = engine;
+		this.continued = false;
+	}
+
+	/**
+	 * Create a writer which continues a file written before, keeping the header and the variants in its first
+	 * compressed bytes (see {@link #flush()}). The header is only used for encoding the variants
+	 *
+	 * @param file       the output file
+	 * @param threads    the number of threads to compress the output
+	 * @param dictionary the sequence dictionary; <code>null</code> if not available
+	 * @param offset     the number of compressed bytes to keep
+	 */
+	public BlockCompressedVariantContextWriter(final File file, final int threads, final SAMSequenceDictionary dictionary, final long offset) {
+		this.file = file;
+		try {
+			this.output = new IndexedBlockCompressedOutput(file, threads, TabixFormat.VCF, dictionary, new VCFCodec(), offset);
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		}
+		this.stream = output.getOutputStream();
+		this.headerStream = new HeaderOutputStream(stream);
+		this.writer = createWriter(headerStream, dictionary);
+		this.engine = null;
+		this.continued = true;
+	}
+
+	@Override
+	public void writeHeader(VCFHeader header) {
+		if (engine != null && header.isWriteEngineHeaders()) {
+			if (header.isWriteCommandLine()) {
+				header.addMetaDataLine(GATKVCFUtils.getCommandLineArgumentHeaderLine(engine, Arrays.asList(engine.getArguments(), engine.getWalker())));
+			}
+			header = GATKVCFUtils.withUpdatedContigs(header, engine);
+		}
+		// the header of a continued file is already in the kept bytes
+		headerStream.discard = continued;
+		try {
+			writer.writeHeader(header);
+		} catch (RuntimeIOException e) {
+			error = true;
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		} finally {
+			headerStream.discard = false;
+		}
+	}
+
+	@Override
+	public void add(final VariantContext vc) {
+		output.startRecord(vc);
+		try {
+			writer.add(vc);
+		} catch (RuntimeIOException e) {
+			error = true;
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		}
+	}
+
+	/**
+	 * Write the variants added so far in complete blocks
+	 *
+	 * @return the number of compressed bytes in the file, which could be used to continue it
+	 */
+	public long flush() {
+		try {
+			stream.flush();
+		} catch (IOException e) {
+			error = true;
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		}
+		return stream.getCompressedPosition();
+	}
+
+	@Override
+	public boolean checkError() {
+		return error || writer.checkError();
+	}
+
+	@Override
+	public void close() {
+		try {
+			// the compressed stream is closed with the index
+			writer.close();
+			output.close();
+		} catch (IOException | RuntimeIOException e) {
+			error = true;
+			throw new UserException.CouldNotCreateOutputFile(file, e);
+		}
+	}
+
+	private static VariantContextWriter createWriter(final OutputStream stream, final SAMSequenceDictionary dictionary) {
+		return new VariantContextWriterBuilder()
+			.clearOptions()
+			.setOutputVCFStream(stream)
+			.setReferenceDictionary(dictionary)
+			.build();
+	}
+
+	/**
+	 * Stream between the htsjdk writer and the compressed stream, which keeps the latter open on close and could
+	 * discard the header
+	 */
+	private static final class HeaderOutputStream extends FilterOutputStream {
+
+		private boolean discard = false;
+
+		private HeaderOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			if (!discard) {
+				out.write(b);
+			}
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if (!discard) {
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void close() {
+			// closed with the index
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Checkpoints for long-running walkers writing to --bgzf_output. Periodically, the output is flushed to a block
+ * boundary and a line is appended to the journal with the compressed bytes written, the reduce state and the intervals
+ * already traversed. With --resume, the output is truncated to the last checkpoint, the reduce state is restored and
+ * the traversed intervals are excluded from the traversal (with -XL, added by {@link org.magicdgs.gatkct.Main}).
+ * <p>
+ * The checkpoints are taken in the reduce, which is called in order, so they are not supported with several data
+ * threads (-nt). The journal lines are written with a single call and synchronized to disk; an incomplete last line
+ * (e.g., if the job is killed while writing it) is ignored.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class CheckpointArgumentCollection {
+
+	private static final Logger logger = Logger.getLogger(CheckpointArgumentCollection.class);
+
+	/**
+	 * Arguments for the journal file in the command line
+	 */
+	public static final List<String> JOURNAL_ARGUMENTS = Collections.unmodifiableList(Arrays.asList("-checkpoint", "--checkpoint_journal"));
+
+	/**
+	 * Argument to resume from the journal in the command line
+	 */
+	public static final String RESUME_ARGUMENT = "--resume";
+
+	static final String JOURNAL_HEADER = "#GATKCT checkpoint journal";
+
+	/**
+	 * The output should be written with --bgzf_output (without --async_output)
+	 */
+	@Argument(fullName = "checkpoint_journal", shortName = "checkpoint", doc = "Journal to record the checkpoints of the traversal", required = false)
+	public File checkpointJournal = null;
+
+	@Argument(fullName = "checkpoint_interval", shortName = "checkpointInterval", doc = "Minimum number of seconds between checkpoints", required = false)
+	public int checkpointInterval = 600;
+
+	/**
+	 * Continue the traversal from the last checkpoint in the journal. If the journal does not exist or does not have
+	 * any checkpoint, the traversal starts from the beginning
+	 */
+	@Argument(fullName = "resume", doc = "Resume the traversal from the last checkpoint in the journal", required = false)
+	public boolean resume = false;
+
+	private GenomeAnalysisEngine toolkit;
+
+	private OutputArgumentCollection output;
+
+	private String resumedState = null;
+
+	private long nextCheckpoint;
+
+	/**
+	 * Initialize the checkpoints and continue the output if resuming. It should be called before wrapping the writer
+	 * with the output arguments
+	 *
+	 * @param toolkit the engine
+	 * @param output  the output arguments
+	 */
+	public void initialize(final GenomeAnalysisEngine toolkit, final OutputArgumentCollection output) {
+		if (checkpointJournal == null) {
+			if (resume) {
+				throw new UserException.CommandLineException(RESUME_ARGUMENT + " requires --checkpoint_journal");
+			}
+			return;
+		}
+		if (output.bgzfOutput == null || output.asyncOutput) {
+			throw new UserException.CommandLineException("--checkpoint_journal requires --bgzf_output without --async_output");
+		}
+		if (toolkit.getArguments().numberOfDataThreads > 1) {
+			throw new UserException.CommandLineException("--checkpoint_journal is not supported with -nt (use -nct instead)");
+		}
+		if (checkpointInterval < 1) {
+			throw new UserException.BadArgumentValue("checkpoint_interval", "should be a positive integer");
+		}
+		this.toolkit = toolkit;
+		this.output = output;
+		final String[] last = (resume) ? readLastCheckpoint(checkpointJournal) : null;
+		if (last == null) {
+			writeJournal(JOURNAL_HEADER + "\n", false);
+		} else {
+			logger.info("Resuming " + output.bgzfOutput + " from the checkpoint after " + last[last.length - 1]);
+			output.continueOutput(Long.parseLong(last[0]));
+			resumedState = last[1];
+		}
+		nextCheckpoint = System.nanoTime() + checkpointInterval * 1000000000L;
+	}
+
+	/**
+	 * Get the reduce state of the checkpoint to resume from
+	 *
+	 * @return the state; {@code null} if the traversal is not resumed
+	 */
+	public String getResumedState() {
+		return resumedState;
+	}
+
+	/**
+	 * Take a checkpoint if the interval passed. It should be called in the reduce, once everything up to the locus is
+	 * reduced and written
+	 *
+	 * @param contig   the contig of the last reduced locus
+	 * @param position the position of the last reduced locus
+	 * @param writer   the writer returned by the output arguments
+	 * @param state    the reduce state, without tabs or new lines
+	 */
+	public void checkpoint(final String contig, final int position, final VariantContextWriter writer, final Supplier<String> state) {
+		if (checkpointJournal == null || System.nanoTime() < nextCheckpoint) {
+			return;
+		}
+		final long offset = output.flush(writer);
+		writeJournal(checkpointLine(offset, state.get(), toolkit.getMasterSequenceDictionary(), contig, position), true);
+		nextCheckpoint = System.nanoTime() + checkpointInterval * 1000000000L;
+	}
+
+	/**
+	 * Get the journal line for a checkpoint: the compressed bytes of the output, the reduce state and the traversed
+	 * intervals, separated by tabs
+	 *
+	 * @param offset     the compressed bytes written to the output
+	 * @param state      the reduce state, without tabs or new lines
+	 * @param dictionary the sequence dictionary of the traversal
+	 * @param contig     the contig of the last reduced locus
+	 * @param position   the position of the last reduced locus
+	 *
+	 * @return the line, including the new line
+	 */
+	static String checkpointLine(final long offset, final String state, final SAMSequenceDictionary dictionary,
+		final String contig, final int position) {
+		final StringBuilder line = new StringBuilder().append(offset).append('\t').append(state);
+		// the traversal is in the dictionary order
+		for (SAMSequenceRecord sequence : dictionary.getSequences()) {
+			if (sequence.getSequenceName().equals(contig)) {
+				break;
+			}
+			line.append('\t').append(sequence.getSequenceName());
+		}
+		return line.append('\t').append(contig).append(":1-").append(position).append('\n').toString();
+	}
+
+	/**
+	 * Get the intervals traversed up to the last checkpoint in a journal
+	 *
+	 * @param journal the journal
+	 *
+	 * @return the intervals to exclude; empty if there is no checkpoint
+	 */
+	public static List<String> getTraversedIntervals(final File journal) {
+		final String[] last = readLastCheckpoint(journal);
+		return (last == null) ? Collections.emptyList() : Arrays.asList(last).subList(2, last.length);
+	}
+
+	/**
+	 * Read the fields of the last complete checkpoint
+	 *
+	 * @return the fields; {@code null} if the journal does not exist or does not have checkpoints
+	 */
+	static String[] readLastCheckpoint(final File journal) {
+		if (!journal.exists()) {
+			return null;
+		}
+		final String contents;
+		try {
+			contents = new String(Files.readAllBytes(journal.toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UserException.CouldNotReadInputFile(journal, e);
+		}
+		if (!contents.startsWith(JOURNAL_HEADER)) {
+			throw new UserException.MalformedFile(journal, "not a GATKCT checkpoint journal");
+		}
+		// the last line is only complete if it ends with a new line
+		final List<String> lines = new ArrayList<>(Arrays.asList(contents.split("\n", -1)));
+		lines.remove(lines.size() - 1);
+		for (int i = lines.size() - 1; i > 0; i--) {
+			final String[] fields = lines.get(i).split("\t");
+			if (fields.length >= 3) {
+				return fields;
+			}
+		}
+		return null;
+	}
+
+	void writeJournal(final String contents, final boolean append) {
+		try (FileOutputStream out = new FileOutputStream(checkpointJournal, append)) {
+			out.write(contents.getBytes(StandardCharsets.UTF_8));
+			out.getFD().sync();
+		} catch (IOException e) {
+			throw new UserException.CouldNotCreateOutputFile(checkpointJournal, e);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the threads started by a command which should not outlive it. They are normally stopped by their owners
+ * when the command finishes, but a failed command could skip that step: the {@link
+ * org.magicdgs.gatkct.server.CommandServer} releases the remaining ones after each command, so they are not kept in
+ * the long-lived JVM.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public final class CommandResources {
+
+	private static final Map<Object, Runnable> RESOURCES = new IdentityHashMap<>();
+
+	private CommandResources() {}
+
+	/**
+	 * Register the action to release the threads of an owner
+	 *
+	 * @param owner   the owner of the threads
+	 * @param release the action to stop them
+	 */
+	public static synchronized void register(final Object owner, final Runnable release) {
+		RESOURCES.put(owner, release);
+	}
+
+	/**
+	 * Unregister an owner after stopping its threads
+	 *
+	 * @param owner the owner of the threads
+	 */
+	public static synchronized void unregister(final Object owner) {
+		RESOURCES.remove(owner);
+	}
+
+	/**
+	 * Release all the registered threads
+	 *
+	 * @return the number of owners released
+	 */
+	public static int releaseAll() {
+		final List<Runnable> releases;
+		synchronized (CommandResources.class) {
+			releases = new ArrayList<>(RESOURCES.values());
+			RESOURCES.clear();
+		}
+		for (final Runnable release : releases) {
+			release.run();
+		}
+		return releases.size();
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.tribble.AsciiFeatureCodec;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * BGZF output compressed in parallel with {@link ParallelBlockCompressedOutputStream}, which creates its tabix index
+ * (.tbi) on the fly. Before writing each record, {@link #startRecord(Feature)} should be called; the virtual file
+ * pointer of the record is resolved when its block is written, so the index is created without a second pass over the
+ * output.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class IndexedBlockCompressedOutput implements Closeable {
+
+	private final File file;
+
+	private final ParallelBlockCompressedOutputStream outputStream;
+
+	private final TabixIndexCreator indexCreator;
+
+	// records waiting for the address of its block
+	private final Deque<PendingFeature> pending = new ArrayDeque<>();
+
+	/**
+	 * Create a new indexed output
+	 *
+	 * @param file       the output file
+	 * @param threads    the number of threads to compress the blocks
+	 * @param format     the tabix format for the records
+	 * @param dictionary the sequence dictionary; <code>null</code> if not available
+	 *
+	 * @throws IOException if the file cannot be created
+	 */
+	public IndexedBlockCompressedOutput(final File file, final int threads, final TabixFormat format,
+		final SAMSequenceDictionary dictionary) throws IOException {
+		this.file = file;
+		this.outputStream = new ParallelBlockCompressedOutputStream(file, threads);
+		this.indexCreator = (dictionary == null) ? new TabixIndexCreator(format) : new TabixIndexCreator(dictionary, format);
+		this.outputStream.setBlockListener(this::resolveBlock);
+	}
+
+	/**
+	 * Create an indexed output which continues an existing file, keeping only its first compressed bytes. The kept
+	 * records are read with the codec to add them to the index
+	 *
+	 * @param file       the output file
+	 * @param threads    the number of threads to compress the blocks
+	 * @param format     the tabix format for the records
+	 * @param dictionary the sequence dictionary; <code>null</code> if not available
+	 * @param codec      the codec to read the records for the index
+	 * @param offset     the number of compressed bytes to keep, at a block boundary
+	 *
+	 * @throws IOException if the file cannot be continued
+	 */
+	public IndexedBlockCompressedOutput(final File file, final int threads, final TabixFormat format,
+		final SAMSequenceDictionary dictionary, final AsciiFeatureCodec<?> codec, final long offset) throws IOException {
+		this.file = file;
+		this.outputStream = new ParallelBlockCompressedOutputStream(file, threads, offset);
+		this.indexCreator = (dictionary == null) ? new TabixIndexCreator(format) : new TabixIndexCreator(dictionary, format);
+		this.outputStream.setBlockListener(this::resolveBlock);
+		indexKeptRecords(codec);
+	}
+
+	/**
+	 * Add the records already in the (truncated) file to the index
+	 */
+	private void indexKeptRecords(final AsciiFeatureCodec<?> codec) throws IOException {
+		final StringBuilder header = new StringBuilder();
+		boolean inHeader = true;
+		try (BlockCompressedInputStream in = new BlockCompressedInputStream(file)) {
+			// the file pointer is not available before the first read
+			long pointer = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (inHeader && line.startsWith("#")) {
+					header.append(line).append('\n');
+				} else {
+					if (inHeader) {
+						codec.readActualHeader(codec.makeSourceFromStream(new ByteArrayInputStream(header.toString().getBytes(StandardCharsets.UTF_8))));
+						inHeader = false;
+					}
+					indexCreator.addFeature(codec.decode(line), pointer);
+				}
+				pointer = in.getFilePointer();
+			}
+		}
+		if (inHeader) {
+			codec.readActualHeader(codec.makeSourceFromStream(new ByteArrayInputStream(header.toString().getBytes(StandardCharsets.UTF_8))));
+		}
+	}
+
+	/**
+	 * Get the stream to write the records
+	 */
+	public ParallelBlockCompressedOutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * Register the start of a record at the current position of the stream. The records should be sorted
+	 *
+	 * @param feature the location of the record
+	 */
+	public void startRecord(final Feature feature) {
+		pending.add(new PendingFeature(feature, outputStream.getBlockNumber(), outputStream.getBlockOffset()));
+	}
+
+	/**
+	 * Close the stream and write the index next to the file
+	 *
+	 * @throws IOException if there is a problem writing the file or the index
+	 */
+	@Override
+	public void close() throws IOException {
+		outputStream.flush();
+		// records without bytes after them start at the end-of-file marker
+		resolveBlock(outputStream.getBlockNumber(), outputStream.getCompressedPosition());
+		final Index index = indexCreator.finalizeIndex(outputStream.getCompressedPosition() << 16);
+		outputStream.close();
+		index.writeBasedOnFeatureFile(file);
+	}
+
+	private void resolveBlock(final long blockNumber, final long address) {
+		while (!pending.isEmpty() && pending.peek().blockNumber <= blockNumber) {
+			final PendingFeature record = pending.poll();
+			indexCreator.addFeature(record.feature, (address << 16) | record.offset);
+		}
+	}
+
+	private static final class PendingFeature {
+
+		private final Feature feature;
+
+		private final long blockNumber;
+
+		private final int offset;
+
+		private PendingFeature(final Feature feature, final long blockNumber, final int offset) {
+			this.feature = feature;
+			this.blockNumber = blockNumber;
+			this.offset = offset;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Writer recording the time for adding each variant in the {@link MetricsArgumentCollection.Stage#WRITE} stage
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class InstrumentedVariantContextWriter implements VariantContextWriter {
+
+	private final VariantContextWriter writer;
+
+	private final MetricsArgumentCollection metrics;
+
+	/**
+	 * Create a new instrumented writer
+	 *
+	 * @param writer  the underlying writer
+	 * @param metrics the metrics to record the time
+	 */
+	public InstrumentedVariantContextWriter(final VariantContextWriter writer, final MetricsArgumentCollection metrics) {
+		this.writer = writer;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the underlying writer
+	 */
+	public VariantContextWriter getWriter() {
+		return writer;
+	}
+
+	@Override
+	public void writeHeader(final VCFHeader header) {
+		writer.writeHeader(header);
+	}
+
+	@Override
+	public void add(final VariantContext vc) {
+		final long start = metrics.start(MetricsArgumentCollection.Stage.WRITE);
+		writer.add(vc);
+		metrics.stop(MetricsArgumentCollection.Stage.WRITE, start);
+	}
+
+	@Override
+	public boolean checkError() {
+		return writer.checkError();
+	}
+
+	@Override
+	public void close() {
+		writer.close();
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Instrumentation of the walker stages (map, reduce, tree-reduce and output writing), shared by the GATKCT walkers. The
+ * time of each call is recorded in a per-thread log2 histogram, and the report is written when the traversal is done.
+ * Each call could be also emitted as a JFR event ({@link StageEvent}), if the JVM provides the jdk.jfr API. Without
+ * --metrics_report or --metrics_jfr the calls only check two fields, so the instrumentation could be left in the hot
+ * path.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class MetricsArgumentCollection {
+
+	/**
+	 * Instrumented stages of a walker
+	 */
+	public enum Stage {
+		MAP, REDUCE, TREE_REDUCE, WRITE;
+
+		private final String label = name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * The report is written in JSON format if the file has .json extension; otherwise, in the Prometheus text format
+	 * (for the node exporter textfile collector). The file is replaced at once, so it is never read incomplete.
+	 */
+	@Argument(fullName = "metrics_report", shortName = "metrics", doc = "File to write the metrics for the walker stages (.json or Prometheus text format)", required = false)
+	public File metricsReport = null;
+
+	/**
+	 * Record also the bytes allocated in each stage, if the JVM supports it. This is more expensive than the timing
+	 */
+	@Argument(fullName = "metrics_allocations", shortName = "metricsAlloc", doc = "Record the bytes allocated in each stage", required = false)
+	public boolean metricsAllocations = false;
+
+	/**
+	 * Emit a JFR event for each call of the instrumented stages, which are recorded when a flight recording is running
+	 * (e.g. with -XX:StartFlightRecording). It requires a JVM with the jdk.jfr API (OpenJDK 8u262 and later); otherwise,
+	 * it is ignored with a warning.
+	 */
+	@Argument(fullName = "metrics_jfr", shortName = "metricsJfr", doc = "Emit JFR events for the walker stages", required = false)
+	public boolean metricsJfr = false;
+
+	private static final Logger logger = Logger.getLogger(MetricsArgumentCollection.class);
+
+	// true if the JVM provides the jdk.jfr API; otherwise, StageEvent cannot be loaded
+	private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+	// log2 buckets for the nanoseconds: the last one is unbounded
+	private static final int BUCKETS = 36;
+
+	private final ThreadLocal<ThreadRecorder> recorder = ThreadLocal.withInitial(this::newRecorder);
+
+	// recorders of all the threads, for the report
+	private final Queue<ThreadRecorder> recorders = new ConcurrentLinkedQueue<>();
+
+	private volatile long firstStart = 0;
+
+	private ThreadMXBean allocationBean = null;
+
+	private boolean jfrEvents = false;
+
+	/**
+	 * Start timing a stage in the current thread
+	 *
+	 * @param stage the stage
+	 *
+	 * @return the start time to pass to {@link #stop(Stage, long)}; 0 if the metrics are disabled
+	 */
+	public long start(final Stage stage) {
+		if (metricsReport == null && !metricsJfr) {
+			return 0;
+		}
+		final ThreadRecorder current = recorder.get();
+		if (allocationBean != null) {
+			current.allocationStart[stage.ordinal()] = getAllocatedBytes();
+		}
+		if (jfrEvents) {
+			current.events[stage.ordinal()] = StageEvent.start();
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record a stage started with {@link #start(Stage)} in the current thread
+	 *
+	 * @param stage the stage
+	 * @param start the start time
+	 */
+	public void stop(final Stage stage, final long start) {
+		if (metricsReport == null && !metricsJfr) {
+			return;
+		}
+		final long elapsed = System.nanoTime() - start;
+		final ThreadRecorder current = recorder.get();
+		final int s = stage.ordinal();
+		current.counts[s]++;
+		current.nanos[s] += elapsed;
+		current.histograms[s][Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, elapsed)))]++;
+		final long allocated = (allocationBean == null) ? -1 : getAllocatedBytes() - current.allocationStart[s];
+		if (allocated != -1) {
+			current.allocated[s] += allocated;
+		}
+		if (jfrEvents) {
+			StageEvent.stop(current.events[s], stage.label, allocated);
+			current.events[s] = null;
+		}
+	}
+
+	/**
+	 * Wrap a writer to record the time for adding each variant in the {@link Stage#WRITE} stage
+	 *
+	 * @param writer the writer
+	 *
+	 * @return the same writer if the metrics are disabled; the instrumented writer otherwise
+	 */
+	public VariantContextWriter wrap(final VariantContextWriter writer) {
+		return (metricsReport == null && !metricsJfr) ? writer : new InstrumentedVariantContextWriter(writer, this);
+	}
+
+	/**
+	 * Write the report, if requested
+	 *
+	 * @param tool the name of the tool
+	 *
+	 * @throws UserException.CouldNotCreateOutputFile if the report could not be written
+	 */
+	public void report(final String tool) {
+		if (metricsReport == null) {
+			return;
+		}
+		final double wallSeconds = (firstStart == 0) ? 0 : (System.nanoTime() - firstStart) / 1e9;
+		final File temp = new File(metricsReport.getPath() + ".tmp" + System.nanoTime());
+		try (Writer out = new BufferedWriter(new FileWriter(temp))) {
+			if (metricsReport.getName().endsWith(".json")) {
+				writeJson(out, tool, wallSeconds);
+			} else {
+				writePrometheus(out, tool, wallSeconds);
+			}
+		} catch (IOException e) {
+			temp.delete();
+			throw new UserException.CouldNotCreateOutputFile(metricsReport, e);
+		}
+		try {
+			Files.move(temp.toPath(), metricsReport.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temp.delete();
+			throw new UserException.CouldNotCreateOutputFile(metricsReport, e);
+		}
+	}
+
+	private ThreadRecorder newRecorder() {
+		if (firstStart == 0) {
+			synchronized (this) {
+				if (firstStart == 0) {
+					initializeAllocationBean();
+					initializeJfrEvents();
+					firstStart = System.nanoTime();
+				}
+			}
+		}
+		final ThreadRecorder current = new ThreadRecorder(Thread.currentThread().getName());
+		recorders.add(current);
+		return current;
+	}
+
+	private void initializeAllocationBean() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (metricsAllocations && bean instanceof com.sun.management.ThreadMXBean
+			&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+			allocationBean = bean;
+		}
+	}
+
+	private void initializeJfrEvents() {
+		if (metricsJfr && !JFR_AVAILABLE) {
+			logger.warn("--metrics_jfr is ignored: the JVM does not provide the jdk.jfr API (OpenJDK 8u262 or later is required)");
+		}
+		jfrEvents = metricsJfr && JFR_AVAILABLE;
+	}
+
+	private static boolean isJfrAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, MetricsArgumentCollection.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	private long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) allocationBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private void writeJson(final Writer out, final String tool, final double wallSeconds) throws IOException {
+		out.write(String.format(Locale.ROOT, "{\"tool\":\"%s\",\"wall_seconds\":%.3f,\"stages\":{", tool, wallSeconds));
+		for (Stage stage : Stage.values()) {
+			final int s = stage.ordinal();
+			long count = 0;
+			long nanos = 0;
+			long allocated = 0;
+			for (ThreadRecorder r : recorders) {
+				count += r.counts[s];
+				nanos += r.nanos[s];
+				allocated += r.allocated[s];
+			}
+			out.write(String.format(Locale.ROOT, "%s\"%s\":{\"count\":%d,\"seconds\":%.6f,\"records_per_second\":%.3f,\"allocated_bytes\":%d,\"threads\":{",
+				(s == 0) ? "" : ",", stage.label, count, nanos / 1e9, (wallSeconds == 0) ? 0 : count / wallSeconds, allocated));
+			boolean first = true;
+			for (ThreadRecorder r : recorders) {
+				if (r.counts[s] == 0) {
+					continue;
+				}
+				out.write(String.format(Locale.ROOT, "%s\"%s\":{\"count\":%d,\"seconds\":%.6f,\"allocated_bytes\":%d,\"log2_nanos_histogram\":[",
+					(first) ? "" : ",", r.thread.replace("\\", "\\\\").replace("\"", "\\\""), r.counts[s], r.nanos[s] / 1e9, r.allocated[s]));
+				for (int b = 0; b < BUCKETS; b++) {
+					out.write(((b == 0) ? "" : ",") + r.histograms[s][b]);
+				}
+				out.write("]}");
+				first = false;
+			}
+			out.write("}}");
+		}
+		out.write("}}\n");
+	}
+
+	private void writePrometheus(final Writer out, final String tool, final double wallSeconds) throws IOException {
+		out.write("# HELP gatkct_stage_seconds Time spent in each walker stage\n");
+		out.write("# TYPE gatkct_stage_seconds histogram\n");
+		for (ThreadRecorder r : recorders) {
+			for (Stage stage : Stage.values()) {
+				final int s = stage.ordinal();
+				if (r.counts[s] == 0) {
+					continue;
+				}
+				final String labels = String.format("tool=\"%s\",stage=\"%s\",thread=\"%s\"", tool, stage.label,
+					r.thread.replace("\\", "\\\\").replace("\"", "\\\""));
+				long cumulative = 0;
+				for (int b = 0; b < BUCKETS - 1; b++) {
+					cumulative += r.histograms[s][b];
+					out.write(String.format(Locale.ROOT, "gatkct_stage_seconds_bucket{%s,le=\"%s\"} %d%n", labels, (1L << (b + 1)) / 1e9, cumulative));
+				}
+				out.write(String.format(Locale.ROOT, "gatkct_stage_seconds_bucket{%s,le=\"+Inf\"} %d%n", labels, r.counts[s]));
+				out.write(String.format(Locale.ROOT, "gatkct_stage_seconds_sum{%s} %.9f%n", labels, r.nanos[s] / 1e9));
+				out.write(String.format(Locale.ROOT, "gatkct_stage_seconds_count{%s} %d%n", labels, r.counts[s]));
+			}
+		}
+		out.write("# HELP gatkct_stage_allocated_bytes_total Bytes allocated in each walker stage\n");
+		out.write("# TYPE gatkct_stage_allocated_bytes_total counter\n");
+		for (Stage stage : Stage.values()) {
+			long allocated = 0;
+			for (ThreadRecorder r : recorders) {
+				allocated += r.allocated[stage.ordinal()];
+			}
+			out.write(String.format(Locale.ROOT, "gatkct_stage_allocated_bytes_total{tool=\"%s\",stage=\"%s\"} %d%n", tool, stage.label, allocated));
+		}
+		out.write("# HELP gatkct_stage_records_per_second Calls per second of each walker stage over the traversal\n");
+		out.write("# TYPE gatkct_stage_records_per_second gauge\n");
+		for (Stage stage : Stage.values()) {
+			long count = 0;
+			for (ThreadRecorder r : recorders) {
+				count += r.counts[stage.ordinal()];
+			}
+			out.write(String.format(Locale.ROOT, "gatkct_stage_records_per_second{tool=\"%s\",stage=\"%s\"} %.3f%n", tool, stage.label,
+				(wallSeconds == 0) ? 0 : count / wallSeconds));
+		}
+	}
+
+	/**
+	 * Metrics of a single thread, only updated by that thread
+	 */
+	private static final class ThreadRecorder {
+
+		private final String thread;
+
+		private final long[] counts = new long[Stage.values().length];
+
+		private final long[] nanos = new long[Stage.values().length];
+
+		private final long[] allocated = new long[Stage.values().length];
+
+		private final long[] allocationStart = new long[Stage.values().length];
+
+		private final long[][] histograms = new long[Stage.values().length][BUCKETS];
+
+		// the JFR events in progress, as StageEvent (only loaded if JFR is available)
+		private final Object[] events = new Object[Stage.values().length];
+
+		private ThreadRecorder(final String thread) {
+			this.thread = thread;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.commandline.Hidden;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+
+/**
+ * Output arguments shared by the GATKCT walkers that write variants
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class OutputArgumentCollection {
+
+	private static final Logger logger = Logger.getLogger(OutputArgumentCollection.class);
+
+	/**
+	 * The variants are encoded and compressed in a dedicated thread, overlapping the output with the traversal. It is
+	 * ignored with several data threads (-nt), because the engine output is thread-local in that case.
+	 */
+	@Argument(fullName = "async_output", shortName = "asyncOut", doc = "Encode the output variants in a separate thread", required = false)
+	public boolean asyncOutput = false;
+
+	@Hidden
+	@Argument(fullName = "async_output_batch_size", shortName = "asyncOutBatch", doc = "Number of variants sent at once to the output thread", required = false)
+	public int asyncOutputBatchSize = 1000;
+
+	@Hidden
+	@Argument(fullName = "async_output_queue_size", shortName = "asyncOutQueue", doc = "Maximum number of batches waiting for the output thread", required = false)
+	public int asyncOutputQueueSize = 8;
+
+	/**
+	 * The main output is written to this block compressed VCF instead of the engine output (-o), compressing the blocks
+	 * in several threads and creating the tabix index (.tbi) at the same time. The header includes the command line and
+	 * the contigs added by the engine, and the engine output is left empty. It is not supported with several data
+	 * threads (-nt).
+	 */
+	@Argument(fullName = "bgzf_output", shortName = "bgzfOut", doc = "Block compressed VCF (.vcf.gz) to write the variants with its tabix index, instead of the engine output", required = false)
+	public File bgzfOutput = null;
+
+	/**
+	 * Number of threads to compress the outputs written with --bgzf_output or with .gz extension
+	 */
+	@Argument(fullName = "bgzf_threads", shortName = "bgzfThreads", doc = "Number of threads to compress the block compressed outputs", required = false)
+	public int bgzfThreads = 4;
+
+	// compressed bytes to keep from a previous --bgzf_output; -1 to create a new file
+	private long continueOffset = -1;
+
+	/**
+	 * Wrap the engine writer with the requested output options. Writers returned by this method should be closed with
+	 * {@link #close(VariantContextWriter)}, because the engine owns the original writer
+	 *
+	 * @param writer  the engine writer
+	 * @param toolkit the engine
+	 *
+	 * @return the writer to use
+	 */
+	public VariantContextWriter wrap(final VariantContextWriter writer, final GenomeAnalysisEngine toolkit) {
+		if (bgzfOutput == null) {
+			return wrapAsync(writer, toolkit);
+		}
+		if (!bgzfOutput.getName().endsWith(".gz")) {
+			throw new UserException.BadArgumentValue("bgzf_output", "should have .gz extension");
+		}
+		if (toolkit.getArguments().numberOfDataThreads > 1) {
+			throw new UserException.CommandLineException("--bgzf_output is not supported with -nt (use -nct instead)");
+		}
+		if (continueOffset != -1) {
+			return new BlockCompressedVariantContextWriter(bgzfOutput, bgzfThreads, toolkit.getMasterSequenceDictionary(), continueOffset);
+		}
+		return wrapAsync(createBlockCompressedWriter(bgzfOutput, toolkit, true), toolkit);
+	}
+
+	/**
+	 * Continue the --bgzf_output of a previous run instead of creating it, keeping its first compressed bytes. It
+	 * should be called before {@link #wrap(VariantContextWriter, GenomeAnalysisEngine)}
+	 *
+	 * @param offset the number of compressed bytes to keep, returned by {@link #flush(VariantContextWriter)}
+	 */
+	public void continueOutput(final long offset) {
+		if (bgzfOutput == null || asyncOutput) {
+			throw new IllegalStateException("Only --bgzf_output without --async_output could be continued");
+		}
+		this.continueOffset = offset;
+	}
+
+	/**
+	 * Write the variants added so far to the --bgzf_output in complete blocks
+	 *
+	 * @param writer the writer returned by {@link #wrap(VariantContextWriter, GenomeAnalysisEngine)}
+	 *
+	 * @return the number of compressed bytes in the file, to continue it with {@link #continueOutput(long)}
+	 */
+	public long flush(VariantContextWriter writer) {
+		if (writer instanceof InstrumentedVariantContextWriter) {
+			writer = ((InstrumentedVariantContextWriter) writer).getWriter();
+		}
+		if (!(writer instanceof BlockCompressedVariantContextWriter)) {
+			throw new IllegalStateException("Only --bgzf_output without --async_output could be flushed");
+		}
+		return ((BlockCompressedVariantContextWriter) writer).flush();
+	}
+
+	/**
+	 * Create a writer for a file not managed by the engine with the requested output options. Files with .gz extension
+	 * are block compressed in parallel and indexed with tabix. The returned writer should be closed by the caller
+	 *
+	 * @param file    the output file
+	 * @param toolkit the engine
+	 *
+	 * @return the writer to use
+	 */
+	public VariantContextWriter createWriter(final File file, final GenomeAnalysisEngine toolkit) {
+		final VariantContextWriter writer = (file.getName().endsWith(".gz"))
+			? createBlockCompressedWriter(file, toolkit, false)
+			: new VariantContextWriterBuilder()
+				.setOutputFile(file)
+				.setReferenceDictionary(toolkit.getMasterSequenceDictionary())
+				.build();
+		return wrapAsync(writer, toolkit);
+	}
+
+	/**
+	 * Close a writer returned by {@link #wrap(VariantContextWriter, GenomeAnalysisEngine)}: the pending variants are
+	 * written, but the engine output is left open for the engine
+	 *
+	 * @param writer the writer, which could be wrapped with {@link MetricsArgumentCollection#wrap(VariantContextWriter)}
+	 */
+	public void close(VariantContextWriter writer) {
+		if (writer instanceof InstrumentedVariantContextWriter) {
+			writer = ((InstrumentedVariantContextWriter) writer).getWriter();
+		}
+		if (bgzfOutput != null) {
+			writer.close();
+		} else if (writer instanceof BatchedAsyncVariantContextWriter) {
+			((BatchedAsyncVariantContextWriter) writer).finish();
+		}
+	}
+
+	// the engine header lines are added only for the output replacing the engine one
+	private VariantContextWriter createBlockCompressedWriter(final File file, final GenomeAnalysisEngine toolkit, final boolean engineHeaders) {
+		if (bgzfThreads < 1) {
+			throw new UserException.BadArgumentValue("bgzf_threads", "should be a positive integer");
+		}
+		return new BlockCompressedVariantContextWriter(file, bgzfThreads, toolkit.getMasterSequenceDictionary(), (engineHeaders) ? toolkit : null);
+	}
+
+	private VariantContextWriter wrapAsync(final VariantContextWriter writer, final GenomeAnalysisEngine toolkit) {
+		if (!asyncOutput) {
+			return writer;
+		}
+		if (toolkit.getArguments().numberOfDataThreads > 1) {
+			logger.warn("--async_output is ignored with several data threads (-nt)");
+			return writer;
+		}
+		return new BatchedAsyncVariantContextWriter(writer, asyncOutputBatchSize, asyncOutputQueueSize);
+	}
+}
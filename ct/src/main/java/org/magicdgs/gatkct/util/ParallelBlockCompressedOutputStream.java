@@ -0,0 +1,383 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream for BGZF files which compresses the blocks in a pool of threads. The compressed blocks are written in
+ * the calling thread in the same order as they were filled, so the output is the same as with
+ * {@link BlockCompressedOutputStream} with the same compression level.
+ * <p>
+ * Because the address of a block is only known when it is written, the virtual file pointer for the current position
+ * is represented by the block number and the offset in it ({@link #getBlockNumber()} and {@link #getBlockOffset()}),
+ * and the address of each block is notified to the {@link BlockListener} after writing it.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+
+	/**
+	 * Listener for the blocks written into the file
+	 */
+	public interface BlockListener {
+
+		/**
+		 * Called in the thread writing to the stream after a block is written, in the same order as the blocks
+		 *
+		 * @param blockNumber the number of the block (0-based)
+		 * @param address     the position of the block in the compressed file
+		 */
+		void blockWritten(long blockNumber, long address);
+	}
+
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+	private final OutputStream out;
+
+	// compressor for each worker thread
+	private final ThreadLocal<BlockCompressor> compressors;
+
+	private final ExecutorService executor;
+
+	// maximum number of blocks compressing or waiting to be written
+	private final int maxBlocksInFlight;
+
+	private final Deque<Block> blocksInFlight;
+
+	// buffers recycled from blocks already written
+	private final Deque<byte[]> freeBuffers;
+
+	private BlockListener listener = null;
+
+	// the block which is being filled
+	private byte[] buffer;
+	private int bufferLength = 0;
+	private long blockNumber = 0;
+
+	// number of blocks and compressed bytes already written
+	private long blocksWritten = 0;
+	private long address = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * Create a new stream for a file with the default compression level
+	 *
+	 * @param file    the output file
+	 * @param threads the number of threads to compress the blocks
+	 *
+	 * @throws IOException if the file cannot be created
+	 */
+	public ParallelBlockCompressedOutputStream(final File file, final int threads) throws IOException {
+		this(new FileOutputStream(file), threads, BlockCompressedOutputStream.getDefaultCompressionLevel());
+	}
+
+	/**
+	 * Create a new stream which continues an existing file, keeping only its first compressed bytes. The kept bytes
+	 * should end at a block boundary (e.g., the {@link #getCompressedPosition()} after a {@link #flush()})
+	 *
+	 * @param file    the output file
+	 * @param threads the number of threads to compress the blocks
+	 * @param offset  the number of compressed bytes to keep
+	 *
+	 * @throws IOException if the file is shorter than the offset or cannot be truncated
+	 */
+	public ParallelBlockCompressedOutputStream(final File file, final int threads, final long offset) throws IOException {
+		this(truncate(file, offset), threads, BlockCompressedOutputStream.getDefaultCompressionLevel());
+		this.address = offset;
+	}
+
+	private static OutputStream truncate(final File file, final long offset) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < offset) {
+				throw new IOException(file + " is shorter than " + offset + " bytes");
+			}
+			raf.setLength(offset);
+		}
+		return new FileOutputStream(file, true);
+	}
+
+	/**
+	 * Create a new stream
+	 *
+	 * @param out              the stream to write the compressed blocks
+	 * @param threads          the number of threads to compress the blocks
+	 * @param compressionLevel the compression level
+	 */
+	public ParallelBlockCompressedOutputStream(final OutputStream out, final int threads, final int compressionLevel) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required for compression");
+		}
+		this.out = out;
+		this.compressors = ThreadLocal.withInitial(() -> new BlockCompressor(compressionLevel));
+		final String poolName = "GATKCT-BGZF-" + POOL_NUMBER.incrementAndGet() + "-";
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			final Thread thread = new Thread(r, poolName + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		CommandResources.register(this, this::release);
+		this.maxBlocksInFlight = 2 * threads;
+		this.blocksInFlight = new ArrayDeque<>(maxBlocksInFlight + 1);
+		this.freeBuffers = new ArrayDeque<>(maxBlocksInFlight + 1);
+		this.buffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+	}
+
+	/**
+	 * Set the listener for the blocks written
+	 */
+	public void setBlockListener(final BlockListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Get the number of the block where the next byte will be written
+	 */
+	public long getBlockNumber() {
+		return blockNumber;
+	}
+
+	/**
+	 * Get the offset in the block where the next byte will be written
+	 */
+	public int getBlockOffset() {
+		return bufferLength;
+	}
+
+	/**
+	 * Get the number of compressed bytes written. After {@link #flush()}, it is the address of the next block
+	 */
+	public long getCompressedPosition() {
+		return address;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		buffer[bufferLength++] = (byte) b;
+		if (bufferLength == buffer.length) {
+			submitBlock();
+		}
+	}
+
+	@Override
+	public void write(final byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			final int toCopy = Math.min(length, buffer.length - bufferLength);
+			System.arraycopy(bytes, offset, buffer, bufferLength, toCopy);
+			bufferLength += toCopy;
+			offset += toCopy;
+			length -= toCopy;
+			if (bufferLength == buffer.length) {
+				submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Compress the current block (if it is not empty) and write all the blocks in flight
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (bufferLength != 0) {
+			submitBlock();
+		}
+		while (!blocksInFlight.isEmpty()) {
+			writeBlock(blocksInFlight.poll());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Write all the blocks and the BGZF end-of-file marker
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+			out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			address += BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+			out.close();
+		} finally {
+			executor.shutdownNow();
+			CommandResources.unregister(this);
+		}
+	}
+
+	// stop the compression threads and close the output of a stream which was not closed
+	private void release() {
+		executor.shutdownNow();
+		try {
+			out.close();
+		} catch (IOException e) {
+			// the output is incomplete anyway
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		final byte[] data = buffer;
+		final int length = bufferLength;
+		blocksInFlight.add(new Block(data, executor.submit(() -> compressors.get().compress(data, length))));
+		blockNumber++;
+		buffer = (freeBuffers.isEmpty()) ? new byte[data.length] : freeBuffers.poll();
+		bufferLength = 0;
+		// write the blocks already compressed, blocking if there are too many in flight
+		while (!blocksInFlight.isEmpty() && (blocksInFlight.size() > maxBlocksInFlight || blocksInFlight.peek().compressed.isDone())) {
+			writeBlock(blocksInFlight.poll());
+		}
+	}
+
+	private void writeBlock(final Block block) throws IOException {
+		final byte[] compressed;
+		try {
+			compressed = block.compressed.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing a block", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Error compressing a block", e.getCause());
+		}
+		out.write(compressed);
+		if (listener != null) {
+			listener.blockWritten(blocksWritten, address);
+		}
+		blocksWritten++;
+		address += compressed.length;
+		freeBuffers.add(block.data);
+	}
+
+	/**
+	 * Uncompressed block and its compression task
+	 */
+	private static final class Block {
+
+		private final byte[] data;
+
+		private final Future<byte[]> compressed;
+
+		private Block(final byte[] data, final Future<byte[]> compressed) {
+			this.data = data;
+			this.compressed = compressed;
+		}
+	}
+
+	/**
+	 * Deflaters and buffers to compress blocks in a thread
+	 */
+	private static final class BlockCompressor {
+
+		private final Deflater deflater;
+
+		private final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+
+		private final CRC32 crc32 = new CRC32();
+
+		private final byte[] compressedBuffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE
+			- BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+
+		private BlockCompressor(final int compressionLevel) {
+			this.deflater = new Deflater(compressionLevel, true);
+		}
+
+		/**
+		 * Compress the data into a complete BGZF block
+		 */
+		private byte[] compress(final byte[] data, final int length) {
+			deflater.reset();
+			int compressedSize = deflate(deflater, data, length);
+			if (compressedSize == -1) {
+				// the data is not compressible enough to fit in a block
+				noCompressionDeflater.reset();
+				compressedSize = deflate(noCompressionDeflater, data, length);
+				if (compressedSize == -1) {
+					throw new IllegalStateException("Impossible to compress a block into the maximum BGZF block size");
+				}
+			}
+			crc32.reset();
+			crc32.update(data, 0, length);
+			final int blockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + compressedSize
+				+ BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+			final byte[] block = new byte[blockSize];
+			// gzip header with the BGZF extra field
+			block[0] = BlockCompressedStreamConstants.GZIP_ID1;
+			block[1] = (byte) BlockCompressedStreamConstants.GZIP_ID2;
+			block[2] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+			block[3] = BlockCompressedStreamConstants.GZIP_FLG;
+			// modification time (4 bytes) is 0
+			block[8] = BlockCompressedStreamConstants.GZIP_XFL;
+			block[9] = (byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+			writeShort(block, 10, BlockCompressedStreamConstants.GZIP_XLEN);
+			block[12] = BlockCompressedStreamConstants.BGZF_ID1;
+			block[13] = BlockCompressedStreamConstants.BGZF_ID2;
+			writeShort(block, 14, BlockCompressedStreamConstants.BGZF_LEN);
+			writeShort(block, 16, blockSize - 1);
+			System.arraycopy(compressedBuffer, 0, block, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, compressedSize);
+			// gzip footer
+			writeInt(block, blockSize - 8, (int) crc32.getValue());
+			writeInt(block, blockSize - 4, length);
+			return block;
+		}
+
+		/**
+		 * @return the compressed size; -1 if it does not fit in the buffer
+		 */
+		private int deflate(final Deflater deflater, final byte[] data, final int length) {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			final int size = deflater.deflate(compressedBuffer, 0, compressedBuffer.length - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+			return (deflater.finished()) ? size : -1;
+		}
+
+		private static void writeShort(final byte[] block, final int offset, final int value) {
+			block[offset] = (byte) value;
+			block[offset + 1] = (byte) (value >>> 8);
+		}
+
+		private static void writeInt(final byte[] block, final int offset, final int value) {
+			writeShort(block, offset, value);
+			writeShort(block, offset + 2, value >>> 16);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.commandline.Argument;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of a GATKCT walker, written periodically to a JSON status file so a scheduler could detect stalled or slow
+ * jobs. The status includes the current position, the rates of loci and output records, the counts for each filter,
+ * the heap usage and the estimated time to finish the reference (or the intervals). The file is replaced at once, so it
+ * is never read incomplete.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class ProgressArgumentCollection {
+
+	private static final Logger logger = Logger.getLogger(ProgressArgumentCollection.class);
+
+	@Argument(fullName = "progress_file", shortName = "progress", doc = "JSON file to write the progress of the traversal periodically", required = false)
+	public File progressFile = null;
+
+	@Argument(fullName = "progress_interval", shortName = "progressInterval", doc = "Seconds between updates of the progress file", required = false)
+	public int progressInterval = 30;
+
+	private String tool;
+
+	// traversed regions in order, with the number of base-pairs before each of them
+	private int[] contigIndexes;
+	private int[] starts;
+	private int[] stops;
+	private long[] basesBefore;
+	private long totalBases;
+
+	private final LongAdder loci = new LongAdder();
+
+	private final LongAdder records = new LongAdder();
+
+	private final Map<String, LongAdder> filters = new ConcurrentSkipListMap<>();
+
+	private volatile GenomeLoc lastLocus = null;
+
+	private long startTime;
+
+	// for the recent rates
+	private long lastUpdateTime;
+	private long lastUpdateLoci = 0;
+	private long lastUpdateRecords = 0;
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * Start reporting the progress, if requested
+	 *
+	 * @param tool    the name of the tool
+	 * @param toolkit the engine, for the traversed intervals
+	 */
+	public void start(final String tool, final GenomeAnalysisEngine toolkit) {
+		if (progressFile == null) {
+			return;
+		}
+		if (progressInterval < 1) {
+			throw new UserException.BadArgumentValue("progress_interval", "should be a positive integer");
+		}
+		this.tool = tool;
+		initializeRegions(toolkit);
+		startTime = System.nanoTime();
+		lastUpdateTime = startTime;
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "GATKCT-progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		CommandResources.register(this, scheduler::shutdownNow);
+		scheduler.scheduleAtFixedRate(() -> {
+			try {
+				write(false);
+			} catch (RuntimeException e) {
+				// the traversal should continue even if the status could not be written
+				logger.warn("Unable to write the progress file: " + e.getMessage());
+			}
+		}, progressInterval, progressInterval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Register a traversed locus
+	 *
+	 * @param locus the locus
+	 */
+	public void locus(final GenomeLoc locus) {
+		if (progressFile == null) {
+			return;
+		}
+		loci.increment();
+		lastLocus = locus;
+	}
+
+	/**
+	 * Register written records
+	 *
+	 * @param count the number of records
+	 */
+	public void records(final long count) {
+		if (progressFile == null) {
+			return;
+		}
+		records.add(count);
+	}
+
+	/**
+	 * Register filtered sites or genotypes
+	 *
+	 * @param filter the name of the filter
+	 * @param count  the number of sites or genotypes
+	 */
+	public void filtered(final String filter, final long count) {
+		if (progressFile == null) {
+			return;
+		}
+		filters.computeIfAbsent(filter, f -> new LongAdder()).add(count);
+	}
+
+	/**
+	 * Check if the progress is reported
+	 *
+	 * @return {@code true} if the progress file was requested; {@code false} otherwise
+	 */
+	public boolean isEnabled() {
+		return progressFile != null;
+	}
+
+	/**
+	 * Stop the periodic updates and write the final status
+	 */
+	public void finish() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdownNow();
+		CommandResources.unregister(this);
+		try {
+			scheduler.awaitTermination(progressInterval, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		write(true);
+	}
+
+	private void initializeRegions(final GenomeAnalysisEngine toolkit) {
+		final List<GenomeLoc> intervals = (toolkit.getIntervals() == null) ? null : new ArrayList<>(toolkit.getIntervals());
+		final List<SAMSequenceRecord> sequences = toolkit.getMasterSequenceDictionary().getSequences();
+		final int size = (intervals == null) ? sequences.size() : intervals.size();
+		contigIndexes = new int[size];
+		starts = new int[size];
+		stops = new int[size];
+		basesBefore = new long[size];
+		totalBases = 0;
+		for (int i = 0; i < size; i++) {
+			if (intervals == null) {
+				contigIndexes[i] = sequences.get(i).getSequenceIndex();
+				starts[i] = 1;
+				stops[i] = sequences.get(i).getSequenceLength();
+			} else {
+				contigIndexes[i] = intervals.get(i).getContigIndex();
+				starts[i] = intervals.get(i).getStart();
+				stops[i] = intervals.get(i).getStop();
+			}
+			basesBefore[i] = totalBases;
+			totalBases += stops[i] - starts[i] + 1;
+		}
+	}
+
+	/**
+	 * Get the base-pairs traversed up to a locus, assuming that the traversal is in order
+	 */
+	private long getProcessedBases(final GenomeLoc locus) {
+		if (locus == null || contigIndexes.length == 0) {
+			return 0;
+		}
+		// last region starting before or at the locus
+		int low = 0;
+		int high = contigIndexes.length - 1;
+		int region = -1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = (contigIndexes[mid] != locus.getContigIndex())
+				? Integer.compare(contigIndexes[mid], locus.getContigIndex())
+				: Integer.compare(starts[mid], locus.getStart());
+			if (cmp <= 0) {
+				region = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (region == -1) {
+			return 0;
+		}
+		final int end = (contigIndexes[region] == locus.getContigIndex()) ? Math.min(locus.getStart(), stops[region]) : stops[region];
+		return basesBefore[region] + end - starts[region] + 1;
+	}
+
+	private synchronized void write(final boolean done) {
+		final long now = System.nanoTime();
+		final double elapsed = (now - startTime) / 1e9;
+		final double sinceLastUpdate = (now - lastUpdateTime) / 1e9;
+		final long currentLoci = loci.sum();
+		final long currentRecords = records.sum();
+		final GenomeLoc locus = lastLocus;
+		final long processed = (done) ? totalBases : getProcessedBases(locus);
+		final double eta = (processed == 0) ? -1 : elapsed * (totalBases - processed) / processed;
+		final Runtime runtime = Runtime.getRuntime();
+		final StringBuilder json = new StringBuilder();
+		json.append(String.format(Locale.ROOT, "{\"tool\":\"%s\",\"state\":\"%s\",\"updated\":%d,\"elapsed_seconds\":%.1f,",
+			tool, (done) ? "done" : "running", System.currentTimeMillis(), elapsed));
+		json.append((locus == null) ? "\"contig\":null,\"position\":null," : String.format(Locale.ROOT, "\"contig\":\"%s\",\"position\":%d,", locus.getContig(), locus.getStart()));
+		json.append(String.format(Locale.ROOT, "\"loci\":%d,\"loci_per_second\":%.3f,\"recent_loci_per_second\":%.3f,",
+			currentLoci, rate(currentLoci, elapsed), rate(currentLoci - lastUpdateLoci, sinceLastUpdate)));
+		json.append(String.format(Locale.ROOT, "\"records\":%d,\"records_per_second\":%.3f,\"recent_records_per_second\":%.3f,",
+			currentRecords, rate(currentRecords, elapsed), rate(currentRecords - lastUpdateRecords, sinceLastUpdate)));
+		json.append("\"filters\":{");
+		boolean first = true;
+		for (Map.Entry<String, LongAdder> filter : filters.entrySet()) {
+			json.append((first) ? "" : ",").append('"').append(filter.getKey()).append("\":").append(filter.getValue().sum());
+			first = false;
+		}
+		json.append("},");
+		json.append(String.format(Locale.ROOT, "\"heap_used_bytes\":%d,\"heap_max_bytes\":%d,",
+			runtime.totalMemory() - runtime.freeMemory(), runtime.maxMemory()));
+		json.append(String.format(Locale.ROOT, "\"processed_bases\":%d,\"total_bases\":%d,\"fraction_done\":%.6f,\"eta_seconds\":%.0f}%n",
+			processed, totalBases, (totalBases == 0) ? 0 : (double) processed / totalBases, eta));
+		lastUpdateTime = now;
+		lastUpdateLoci = currentLoci;
+		lastUpdateRecords = currentRecords;
+		final File temp = new File(progressFile.getPath() + ".tmp" + System.nanoTime());
+		try (Writer out = new BufferedWriter(new FileWriter(temp))) {
+			out.write(json.toString());
+		} catch (IOException e) {
+			temp.delete();
+			throw new UserException.CouldNotCreateOutputFile(progressFile, e);
+		}
+		try {
+			Files.move(temp.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temp.delete();
+			throw new UserException.CouldNotCreateOutputFile(progressFile, e);
+		}
+	}
+
+	private static double rate(final long count, final double seconds) {
+		return (seconds == 0) ? 0 : count / seconds;
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.refdata.ReferenceDependentFeatureCodec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * VCF codec that only parses the genotypes for a subset of samples. The walker registers the samples that it needs for
+ * a ROD binding with {@link #setProjection(GenomeLocParser, String, Collection)} during initialization, and the decoded
+ * records only contain those samples (in header order). The rest of the sample columns are skipped without splitting
+ * them.
+ * <p>
+ * The projections are scoped to the engine that creates the codecs (identified by its genome location parser), so
+ * several engines in the same JVM do not share them, and they are released with the engine or with
+ * {@link #removeProjections(GenomeLocParser)}. The projected genotypes are decoded lazily by the thread using them
+ * (e.g. the map threads with -nct), each one with its own codec holding the projected header, so the header of this
+ * codec is never modified and the threads do not wait for each other. Errors report the line of the record.
+ * <p>
+ * It is never selected automatically for a file, so it should be requested with the ROD binding tag
+ * (e.g. -V:ProjectedVCF input.vcf). Without a registered projection it behaves as the standard VCF codec.
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class ProjectedVCFCodec extends VCFCodec implements ReferenceDependentFeatureCodec {
+
+	/**
+	 * The tribble type for the ROD binding
+	 */
+	public static final String TRIBBLE_TYPE = "ProjectedVCF";
+
+	// samples requested for each ROD binding name, for each engine
+	private static final Map<GenomeLocParser, Map<String, Collection<String>>> PROJECTIONS = new WeakHashMap<>();
+
+	// the engine that created this codec
+	private GenomeLocParser genomeLocParser = null;
+
+	// the projection for this codec, initialized with the first record decoded
+	private Projection projection = null;
+
+	/**
+	 * Register the samples to decode for a ROD binding. Should be called before the traversal starts
+	 *
+	 * @param genomeLocParser the genome location parser of the engine
+	 * @param name            the name of the ROD binding
+	 * @param samples         the samples to keep
+	 */
+	public static void setProjection(final GenomeLocParser genomeLocParser, final String name, final Collection<String> samples) {
+		synchronized (PROJECTIONS) {
+			PROJECTIONS.computeIfAbsent(genomeLocParser, k -> new HashMap<>()).put(name, new ArrayList<>(samples));
+		}
+	}
+
+	/**
+	 * Remove the projections registered for an engine. Should be called after the traversal
+	 *
+	 * @param genomeLocParser the genome location parser of the engine
+	 */
+	public static void removeProjections(final GenomeLocParser genomeLocParser) {
+		synchronized (PROJECTIONS) {
+			PROJECTIONS.remove(genomeLocParser);
+		}
+	}
+
+	private static Collection<String> getProjection(final GenomeLocParser genomeLocParser, final String name) {
+		synchronized (PROJECTIONS) {
+			final Map<String, Collection<String>> projections = PROJECTIONS.get(genomeLocParser);
+			return (projections == null) ? null : projections.get(name);
+		}
+	}
+
+	@Override
+	public void setGenomeLocParser(final GenomeLocParser genomeLocParser) {
+		this.genomeLocParser = genomeLocParser;
+	}
+
+	@Override
+	public boolean canDecode(final String potentialInput) {
+		// only used if requested explicitly, to do not conflict with the standard codec
+		return false;
+	}
+
+	@Override
+	public VariantContext decode(final String line) {
+		final VariantContext vc = super.decode(line);
+		if (vc == null) {
+			return null;
+		}
+		if (projection == null) {
+			// the header of this codec is not modified after reading it
+			projection = new Projection(header, version, getProjection(genomeLocParser, getName()));
+		}
+		if (projection.columns == null || !(vc.getGenotypes() instanceof LazyGenotypesContext)) {
+			return vc;
+		}
+		// the genotypes are parsed by the thread using them, with the line number of this record
+		final Object data = ((LazyGenotypesContext) vc.getGenotypes()).getUnparsedGenotypeData();
+		return new VariantContextBuilder(vc)
+			.genotypesNoValidation(new LazyGenotypesContext(new ProjectedParser(projection, vc.getAlleles(), vc.getContig(), vc.getStart(), lineNo),
+				data, projection.columns.length))
+			.make();
+	}
+
+	/**
+	 * Parser for the projected genotypes of a record
+	 */
+	private static final class ProjectedParser implements LazyGenotypesContext.LazyParser {
+
+		private final Projection projection;
+
+		private final List<Allele> alleles;
+
+		private final String contig;
+
+		private final int start;
+
+		private final int lineNo;
+
+		private ProjectedParser(final Projection projection, final List<Allele> alleles, final String contig, final int start, final int lineNo) {
+			this.projection = projection;
+			this.alleles = alleles;
+			this.contig = contig;
+			this.start = start;
+			this.lineNo = lineNo;
+		}
+
+		@Override
+		public LazyGenotypesContext.LazyData parse(final Object data) {
+			final Decoder decoder = projection.decoders.get();
+			return decoder.codec.createGenotypeMap(decoder.project((String) data, projection.columns, lineNo), alleles, contig, start);
+		}
+	}
+
+	/**
+	 * Projection of the genotype columns for the samples requested
+	 */
+	private static final class Projection {
+
+		// sorted index of the columns to keep, after FORMAT; null if all of them should be kept
+		private final int[] columns;
+
+		// codec and buffer for each thread parsing genotypes, because the codec keeps parsing state
+		private final ThreadLocal<Decoder> decoders;
+
+		private Projection(final VCFHeader fullHeader, final VCFHeaderVersion version, final Collection<String> samples) {
+			if (samples == null || samples.containsAll(fullHeader.getGenotypeSamples())) {
+				this.columns = null;
+				this.decoders = null;
+			} else {
+				final Set<String> selected = new HashSet<>(samples);
+				final List<String> headerSamples = fullHeader.getGenotypeSamples();
+				final List<String> projectedSamples = new ArrayList<>(selected.size());
+				final int[] ordinals = new int[selected.size()];
+				for (int i = 0; i < headerSamples.size(); i++) {
+					if (selected.contains(headerSamples.get(i))) {
+						ordinals[projectedSamples.size()] = i;
+						projectedSamples.add(headerSamples.get(i));
+					}
+				}
+				final VCFHeader projectedHeader = new VCFHeader(fullHeader.getMetaDataInInputOrder(), projectedSamples);
+				this.columns = Arrays.copyOf(ordinals, projectedSamples.size());
+				this.decoders = ThreadLocal.withInitial(() -> new Decoder(projectedHeader, version));
+			}
+		}
+	}
+
+	/**
+	 * Codec with the projected header and buffer for the columns of a single thread
+	 */
+	private static final class Decoder {
+
+		private final VCFCodec codec = new VCFCodec();
+
+		private final StringBuilder builder = new StringBuilder();
+
+		private Decoder(final VCFHeader projectedHeader, final VCFHeaderVersion version) {
+			codec.setVCFHeader(projectedHeader, version);
+		}
+
+		/**
+		 * Get the FORMAT and the sample columns to keep
+		 *
+		 * @param str     the FORMAT and sample columns of the line
+		 * @param columns the sorted index of the columns to keep
+		 * @param lineNo  the line number, for errors
+		 * @return the projected columns
+		 */
+		private String project(final String str, final int[] columns, final int lineNo) {
+			builder.setLength(0);
+			// the FORMAT column
+			final int formatEnd = str.indexOf('\t');
+			builder.append(str, 0, (formatEnd == -1) ? str.length() : formatEnd);
+			int column = 0;
+			int start = 0;
+			for (final int ordinal : columns) {
+				// the column for the sample is after the FORMAT
+				while (column <= ordinal) {
+					start = str.indexOf('\t', start) + 1;
+					if (start == 0) {
+						generateException("the number of genotype columns is smaller than the number of samples in the header", lineNo);
+					}
+					column++;
+				}
+				final int end = str.indexOf('\t', start);
+				builder.append('\t').append(str, start, (end == -1) ? str.length() : end);
+			}
+			return builder.toString();
+		}
+	}
+}
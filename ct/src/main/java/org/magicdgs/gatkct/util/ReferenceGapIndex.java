@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Index of the runs of N in a reference FASTA file, stored as a BED file next to the FASTA index (.fai) and re-used
+ * while it is newer than the FASTA file. The BED file could be used to exclude the gaps of the reference from the
+ * traversal (-XL).
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class ReferenceGapIndex {
+
+	/**
+	 * Extension of the index, after the FASTA file name
+	 */
+	public static final String EXTENSION = ".nruns.bed";
+
+	private static final String HEADER_PREFIX = "#GATKCT N-runs min_length=";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Get the index file for a FASTA file
+	 *
+	 * @param fasta the reference FASTA file
+	 *
+	 * @return the sidecar file
+	 */
+	public static File getIndexFile(final File fasta) {
+		return new File(fasta.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Get the index of N-runs for the FASTA file, creating it if it does not exist, it is older than the FASTA or it
+	 * was created with other minimum length
+	 *
+	 * @param fasta     the reference FASTA file
+	 * @param minLength the minimum length of the N-runs to include
+	 *
+	 * @return the BED file with the N-runs
+	 */
+	public static File getOrCreate(final File fasta, final int minLength) {
+		if (minLength < 1) {
+			throw new UserException.BadArgumentValue("minLength", "should be a positive integer");
+		}
+		if (!fasta.exists()) {
+			throw new UserException.CouldNotReadInputFile(fasta, "does not exist");
+		}
+		final File index = getIndexFile(fasta);
+		if (!isUpToDate(index, fasta, minLength)) {
+			create(fasta, index, minLength);
+		}
+		return index;
+	}
+
+	private static boolean isUpToDate(final File index, final File fasta, final int minLength) {
+		if (!index.exists() || index.lastModified() < fasta.lastModified()) {
+			return false;
+		}
+		try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+			return (HEADER_PREFIX + minLength).equals(reader.readLine());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Scan the FASTA file and write the N-runs, renaming the file at the end so concurrent jobs always see a complete
+	 * index
+	 */
+	private static void create(final File fasta, final File index, final int minLength) {
+		final File temp = new File(index.getPath() + ".tmp" + System.nanoTime());
+		try (InputStream in = new FileInputStream(fasta);
+			Writer out = new BufferedWriter(new FileWriter(temp))) {
+			out.write(HEADER_PREFIX + minLength);
+			out.write('\n');
+			writeRuns(in, out, minLength);
+		} catch (IOException e) {
+			temp.delete();
+			throw new UserException.CouldNotCreateOutputFile(index, e);
+		}
+		try {
+			Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temp.delete();
+			throw new UserException.CouldNotCreateOutputFile(index, e);
+		}
+	}
+
+	private static void writeRuns(final InputStream in, final Writer out, final int minLength) throws IOException {
+		final StringBuilder name = new StringBuilder();
+		String contig = null;
+		boolean inName = false;
+		// 0-based position in the contig and start of the current run (-1 if not in a run)
+		long position = 0;
+		long runStart = -1;
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				final byte b = buffer[i];
+				if (inName) {
+					if (b == '\n') {
+						contig = name.toString().trim().split("\\s+", 2)[0];
+						inName = false;
+					} else {
+						name.append((char) b);
+					}
+				} else if (b == '>') {
+					writeRun(out, contig, runStart, position, minLength);
+					runStart = -1;
+					position = 0;
+					name.setLength(0);
+					inName = true;
+				} else if (b == 'N' || b == 'n') {
+					if (runStart == -1) {
+						runStart = position;
+					}
+					position++;
+				} else if (b > ' ') {
+					writeRun(out, contig, runStart, position, minLength);
+					runStart = -1;
+					position++;
+				}
+			}
+		}
+		writeRun(out, contig, runStart, position, minLength);
+	}
+
+	private static void writeRun(final Writer out, final String contig, final long start, final long end,
+		final int minLength) throws IOException {
+		if (start != -1 && end - start >= minLength) {
+			if (contig == null) {
+				throw new UserException.MalformedFile("Sequence found before the first FASTA header");
+			}
+			out.write(contig);
+			out.write('\t');
+			out.write(Long.toString(start));
+			out.write('\t');
+			out.write(Long.toString(end));
+			out.write('\n');
+		}
+	}
+}
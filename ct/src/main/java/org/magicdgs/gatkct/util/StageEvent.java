@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a call of an instrumented walker stage. This class is only loaded by {@link MetricsArgumentCollection}
+ * if the JVM provides the jdk.jfr API (OpenJDK 8u262 and later), so the events are only referenced as objects there
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+@Name("org.magicdgs.gatkct.Stage")
+@Label("GATKCT Stage")
+@Description("Call of an instrumented GATKCT walker stage")
+@Category("GATKCT")
+@StackTrace(false)
+public final class StageEvent extends Event {
+
+	@Label("Stage")
+	private String stage;
+
+	@Label("Allocated")
+	@DataAmount
+	private long allocated;
+
+	/**
+	 * Start timing a stage
+	 *
+	 * @return the event to pass to {@link #stop(Object, String, long)}
+	 */
+	static Object start() {
+		final StageEvent event = new StageEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commit an event started with {@link #start()}, if the event is enabled in a running recording
+	 *
+	 * @param event     the event
+	 * @param stage     the name of the stage
+	 * @param allocated the bytes allocated in the stage; -1 if they are not recorded
+	 */
+	static void stop(final Object event, final String stage, final long allocated) {
+		final StageEvent stageEvent = (StageEvent) event;
+		stageEvent.end();
+		if (stageEvent.shouldCommit()) {
+			stageEvent.stage = stage;
+			stageEvent.allocated = allocated;
+			stageEvent.commit();
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.gather;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Tests for the layout of the shards and the translation of their virtual file pointers
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class ShardLayoutTest {
+
+	private static final String HEADER = "##fileformat=VCFv4.2\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n";
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static String records(final int start, final int number) {
+		final StringBuilder records = new StringBuilder();
+		for (int position = start; position < start + number; position++) {
+			records.append("chr1\t").append(position).append("\t.\tA\tC\t.\tPASS\t.\n");
+		}
+		return records.toString();
+	}
+
+	/**
+	 * Write a shard with the encoder, flushing the block after the header if requested
+	 */
+	private File writeShard(final String name, final String records, final boolean flushHeader) throws IOException {
+		final File shard = temporaryFolder.newFile(name);
+		try (BlockCompressedOutputStream stream = new BlockCompressedOutputStream(shard)) {
+			stream.write(HEADER.getBytes(StandardCharsets.UTF_8));
+			if (flushHeader) {
+				stream.flush();
+			}
+			stream.write(records.getBytes(StandardCharsets.UTF_8));
+		}
+		return shard;
+	}
+
+	/**
+	 * Write a BGZF block without limiting the uncompressed size to 64 KiB, as other encoders could do
+	 *
+	 * @return the size of the compressed block
+	 */
+	private static int writeBlock(final OutputStream stream, final byte[] data) throws IOException {
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data);
+		deflater.finish();
+		final byte[] compressed = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+		final int compressedSize = deflater.deflate(compressed);
+		Assert.assertTrue("block should be compressible", deflater.finished());
+		final CRC32 crc = new CRC32();
+		crc.update(data);
+		final int blockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + compressedSize + 8;
+		final ByteBuffer block = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN)
+			.put(BlockCompressedStreamConstants.GZIP_ID1).put((byte) BlockCompressedStreamConstants.GZIP_ID2)
+			.put(BlockCompressedStreamConstants.GZIP_CM_DEFLATE).put((byte) BlockCompressedStreamConstants.GZIP_FLG)
+			.putInt(0).put((byte) BlockCompressedStreamConstants.GZIP_XFL).put((byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN)
+			.putShort(BlockCompressedStreamConstants.GZIP_XLEN)
+			.put(BlockCompressedStreamConstants.BGZF_ID1).put(BlockCompressedStreamConstants.BGZF_ID2)
+			.putShort(BlockCompressedStreamConstants.BGZF_LEN).putShort((short) (blockSize - 1))
+			.put(compressed, 0, compressedSize).putInt((int) crc.getValue()).putInt(data.length);
+		stream.write(block.array());
+		return blockSize;
+	}
+
+	private static long pointer(final long address, final int offset) {
+		return (address << 16) | offset;
+	}
+
+	@Test
+	public void testRecordsStartingInBlockBoundary() throws Exception {
+		final File file = writeShard("boundary.vcf.gz", records(1, 10), true);
+		final ShardLayout shard = ShardLayout.read(file);
+		final long dataAddress = BlockCompressedFilePointerUtil.getBlockAddress(shard.getDataStart());
+		Assert.assertEquals(0, BlockCompressedFilePointerUtil.getBlockOffset(shard.getDataStart()));
+		Assert.assertTrue(dataAddress > 0);
+		Assert.assertEquals(0, shard.getBoundaryLength());
+		Assert.assertEquals(dataAddress, shard.getRawStart());
+		Assert.assertEquals(file.length() - BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length, shard.getRawEnd());
+		Assert.assertEquals(2, shard.getHeaderLines().size());
+		shard.setGatheredAddresses(new long[0], 1000);
+		// the records are copied as they are
+		Assert.assertEquals(pointer(1000, 0), shard.mapPointer(shard.getDataStart()));
+		Assert.assertEquals(pointer(1000, 33), shard.mapPointer(pointer(dataAddress, 33)));
+		// pointers in the header go to the first record
+		Assert.assertEquals(pointer(1000, 0), shard.mapPointer(pointer(0, 10)));
+	}
+
+	@Test
+	public void testRecordsInsideBlock() throws Exception {
+		final File file = writeShard("inside.vcf.gz", records(1, 10), false);
+		final ShardLayout shard = ShardLayout.read(file);
+		final int dataOffset = BlockCompressedFilePointerUtil.getBlockOffset(shard.getDataStart());
+		Assert.assertEquals(0, BlockCompressedFilePointerUtil.getBlockAddress(shard.getDataStart()));
+		Assert.assertEquals(HEADER.length(), dataOffset);
+		Assert.assertEquals(records(1, 10).length(), shard.getBoundaryLength());
+		// all the records are in the first block, so nothing is copied
+		Assert.assertEquals(shard.getRawEnd(), shard.getRawStart());
+		shard.setGatheredAddresses(new long[] {500}, 800);
+		Assert.assertEquals(pointer(500, 0), shard.mapPointer(shard.getDataStart()));
+		Assert.assertEquals(pointer(500, 66), shard.mapPointer(pointer(0, dataOffset + 66)));
+		Assert.assertEquals(pointer(500, 0), shard.mapPointer(pointer(0, 0)));
+		// the end of the boundary is the start of the copied region
+		Assert.assertEquals(pointer(800, 0), shard.mapPointer(pointer(0, dataOffset + shard.getBoundaryLength())));
+	}
+
+	@Test
+	public void testBoundaryBlockLargerThan64KiB() throws Exception {
+		final String firstRecords = records(1, 6000);
+		final File file = temporaryFolder.newFile("large.vcf.gz");
+		final int firstBlockSize;
+		try (OutputStream stream = new FileOutputStream(file)) {
+			firstBlockSize = writeBlock(stream, (HEADER + firstRecords).getBytes(StandardCharsets.UTF_8));
+			writeBlock(stream, records(6001, 10).getBytes(StandardCharsets.UTF_8));
+			stream.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+		}
+		final ShardLayout shard = ShardLayout.read(file);
+		Assert.assertEquals(pointer(0, HEADER.length()), shard.getDataStart());
+		Assert.assertTrue(shard.getBoundaryLength() > 2 * BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE);
+		Assert.assertEquals(firstRecords.length(), shard.getBoundaryLength());
+		Assert.assertEquals(firstBlockSize, shard.getRawStart());
+		// the boundary is re-encoded in three blocks
+		shard.setGatheredAddresses(new long[] {100, 200, 300}, 400);
+		Assert.assertEquals(pointer(100, 0), shard.mapPointer(shard.getDataStart()));
+		Assert.assertEquals(pointer(100, 1000), shard.mapPointer(pointer(0, HEADER.length() + 1000)));
+		Assert.assertEquals(pointer(400, 34), shard.mapPointer(pointer(firstBlockSize, 34)));
+	}
+
+	@Test
+	public void testGatherBoundaryBlockLargerThan64KiB() throws Exception {
+		final String firstRecords = records(1, 6000);
+		final File file = temporaryFolder.newFile("large.vcf.gz");
+		try (OutputStream stream = new FileOutputStream(file)) {
+			writeBlock(stream, (HEADER + firstRecords).getBytes(StandardCharsets.UTF_8));
+			writeBlock(stream, records(6001, 10).getBytes(StandardCharsets.UTF_8));
+			stream.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+		}
+		final GatherShards gather = new GatherShards();
+		gather.inputs.add(file);
+		gather.inputs.add(writeShard("next.vcf.gz", records(6011, 10), false));
+		gather.output = new File(temporaryFolder.getRoot(), "gathered.vcf.gz");
+		Assert.assertEquals(0, gather.execute());
+		final StringBuilder gathered = new StringBuilder();
+		try (BlockCompressedInputStream stream = new BlockCompressedInputStream(gather.output)) {
+			String line;
+			while ((line = stream.readLine()) != null) {
+				gathered.append(line).append('\n');
+			}
+		}
+		Assert.assertEquals(HEADER + records(1, 6020), gathered.toString());
+	}
+
+	@Test
+	public void testShardWithoutRecords() throws Exception {
+		final File file = writeShard("empty.vcf.gz", "", false);
+		final ShardLayout shard = ShardLayout.read(file);
+		Assert.assertEquals(2, shard.getHeaderLines().size());
+		Assert.assertEquals(0, shard.getBoundaryLength());
+		Assert.assertEquals(shard.getRawEnd(), shard.getRawStart());
+		shard.setGatheredAddresses(new long[0], 700);
+		Assert.assertEquals(pointer(700, 0), shard.mapPointer(shard.getDataStart()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testMapPointerBeforeGathering() throws Exception {
+		ShardLayout.read(writeShard("shard.vcf.gz", records(1, 10), false)).mapPointer(0);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.gather;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.readers.TabixReader;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the merge of the tabix indexes of gathered shards, querying the gathered file with the merged index
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class TabixIndexMergerTest {
+
+	private static final String HEADER = "##fileformat=VCFv4.2\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n";
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	// all the records written in the shards, in order
+	private final List<String> records = new ArrayList<>();
+
+	private List<String> records(final String contig, final int start, final int number) {
+		final List<String> lines = new ArrayList<>(number);
+		for (int position = start; position < start + number; position++) {
+			lines.add(contig + "\t" + position + "\t.\tA\tC\t.\tPASS\t.");
+		}
+		records.addAll(lines);
+		return lines;
+	}
+
+	/**
+	 * Write a shard and its tabix index, flushing the block after the header if requested
+	 */
+	private File writeShard(final String name, final List<String> lines, final boolean flushHeader) throws IOException {
+		final File shard = temporaryFolder.newFile(name);
+		final TabixIndexCreator indexCreator = new TabixIndexCreator(TabixFormat.VCF);
+		try (BlockCompressedOutputStream stream = new BlockCompressedOutputStream(shard)) {
+			stream.write(HEADER.getBytes(StandardCharsets.UTF_8));
+			if (flushHeader) {
+				stream.flush();
+			}
+			for (final String line : lines) {
+				final String[] fields = line.split("\t");
+				final int position = Integer.parseInt(fields[1]);
+				indexCreator.addFeature(new SimpleFeature(fields[0], position, position), stream.getFilePointer());
+				stream.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+			stream.flush();
+			indexCreator.finalizeIndex(stream.getFilePointer()).writeBasedOnFeatureFile(shard);
+		}
+		return shard;
+	}
+
+	private File gather(final File... shards) throws Exception {
+		final GatherShards gather = new GatherShards();
+		gather.inputs.addAll(Arrays.asList(shards));
+		gather.output = new File(temporaryFolder.getRoot(), "gathered.vcf.gz");
+		Assert.assertEquals(0, gather.execute());
+		return gather.output;
+	}
+
+	private static List<String> query(final TabixReader reader, final String contig, final int start, final int end)
+		throws IOException {
+		final List<String> lines = new ArrayList<>();
+		final TabixReader.Iterator iterator = reader.query(contig, start - 1, end);
+		String line;
+		while (iterator != null && (line = iterator.next()) != null) {
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	private List<String> expected(final String contig, final int start, final int end) {
+		final List<String> lines = new ArrayList<>();
+		for (final String line : records) {
+			final String[] fields = line.split("\t");
+			final int position = Integer.parseInt(fields[1]);
+			if (fields[0].equals(contig) && position >= start && position <= end) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	@Test
+	public void testQueryMergedIndex() throws Exception {
+		// records in several blocks, starting in the header block
+		final File first = writeShard("first.vcf.gz", records("chr1", 1, 5000), false);
+		final File empty = writeShard("empty.vcf.gz", records("chr1", 5001, 0), false);
+		// records starting in a block boundary and a reference shared with the previous shard
+		final List<String> last = records("chr1", 5001, 500);
+		last.addAll(records("chr2", 1, 3000));
+		final File output = gather(first, empty, writeShard("last.vcf.gz", last, true));
+		final File index = Tribble.tabixIndexFile(output);
+		Assert.assertTrue(index.exists());
+		Assert.assertEquals(Arrays.asList("chr1", "chr2"), new TabixIndex(index).getSequenceNames());
+		final TabixReader reader = new TabixReader(output.getPath());
+		try {
+			for (final Object[] region : new Object[][] {{"chr1", 1, 10}, {"chr1", 2990, 3010}, {"chr1", 4990, 5010},
+				{"chr1", 5400, 6000}, {"chr1", 1, 10000}, {"chr2", 1, 5}, {"chr2", 2500, 4000}, {"chr3", 1, 100}}) {
+				final String contig = (String) region[0];
+				final int start = (Integer) region[1];
+				final int end = (Integer) region[2];
+				Assert.assertEquals(contig + ":" + start + "-" + end, expected(contig, start, end), query(reader, contig, start, end));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testMissingShardIndex() throws Exception {
+		final File first = writeShard("first.vcf.gz", records("chr1", 1, 10), false);
+		final File second = writeShard("second.vcf.gz", records("chr1", 11, 10), false);
+		Assert.assertTrue(Tribble.tabixIndexFile(second).delete());
+		final File output = gather(first, second);
+		Assert.assertFalse(Tribble.tabixIndexFile(output).exists());
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.masking;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the accuracy and merge of the depth quantile sketch
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class DepthQuantileSketchTest {
+
+	private static final double[] QUANTILES = {0, 0.01, 0.05, 0.25, 0.5, 0.75, 0.95, 0.99, 1};
+
+	private static int exactQuantile(final int[] sorted, final double quantile) {
+		return sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+	}
+
+	@Test
+	public void testExactDepths() {
+		final DepthQuantileSketch sketch = new DepthQuantileSketch();
+		for (int depth = DepthQuantileSketch.EXACT_DEPTHS - 1; depth >= 0; depth--) {
+			sketch.add(depth);
+		}
+		Assert.assertEquals(DepthQuantileSketch.EXACT_DEPTHS, sketch.size());
+		Assert.assertEquals(0, sketch.quantile(0));
+		Assert.assertEquals(127, sketch.quantile(0.5));
+		Assert.assertEquals(DepthQuantileSketch.EXACT_DEPTHS - 1, sketch.quantile(1));
+	}
+
+	@Test
+	public void testRelativeAccuracy() {
+		final Random random = new Random(17);
+		final int[] depths = new int[100000];
+		final DepthQuantileSketch sketch = new DepthQuantileSketch();
+		for (int i = 0; i < depths.length; i++) {
+			// log-normal around 30x with a long tail
+			depths[i] = (int) Math.round(Math.exp(Math.log(30) + random.nextGaussian()));
+			sketch.add(depths[i]);
+		}
+		Arrays.sort(depths);
+		for (final double quantile : QUANTILES) {
+			final int expected = exactQuantile(depths, quantile);
+			final int actual = sketch.quantile(quantile);
+			if (expected < DepthQuantileSketch.EXACT_DEPTHS) {
+				Assert.assertEquals("quantile " + quantile, expected, actual);
+			} else {
+				Assert.assertEquals("quantile " + quantile, expected, actual, expected * DepthQuantileSketch.RELATIVE_ACCURACY + 1);
+			}
+		}
+	}
+
+	@Test
+	public void testMerge() {
+		final Random random = new Random(3);
+		final DepthQuantileSketch all = new DepthQuantileSketch();
+		final DepthQuantileSketch low = new DepthQuantileSketch();
+		final DepthQuantileSketch high = new DepthQuantileSketch();
+		for (int i = 0; i < 10000; i++) {
+			final int lowDepth = random.nextInt(50);
+			final int highDepth = 200 + random.nextInt(5000);
+			low.add(lowDepth);
+			high.add(highDepth);
+			all.add(lowDepth);
+			all.add(highDepth);
+		}
+		// the sketch with more buckets is merged into the smaller one
+		final DepthQuantileSketch merged = low.merge(high);
+		Assert.assertEquals(all.size(), merged.size());
+		for (final double quantile : QUANTILES) {
+			Assert.assertEquals("quantile " + quantile, all.quantile(quantile), merged.quantile(quantile));
+		}
+		// merging an empty sketch does not change the quantiles
+		final int median = merged.quantile(0.5);
+		Assert.assertEquals(median, merged.merge(new DepthQuantileSketch()).quantile(0.5));
+		Assert.assertEquals(median, new DepthQuantileSketch().merge(merged).quantile(0.5));
+	}
+
+	@Test
+	public void testMissingDepths() {
+		final DepthQuantileSketch sketch = new DepthQuantileSketch();
+		Assert.assertEquals(-1, sketch.quantile(0.5));
+		sketch.add(-1);
+		Assert.assertEquals(0, sketch.size());
+		sketch.add(10);
+		Assert.assertEquals(1, sketch.size());
+		Assert.assertEquals(10, sketch.quantile(0));
+		Assert.assertEquals(10, sketch.quantile(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidQuantile() {
+		new DepthQuantileSketch().quantile(1.5);
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.tools.masking;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the encoding of the masking metrics in the checkpoints
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class MaskingMetricsTest {
+
+	private static final List<String> SAMPLES = Arrays.asList("S1", "S2", "S3");
+
+	private static final List<String> INPUTS = Arrays.asList("a.vcf", "a.vcf", "b.vcf");
+
+	@Test
+	public void testEncodeDecode() {
+		final String encoded = "120;1,2,3;4,5,6;0,0,7";
+		final MaskingMetrics metrics = new MaskingMetrics(SAMPLES, INPUTS).decode(encoded);
+		Assert.assertEquals(120, metrics.getRecords());
+		Assert.assertEquals(5, metrics.getMasked(0));
+		Assert.assertEquals(9, metrics.getMasked(2));
+		Assert.assertEquals(encoded, metrics.encode());
+		// the decoded metrics continue the counts
+		Assert.assertEquals("240;2,4,6;8,10,12;0,0,14", metrics.merge(new MaskingMetrics(SAMPLES, INPUTS).decode(encoded)).encode());
+	}
+
+	@Test
+	public void testEncodeDecodeWithoutSamples() {
+		final List<String> none = Collections.emptyList();
+		final String encoded = new MaskingMetrics(none, none).encode();
+		Assert.assertEquals(0, new MaskingMetrics(none, none).decode(encoded).getRecords());
+		Assert.assertEquals("7;;;", new MaskingMetrics(none, none).decode("7;;;").encode());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeOtherSamples() {
+		new MaskingMetrics(SAMPLES, INPUTS).decode("120;1,2;4,5;0,0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeWrongState() {
+		new MaskingMetrics(SAMPLES, INPUTS).decode("120");
+	}
+}
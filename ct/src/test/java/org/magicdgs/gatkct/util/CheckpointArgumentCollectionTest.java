@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Daniel Gómez-Sánchez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.magicdgs.gatkct.util;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for writing and reading the checkpoint journal
+ *
+ * @author Daniel Gómez-Sánchez
+ */
+public class CheckpointArgumentCollectionTest {
+
+	private static final SAMSequenceDictionary DICTIONARY = new SAMSequenceDictionary(Arrays.asList(
+		new SAMSequenceRecord("chr1", 1000), new SAMSequenceRecord("chr2", 1000), new SAMSequenceRecord("chr3", 1000)));
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private CheckpointArgumentCollection startJournal() {
+		final CheckpointArgumentCollection arguments = new CheckpointArgumentCollection();
+		arguments.checkpointJournal = new File(temporaryFolder.getRoot(), "journal.txt");
+		arguments.writeJournal(CheckpointArgumentCollection.JOURNAL_HEADER + "\n", false);
+		return arguments;
+	}
+
+	@Test
+	public void testCheckpointLine() {
+		Assert.assertEquals("100\t5\tchr1:1-20\n", CheckpointArgumentCollection.checkpointLine(100, "5", DICTIONARY, "chr1", 20));
+		Assert.assertEquals("2048\t1;2,3\tchr1\tchr2\tchr3:1-7\n",
+			CheckpointArgumentCollection.checkpointLine(2048, "1;2,3", DICTIONARY, "chr3", 7));
+	}
+
+	@Test
+	public void testJournalRoundTrip() {
+		final CheckpointArgumentCollection arguments = startJournal();
+		arguments.writeJournal(CheckpointArgumentCollection.checkpointLine(100, "5", DICTIONARY, "chr1", 20), true);
+		arguments.writeJournal(CheckpointArgumentCollection.checkpointLine(4096, "12;0,1;2,3;4,5", DICTIONARY, "chr2", 300), true);
+		final String[] last = CheckpointArgumentCollection.readLastCheckpoint(arguments.checkpointJournal);
+		Assert.assertEquals(Arrays.asList("4096", "12;0,1;2,3;4,5", "chr1", "chr2:1-300"), Arrays.asList(last));
+		Assert.assertEquals(Arrays.asList("chr1", "chr2:1-300"),
+			CheckpointArgumentCollection.getTraversedIntervals(arguments.checkpointJournal));
+	}
+
+	@Test
+	public void testIncompleteLastCheckpoint() {
+		final CheckpointArgumentCollection arguments = startJournal();
+		arguments.writeJournal(CheckpointArgumentCollection.checkpointLine(100, "5", DICTIONARY, "chr1", 20), true);
+		// killed while writing the next checkpoint
+		final String next = CheckpointArgumentCollection.checkpointLine(200, "8", DICTIONARY, "chr1", 40);
+		arguments.writeJournal(next.substring(0, next.length() - 1), true);
+		Assert.assertEquals("100", CheckpointArgumentCollection.readLastCheckpoint(arguments.checkpointJournal)[0]);
+		Assert.assertEquals(Collections.singletonList("chr1:1-20"),
+			CheckpointArgumentCollection.getTraversedIntervals(arguments.checkpointJournal));
+	}
+
+	@Test
+	public void testJournalWithoutCheckpoints() {
+		final CheckpointArgumentCollection arguments = startJournal();
+		Assert.assertNull(CheckpointArgumentCollection.readLastCheckpoint(arguments.checkpointJournal));
+		Assert.assertTrue(CheckpointArgumentCollection.getTraversedIntervals(arguments.checkpointJournal).isEmpty());
+		Assert.assertTrue(CheckpointArgumentCollection.getTraversedIntervals(new File(temporaryFolder.getRoot(), "missing.txt")).isEmpty());
+	}
+
+	@Test(expected = UserException.MalformedFile.class)
+	public void testNotAJournal() throws Exception {
+		final File file = temporaryFolder.newFile("other.txt");
+		Files.write(file.toPath(), "100\t5\tchr1:1-20\n".getBytes(StandardCharsets.UTF_8));
+		CheckpointArgumentCollection.readLastCheckpoint(file);
+	}
+}